@@ -18,10 +18,16 @@ package com.android.compatibility.common.tradefed.command;
 import com.android.compatibility.SuiteInfo;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
+import com.android.compatibility.common.tradefed.result.ResultReporter;
 import com.android.compatibility.common.tradefed.result.SubPlanHelper;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo;
+import com.android.compatibility.common.util.AbiUtils;
 import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.ResultDiff;
 import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultHistory;
+import com.android.compatibility.common.util.SessionMerger;
+import com.android.compatibility.common.util.ShardPlanner;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.tradefed.command.Console;
 import com.android.tradefed.config.ArgsOptionParser;
@@ -34,18 +40,19 @@ import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.testtype.IRuntimeHintProvider;
 import com.android.tradefed.util.ArrayUtil;
 import com.android.tradefed.util.FileUtil;
-import com.android.tradefed.util.Pair;
 import com.android.tradefed.util.RegexTrie;
 import com.android.tradefed.util.TableFormatter;
 import com.android.tradefed.util.TimeUtil;
 
+import org.xmlpull.v1.XmlPullParserException;
+
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -131,6 +138,30 @@ public class CompatibilityConsole extends Console {
                 addSubPlan(flatArgs);
             }
         }, "a(?:dd)?", "s(?:ubplan)?", null);
+        trie.put(new ArgRunnable<CaptureList>() {
+            @Override
+            public void run(CaptureList args) {
+                // Skip 2 tokens to get past "diff" and "results"
+                int baseline = Integer.parseInt(args.get(2).get(0));
+                int candidate = Integer.parseInt(args.get(3).get(0));
+                diffResults(baseline, candidate);
+            }
+        }, "diff", "r(?:esults)?", "(\\d+)", "(\\d+)");
+        trie.put(new ArgRunnable<CaptureList>() {
+            @Override
+            public void run(CaptureList args) {
+                // Skip 2 tokens to get past "merge" and "results"
+                List<Integer> sessions = new ArrayList<>();
+                for (int i = 2; i < args.size(); i++) {
+                    sessions.add(Integer.parseInt(args.get(i).get(0)));
+                }
+                if (sessions.size() < 2) {
+                    printLine("at least 2 sessions are needed to merge results");
+                    return;
+                }
+                mergeResults(sessions);
+            }
+        }, "merge", "r(?:esults)?", null);
         trie.put(new Runnable() {
             @Override
             public void run() {
@@ -208,6 +239,13 @@ public class CompatibilityConsole extends Console {
         helpBuilder.append("  l/list c/commands: list commands aka test run commands currently");
         helpBuilder.append(" in the queue waiting to be allocated devices\n");
         helpBuilder.append("  l/list r/results: list results currently in the repository\n");
+        helpBuilder.append("Diff:\n");
+        helpBuilder.append("  diff r/results <baseline_session_id> <candidate_session_id>: list ");
+        helpBuilder.append("the tests whose result changed between two sessions\n");
+        helpBuilder.append("Merge:\n");
+        helpBuilder.append("  merge r/results <session_id> <session_id>...: merge the results of ");
+        helpBuilder.append("several sessions, eg. of a plan split over several hosts, into a new ");
+        helpBuilder.append("session\n");
         helpBuilder.append("Dump:\n");
         helpBuilder.append("  d/dump l/logs: dump the tradefed logs for all running invocations\n");
         helpBuilder.append("Add:\n");
@@ -259,7 +297,8 @@ public class CompatibilityConsole extends Console {
         // parse through all config files to get runtime hints
         if (files != null && files.length > 0) {
             IConfigurationFactory configFactory = ConfigurationFactory.getInstance();
-            List<Pair<String, Long>> moduleRuntime = new ArrayList<>();
+            ResultHistory history = loadRuntimes();
+            ShardPlanner<String> planner = new ShardPlanner<>(shards);
             // parse through all config files to calculate module execution time
             for (File file : files) {
                 IConfiguration config = null;
@@ -267,6 +306,11 @@ public class CompatibilityConsole extends Console {
                 if (MODULE_SPLIT_EXCLUSIONS.contains(moduleName)) {
                     continue;
                 }
+                // prefer the runtimes measured in past sessions to the runtime hints, planning
+                // each ABI of the module on its own as they are measured
+                if (addMeasuredRuntimes(planner, history, moduleName)) {
+                    continue;
+                }
                 try {
                     config = configFactory.createConfigurationFromArgs(new String[]{
                             file.getAbsolutePath(),
@@ -286,53 +330,23 @@ public class CompatibilityConsole extends Console {
                         runtime += 60 * 1000;
                     }
                 }
-                moduleRuntime.add(new Pair<String, Long>(moduleName, runtime));
-            }
-            // sort list modules in descending order of runtime hint
-            Collections.sort(moduleRuntime, new Comparator<Pair<String, Long>>() {
-                @Override
-                public int compare(Pair<String, Long> o1, Pair<String, Long> o2) {
-                    return o2.second.compareTo(o1.second);
-                }
-            });
-            // partition list of modules based on the runtime hint
-            List<List<Pair<String, Long>>> splittedModules = new ArrayList<>();
-            for (int i = 0; i < shards; i++) {
-                splittedModules.add(new ArrayList<>());
+                planner.add(moduleName, runtime, null);
             }
-            int shardIndex = 0;
-            int increment = 1;
-            long[] shardTimes = new long[shards];
-            // go through the sorted list, distribute modules into shards in zig-zag pattern to get
-            // an even execution time among shards
-            for (Pair<String, Long> module : moduleRuntime) {
-                splittedModules.get(shardIndex).add(module);
-                // also collect total runtime per shard
-                shardTimes[shardIndex] += module.second;
-                shardIndex += increment;
-                // zig-zagging: first distribute modules from shard 0 to N, then N down to 0, repeat
-                if (shardIndex == shards) {
-                    increment = -1;
-                    shardIndex = shards - 1;
-                }
-                if (shardIndex == -1) {
-                    increment = 1;
-                    shardIndex = 0;
-                }
-            }
-            shardIndex = 0;
+            // plan the shards to get an even execution time among shards
+            ShardPlanner.Plan<String> plan = planner.plan();
             // print the final shared lists
-            for (List<Pair<String, Long>> shardedModules : splittedModules) {
+            for (int shardIndex = 0; shardIndex < shards; shardIndex++) {
                 StringBuilder lineBuffer = new StringBuilder();
                 lineBuffer.append(String.format("shard #%d (%s):",
-                        shardIndex, TimeUtil.formatElapsedTime(shardTimes[shardIndex])));
-                Iterator<Pair<String, Long>> itr = shardedModules.iterator();
-                lineBuffer.append(itr.next().first);
+                        shardIndex, TimeUtil.formatElapsedTime(plan.getFinishTime(shardIndex))));
+                Iterator<String> itr = plan.getModules(shardIndex).iterator();
+                if (itr.hasNext()) {
+                    lineBuffer.append(itr.next());
+                }
                 while (itr.hasNext()) {
                     lineBuffer.append(',');
-                    lineBuffer.append(itr.next().first);
+                    lineBuffer.append(itr.next());
                 }
-                shardIndex++;
                 printLine(lineBuffer.toString());
             }
         } else {
@@ -340,6 +354,41 @@ public class CompatibilityConsole extends Console {
         }
     }
 
+    /**
+     * @return the runtimes of the modules in past sessions, or null if they cannot be loaded.
+     */
+    private ResultHistory loadRuntimes() {
+        try {
+            return ResultHistory.loadRuntimes(getBuildHelper().getResultsDir());
+        } catch (IOException e) {
+            CLog.w("Could not load the history of the results, using runtime hints: %s",
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Adds the module id of each ABI the module ran for in past sessions to the planner, with
+     * its median runtime.
+     *
+     * @return true if the module ran for any ABI.
+     */
+    private static boolean addMeasuredRuntimes(ShardPlanner<String> planner,
+            ResultHistory history, String moduleName) {
+        boolean added = false;
+        if (history != null) {
+            for (String abi : AbiUtils.getAbisSupportedByCompatibility()) {
+                String moduleId = AbiUtils.createId(abi, moduleName);
+                long runtime = history.getRuntime(moduleId, 50);
+                if (runtime >= 0) {
+                    planner.add(moduleId, runtime, null);
+                    added = true;
+                }
+            }
+        }
+        return added;
+    }
+
     private void listResults() {
         TableFormatter tableFormatter = new TableFormatter();
         List<List<String>> table = new ArrayList<>();
@@ -387,6 +436,59 @@ public class CompatibilityConsole extends Console {
         }
     }
 
+    private void diffResults(int baselineSession, int candidateSession) {
+        final PrintWriter writer = new PrintWriter(System.out, false);
+        ResultDiff.Summary summary;
+        try {
+            File resultsDir = getBuildHelper().getResultsDir();
+            summary = ResultDiff.diff(
+                    ResultHandler.getResultDirectory(resultsDir, baselineSession),
+                    ResultHandler.getResultDirectory(resultsDir, candidateSession),
+                    new ResultDiff.Listener() {
+                        @Override
+                        public void onChange(ResultDiff.Change change, String moduleId,
+                                String testName, TestStatus baseline, TestStatus candidate) {
+                            writer.println(String.format("%s %s %s", change, moduleId,
+                                    testName));
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            writer.flush();
+            printLine(String.format("Could not compare sessions %d and %d: %s",
+                    baselineSession, candidateSession, e.getMessage()));
+            return;
+        }
+        writer.flush();
+        printLine(String.format("Modules: %d, unchanged: %d, regressions: %d, fixes: %d, "
+                + "new: %d, missing: %d", summary.getModuleCount(), summary.getUnchangedCount(),
+                summary.getCount(ResultDiff.Change.REGRESSION),
+                summary.getCount(ResultDiff.Change.FIX),
+                summary.getCount(ResultDiff.Change.NEW),
+                summary.getCount(ResultDiff.Change.MISSING)));
+    }
+
+    private void mergeResults(List<Integer> sessions) {
+        CompatibilityBuildHelper buildHelper = getBuildHelper();
+        try {
+            File resultsDir = buildHelper.getResultsDir();
+            List<File> resultDirs = new ArrayList<>();
+            for (int session : sessions) {
+                resultDirs.add(ResultHandler.getResultDirectory(resultsDir, session));
+            }
+            File mergedDir = new File(resultsDir,
+                    CompatibilityBuildHelper.getDirSuffix(System.currentTimeMillis()));
+            File resultFile = SessionMerger.mergeSessions(resultDirs, mergedDir,
+                    buildHelper.getSuiteName(), buildHelper.getSuiteVersion(),
+                    buildHelper.getSuiteBuild());
+            ResultReporter.copyFormattingFiles(mergedDir, buildHelper.getSuiteName());
+            printLine(String.format("Merged %d sessions into %s", sessions.size(),
+                    resultFile.getAbsolutePath()));
+        } catch (IOException | XmlPullParserException | RuntimeException e) {
+            printLine(String.format("Could not merge sessions %s: %s", sessions,
+                    e.getMessage()));
+        }
+    }
+
     private void listSubPlans() {
         File[] files = null;
         try {
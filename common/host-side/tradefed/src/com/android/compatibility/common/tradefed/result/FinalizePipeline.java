@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the stages of the finalization of a result as a dependency graph, each stage starting as
+ * soon as the stages it depends on are done, concurrently with the other stages.
+ * <p/>
+ * A stage is skipped if a stage it depends on fails. The time taken by each stage is recorded.
+ */
+class FinalizePipeline {
+
+    /** A stage of the pipeline. */
+    interface Stage {
+        void run() throws Exception;
+    }
+
+    private final Map<String, CompletableFuture<Void>> mStages = new LinkedHashMap<>();
+    private final Map<String, Long> mStageTimes =
+            Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private final List<String> mFailedStages = Collections.synchronizedList(new ArrayList<>());
+    private final CompletableFuture<Void> mStart = new CompletableFuture<>();
+    private final ExecutorService mExecutor;
+
+    /**
+     * @param threads the maximum number of stages run at the same time
+     */
+    FinalizePipeline(int threads) {
+        mExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Adds a stage to the pipeline.
+     *
+     * @param name the unique name of the stage
+     * @param stage the work of the stage
+     * @param dependencies the names of the stages, already added, that must be done before
+     * this stage starts
+     * @return the {@link FinalizePipeline} for easy chaining.
+     */
+    FinalizePipeline addStage(final String name, final Stage stage, String... dependencies) {
+        if (mStages.containsKey(name)) {
+            throw new IllegalArgumentException(String.format("Duplicate stage %s", name));
+        }
+        CompletableFuture<?>[] required = new CompletableFuture<?>[dependencies.length + 1];
+        required[0] = mStart;
+        for (int i = 0; i < dependencies.length; i++) {
+            required[i + 1] = mStages.get(dependencies[i]);
+            if (required[i + 1] == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Stage %s depends on unknown stage %s", name, dependencies[i]));
+            }
+        }
+        mStages.put(name, CompletableFuture.allOf(required).thenRunAsync(new Runnable() {
+            @Override
+            public void run() {
+                runStage(name, stage);
+            }
+        }, mExecutor));
+        return this;
+    }
+
+    /**
+     * Runs all the stages and waits for them to be done.
+     *
+     * @return true if all the stages succeeded
+     */
+    boolean run() {
+        mStart.complete(null);
+        boolean success = true;
+        try {
+            for (Map.Entry<String, CompletableFuture<Void>> stage : mStages.entrySet()) {
+                try {
+                    stage.getValue().join();
+                } catch (CompletionException e) {
+                    success = false;
+                    if (!mFailedStages.contains(stage.getKey())) {
+                        CLog.w("Skipped result finalization stage %s", stage.getKey());
+                    }
+                }
+            }
+        } finally {
+            mExecutor.shutdown();
+        }
+        return success;
+    }
+
+    /**
+     * @return the time in ms taken by each stage that was run, in the order they were done.
+     */
+    Map<String, Long> getStageTimes() {
+        synchronized (mStageTimes) {
+            return new LinkedHashMap<>(mStageTimes);
+        }
+    }
+
+    /**
+     * @return the names of the stages that failed.
+     */
+    List<String> getFailedStages() {
+        synchronized (mFailedStages) {
+            return new ArrayList<>(mFailedStages);
+        }
+    }
+
+    private void runStage(String name, Stage stage) {
+        long start = System.currentTimeMillis();
+        try {
+            stage.run();
+        } catch (Exception e) {
+            mFailedStages.add(name);
+            CLog.e("Result finalization stage %s failed", name);
+            CLog.e(e);
+            throw new CompletionException(e);
+        } finally {
+            mStageTimes.put(name, System.currentTimeMillis() - start);
+        }
+    }
+}
@@ -21,16 +21,21 @@ import com.android.compatibility.common.tradefed.result.TestRunHandler;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
 import com.android.compatibility.common.tradefed.util.RetryType;
 import com.android.compatibility.common.util.ChecksumReporter;
+import com.android.compatibility.common.util.ColumnarInvocationResult;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ITestResult;
 import com.android.compatibility.common.util.InvocationResult;
 import com.android.compatibility.common.util.MetricsStore;
+import com.android.compatibility.common.util.ModuleResultJournal;
 import com.android.compatibility.common.util.ReportLog;
+import com.android.compatibility.common.util.ResultCatalog;
 import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultHistory;
 import com.android.compatibility.common.util.ResultUploader;
 import com.android.compatibility.common.util.TestStatus;
+import com.android.compatibility.common.util.ZipUtil;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.build.IBuildInfo;
@@ -52,7 +57,6 @@ import com.android.tradefed.result.TestSummary;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.TimeUtil;
-import com.android.tradefed.util.ZipUtil;
 
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -67,6 +71,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
 
 /**
  * Collect test results for an entire invocation and output test results to disk.
@@ -80,9 +86,27 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     private static final String CTS_PREFIX = "cts:";
     private static final String BUILD_INFO = CTS_PREFIX + "build_";
 
+    // Stages of the finalization of the result
+    private static final int FINALIZE_THREADS = 4;
+    static final String STAGE_DYNAMIC_CONFIG = "dynamic-config";
+    static final String STAGE_FORMATTING = "formatting-files";
+    static final String STAGE_XML = "xml";
+    static final String STAGE_CHECKSUM = "checksum";
+    static final String STAGE_RETRY_FILES = "retry-files";
+    static final String STAGE_ZIP = "zip";
+    static final String STAGE_FAILURE_REPORT = "failure-report";
+    static final String STAGE_REPORT_RESULT = "report-result";
+    static final String STAGE_SAVE_LOG = "save-log";
+    static final String STAGE_UPLOAD = "upload";
+    static final String STAGE_HISTORY = "history";
+
     private static final List<String> NOT_RETRY_FILES = Arrays.asList(
             ChecksumReporter.NAME,
             ChecksumReporter.PREV_NAME,
+            ModuleResultJournal.NAME,
+            ResultHandler.CHECKPOINT_DIR_NAME,
+            ResultHandler.SNAPSHOT_FILE_NAME,
+            ResultCatalog.SUMMARY_FILE_NAME,
             ResultHandler.FAILURE_REPORT_NAME);
 
     @Option(name = CompatibilityTest.RETRY_OPTION,
@@ -110,6 +134,40 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     @Option(name = "use-log-saver", description = "Also saves generated result with log saver")
     private boolean mUseLogSaver = false;
 
+    @Option(name = "journal-module-results", description = "Write each module result to a "
+            + "journal in the result directory as soon as the module is done, instead of holding "
+            + "its failure details in memory until the end of the invocation.")
+    private boolean mJournalModuleResults = false;
+
+    @Option(name = "result-zip-compression-level", description = "Compression level of the "
+            + "result zip, from 0 (no compression) to 9 (best compression), or -1 for the default "
+            + "level. Already compressed files, eg. screenshots, are never compressed again.")
+    private int mZipCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    @Option(name = "result-zip-threads", description = "Number of threads compressing the "
+            + "files of the result zip.")
+    private int mZipThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "columnar-results", description = "Hold test results in a compact columnar "
+            + "store, which uses several times less memory for invocations with a very large "
+            + "number of tests. Results of a retried session are still loaded as parsed.")
+    private boolean mColumnarResults = false;
+
+    @Option(name = "checkpoint-modules", description = "Write a checkpoint of the results to "
+            + "the result directory each time this number of modules is done, so that the "
+            + "session can be retried if the invocation is interrupted. 0 to disable.")
+    private int mCheckpointModules = 0;
+
+    @Option(name = "checkpoint-interval", description = "Write a checkpoint of the results to "
+            + "the result directory when a module run ends and at least this much time passed "
+            + "since the last checkpoint. 0 to disable.", isTimeVal = true)
+    private long mCheckpointInterval = 0;
+
+    @Option(name = "record-history", description = "Record the module runtimes and test "
+            + "results of the session in the history of the results directory, from which "
+            + "runtimes and flaky tests are estimated.")
+    private boolean mRecordHistory = true;
+
     private CompatibilityBuildHelper mBuildHelper;
     private File mResultDir = null;
     private File mLogDir = null;
@@ -117,14 +175,21 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     private String mReferenceUrl;
     private ILogSaver mLogSaver;
     private int invocationEndedCount = 0;
+    private ModuleResultJournal mJournal = null;
+    private Map<String, Long> mFinalizeTimes = Collections.emptyMap();
+    private int mModulesSinceCheckpoint = 0;
+    private long mLastCheckpointTime;
 
-    private IInvocationResult mResult = new InvocationResult();
+    private IInvocationResult mResult = null;
     private IModuleResult mCurrentModuleResult;
     private ICaseResult mCurrentCaseResult;
     private ITestResult mCurrentResult;
     private String mDeviceSerial = UNKNOWN_DEVICE;
-    private Set<String> mMasterDeviceSerials = new HashSet<>();
-    private Set<IBuildInfo> mMasterBuildInfos = new HashSet<>();
+    // Concurrent, as checkpoints written while merging shard results read them
+    private Set<String> mMasterDeviceSerials =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<IBuildInfo> mMasterBuildInfos =
+            Collections.newSetFromMap(new ConcurrentHashMap<IBuildInfo, Boolean>());
 
     // mCurrentTestNum and mTotalTestsInModule track the progress within the module
     // Note that this count is not necessarily equal to the count of tests contained
@@ -144,6 +209,15 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     // to the master.
     private final ResultReporter mMasterResultReporter;
 
+    // Merges the module results of the shards, only used by the master.
+    private final ShardResultMerger mShardResultMerger =
+            new ShardResultMerger(new ShardResultMerger.Handler() {
+                @Override
+                public void merge(IModuleResult moduleResult) {
+                    mergeModuleResult(moduleResult);
+                }
+            });
+
     /**
      * Default constructor.
      */
@@ -168,6 +242,10 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             if (mBuildHelper == null) {
                 mBuildHelper = new CompatibilityBuildHelper(buildInfo);
             }
+            if (mResult == null) {
+                mResult = mColumnarResults ? new ColumnarInvocationResult()
+                        : new InvocationResult();
+            }
             if (mDeviceSerial == null && buildInfo.getDeviceSerial() != null) {
                 mDeviceSerial = buildInfo.getDeviceSerial();
             }
@@ -248,6 +326,22 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             throw new IllegalArgumentException(String.format("Could not create log dir %s",
                     mLogDir.getAbsolutePath()));
         }
+
+        mLastCheckpointTime = System.currentTimeMillis();
+        // Checkpoints copy completed modules from the journal, instead of serializing them again
+        if (mJournalModuleResults || isCheckpointEnabled()) {
+            try {
+                mJournal = new ModuleResultJournal(mResultDir);
+            } catch (IOException e) {
+                warn("Failed to create module result journal, keeping results in memory: %s",
+                        e.getMessage());
+                return;
+            }
+            // Modules completed in a previous session do not need to be held in memory either.
+            for (IModuleResult module : mResult.getModules()) {
+                journalModuleIfDone(module);
+            }
+        }
     }
 
     /**
@@ -278,6 +372,9 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             mTotalTestsInModule = numTests;
             mCurrentTestNum = 0;
         }
+        if (!isShardResultReporter()) {
+            restoreJournaledModule(mCurrentModuleResult);
+        }
         mCurrentModuleResult.inProgress(true);
     }
 
@@ -370,23 +467,100 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             mCurrentModuleResult.setDone(mCurrentTestNum >= mTotalTestsInModule);
         }
         if (isShardResultReporter()) {
-            // Forward module results to the master.
-            mMasterResultReporter.mergeModuleResult(mCurrentModuleResult);
+            // Forward module results to the master, without waiting for other shards.
+            mMasterResultReporter.mShardResultMerger.submit(mCurrentModuleResult);
             mCurrentModuleResult.resetTestRuns();
             mCurrentModuleResult.resetRuntime();
+        } else {
+            journalModuleIfDone(mCurrentModuleResult);
+            checkpointIfDue(mCurrentModuleResult);
         }
     }
 
     /**
      * Directly add a module result. Note: this method is meant to be used by
-     * a shard ResultReporter.
+     * the {@link ShardResultMerger} of the master, which never calls it concurrently.
      */
     private void mergeModuleResult(IModuleResult moduleResult) {
         // This merges the results in moduleResult to any existing results already
         // contained in mResult. This is useful for retries and allows the final
         // report from a retry to contain all test results.
-        synchronized(this) {
-            mResult.mergeModuleResult(moduleResult);
+        restoreJournaledModule(mResult.getOrCreateModule(moduleResult.getId()));
+        mResult.mergeModuleResult(moduleResult);
+        IModuleResult mergedModuleResult = mResult.getOrCreateModule(moduleResult.getId());
+        journalModuleIfDone(mergedModuleResult);
+        checkpointIfDue(mergedModuleResult);
+    }
+
+    /**
+     * Append the module to the journal, if journaling is enabled and the module is done.
+     */
+    private void journalModuleIfDone(IModuleResult moduleResult) {
+        if (mJournal == null || !moduleResult.isDone()) {
+            return;
+        }
+        try {
+            mJournal.append(moduleResult);
+        } catch (IOException e) {
+            warn("Failed to journal results of module %s: %s", moduleResult.getId(),
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether checkpoints of the results are written during the invocation.
+     */
+    private boolean isCheckpointEnabled() {
+        return mCheckpointModules > 0 || mCheckpointInterval > 0;
+    }
+
+    /**
+     * Write a checkpoint of the results if one is due, ie. enough modules are done or enough time
+     * passed since the last checkpoint. To be called when a module run ends.
+     * <p/>
+     * The checkpoint is a complete result of the session so far, in which modules that are not
+     * done yet are not executed, so retrying the session resumes the invocation.
+     */
+    private void checkpointIfDue(IModuleResult moduleResult) {
+        if (!isCheckpointEnabled()) {
+            return;
+        }
+        if (moduleResult.isDone()) {
+            mModulesSinceCheckpoint++;
+        }
+        long now = System.currentTimeMillis();
+        if (!(mCheckpointModules > 0 && mModulesSinceCheckpoint >= mCheckpointModules)
+                && !(mCheckpointInterval > 0 && now - mLastCheckpointTime >= mCheckpointInterval)) {
+            return;
+        }
+        mModulesSinceCheckpoint = 0;
+        mLastCheckpointTime = now;
+        addInvocationInfo();
+        try {
+            ResultHandler.writeCheckpoint(mBuildHelper.getSuiteName(),
+                    mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
+                    mBuildHelper.getSuiteBuild(), mResult, mResultDir, mResult.getStartTime(),
+                    now, mReferenceUrl, getLogUrl(), mBuildHelper.getCommandLineArgs(), mJournal);
+            info("Checkpoint written after %s, %d of %d modules done",
+                    TimeUtil.formatElapsedTime(now - mResult.getStartTime()),
+                    mResult.getModuleCompleteCount(), mResult.getModules().size());
+        } catch (IOException | XmlPullParserException e) {
+            warn("Failed to write checkpoint of results: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Restore the results of a journaled module before new results are added to it.
+     */
+    private void restoreJournaledModule(IModuleResult moduleResult) {
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            mJournal.restore(moduleResult);
+        } catch (IOException e) {
+            warn("Failed to restore journaled results of module %s: %s", moduleResult.getId(),
+                    e.getMessage());
         }
     }
 
@@ -439,11 +613,17 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             if (++invocationEndedCount < mMasterBuildInfos.size()) {
                 return;
             }
+            // Shards may still be merging module results they submitted before ending.
+            mShardResultMerger.awaitMerged();
             finalizeResults(elapsedTime);
         }
     }
 
-    private void finalizeResults(long elapsedTime) {
+    /**
+     * Add the device serials, build info and expected modules of the invocation to the result to
+     * be serialized.
+     */
+    private void addInvocationInfo() {
         // Add all device serials into the result to be serialized
         for (String deviceSerial : mMasterDeviceSerials) {
             mResult.addDeviceSerial(deviceSerial);
@@ -470,6 +650,10 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         for (String moduleId : allExpectedModules) {
             mResult.getOrCreateModule(moduleId);
         }
+    }
+
+    private void finalizeResults(final long elapsedTime) {
+        addInvocationInfo();
 
         String moduleProgress = String.format("%d of %d",
                 mResult.getModuleCompleteCount(), mResult.getModules().size());
@@ -480,40 +664,129 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                 mResult.countResults(TestStatus.FAIL),
                 moduleProgress);
 
-        long startTime = mResult.getStartTime();
-        try {
-            // Zip the full test results directory.
-            copyDynamicConfigFiles(mBuildHelper.getDynamicConfigFiles(), mResultDir);
-            copyFormattingFiles(mResultDir, mBuildHelper.getSuiteName());
-
-            File resultFile = ResultHandler.writeResults(mBuildHelper.getSuiteName(),
-                    mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
-                    mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
-                    elapsedTime + startTime, mReferenceUrl, getLogUrl(),
-                    mBuildHelper.getCommandLineArgs());
-            if (mRetrySessionId != null) {
-                copyRetryFiles(ResultHandler.getResultDirectory(
-                        mBuildHelper.getResultsDir(), mRetrySessionId), mResultDir);
+        final long startTime = mResult.getStartTime();
+        final File resultFile = new File(mResultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        final File zippedResults = new File(mResultDir.getParent(),
+                String.format("%s.zip", mResultDir.getName()));
+        final File failureReport = new File(mResultDir, ResultHandler.FAILURE_REPORT_NAME);
+        // The failure report is created next to the zip file while the result directory is
+        // zipped, and moved to the result directory after, so extra data is not uploaded.
+        final File pendingFailureReport = new File(mResultDir.getParent(),
+                String.format("%s.%s", mResultDir.getName(), ResultHandler.FAILURE_REPORT_NAME));
+        final ModuleResultJournal journal = mJournal;
+        mJournal = null;
+
+        FinalizePipeline pipeline = new FinalizePipeline(FINALIZE_THREADS);
+        pipeline.addStage(STAGE_DYNAMIC_CONFIG, new FinalizePipeline.Stage() {
+            @Override
+            public void run() {
+                copyDynamicConfigFiles(mBuildHelper.getDynamicConfigFiles(), mResultDir);
             }
-            File zippedResults = zipResults(mResultDir);
-
-            // Create failure report after zip file so extra data is not uploaded
-            File failureReport = ResultHandler.createFailureReport(resultFile);
-            if (failureReport.exists()) {
-                info("Test Result: %s", failureReport.getCanonicalPath());
-            } else {
-                info("Test Result: %s", resultFile.getCanonicalPath());
+        });
+        pipeline.addStage(STAGE_FORMATTING, new FinalizePipeline.Stage() {
+            @Override
+            public void run() {
+                copyFormattingFiles(mResultDir, mBuildHelper.getSuiteName());
             }
-            info("Full Result: %s", zippedResults.getCanonicalPath());
-
-            saveLog(resultFile, zippedResults);
-
-            uploadResult(resultFile);
-
-        } catch (IOException | XmlPullParserException e) {
-            CLog.e("[%s] Exception while saving result XML.", mDeviceSerial);
-            CLog.e(e);
+        });
+        pipeline.addStage(STAGE_XML, new FinalizePipeline.Stage() {
+            @Override
+            public void run() throws IOException, XmlPullParserException {
+                try {
+                    ResultHandler.writeResults(mBuildHelper.getSuiteName(),
+                            mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
+                            mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
+                            elapsedTime + startTime, mReferenceUrl, getLogUrl(),
+                            mBuildHelper.getCommandLineArgs(), journal, false);
+                } catch (IOException | XmlPullParserException e) {
+                    CLog.e("[%s] Exception while saving result XML.", mDeviceSerial);
+                    throw e;
+                }
+            }
+        });
+        // The checksum covers all the files of the result directory, except the retry files
+        pipeline.addStage(STAGE_CHECKSUM, new FinalizePipeline.Stage() {
+            @Override
+            public void run() {
+                ResultHandler.createChecksum(mResultDir, mResult, journal);
+                if (journal != null) {
+                    journal.delete();
+                }
+            }
+        }, STAGE_DYNAMIC_CONFIG, STAGE_FORMATTING, STAGE_XML);
+        pipeline.addStage(STAGE_RETRY_FILES, new FinalizePipeline.Stage() {
+            @Override
+            public void run() {
+                if (mRetrySessionId != null) {
+                    copyRetryFiles(ResultHandler.getResultDirectory(
+                            mBuildHelper.getResultsDir(), mRetrySessionId), mResultDir);
+                }
+            }
+        }, STAGE_CHECKSUM);
+        pipeline.addStage(STAGE_ZIP, new FinalizePipeline.Stage() {
+            @Override
+            public void run() {
+                zipResults(mResultDir);
+            }
+        }, STAGE_RETRY_FILES);
+        pipeline.addStage(STAGE_FAILURE_REPORT, new FinalizePipeline.Stage() {
+            @Override
+            public void run() {
+                ResultHandler.createFailureReport(resultFile, pendingFailureReport);
+            }
+        }, STAGE_XML);
+        pipeline.addStage(STAGE_REPORT_RESULT, new FinalizePipeline.Stage() {
+            @Override
+            public void run() throws IOException {
+                if (pendingFailureReport.exists()
+                        && pendingFailureReport.renameTo(failureReport)) {
+                    info("Test Result: %s", failureReport.getCanonicalPath());
+                } else {
+                    pendingFailureReport.delete();
+                    info("Test Result: %s", resultFile.getCanonicalPath());
+                }
+                info("Full Result: %s", zippedResults.getCanonicalPath());
+            }
+        }, STAGE_ZIP, STAGE_FAILURE_REPORT);
+        pipeline.addStage(STAGE_SAVE_LOG, new FinalizePipeline.Stage() {
+            @Override
+            public void run() throws IOException {
+                saveLog(resultFile, zippedResults);
+            }
+        }, STAGE_ZIP);
+        pipeline.addStage(STAGE_UPLOAD, new FinalizePipeline.Stage() {
+            @Override
+            public void run() throws IOException {
+                uploadResult(resultFile);
+            }
+        }, STAGE_XML);
+        pipeline.addStage(STAGE_HISTORY, new FinalizePipeline.Stage() {
+            @Override
+            public void run() throws IOException {
+                if (mRecordHistory) {
+                    // Modules of a retried session were not all run by this invocation
+                    ResultHistory.record(mBuildHelper.getResultsDir(), mResultDir.getName(),
+                            mResult, mRetrySessionId == null);
+                }
+            }
+        });
+        pipeline.run();
+
+        mFinalizeTimes = pipeline.getStageTimes();
+        StringBuilder times = new StringBuilder();
+        for (Map.Entry<String, Long> stage : mFinalizeTimes.entrySet()) {
+            times.append(String.format(" %s: %s,", stage.getKey(),
+                    TimeUtil.formatElapsedTime(stage.getValue())));
         }
+        info("Result finalization stages:%s", times.substring(0, times.length() - 1));
+    }
+
+    /**
+     * @return the time in ms taken by each stage of the finalization of the result, or an
+     * empty map if the result is not finalized yet.
+     */
+    public Map<String, Long> getFinalizeTimes() {
+        return mFinalizeTimes;
     }
 
     /**
@@ -553,19 +826,42 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     public void testLogSaved(String dataName, LogDataType dataType, InputStreamSource dataStream,
             LogFile logFile) {
         // This is safe to be invoked on either the master or a shard ResultReporter
-        if (mIncludeTestLogTags && mCurrentResult != null
-                && dataName.startsWith(mCurrentResult.getFullName())) {
-
+        ITestResult result = mIncludeTestLogTags ? getLoggedResult(dataName) : null;
+        if (result != null) {
             if (dataType == LogDataType.BUGREPORT) {
-                mCurrentResult.setBugReport(logFile.getUrl());
+                result.setBugReport(logFile.getUrl());
             } else if (dataType == LogDataType.LOGCAT) {
-                mCurrentResult.setLog(logFile.getUrl());
+                result.setLog(logFile.getUrl());
             } else if (dataType == LogDataType.PNG) {
-                mCurrentResult.setScreenshot(logFile.getUrl());
+                result.setScreenshot(logFile.getUrl());
             }
         }
     }
 
+    /**
+     * @return the result of the test the log is named after, ie. the current test, or a test of
+     * the current module that already ended, as in "<class>#<method>-logcat", or null if there
+     * is none.
+     */
+    private ITestResult getLoggedResult(String dataName) {
+        if (mCurrentResult != null && dataName.startsWith(mCurrentResult.getFullName())) {
+            return mCurrentResult;
+        }
+        int separator = dataName.indexOf('#');
+        if (mCurrentModuleResult == null || separator < 0) {
+            return null;
+        }
+        ICaseResult caseResult = mCurrentModuleResult.getResult(dataName.substring(0, separator));
+        if (caseResult != null) {
+            for (ITestResult result : caseResult.getResults()) {
+                if (dataName.startsWith(result.getFullName() + "-")) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -674,7 +970,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
      *
      * @param resultsDir
      */
-    static void copyFormattingFiles(File resultsDir, String suiteName) {
+    public static void copyFormattingFiles(File resultsDir, String suiteName) {
         for (String resultFileName : ResultHandler.RESULT_RESOURCES) {
             InputStream configStream = ResultHandler.class.getResourceAsStream(
                     String.format("/report/%s-%s", suiteName, resultFileName));
@@ -758,15 +1054,15 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
      *
      * @param resultsDir
      */
-    private static File zipResults(File resultsDir) {
+    private File zipResults(File resultsDir) {
         File zipResultFile = null;
         try {
             // create a file in parent directory, with same name as resultsDir
             zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
                     resultsDir.getName()));
-            ZipUtil.createZip(resultsDir, zipResultFile);
-        } catch (IOException e) {
-            warn("Failed to create zip for %s", resultsDir.getName());
+            ZipUtil.createZip(resultsDir, zipResultFile, mZipCompressionLevel, mZipThreads);
+        } catch (IOException | IllegalArgumentException e) {
+            warn("Failed to create zip for %s: %s", resultsDir.getName(), e.getMessage());
         }
         return zipResultFile;
     }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.ModuleResult;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Merges the module results of shard {@link ResultReporter}s into the result of the master
+ * without making the shards wait for each other.
+ * <p/>
+ * A shard that finds no merge in progress claims the merger and merges its module result
+ * directly. A shard that finds another one merging instead queues a snapshot of its module
+ * result, copied on its own thread, and returns immediately; the queued snapshots are merged by
+ * the thread that holds the merger before it releases it. The result of the master is thus only
+ * modified by one thread at a time, and no shard blocks while another one is merging.
+ */
+class ShardResultMerger {
+
+    /**
+     * Merges a module result into the result of the master. Never called concurrently, and
+     * must not keep a reference to the module result.
+     */
+    interface Handler {
+        void merge(IModuleResult moduleResult);
+    }
+
+    private final Handler mHandler;
+    private final Queue<IModuleResult> mPending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mMerging = new AtomicBoolean(false);
+    // Notified when the merger is released
+    private final Object mReleased = new Object();
+
+    ShardResultMerger(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Merges the module result, or queues a snapshot of it if another thread is merging. The
+     * module result can be modified again as soon as this returns.
+     */
+    void submit(IModuleResult moduleResult) {
+        if (mMerging.compareAndSet(false, true)) {
+            try {
+                // Snapshots queued earlier, possibly by the same shard, are merged first
+                mergePending();
+                mHandler.merge(moduleResult);
+            } finally {
+                release();
+            }
+        } else {
+            mPending.add(snapshot(moduleResult));
+        }
+        tryMerge();
+    }
+
+    /**
+     * Waits until all submitted snapshots are merged, helping to merge them if no other thread is.
+     */
+    void awaitMerged() {
+        boolean interrupted = false;
+        while (!tryMerge() || mMerging.get()) {
+            synchronized (mReleased) {
+                // A merger released after this check notifies this thread once it waits
+                while (mMerging.get()) {
+                    try {
+                        mReleased.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Merges the queued snapshots if no other thread is merging them.
+     *
+     * @return false if another thread was merging
+     */
+    private boolean tryMerge() {
+        // A snapshot queued while the merging thread releases the merger is picked up by the
+        // next iteration, so no snapshot is left behind.
+        while (!mPending.isEmpty()) {
+            if (!mMerging.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                mergePending();
+            } finally {
+                release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases the merger held by this thread, and wakes up the threads waiting for merges.
+     */
+    private void release() {
+        mMerging.set(false);
+        synchronized (mReleased) {
+            mReleased.notifyAll();
+        }
+    }
+
+    /**
+     * Merges the queued snapshots. Must be called by the thread that holds the merger.
+     */
+    private void mergePending() {
+        IModuleResult snapshot;
+        while ((snapshot = mPending.poll()) != null) {
+            mHandler.merge(snapshot);
+        }
+    }
+
+    /**
+     * @return a copy of the module result that is not shared with the shard.
+     */
+    static IModuleResult snapshot(IModuleResult moduleResult) {
+        ModuleResult snapshot = new ModuleResult(moduleResult.getId());
+        snapshot.mergeFrom(moduleResult);
+        return snapshot;
+    }
+}
@@ -325,7 +325,7 @@ public class SubPlanHelper {
                 throw new ConfigurationException("Missing --session argument");
             }
             try {
-                mResult = ResultHandler.findResult(buildHelper.getResultsDir(), mSessionId);
+                mResult = ResultHandler.findResultStatuses(buildHelper.getResultsDir(), mSessionId);
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
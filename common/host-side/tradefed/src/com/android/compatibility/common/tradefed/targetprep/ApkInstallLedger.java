@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.targetprep;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ledger of the APKs installed on each device, so that an APK already installed on a device is
+ * not installed again.
+ * <p/>
+ * The ledger records the hash of each APK installed and the arguments it was installed with, as
+ * installing the same APK with another ABI changes the installed package. An installed package
+ * is only trusted once the device confirms it is still installed from the same APK, since tests
+ * may uninstall or replace it. The packages are kept installed across modules, and are
+ * uninstalled by {@link #uninstallAll()} once all the modules ran.
+ */
+public class ApkInstallLedger {
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+    // Hashes the installed APK of a package, ie. its base APK, and any split APK
+    private static final String HASH_COMMAND =
+            "for f in $(pm path %s); do sha1sum ${f#package:}; done";
+
+    /** A package installed on the device. */
+    private static class Installed {
+        final String mHash;
+        final List<String> mInstallArgs;
+
+        Installed(String hash, List<String> installArgs) {
+            mHash = hash;
+            mInstallArgs = installArgs;
+        }
+    }
+
+    private static final Map<ITestDevice, Map<String, Installed>> sLedgers = new WeakHashMap<>();
+    // Hashes of the APKs on the host, keyed by path, size and modification time
+    private static final Map<String, String> sHashes = new ConcurrentHashMap<>();
+
+    private final ITestDevice mDevice;
+    private final Map<String, Installed> mPackages;
+
+    /**
+     * @return the ledger of the given device.
+     */
+    public static ApkInstallLedger get(ITestDevice device) {
+        synchronized (sLedgers) {
+            Map<String, Installed> packages = sLedgers.get(device);
+            if (packages == null) {
+                packages = new HashMap<>();
+                sLedgers.put(device, packages);
+            }
+            return new ApkInstallLedger(device, packages);
+        }
+    }
+
+    private ApkInstallLedger(ITestDevice device, Map<String, Installed> packages) {
+        mDevice = device;
+        mPackages = packages;
+    }
+
+    /**
+     * @return whether the given package is installed on the device from the given APK, with the
+     * given arguments.
+     */
+    public boolean isInstalled(String packageName, File apk, List<String> installArgs)
+            throws DeviceNotAvailableException, IOException {
+        Installed installed;
+        synchronized (mPackages) {
+            installed = mPackages.get(packageName);
+        }
+        if (installed == null || !installed.mInstallArgs.equals(installArgs)
+                || !installed.mHash.equals(getHash(apk))) {
+            return false;
+        }
+        String output = mDevice.executeShellCommand(String.format(HASH_COMMAND, packageName));
+        String[] lines = (output == null) ? new String[0] : output.trim().split("\\s*\n");
+        // A package installed with split APKs is not from the given APK alone
+        if (lines.length != 1 || !lines[0].startsWith(installed.mHash + " ")) {
+            synchronized (mPackages) {
+                mPackages.remove(packageName);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the given package was installed through the ledger.
+     */
+    public boolean contains(String packageName) {
+        synchronized (mPackages) {
+            return mPackages.containsKey(packageName);
+        }
+    }
+
+    /**
+     * Records that the given package was installed on the device from the given APK, with the
+     * given arguments.
+     */
+    public void recordInstall(String packageName, File apk, List<String> installArgs)
+            throws IOException {
+        Installed installed = new Installed(getHash(apk), new ArrayList<>(installArgs));
+        synchronized (mPackages) {
+            mPackages.put(packageName, installed);
+        }
+    }
+
+    /**
+     * Records that the given package was uninstalled from the device.
+     */
+    public void recordUninstall(String packageName) {
+        synchronized (mPackages) {
+            mPackages.remove(packageName);
+        }
+    }
+
+    /**
+     * Uninstalls all the packages of the ledger from the device, eg. once all the modules ran.
+     */
+    public void uninstallAll() throws DeviceNotAvailableException {
+        List<String> packageNames;
+        synchronized (mPackages) {
+            packageNames = new ArrayList<>(mPackages.keySet());
+        }
+        for (String packageName : packageNames) {
+            String result = mDevice.uninstallPackage(packageName);
+            if (result != null) {
+                CLog.w("Failed to uninstall %s from %s: %s", packageName,
+                        mDevice.getSerialNumber(), result);
+            }
+            // Installed again if needed, even if it could not be uninstalled
+            recordUninstall(packageName);
+        }
+    }
+
+    /**
+     * @return the hash of the given APK, as printed by sha1sum.
+     */
+    static String getHash(File apk) throws IOException {
+        String key = String.format("%s:%d:%d", apk.getAbsolutePath(), apk.length(),
+                apk.lastModified());
+        String hash = sHashes.get(key);
+        if (hash == null) {
+            hash = computeHash(apk);
+            sHashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    private static String computeHash(File apk) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new FileInputStream(apk)) {
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        return hash.toString();
+    }
+}
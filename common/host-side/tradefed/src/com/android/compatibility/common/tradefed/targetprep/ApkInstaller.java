@@ -17,12 +17,32 @@ package com.android.compatibility.common.tradefed.targetprep;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.config.Option;
 import com.android.tradefed.config.OptionClass;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.targetprep.TargetSetupError;
 import com.android.tradefed.targetprep.TestAppInstallSetup;
+import com.android.tradefed.util.AaptParser;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Installs specified APKs from Compatibility repository.
@@ -30,6 +50,25 @@ import java.io.FileNotFoundException;
 @OptionClass(alias="apk-installer")
 public class ApkInstaller extends TestAppInstallSetup {
 
+    // Pushes beyond this are mostly waiting for the adb connection of the device.
+    private static final int MAX_PARALLEL_INSTALLS = 4;
+    // Directory the APKs installed concurrently are pushed to
+    private static final String REMOTE_DIR = "/data/local/tmp";
+    // Options of the package manager for the boolean arguments of an install, in order
+    private static final List<String> PM_FLAGS = Arrays.asList("-r", "-g");
+
+    // Package names of the APKs, keyed by path
+    private static final Map<String, String> sPackageNames = new ConcurrentHashMap<>();
+
+    @Option(name = "skip-unchanged-apks", description = "Whether to skip installing an APK " +
+            "already installed on the device from the same file with the same arguments, and " +
+            "to keep the APKs installed after the test rather than uninstalling them.")
+    private boolean mSkipUnchanged = false;
+
+    @Option(name = "parallel-install",
+            description = "Whether to install the APKs concurrently rather than one by one.")
+    private boolean mParallelInstall = false;
+
     private CompatibilityBuildHelper mBuildHelper = null;
 
     protected File getTestsDir(IBuildInfo buildInfo) throws FileNotFoundException {
@@ -39,6 +78,21 @@ public class ApkInstaller extends TestAppInstallSetup {
         return mBuildHelper.getTestsDir();
     }
 
+    /**
+     * Sets whether to skip installing an APK already installed on the device, and to keep the
+     * APKs installed after the test.
+     */
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        mSkipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * Sets whether to install the APKs concurrently.
+     */
+    public void setParallelInstall(boolean parallelInstall) {
+        mParallelInstall = parallelInstall;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -56,4 +110,292 @@ public class ApkInstaller extends TestAppInstallSetup {
         }
         return apkFile;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUp(ITestDevice device, IBuildInfo buildInfo) throws TargetSetupError,
+            DeviceNotAvailableException {
+        if (!mSkipUnchanged && !mParallelInstall) {
+            super.setUp(device, buildInfo);
+            return;
+        }
+        Installer installer = new Installer(device);
+        try {
+            super.setUp(installer.getDevice(), buildInfo);
+            installer.waitForInstalls();
+        } finally {
+            installer.shutdown();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void tearDown(ITestDevice device, IBuildInfo buildInfo, Throwable e)
+            throws DeviceNotAvailableException {
+        if (!mSkipUnchanged) {
+            super.tearDown(device, buildInfo, e);
+            return;
+        }
+        Installer installer = new Installer(device);
+        try {
+            super.tearDown(installer.getDevice(), buildInfo, e);
+        } finally {
+            installer.shutdown();
+        }
+    }
+
+    /**
+     * @return the package name of the given APK, or null if it cannot be parsed.
+     */
+    private static String getPackageName(File apk) {
+        String packageName = sPackageNames.get(apk.getAbsolutePath());
+        if (packageName == null) {
+            AaptParser parser = AaptParser.parse(apk);
+            if (parser == null || parser.getPackageName() == null) {
+                return null;
+            }
+            packageName = parser.getPackageName();
+            sPackageNames.put(apk.getAbsolutePath(), packageName);
+        }
+        return packageName;
+    }
+
+    /**
+     * Intercepts the installs and uninstalls of {@link TestAppInstallSetup} on a device, to skip
+     * those of APKs already installed, and to run the installs concurrently. Concurrent installs
+     * only push the APKs concurrently, the package manager installs them one by one on the
+     * calling thread, through the {@link ITestDevice} so that the device may be recovered.
+     */
+    // Visible for unit testing
+    class Installer implements InvocationHandler {
+        private final ITestDevice mDevice;
+        private final ApkInstallLedger mLedger;
+        private ExecutorService mExecutor = null;
+        // Pending installs, in the order they were submitted
+        private final List<PendingInstall> mInstalls = new ArrayList<>();
+
+        Installer(ITestDevice device) {
+            mDevice = device;
+            mLedger = ApkInstallLedger.get(device);
+        }
+
+        /**
+         * @return the device, as seen by {@link TestAppInstallSetup}.
+         */
+        ITestDevice getDevice() {
+            return (ITestDevice) Proxy.newProxyInstance(ITestDevice.class.getClassLoader(),
+                    new Class<?>[] { ITestDevice.class }, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("installPackage".equals(method.getName()) && args[0] instanceof File) {
+                return install(method, args);
+            }
+            if ("uninstallPackage".equals(method.getName()) && mSkipUnchanged
+                    && mLedger.contains((String) args[0])) {
+                CLog.d("Keeping %s installed on %s", args[0], mDevice.getSerialNumber());
+                return null;
+            }
+            return invokeOnDevice(method, args);
+        }
+
+        /**
+         * Installs the APK, or submits the push of the APK if installs are concurrent.
+         *
+         * @return null if the APK was installed or its push submitted, or else the error
+         */
+        private String install(Method method, final Object[] args) throws Exception {
+            final File apk = (File) args[0];
+            if (!mParallelInstall) {
+                if (isInstalled(apk, args)) {
+                    return null;
+                }
+                String result = (String) invokeOnDevice(method, args);
+                if (result == null) {
+                    recordInstall(apk, args);
+                }
+                return result;
+            }
+            if (mExecutor == null) {
+                mExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_INSTALLS);
+            }
+            final String remotePath = String.format("%s/%d-%s", REMOTE_DIR, mInstalls.size(),
+                    apk.getName());
+            Future<Boolean> pushed = mExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    if (isInstalled(apk, args)) {
+                        return false;
+                    }
+                    mDevice.getIDevice().pushFile(apk.getAbsolutePath(), remotePath);
+                    return true;
+                }
+            });
+            mInstalls.add(new PendingInstall(apk, args, remotePath, pushed));
+            return null;
+        }
+
+        /**
+         * @return true if the APK is already installed with the same arguments, and unchanged
+         * installs are skipped.
+         */
+        private boolean isInstalled(File apk, Object[] args) throws Exception {
+            String packageName = mSkipUnchanged ? getPackageName(apk) : null;
+            if (packageName != null
+                    && mLedger.isInstalled(packageName, apk, getInstallArgs(args))) {
+                CLog.d("Skipping install of %s, already installed on %s", apk.getName(),
+                        mDevice.getSerialNumber());
+                return true;
+            }
+            return false;
+        }
+
+        private void recordInstall(File apk, Object[] args) throws IOException {
+            String packageName = mSkipUnchanged ? getPackageName(apk) : null;
+            if (packageName != null) {
+                mLedger.recordInstall(packageName, apk, getInstallArgs(args));
+            }
+        }
+
+        /**
+         * Waits for the APKs submitted to be pushed, and installs them one by one.
+         *
+         * @throws TargetSetupError if an install failed
+         */
+        void waitForInstalls() throws TargetSetupError, DeviceNotAvailableException {
+            for (PendingInstall install : mInstalls) {
+                String apkName = install.mApk.getName();
+                boolean pushed;
+                try {
+                    pushed = install.mPushed.get();
+                } catch (InterruptedException e) {
+                    throw new TargetSetupError("Interrupted while installing APKs", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof DeviceNotAvailableException) {
+                        throw (DeviceNotAvailableException) cause;
+                    }
+                    throw new TargetSetupError(String.format("Failed to push %s to %s",
+                            apkName, mDevice.getSerialNumber()), cause);
+                }
+                if (!pushed) {
+                    continue;
+                }
+                String result = installPushed(install);
+                if (result != null) {
+                    throw new TargetSetupError(String.format(
+                            "Failed to install %s on %s. Reason: '%s'", apkName,
+                            mDevice.getSerialNumber(), result));
+                }
+                try {
+                    recordInstall(install.mApk, install.mArgs);
+                } catch (IOException e) {
+                    throw new TargetSetupError(String.format("Failed to record install of %s",
+                            apkName), e);
+                }
+            }
+        }
+
+        /**
+         * Installs a pushed APK with the package manager, then deletes it from the device.
+         *
+         * @return null if the APK was installed, or else the error
+         */
+        private String installPushed(PendingInstall install) throws DeviceNotAvailableException {
+            StringBuilder command = new StringBuilder("pm install");
+            for (String arg : getPackageManagerArgs(install.mArgs)) {
+                command.append(' ').append(arg);
+            }
+            command.append(' ').append(install.mRemotePath);
+            try {
+                String output = mDevice.executeShellCommand(command.toString());
+                if (output != null && output.contains("Success")) {
+                    return null;
+                }
+                return (output == null) ? "No output" : output.trim();
+            } finally {
+                mDevice.executeShellCommand("rm " + install.mRemotePath);
+            }
+        }
+
+        void shutdown() {
+            if (mExecutor != null) {
+                mExecutor.shutdownNow();
+            }
+        }
+
+        private Object invokeOnDevice(Method method, Object[] args) throws Exception {
+            try {
+                return method.invoke(mDevice, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw (Exception) e.getCause();
+            }
+        }
+    }
+
+    /**
+     * An APK pushed to the device concurrently, waiting to be installed.
+     */
+    private static class PendingInstall {
+        private final File mApk;
+        private final Object[] mArgs;
+        private final String mRemotePath;
+        // Whether the APK was pushed, or false if its install is skipped
+        private final Future<Boolean> mPushed;
+
+        PendingInstall(File apk, Object[] args, String remotePath, Future<Boolean> pushed) {
+            mApk = apk;
+            mArgs = args;
+            mRemotePath = remotePath;
+            mPushed = pushed;
+        }
+    }
+
+    /**
+     * @return the options of the package manager for the arguments of
+     * {@link ITestDevice#installPackage}, ie. whether to reinstall, whether to grant permissions,
+     * and the extra arguments.
+     */
+    private static List<String> getPackageManagerArgs(Object[] args) {
+        List<String> pmArgs = new ArrayList<>();
+        int flag = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i] instanceof Boolean) {
+                if ((Boolean) args[i] && flag < PM_FLAGS.size()) {
+                    pmArgs.add(PM_FLAGS.get(flag));
+                }
+                flag++;
+            } else if (args[i] instanceof String[]) {
+                pmArgs.addAll(Arrays.asList((String[]) args[i]));
+            }
+        }
+        return pmArgs;
+    }
+
+    /**
+     * @return the arguments of an install other than the APK, eg. whether to grant permissions
+     * and the extra arguments of the package manager.
+     */
+    private static List<String> getInstallArgs(Object[] args) {
+        List<String> installArgs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i] instanceof String[]) {
+                installArgs.addAll(Arrays.asList((String[]) args[i]));
+            } else {
+                installArgs.add(String.valueOf(args[i]));
+            }
+        }
+        return installArgs;
+    }
 }
@@ -19,6 +19,7 @@ package com.android.compatibility.common.tradefed.targetprep;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
 import com.android.compatibility.common.tradefed.util.CollectorUtil;
+import com.android.compatibility.common.tradefed.util.DeviceSnapshot;
 import com.android.compatibility.common.util.DevicePropertyInfo;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.Option;
@@ -97,10 +98,11 @@ public class DeviceInfoCollector extends ApkInstrumentationPreparer {
                 VERSION_SDK, VERSION_SECURITY_PATCH);
 
         // add device properties to the result with a prefix tag for each key
+        DeviceSnapshot snapshot = DeviceSnapshot.get(device);
         for (Entry<String, String> entry :
                 devicePropertyInfo.getPropertytMapWithPrefix(PREFIX_TAG).entrySet()) {
             buildInfo.addBuildAttribute(entry.getKey(),
-                    nullToEmpty(device.getProperty(entry.getValue())));
+                    nullToEmpty(snapshot.getProperty(entry.getValue())));
         }
         if (mSkipDeviceInfo) {
             return;
@@ -17,7 +17,7 @@ package com.android.compatibility.common.tradefed.targetprep;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.util.DynamicConfig;
-import com.android.compatibility.common.util.DynamicConfigHandler;
+import com.android.compatibility.common.util.DynamicConfigCache;
 import com.android.ddmlib.Log;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.Option;
@@ -29,7 +29,6 @@ import com.android.tradefed.targetprep.BuildError;
 import com.android.tradefed.targetprep.ITargetCleaner;
 import com.android.tradefed.targetprep.TargetSetupError;
 import com.android.tradefed.util.FileUtil;
-import com.android.tradefed.util.StreamUtil;
 
 import org.json.JSONException;
 import org.xmlpull.v1.XmlPullParserException;
@@ -37,7 +36,6 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URL;
 
 /**
  * Pushes dynamic config files from config repository
@@ -74,6 +72,20 @@ public class DynamicConfigPusher implements ITargetCleaner {
         mModuleName = moduleName;
     }
 
+    /**
+     * @return the URL to download the dynamic config from, or null if the dynamic config
+     * override URL is not set.
+     */
+    public String getConfigUrl(IBuildInfo buildInfo) {
+        CompatibilityBuildHelper buildHelper = new CompatibilityBuildHelper(buildInfo);
+        String originUrl = buildHelper.getDynamicConfigUrl();
+        if (originUrl == null) {
+            return null;
+        }
+        String version = (mVersion == null) ? buildHelper.getSuiteVersion() : mVersion;
+        return originUrl.replace("{module}", mModuleName).replace("{version}", version);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -96,15 +108,12 @@ public class DynamicConfigPusher implements ITargetCleaner {
         }
 
         String apfeConfigInJson = null;
-        String originUrl = buildHelper.getDynamicConfigUrl();
+        String requestUrl = getConfigUrl(buildInfo);
 
-        if (originUrl != null) {
-            String requestUrl = originUrl;
+        if (requestUrl != null) {
             try {
-                requestUrl = originUrl
-                        .replace("{module}", mModuleName).replace("{version}", mVersion);
-                java.net.URL request = new URL(requestUrl);
-                apfeConfigInJson = StreamUtil.getStringFromStream(request.openStream());
+                // Shared with the other modules, ABIs and shards, and possibly prefetched
+                apfeConfigInJson = DynamicConfigCache.getInstance().getConfig(requestUrl);
             } catch (IOException e) {
                 LogUtil.printLog(Log.LogLevel.WARN, LOG_TAG,
                         "Cannot download and parse json config from URL " + requestUrl);
@@ -116,7 +125,7 @@ public class DynamicConfigPusher implements ITargetCleaner {
 
         File src = null;
         try {
-            src = DynamicConfigHandler.getMergedDynamicConfigFile(
+            src = DynamicConfigCache.getInstance().getMergedConfigFile(
                     localConfigFile, apfeConfigInJson, mModuleName);
         } catch (IOException | XmlPullParserException | JSONException e) {
             throw new TargetSetupError("Cannot get merged dynamic config file", e);
@@ -15,6 +15,7 @@
  */
 package com.android.compatibility.common.tradefed.targetprep;
 
+import com.android.compatibility.common.tradefed.util.DeviceSnapshot;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.config.OptionClass;
@@ -47,7 +48,7 @@ public class PropertyCheck extends PreconditionPreparer {
     public void run(ITestDevice device, IBuildInfo buildInfo) throws TargetSetupError,
             BuildError, DeviceNotAvailableException {
 
-        String propertyValue = device.getProperty(mPropertyName);
+        String propertyValue = DeviceSnapshot.get(device).getProperty(mPropertyName);
         if (propertyValue == null) {
             logWarning("Property \"%s\" not found on device, cannot verify value \"%s\" ",
                     mPropertyName, mExpectedPropertyValue);
@@ -15,6 +15,7 @@
  */
 package com.android.compatibility.common.tradefed.targetprep;
 
+import com.android.compatibility.common.tradefed.util.DeviceSnapshot;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.config.OptionClass;
@@ -78,11 +79,8 @@ public class SettingsPreparer extends PreconditionPreparer {
                     "\"expected-values\" must be set");
         }
 
-        String shellCmdGet = (!mExpectedSettingValues.isEmpty()) ?
-                String.format("settings get %s %s", mSettingType, mSettingName) : "";
-        String shellCmdPut = (mSetValue != null) ?
-                String.format("settings put %s %s %s", mSettingType, mSettingName, mSetValue) : "";
-
+        DeviceSnapshot snapshot = DeviceSnapshot.get(device);
+        String namespace = mSettingType.toString();
 
         /* Case 1: Both expected-values and set-value are given */
         if (mSetValue != null && !mExpectedSettingValues.isEmpty()) {
@@ -92,12 +90,12 @@ public class SettingsPreparer extends PreconditionPreparer {
                         "set-value for %s is %s, but value not found in expected-values: %s",
                         mSettingName, mSetValue, mExpectedSettingValues.toString()));
             }
-            String currentSettingValue = device.executeShellCommand(shellCmdGet).trim();
+            String currentSettingValue = getSetting(snapshot, namespace);
             // only change unexpected setting value
             if (!mExpectedSettingValues.contains(currentSettingValue)) {
                 logInfo("Changing value for %s from %s to %s",
                         mSettingName, currentSettingValue, mSetValue);
-                device.executeShellCommand(shellCmdPut);
+                snapshot.putSetting(namespace, mSettingName, mSetValue);
             }
             return;
         }
@@ -105,12 +103,12 @@ public class SettingsPreparer extends PreconditionPreparer {
         /* Case 2: Only set-value given */
         if (mSetValue != null) {
             logInfo("Setting %s to value %s", mSettingName, mSetValue);
-            device.executeShellCommand(shellCmdPut);
+            snapshot.putSetting(namespace, mSettingName, mSetValue);
             return;
         }
 
         /* Case 3: Only expected-values given */
-        String currentSettingValue = device.executeShellCommand(shellCmdGet).trim();
+        String currentSettingValue = getSetting(snapshot, namespace);
         if (!mExpectedSettingValues.contains(currentSettingValue)) {
             if (mFailureMessage == null) {
                 mFailureMessage = String.format(
@@ -121,4 +119,12 @@ public class SettingsPreparer extends PreconditionPreparer {
         }
     }
 
+    /**
+     * @return the value of the setting as printed by "settings get", ie. "null" if not set.
+     */
+    private String getSetting(DeviceSnapshot snapshot, String namespace)
+            throws DeviceNotAvailableException {
+        return String.valueOf(snapshot.getSetting(namespace, mSettingName));
+    }
+
 }
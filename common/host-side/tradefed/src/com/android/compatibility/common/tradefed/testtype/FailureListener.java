@@ -15,6 +15,8 @@
  */
 package com.android.compatibility.common.tradefed.testtype;
 
+import com.android.compatibility.common.tradefed.util.DeviceSnapshot;
+import com.android.compatibility.common.tradefed.util.LogcatStream;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
@@ -23,13 +25,58 @@ import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.result.ResultForwarder;
-import com.android.tradefed.util.RunUtil;
 
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures bugreports, logcats and screenshots of the device when tests fail.
+ * <p/>
+ * The screenshot is taken as soon as the test fails, while the bugreport and the logcat are
+ * captured concurrently in the background, as the following tests run. The artifacts are logged
+ * in the order of the failures at the end of the test run, named after their test so that they
+ * are reported with it. At most one bugreport is captured per {@link #BUGREPORT_INTERVAL_MS},
+ * which covers the failures following it.
+ * <p/>
+ * The logcat is streamed from the device while the tests run, and the logcat of a failure is the
+ * lines received from the start of its test to the start of the next test, or the end of the run.
+ * {@link #release()} must be called once the tests ran, and the device should be rebooted through
+ * {@link #rebootDevice()} while they run.
+ */
 public class FailureListener extends ResultForwarder {
 
     private static final int DEFAULT_MAX_LOGCAT_BYTES = 500 * 1024; // 500K
     /* Arbitrary upper limit for mMaxLogcatBytes, per b/30720850 */
     public static final int LOGCAT_BYTE_LIMIT = 20 * 1024 * 1024; // 20 MB
+    static final long BUGREPORT_INTERVAL_MS = 60 * 1000;
+    /* Captures beyond this many pending run on the thread running the tests */
+    private static final int MAX_PENDING_CAPTURES = 32;
+    /* One thread for the bugreport and one for the logcat */
+    private static final int CAPTURE_THREADS = 2;
+    /* Minimum size of the logcat streamed, so that tests logging little are not cut */
+    private static final int MIN_LOGCAT_BUFFER_BYTES = 1024 * 1024; // 1 MB
+
+    /** An artifact being captured. */
+    private static class Capture {
+        final String mName;
+        final LogDataType mType;
+        final Future<InputStreamSource> mSource;
+
+        Capture(String name, LogDataType type, Future<InputStreamSource> source) {
+            mName = name;
+            mType = type;
+            mSource = source;
+        }
+    }
 
     private ITestDevice mDevice;
     private boolean mBugReportOnFailure;
@@ -37,6 +84,15 @@ public class FailureListener extends ResultForwarder {
     private boolean mScreenshotOnFailure;
     private boolean mRebootOnFailure;
     private int mMaxLogcatBytes;
+    private final ThreadPoolExecutor mExecutor;
+    // Captures in the order of the failures, only accessed from the thread running the tests
+    private final Queue<Capture> mCaptures = new LinkedList<>();
+    private long mLastBugreportTime = 0;
+    private LogcatStream mLogcatStream = null;
+    private long mTestStartTime = 0;
+    // The failed test whose logcat is captured once the next test starts, or null
+    private TestIdentifier mLogcatTest = null;
+    private long mLogcatStartTime = 0;
 
     public FailureListener(ITestInvocationListener listener, ITestDevice device,
             boolean bugReportOnFailure, boolean logcatOnFailure, boolean screenshotOnFailure,
@@ -59,6 +115,81 @@ public class FailureListener extends ResultForwarder {
         } else {
             mMaxLogcatBytes = maxLogcatBytes;
         }
+        // A capture rejected by a full queue runs on the thread running the tests, rather than
+        // being dropped
+        mExecutor = new ThreadPoolExecutor(CAPTURE_THREADS, CAPTURE_THREADS, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_CAPTURES), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "FailureListener");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        mExecutor.allowCoreThreadTimeOut(true);
+        if (mLogcatOnFailure) {
+            // Room for more than the logcat of one test, as it is sliced after the test failed
+            mLogcatStream = new LogcatStream(mDevice,
+                    Math.max(2 * mMaxLogcatBytes, MIN_LOGCAT_BUFFER_BYTES));
+            mLogcatStream.start();
+        }
+    }
+
+    /**
+     * Stops streaming the logcat of the device.
+     */
+    public void release() {
+        if (mLogcatStream != null) {
+            mLogcatStream.stop();
+        }
+    }
+
+    /**
+     * Reboots the device, without streaming its logcat while it reboots.
+     */
+    void rebootDevice() throws DeviceNotAvailableException {
+        if (mLogcatStream != null) {
+            mLogcatStream.stop();
+        }
+        try {
+            mDevice.reboot();
+        } finally {
+            if (mLogcatStream != null) {
+                mLogcatStream.start();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(TestIdentifier test) {
+        mTestStartTime = System.currentTimeMillis();
+        // The stack trace of the previous failure made it into the logcat by now
+        captureLogcat(mTestStartTime);
+        super.testStarted(test);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        // The artifacts must be logged within the test run
+        captureLogcat(System.currentTimeMillis());
+        logCaptures();
+        super.testRunEnded(elapsedTime, runMetrics);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invocationEnded(long elapsedTime) {
+        captureLogcat(System.currentTimeMillis());
+        logCaptures();
+        super.invocationEnded(elapsedTime);
     }
 
     /**
@@ -68,41 +199,61 @@ public class FailureListener extends ResultForwarder {
     public void testFailed(TestIdentifier test, String trace) {
         super.testFailed(test, trace);
         CLog.i("FailureListener.testFailed %s %b %b %b", test.toString(), mBugReportOnFailure, mLogcatOnFailure, mScreenshotOnFailure);
+        long failureTime = System.currentTimeMillis();
         if (mBugReportOnFailure) {
-           InputStreamSource bugSource = mDevice.getBugreport();
-           super.testLog(String.format("%s-bugreport", test.toString()), LogDataType.BUGREPORT,
-                   bugSource);
-           bugSource.cancel();
+            if (failureTime - mLastBugreportTime < BUGREPORT_INTERVAL_MS) {
+                CLog.i("Skipping bugreport of %s, one was captured less than %ds ago", test,
+                        TimeUnit.MILLISECONDS.toSeconds(BUGREPORT_INTERVAL_MS));
+            } else {
+                mLastBugreportTime = failureTime;
+                capture(String.format("%s-bugreport", test.toString()), LogDataType.BUGREPORT,
+                        new Callable<InputStreamSource>() {
+                    @Override
+                    public InputStreamSource call() {
+                        return mDevice.getBugreport();
+                    }
+                });
+            }
         }
         if (mLogcatOnFailure) {
-            // sleep 2s to ensure test failure stack trace makes it into logcat capture
-            RunUtil.getDefault().sleep(2 * 1000);
-            InputStreamSource logSource = mDevice.getLogcat(mMaxLogcatBytes);
-            super.testLog(String.format("%s-logcat", test.toString()), LogDataType.LOGCAT,
-                    logSource);
-            logSource.cancel();
+            // Captured once the next test starts, as the stack trace made it into the logcat
+            mLogcatTest = test;
+            mLogcatStartTime = mTestStartTime;
         }
         if (mScreenshotOnFailure) {
-            try {
-                InputStreamSource screenSource = mDevice.getScreenshot();
-                super.testLog(String.format("%s-screenshot", test.toString()), LogDataType.PNG,
-                        screenSource);
-                screenSource.cancel();
-            } catch (DeviceNotAvailableException e) {
-                CLog.e(e);
-                CLog.e("Device %s became unavailable while capturing screenshot",
-                        mDevice.getSerialNumber());
-            }
+            // Taken right away, before the screen moves on
+            FutureTask<InputStreamSource> screenshot = new FutureTask<>(
+                    new Callable<InputStreamSource>() {
+                @Override
+                public InputStreamSource call() {
+                    try {
+                        return mDevice.getScreenshot();
+                    } catch (DeviceNotAvailableException e) {
+                        CLog.e(e);
+                        CLog.e("Device %s became unavailable while capturing screenshot",
+                                mDevice.getSerialNumber());
+                        return null;
+                    }
+                }
+            });
+            screenshot.run();
+            mCaptures.add(new Capture(String.format("%s-screenshot", test.toString()),
+                    LogDataType.PNG, screenshot));
         }
         if (mRebootOnFailure) {
+            // The artifacts must be captured before the device reboots
+            captureLogcat(System.currentTimeMillis());
+            logCaptures();
             try {
                 // Rebooting on all failures can hide legitimate issues and platform instabilities,
                 // therefore only allowed on "user-debug" and "eng" builds.
-                if ("user".equals(mDevice.getProperty("ro.build.type"))) {
+                DeviceSnapshot snapshot = DeviceSnapshot.get(mDevice);
+                if ("user".equals(snapshot.getProperty("ro.build.type"))) {
                     CLog.e("Reboot-on-failure should only be used during development," +
                             " this is a\" user\" build device");
                 } else {
-                    mDevice.reboot();
+                    rebootDevice();
+                    snapshot.invalidate();
                 }
             } catch (DeviceNotAvailableException e) {
                 CLog.e(e);
@@ -112,4 +263,61 @@ public class FailureListener extends ResultForwarder {
         }
     }
 
+    /**
+     * Captures the logcat of the failed test waiting for it, if any, up to the given time.
+     */
+    private void captureLogcat(final long endTime) {
+        if (mLogcatTest == null) {
+            return;
+        }
+        final long startTime = mLogcatStartTime;
+        capture(String.format("%s-logcat", mLogcatTest.toString()), LogDataType.LOGCAT,
+                new Callable<InputStreamSource>() {
+            @Override
+            public InputStreamSource call() {
+                if (mLogcatStream != null) {
+                    InputStreamSource logcat = mLogcatStream.getLogcat(startTime, endTime,
+                            mMaxLogcatBytes);
+                    if (logcat != null) {
+                        return logcat;
+                    }
+                }
+                // The logcat was not streamed during the test, pulls it from the device
+                return mDevice.getLogcat(mMaxLogcatBytes);
+            }
+        });
+        mLogcatTest = null;
+    }
+
+    /**
+     * Captures an artifact in the background, or right away if too many are pending.
+     */
+    private void capture(String name, LogDataType type, Callable<InputStreamSource> capture) {
+        mCaptures.add(new Capture(name, type, mExecutor.submit(capture)));
+    }
+
+    /**
+     * Waits for the pending captures, and logs the captured artifacts in the order of the
+     * failures.
+     */
+    private void logCaptures() {
+        while (!mCaptures.isEmpty()) {
+            Capture capture = mCaptures.remove();
+            InputStreamSource source = null;
+            try {
+                source = capture.mSource.get();
+            } catch (InterruptedException e) {
+                CLog.w("Interrupted while capturing %s", capture.mName);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                CLog.e(e.getCause());
+                CLog.e("Failed to capture %s", capture.mName);
+            }
+            if (source != null) {
+                super.testLog(capture.mName, capture.mType, source);
+                source.cancel();
+            }
+        }
+    }
 }
@@ -57,6 +57,12 @@ public interface IModuleDef extends Comparable<IModuleDef>, IBuildReceiver, IDev
      */
     IRemoteTest getTest();
 
+    /**
+     * @return whether the module has precondition checks, whose failure must stop the run of
+     * all shards.
+     */
+    boolean hasPreconditions();
+
     /**
      * Set a list of preparers to allow to run before or after a test.
      * If this list is empty, then all configured preparers will run.
@@ -65,6 +71,15 @@ public interface IModuleDef extends Comparable<IModuleDef>, IBuildReceiver, IDev
      */
     void setPreparerWhitelist(Set<String> preparerWhitelist);
 
+    /**
+     * Sets how the APK installers of the module install APKs, when not set by the module itself.
+     *
+     * @param skipUnchanged whether to skip installing APKs already installed on the device, and
+     * to keep them installed after the module
+     * @param parallel whether to install the APKs of each installer concurrently
+     */
+    void setApkInstallMode(boolean skipUnchanged, boolean parallel);
+
     /**
      * Pushes dynamic configuration, then runs the module's precondition checks and setup tasks.
      * @param skipPrep whether preparation should be skipped
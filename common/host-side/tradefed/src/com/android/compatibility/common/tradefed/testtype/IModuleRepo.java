@@ -39,6 +39,12 @@ public interface IModuleRepo {
      */
     void setPrepared(boolean isPrepared);
 
+    /**
+     * Sets whether {@link #initialize} plans the split of the modules between shards from their
+     * runtimes in past sessions, instead of splitting them by count.
+     */
+    void setPlanShards(boolean planShards);
+
     /**
      * @return true if this repository has been initialized.
      */
@@ -56,6 +62,24 @@ public interface IModuleRepo {
      */
     List<IModuleDef> getModules(String serial);
 
+    /**
+     * Takes the next module to run on the device referenced by the given serial, as an
+     * alternative to {@link #getModules(String)} where devices pull modules as they become idle.
+     * Modules are taken longest first, modules ending the run last.
+     *
+     * @return the module, or null if there is no module left for the device.
+     */
+    IModuleDef getNextModule(String serial);
+
+    /**
+     * Stops the device referenced by the given serial from pulling modules with
+     * {@link #getNextModule(String)}, so that other devices run the modules only it could run.
+     *
+     * @param module the module the device pulled and did not complete, put back for other
+     * devices to run, or null.
+     */
+    void releaseDevice(String serial, IModuleDef module);
+
     /**
      * @return the number of shards this repo is initialized for.
      */
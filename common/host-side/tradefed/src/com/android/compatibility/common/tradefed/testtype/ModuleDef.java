@@ -17,9 +17,11 @@ package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.result.IModuleListener;
 import com.android.compatibility.common.tradefed.result.ModuleListener;
+import com.android.compatibility.common.tradefed.targetprep.ApkInstaller;
 import com.android.compatibility.common.tradefed.targetprep.DynamicConfigPusher;
 import com.android.compatibility.common.tradefed.targetprep.PreconditionPreparer;
 import com.android.compatibility.common.tradefed.targetprep.TokenRequirement;
+import com.android.compatibility.common.tradefed.util.DeviceSnapshot;
 import com.android.compatibility.common.util.AbiUtils;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.ConfigurationException;
@@ -156,6 +158,14 @@ public class ModuleDef implements IModuleDef {
         return mTokens;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasPreconditions() {
+        return !mPreconditions.isEmpty();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -183,6 +193,23 @@ public class ModuleDef implements IModuleDef {
         mPreparerWhitelist.addAll(preparerWhitelist);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setApkInstallMode(boolean skipUnchanged, boolean parallel) {
+        for (ITargetPreparer preparer : mPreparers) {
+            if (preparer instanceof ApkInstaller) {
+                if (skipUnchanged) {
+                    ((ApkInstaller) preparer).setSkipUnchanged(true);
+                }
+                if (parallel) {
+                    ((ApkInstaller) preparer).setParallelInstall(true);
+                }
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -260,6 +287,8 @@ public class ModuleDef implements IModuleDef {
     @Override
     public boolean prepare(boolean skipPrep, List<String> preconditionArgs)
             throws DeviceNotAvailableException {
+        // Previous modules may have changed the state of the device
+        DeviceSnapshot.get(mDevice).invalidateMutableState();
         for (ITargetPreparer preparer : mDynamicConfigPreparers) {
             runPreparerSetup(preparer);
         }
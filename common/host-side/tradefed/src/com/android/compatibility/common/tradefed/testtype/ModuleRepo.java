@@ -17,7 +17,11 @@ package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.result.TestRunHandler;
+import com.android.compatibility.common.tradefed.targetprep.DynamicConfigPusher;
 import com.android.compatibility.common.util.AbiUtils;
+import com.android.compatibility.common.util.DynamicConfigCache;
+import com.android.compatibility.common.util.ResultHistory;
+import com.android.compatibility.common.util.ShardPlanner;
 import com.android.compatibility.common.util.TestFilter;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.tradefed.build.IBuildInfo;
@@ -26,6 +30,7 @@ import com.android.tradefed.config.ConfigurationFactory;
 import com.android.tradefed.config.IConfiguration;
 import com.android.tradefed.config.IConfigurationFactory;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.targetprep.ITargetPreparer;
 import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.IBuildReceiver;
 import com.android.tradefed.testtype.IRemoteTest;
@@ -40,6 +45,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -49,7 +55,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -72,6 +84,8 @@ public class ModuleRepo implements IModuleRepo {
     private int mLargeModulesPerShard;
     private int mModuleCount = 0;
     private Set<String> mSerials = new HashSet<>();
+    // Serials of the devices that pulled their last module from the repo.
+    private Set<String> mFinishedSerials = new HashSet<>();
     private Map<String, Set<String>> mDeviceTokens = new HashMap<>();
     private Map<String, Map<String, String>> mTestArgs = new HashMap<>();
     private Map<String, Map<String, String>> mModuleArgs = new HashMap<>();
@@ -79,8 +93,14 @@ public class ModuleRepo implements IModuleRepo {
     private Map<String, List<TestFilter>> mIncludeFilters = new HashMap<>();
     private Map<String, List<TestFilter>> mExcludeFilters = new HashMap<>();
     private IConfigurationFactory mConfigFactory = ConfigurationFactory.getInstance();
+    private final int mLoadingThreads;
+    // URLs of the dynamic configs of the modules, downloaded while the modules are prepared
+    private final Set<String> mDynamicConfigUrls =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     private volatile boolean mInitialized = false;
+    // Whether to split the modules between shards by a plan from their measured runtimes.
+    private boolean mPlanShards = false;
     // Whether the modules in this repo are ready to run on their assigned devices.
     // True until explicitly set false in setPrepared().
     private volatile boolean mPrepared = true;
@@ -94,6 +114,26 @@ public class ModuleRepo implements IModuleRepo {
     private List<IModuleDef> mLargeModules = new ArrayList<>();
     // Holds all the tests with tokens waiting to be run. Meaning the DUT must have a specific token.
     private List<IModuleDef> mTokenModules = new ArrayList<>();
+    // The planned split of the modules between shards, or null if the modules are split by
+    // count, and the serials of the devices with tokens each shard is planned for, or null if
+    // the shard is planned for any device.
+    private ShardPlanner.Plan<IModuleDef> mShardPlan;
+    private String[] mShardSerials;
+    private boolean[] mShardTaken;
+
+    /**
+     * Creates a repo loading the modules with a thread per processor.
+     */
+    public ModuleRepo() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a repo loading the modules with the given number of threads.
+     */
+    public ModuleRepo(int loadingThreads) {
+        mLoadingThreads = loadingThreads;
+    }
 
     /**
      * {@inheritDoc}
@@ -222,6 +262,14 @@ public class ModuleRepo implements IModuleRepo {
         mPreparedLatch.countDown();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPlanShards(boolean planShards) {
+        mPlanShards = planShards;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -274,96 +322,216 @@ public class ModuleRepo implements IModuleRepo {
                     String.format("No config files found in %s", testsDir.getAbsolutePath()));
         }
         Map<String, Integer> shardedTestCounts = new HashMap<>();
-        for (File configFile : configFiles) {
-            final String name = configFile.getName().replace(CONFIG_EXT, "");
-            final String[] pathArg = new String[] { configFile.getAbsolutePath() };
-            try {
-                // Invokes parser to process the test module config file
-                // Need to generate a different config for each ABI as we cannot guarantee the
-                // configs are idempotent. This however means we parse the same file multiple times
-                for (IAbi abi : abis) {
-                    IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
-                    String id = AbiUtils.createId(abi.getName(), name);
-                    if (!shouldRunModule(id)) {
-                        // If the module should not run tests based on the state of filters,
-                        // skip this name/abi combination.
-                        continue;
+        for (List<IModuleDef> moduleDefs : loadModules(configFiles, abis, buildInfo)) {
+            Map<String, Integer> testCounts = new HashMap<>();
+            for (IModuleDef moduleDef : moduleDefs) {
+                Integer count = testCounts.get(moduleDef.getId());
+                testCounts.put(moduleDef.getId(), (count == null) ? 1 : count + 1);
+                addModuleDef(moduleDef);
+            }
+            for (Entry<String, Integer> testCount : testCounts.entrySet()) {
+                if (testCount.getValue() > 1) {
+                    shardedTestCounts.put(testCount.getKey(), testCount.getValue());
+                }
+            }
+        }
+        DynamicConfigCache.getInstance().prefetch(mDynamicConfigUrls);
+        CompatibilityBuildHelper buildHelper = new CompatibilityBuildHelper(buildInfo);
+        TestRunHandler.setTestRuns(buildHelper, shardedTestCounts);
+        mModulesPerShard = mModuleCount / shards;
+        if (mModuleCount % shards != 0) {
+            mModulesPerShard++; // Round up
+        }
+        mSmallModulesPerShard = mSmallModules.size() / shards;
+        mMediumModulesPerShard = mMediumModules.size() / shards;
+        mLargeModulesPerShard = mLargeModules.size() / shards;
+        if (mPlanShards) {
+            planShards(loadRuntimes(buildHelper), shardedTestCounts);
+        }
+    }
+
+    /**
+     * @return the runtimes of the modules in past sessions, or null if they cannot be loaded.
+     */
+    private static ResultHistory loadRuntimes(CompatibilityBuildHelper buildHelper) {
+        try {
+            return ResultHistory.loadRuntimes(buildHelper.getResultsDir());
+        } catch (IOException e) {
+            CLog.w("Could not load the history of the results, using runtime hints: %s",
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Plans the split of the modules between the shards, from the median runtime of the modules
+     * in past sessions, or from their runtime hint if they have none. Each device with tokens
+     * gets a shard of its own, planned for its tokens.
+     */
+    private void planShards(ResultHistory history, Map<String, Integer> shardedTestCounts) {
+        ShardPlanner<IModuleDef> planner = new ShardPlanner<>(mShards);
+        mShardSerials = new String[mShards];
+        mShardTaken = new boolean[mShards];
+        int shard = 0;
+        for (Entry<String, Set<String>> device : mDeviceTokens.entrySet()) {
+            if (shard < mShards) {
+                planner.setTokens(shard, device.getValue());
+                mShardSerials[shard++] = device.getKey();
+            }
+        }
+        for (List<IModuleDef> modules : Arrays.asList(
+                mTokenModules, mLargeModules, mMediumModules, mSmallModules)) {
+            for (IModuleDef module : modules) {
+                long runtime = (history == null) ? -1 : history.getRuntime(module.getId(), 50);
+                if (runtime < 0) {
+                    runtime = module.getRuntimeHint();
+                } else if (shardedTestCounts.containsKey(module.getId())) {
+                    // The history has the runtime of all the parts of the module
+                    runtime /= shardedTestCounts.get(module.getId());
+                }
+                planner.add(module, runtime, module.getTokens());
+            }
+        }
+        mShardPlan = planner.plan();
+        for (int i = 0; i < mShards; i++) {
+            CLog.d("Shard #%d planned to complete in %s", i,
+                    TimeUtil.formatElapsedTime(mShardPlan.getFinishTime(i)));
+        }
+    }
+
+    /**
+     * Loads the modules of the given config files in parallel.
+     *
+     * @return the modules of each config file, in the order of the config files.
+     */
+    private List<List<IModuleDef>> loadModules(File[] configFiles, final Set<IAbi> abis,
+            final IBuildInfo buildInfo) {
+        int threads = Math.max(1, Math.min(mLoadingThreads, configFiles.length));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<IModuleDef>>> futures = new ArrayList<>();
+            for (final File configFile : configFiles) {
+                futures.add(executor.submit(new Callable<List<IModuleDef>>() {
+                    @Override
+                    public List<IModuleDef> call() {
+                        return loadModules(configFile, abis, buildInfo);
                     }
-                    {
-                        Map<String, String> args = new HashMap<>();
-                        if (mModuleArgs.containsKey(name)) {
-                            args.putAll(mModuleArgs.get(name));
-                        }
-                        if (mModuleArgs.containsKey(id)) {
-                            args.putAll(mModuleArgs.get(id));
-                        }
-                        if (args != null && args.size() > 0) {
-                            for (Entry<String, String> entry : args.entrySet()) {
-                                String entryName = entry.getKey();
-                                String entryValue = entry.getValue();
-                                if (entryValue.contains(":")) {
-                                    // entryValue is key-value pair
-                                    String key = entryValue.split(":")[0];
-                                    String value = entryValue.split(":")[1];
-                                    config.injectOptionValue(entryName, key, value);
-                                } else {
-                                    // entryValue is just the argument value
-                                    config.injectOptionValue(entryName, entryValue);
-                                }
-                            }
-                        }
+                }));
+            }
+            List<List<IModuleDef>> modules = new ArrayList<>();
+            for (Future<List<IModuleDef>> future : futures) {
+                modules.add(future.get());
+            }
+            return modules;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading modules", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads the modules of the given config file, for each ABI. The parsed definition of the
+     * config file is cached by the {@link IConfigurationFactory}, so the file is only read once.
+     *
+     * @return the modules to run, one per test of the config for each ABI, or several if a test
+     * is split in shards.
+     */
+    private List<IModuleDef> loadModules(File configFile, Set<IAbi> abis, IBuildInfo buildInfo) {
+        final String name = configFile.getName().replace(CONFIG_EXT, "");
+        final String[] pathArg = new String[] { configFile.getAbsolutePath() };
+        List<IModuleDef> moduleDefs = new ArrayList<>();
+        try {
+            // Invokes parser to process the test module config file
+            // Need to generate a different config for each ABI as we cannot guarantee the
+            // configs are idempotent. The factory caches the parsed config file, so this only
+            // creates the objects of the config again.
+            for (IAbi abi : abis) {
+                IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
+                String id = AbiUtils.createId(abi.getName(), name);
+                if (!shouldRunModule(id)) {
+                    // If the module should not run tests based on the state of filters,
+                    // skip this name/abi combination.
+                    continue;
+                }
+                {
+                    Map<String, String> args = new HashMap<>();
+                    if (mModuleArgs.containsKey(name)) {
+                        args.putAll(mModuleArgs.get(name));
                     }
-                    List<IRemoteTest> tests = config.getTests();
-                    for (IRemoteTest test : tests) {
-                        String className = test.getClass().getName();
-                        Map<String, String> args = new HashMap<>();
-                        if (mTestArgs.containsKey(className)) {
-                            args.putAll(mTestArgs.get(className));
-                        }
-                        if (args != null && args.size() > 0) {
-                            for (Entry<String, String> entry : args.entrySet()) {
-                                String entryName = entry.getKey();
-                                String entryValue = entry.getValue();
-                                if (entryValue.contains(":")) {
-                                    // entryValue is key-value pair
-                                    String key = entryValue.split(":")[0];
-                                    String value = entryValue.split(":")[1];
-                                    config.injectOptionValue(entryName, key, value);
-                                } else {
-                                    // entryValue is just the argument value
-                                    config.injectOptionValue(entryName, entryValue);
-                                }
+                    if (mModuleArgs.containsKey(id)) {
+                        args.putAll(mModuleArgs.get(id));
+                    }
+                    if (args != null && args.size() > 0) {
+                        for (Entry<String, String> entry : args.entrySet()) {
+                            String entryName = entry.getKey();
+                            String entryValue = entry.getValue();
+                            if (entryValue.contains(":")) {
+                                // entryValue is key-value pair
+                                String key = entryValue.split(":")[0];
+                                String value = entryValue.split(":")[1];
+                                config.injectOptionValue(entryName, key, value);
+                            } else {
+                                // entryValue is just the argument value
+                                config.injectOptionValue(entryName, entryValue);
                             }
                         }
-                        addFiltersToTest(test, abi, name);
                     }
-                    List<IRemoteTest> shardedTests = tests;
-                    if (mShards > 1) {
-                         shardedTests = splitShardableTests(tests, buildInfo);
+                }
+                for (ITargetPreparer preparer : config.getTargetPreparers()) {
+                    if (preparer instanceof DynamicConfigPusher) {
+                        String url = ((DynamicConfigPusher) preparer).getConfigUrl(buildInfo);
+                        if (url != null) {
+                            mDynamicConfigUrls.add(url);
+                        }
                     }
-                    if (shardedTests.size() > 1) {
-                        shardedTestCounts.put(id, shardedTests.size());
+                }
+                List<IRemoteTest> tests = config.getTests();
+                for (IRemoteTest test : tests) {
+                    String className = test.getClass().getName();
+                    Map<String, String> args = new HashMap<>();
+                    if (mTestArgs.containsKey(className)) {
+                        args.putAll(mTestArgs.get(className));
                     }
-                    for (IRemoteTest test : shardedTests) {
-                        if (test instanceof IBuildReceiver) {
-                            ((IBuildReceiver)test).setBuild(buildInfo);
+                    if (args != null && args.size() > 0) {
+                        for (Entry<String, String> entry : args.entrySet()) {
+                            String entryName = entry.getKey();
+                            String entryValue = entry.getValue();
+                            if (entryValue.contains(":")) {
+                                // entryValue is key-value pair
+                                String key = entryValue.split(":")[0];
+                                String value = entryValue.split(":")[1];
+                                config.injectOptionValue(entryName, key, value);
+                            } else {
+                                // entryValue is just the argument value
+                                config.injectOptionValue(entryName, entryValue);
+                            }
                         }
-                        addModuleDef(name, abi, test, pathArg);
                     }
+                    addFiltersToTest(test, abi, name);
+                }
+                List<IRemoteTest> shardedTests = tests;
+                if (mShards > 1) {
+                     shardedTests = splitShardableTests(tests, buildInfo);
+                }
+                for (IRemoteTest test : shardedTests) {
+                    if (test instanceof IBuildReceiver) {
+                        ((IBuildReceiver)test).setBuild(buildInfo);
+                    }
+                    moduleDefs.add(createModuleDef(name, abi, test, pathArg));
                 }
-            } catch (ConfigurationException e) {
-                throw new RuntimeException(String.format("error parsing config file: %s",
-                        configFile.getName()), e);
             }
+        } catch (ConfigurationException e) {
+            throw new RuntimeException(String.format("error parsing config file: %s",
+                    configFile.getName()), e);
         }
-        TestRunHandler.setTestRuns(new CompatibilityBuildHelper(buildInfo), shardedTestCounts);
-        mModulesPerShard = mModuleCount / shards;
-        if (mModuleCount % shards != 0) {
-            mModulesPerShard++; // Round up
-        }
-        mSmallModulesPerShard = mSmallModules.size() / shards;
-        mMediumModulesPerShard = mMediumModules.size() / shards;
-        mLargeModulesPerShard = mLargeModules.size() / shards;
+        return moduleDefs;
     }
 
     private static List<IRemoteTest> splitShardableTests(List<IRemoteTest> tests,
@@ -399,26 +567,40 @@ public class ModuleRepo implements IModuleRepo {
 
     private static void addFilter(String abi, TestFilter filter,
             Map<String, List<TestFilter>> filters) {
-        getFilter(filters, AbiUtils.createId(abi, filter.getName())).add(filter);
-    }
-
-    private static List<TestFilter> getFilter(Map<String, List<TestFilter>> filters, String id) {
+        String id = AbiUtils.createId(abi, filter.getName());
         List<TestFilter> fs = filters.get(id);
         if (fs == null) {
             fs = new ArrayList<>();
             filters.put(id, fs);
         }
-        return fs;
+        fs.add(filter);
+    }
+
+    /**
+     * @return the filters of the given module. The filters are not modified, as modules are
+     * loaded in parallel.
+     */
+    private static List<TestFilter> getFilter(Map<String, List<TestFilter>> filters, String id) {
+        List<TestFilter> fs = filters.get(id);
+        return (fs == null) ? Collections.<TestFilter>emptyList() : fs;
     }
 
-    private void addModuleDef(String name, IAbi abi, IRemoteTest test,
+    private IModuleDef createModuleDef(String name, IAbi abi, IRemoteTest test,
             String[] configPaths) throws ConfigurationException {
         // Invokes parser to process the test module config file
         IConfiguration config = mConfigFactory.createConfigurationFromArgs(configPaths);
-        addModuleDef(new ModuleDef(name, abi, test, config.getTargetPreparers()));
+        return new ModuleDef(name, abi, test, config.getTargetPreparers());
     }
 
     private void addModuleDef(IModuleDef moduleDef) {
+        putModule(moduleDef);
+        mModuleCount++;
+    }
+
+    /**
+     * Puts the given module with the modules waiting to be run.
+     */
+    private void putModule(IModuleDef moduleDef) {
         Set<String> tokens = moduleDef.getTokens();
         if (tokens != null && !tokens.isEmpty()) {
             mTokenModules.add(moduleDef);
@@ -429,7 +611,6 @@ public class ModuleRepo implements IModuleRepo {
         } else {
             mLargeModules.add(moduleDef);
         }
-        mModuleCount++;
     }
 
     private void addFiltersToTest(IRemoteTest test, IAbi abi, String name) {
@@ -543,32 +724,182 @@ public class ModuleRepo implements IModuleRepo {
     public synchronized List<IModuleDef> getModules(String serial) {
         List<IModuleDef> modules = new ArrayList<>(mModulesPerShard);
         Set<String> tokens = mDeviceTokens.get(serial);
-        getModulesWithTokens(tokens, modules);
-        getModules(modules);
+        int shard = -1;
+        if (mShardPlan == null) {
+            getModulesWithTokens(tokens, modules);
+            getModules(modules);
+        } else if ((shard = takeShard(serial)) >= 0) {
+            Set<IModuleDef> waiting = new HashSet<>();
+            for (List<IModuleDef> list : Arrays.asList(
+                    mTokenModules, mLargeModules, mMediumModules, mSmallModules)) {
+                waiting.addAll(list);
+            }
+            for (IModuleDef def : mShardPlan.getModules(shard)) {
+                // Modules may already be taken by devices pulling modules with getNextModule
+                if (waiting.contains(def)) {
+                    modules.add(def);
+                }
+            }
+            removeModules(modules);
+        }
         mSerials.add(serial);
         if (mSerials.size() == mShards) {
-            for (IModuleDef def : mTokenModules) {
-                CLog.logAndDisplay(LogLevel.WARN,
-                        String.format("No devices found with %s, running %s on %s",
-                                def.getTokens(), def.getId(), serial));
-                modules.add(def);
-            }
             // Add left over modules
-            modules.addAll(mLargeModules);
-            modules.addAll(mMediumModules);
-            modules.addAll(mSmallModules);
+            List<IModuleDef> leftovers = new ArrayList<>();
+            leftovers.addAll(mTokenModules);
+            leftovers.addAll(mLargeModules);
+            leftovers.addAll(mMediumModules);
+            leftovers.addAll(mSmallModules);
+            modules.addAll(leftovers);
+            removeModules(leftovers);
         }
         long estimatedTime = 0;
         for (IModuleDef def : modules) {
             estimatedTime += def.getRuntimeHint();
+            Set<String> required = def.getTokens();
+            if (required != null && !required.isEmpty()
+                    && (tokens == null || !tokens.containsAll(required))) {
+                CLog.logAndDisplay(LogLevel.WARN,
+                        String.format("No devices found with %s, running %s on %s",
+                                required, def.getId(), serial));
+            }
         }
         Collections.sort(modules, new ExecutionOrderComparator());
         CLog.logAndDisplay(LogLevel.INFO, String.format(
                 "%s running %s modules, expected to complete in %s",
-                serial, modules.size(), TimeUtil.formatElapsedTime(estimatedTime)));
+                serial, modules.size(), TimeUtil.formatElapsedTime((shard >= 0)
+                        ? mShardPlan.getFinishTime(shard) : estimatedTime)));
         return modules;
     }
 
+    /**
+     * Takes the shard planned for the device referenced by the given serial, or else a shard
+     * planned for any device.
+     *
+     * @return the shard, or -1 if all shards are taken.
+     */
+    private int takeShard(String serial) {
+        int shard = -1;
+        for (int i = 0; i < mShards; i++) {
+            if (mShardTaken[i]) {
+                continue;
+            }
+            if (serial.equals(mShardSerials[i])) {
+                shard = i;
+                break;
+            }
+            if (shard == -1 || (mShardSerials[shard] != null && mShardSerials[i] == null)) {
+                shard = i;
+            }
+        }
+        if (shard >= 0) {
+            mShardTaken[shard] = true;
+        }
+        return shard;
+    }
+
+    /**
+     * Removes the given modules from the modules waiting to be run.
+     */
+    private void removeModules(Collection<IModuleDef> modules) {
+        Set<IModuleDef> removed = new HashSet<>(modules);
+        mTokenModules.removeAll(removed);
+        mLargeModules.removeAll(removed);
+        mMediumModules.removeAll(removed);
+        mSmallModules.removeAll(removed);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized IModuleDef getNextModule(String serial) {
+        mSerials.add(serial);
+        Set<String> tokens = mDeviceTokens.get(serial);
+        ExecutionOrderComparator order = new ExecutionOrderComparator();
+        List<IModuleDef> source = null;
+        IModuleDef next = null;
+        boolean nextNeedsTokens = false;
+        for (List<IModuleDef> modules : Arrays.asList(
+                mTokenModules, mLargeModules, mMediumModules, mSmallModules)) {
+            for (IModuleDef module : modules) {
+                boolean needsTokens = (modules == mTokenModules);
+                if (needsTokens && (tokens == null || !tokens.containsAll(module.getTokens()))) {
+                    continue;
+                }
+                int compare;
+                if (next == null) {
+                    compare = -1;
+                } else if (needsTokens != nextNeedsTokens
+                        && getEndingOrder(module) == getEndingOrder(next)) {
+                    // A device takes the modules only it can run first
+                    compare = needsTokens ? -1 : 1;
+                } else {
+                    compare = order.compare(module, next);
+                }
+                if (compare < 0) {
+                    source = modules;
+                    next = module;
+                    nextNeedsTokens = needsTokens;
+                }
+            }
+        }
+        if (next == null) {
+            next = getOrphanTokenModule(serial);
+            source = mTokenModules;
+        }
+        if (next == null) {
+            mFinishedSerials.add(serial);
+            return null;
+        }
+        source.remove(next);
+        CLog.d("%s running %s, expected to complete in %s", serial, next.getId(),
+                TimeUtil.formatElapsedTime(next.getRuntimeHint()));
+        return next;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void releaseDevice(String serial, IModuleDef module) {
+        if (module != null) {
+            CLog.logAndDisplay(LogLevel.WARN, "%s did not complete %s, putting it back",
+                    serial, module.getId());
+            putModule(module);
+        }
+        mSerials.add(serial);
+        mFinishedSerials.add(serial);
+    }
+
+    /**
+     * @return the first module with tokens that no other device still pulling modules can run,
+     * once all devices started pulling modules, or null if there is none.
+     */
+    private IModuleDef getOrphanTokenModule(String serial) {
+        if (mSerials.size() < mShards) {
+            return null;
+        }
+        for (IModuleDef module : mTokenModules) {
+            boolean orphan = true;
+            for (String other : mSerials) {
+                Set<String> tokens = mDeviceTokens.get(other);
+                if (!other.equals(serial) && !mFinishedSerials.contains(other) && tokens != null
+                        && tokens.containsAll(module.getTokens())) {
+                    orphan = false;
+                    break;
+                }
+            }
+            if (orphan) {
+                CLog.logAndDisplay(LogLevel.WARN,
+                        String.format("No devices found with %s, running %s on %s",
+                                module.getTokens(), module.getId(), serial));
+                return module;
+            }
+        }
+        return null;
+    }
+
     /**
      * Iterates through the remaining tests that require tokens and if the device has all the
      * required tokens it will queue that module to run on that device, else the module gets put
@@ -667,18 +998,21 @@ public class ModuleRepo implements IModuleRepo {
         }
     }
 
+    /**
+     * @return the position of the module among the modules ending the run, or 0 if the module
+     * does not end the run.
+     */
+    private static int getEndingOrder(IModuleDef def) {
+        Integer order = ENDING_MODULES.get(def.getName());
+        return (order == null) ? 0 : order;
+    }
+
     private static class ExecutionOrderComparator implements Comparator<IModuleDef> {
 
         @Override
         public int compare(IModuleDef def1, IModuleDef def2) {
-            int value1 = 0;
-            int value2 = 0;
-            if (ENDING_MODULES.containsKey(def1.getName())) {
-                value1 = ENDING_MODULES.get(def1.getName());
-            }
-            if (ENDING_MODULES.containsKey(def2.getName())) {
-                value2 = ENDING_MODULES.get(def2.getName());
-            }
+            int value1 = getEndingOrder(def1);
+            int value2 = getEndingOrder(def2);
             if (value1 == 0 && value2 == 0) {
                 return (int) Math.signum(def2.getRuntimeHint() - def1.getRuntimeHint());
             }
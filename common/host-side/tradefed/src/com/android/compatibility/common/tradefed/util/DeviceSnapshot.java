@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Snapshot of the properties and settings of a device, shared by the preparers of all the
+ * modules so that checking a property or a setting does not cost a round trip to the device.
+ * <p/>
+ * All the properties are read with a single getprop, and all the settings of a namespace with a
+ * single "settings list". Read-only properties are kept until {@link #invalidate()} is called
+ * when the device reboots. The other properties and the settings, which tests may change, are
+ * read again after {@link #invalidateMutableState()} is called, eg. before a module is prepared.
+ * Putting a setting through the snapshot reads the settings of its namespace again.
+ */
+public class DeviceSnapshot {
+
+    private static final String READ_ONLY_PREFIX = "ro.";
+    private static final Pattern PROPERTY_PATTERN =
+            Pattern.compile("^\\[([^\\]]+)\\]: \\[(.*)\\]$");
+    private static final String NULL_SETTING = "null";
+
+    /** The snapshot of a device, kept as long as the device is. */
+    private static class State {
+        Map<String, String> mProperties = null;
+        // Whether the properties other than the read-only ones must be read again
+        boolean mPropertiesStale = false;
+        final Map<String, Map<String, String>> mSettings = new HashMap<>();
+    }
+
+    private static final Map<ITestDevice, State> sStates = new WeakHashMap<>();
+
+    private final ITestDevice mDevice;
+    private final State mState;
+
+    /**
+     * @return the snapshot of the given device.
+     */
+    public static DeviceSnapshot get(ITestDevice device) {
+        synchronized (sStates) {
+            State state = sStates.get(device);
+            if (state == null) {
+                state = new State();
+                sStates.put(device, state);
+            }
+            return new DeviceSnapshot(device, state);
+        }
+    }
+
+    private DeviceSnapshot(ITestDevice device, State state) {
+        mDevice = device;
+        mState = state;
+    }
+
+    /**
+     * @return the value of the given property, or null if it is not set.
+     */
+    public String getProperty(String name) throws DeviceNotAvailableException {
+        synchronized (mState) {
+            if (mState.mProperties == null
+                    || (mState.mPropertiesStale && !name.startsWith(READ_ONLY_PREFIX))) {
+                Map<String, String> properties =
+                        parseProperties(mDevice.executeShellCommand("getprop"));
+                if (properties.isEmpty()) {
+                    // Unexpected output of getprop, reads the property alone
+                    return mDevice.getProperty(name);
+                }
+                mState.mProperties = properties;
+                mState.mPropertiesStale = false;
+            }
+            return mState.mProperties.get(name);
+        }
+    }
+
+    /**
+     * @param namespace the namespace of the setting, ie. "secure", "global" or "system"
+     * @return the value of the given setting, or null if it is not set.
+     */
+    public String getSetting(String namespace, String name) throws DeviceNotAvailableException {
+        synchronized (mState) {
+            Map<String, String> settings = mState.mSettings.get(namespace);
+            if (settings == null) {
+                settings = parseSettings(
+                        mDevice.executeShellCommand(String.format("settings list %s", namespace)));
+                if (settings.isEmpty()) {
+                    // "settings list" is not supported, reads the setting alone
+                    String value = mDevice.executeShellCommand(
+                            String.format("settings get %s %s", namespace, name)).trim();
+                    return NULL_SETTING.equals(value) ? null : value;
+                }
+                mState.mSettings.put(namespace, settings);
+            }
+            return settings.get(name);
+        }
+    }
+
+    /**
+     * Sets the given setting on the device.
+     *
+     * @param namespace the namespace of the setting, ie. "secure", "global" or "system"
+     */
+    public void putSetting(String namespace, String name, String value)
+            throws DeviceNotAvailableException {
+        synchronized (mState) {
+            // Setting a value may change others, eg. through an observer on the device
+            mState.mSettings.remove(namespace);
+            mDevice.executeShellCommand(
+                    String.format("settings put %s %s %s", namespace, name, value));
+        }
+    }
+
+    /**
+     * Drops the properties, other than the read-only ones, and the settings of the snapshot, so
+     * that they are read again from the device.
+     */
+    public void invalidateMutableState() {
+        synchronized (mState) {
+            mState.mPropertiesStale = true;
+            mState.mSettings.clear();
+        }
+    }
+
+    /**
+     * Drops the whole snapshot, eg. when the device reboots.
+     */
+    public void invalidate() {
+        synchronized (mState) {
+            mState.mProperties = null;
+            mState.mPropertiesStale = false;
+            mState.mSettings.clear();
+        }
+    }
+
+    /**
+     * Parses the output of getprop, ie. lines of "[name]: [value]". Properties with an empty
+     * value are not set.
+     */
+    private static Map<String, String> parseProperties(String output) {
+        Map<String, String> properties = new HashMap<>();
+        if (output == null) {
+            return properties;
+        }
+        for (String line : output.split("\r?\n")) {
+            Matcher matcher = PROPERTY_PATTERN.matcher(line.trim());
+            if (matcher.matches() && !matcher.group(2).isEmpty()) {
+                properties.put(matcher.group(1), matcher.group(2));
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Parses the output of "settings list", ie. lines of "name=value".
+     */
+    private static Map<String, String> parseSettings(String output) {
+        Map<String, String> settings = new HashMap<>();
+        if (output == null) {
+            return settings;
+        }
+        for (String line : output.split("\r?\n")) {
+            int separator = line.indexOf('=');
+            if (separator > 0) {
+                settings.put(line.substring(0, separator), line.substring(separator + 1).trim());
+            }
+        }
+        return settings;
+    }
+}
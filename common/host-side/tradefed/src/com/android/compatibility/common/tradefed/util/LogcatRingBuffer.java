@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size buffer of the most recent logcat lines, each stamped with the time it was received.
+ * <p/>
+ * The lines are kept off the heap, so that a large buffer per device does not weigh on the
+ * garbage collector. When the buffer is full, the oldest lines are dropped to make room.
+ */
+public class LogcatRingBuffer {
+
+    // Each line is stored as its time, its length and its bytes
+    private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES;
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    // Offset of the oldest line, and offset the next line is written at
+    private int mHead = 0;
+    private int mTail = 0;
+    private int mSize = 0;
+
+    /**
+     * @param capacity the size of the buffer in bytes
+     */
+    public LogcatRingBuffer(int capacity) {
+        if (capacity <= HEADER_BYTES) {
+            throw new IllegalArgumentException(
+                    String.format("Logcat buffer of %d bytes is too small", capacity));
+        }
+        mCapacity = capacity;
+        mBuffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Adds a line, dropping the oldest lines if the buffer is full. A line larger than the
+     * buffer is truncated.
+     *
+     * @param time the time the line was received
+     */
+    public synchronized void add(long time, byte[] line, int offset, int length) {
+        length = Math.min(length, mCapacity - HEADER_BYTES);
+        while (mCapacity - mSize < HEADER_BYTES + length) {
+            drop();
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putLong(time).putInt(length);
+        write(header.array(), 0, HEADER_BYTES);
+        write(line, offset, length);
+    }
+
+    /**
+     * Gets the lines received within the given window, keeping only the latest ones if they
+     * exceed the given size.
+     *
+     * @param from the time of the first line, inclusive
+     * @param to the time of the last line, inclusive
+     * @param maxBytes the maximum size of the lines returned
+     */
+    public synchronized byte[] getLines(long from, long to, int maxBytes) {
+        // Finds the lines of the window, and how many of the latest fit in maxBytes
+        int start = -1;
+        int bytes = 0;
+        int position = mHead;
+        for (int read = 0; read < mSize; ) {
+            long time = readLong(position);
+            int length = readInt(position + Long.BYTES);
+            int next = (position + HEADER_BYTES + length) % mCapacity;
+            if (time > to) {
+                break;
+            }
+            if (time >= from) {
+                if (start < 0) {
+                    start = position;
+                }
+                bytes += length;
+                // Drops the oldest lines of the window until the lines fit
+                while (bytes > maxBytes) {
+                    bytes -= readInt(start + Long.BYTES);
+                    start = (start + HEADER_BYTES + readInt(start + Long.BYTES)) % mCapacity;
+                }
+            }
+            read += HEADER_BYTES + length;
+            position = next;
+        }
+        byte[] lines = new byte[bytes];
+        if (start < 0) {
+            return lines;
+        }
+        int copied = 0;
+        for (position = start; copied < bytes; ) {
+            int length = readInt(position + Long.BYTES);
+            read(position + HEADER_BYTES, lines, copied, length);
+            copied += length;
+            position = (position + HEADER_BYTES + length) % mCapacity;
+        }
+        return lines;
+    }
+
+    /**
+     * @return the time of the oldest line in the buffer, or -1 if the buffer is empty.
+     */
+    // Visible for unit testing
+    synchronized long getOldestTime() {
+        return (mSize == 0) ? -1 : readLong(mHead);
+    }
+
+    private void drop() {
+        int length = HEADER_BYTES + readInt(mHead + Long.BYTES);
+        mHead = (mHead + length) % mCapacity;
+        mSize -= length;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        int first = Math.min(length, mCapacity - mTail);
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mTail);
+        buffer.put(bytes, offset, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.put(bytes, offset + first, length - first);
+        }
+        mTail = (mTail + length) % mCapacity;
+        mSize += length;
+    }
+
+    private void read(int position, byte[] bytes, int offset, int length) {
+        position %= mCapacity;
+        int first = Math.min(length, mCapacity - position);
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(position);
+        buffer.get(bytes, offset, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.get(bytes, offset + first, length - first);
+        }
+    }
+
+    private long readLong(int position) {
+        byte[] bytes = new byte[Long.BYTES];
+        read(position, bytes, 0, Long.BYTES);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    private int readInt(int position) {
+        byte[] bytes = new byte[Integer.BYTES];
+        read(position, bytes, 0, Integer.BYTES);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.result.ByteArrayInputStreamSource;
+import com.android.tradefed.result.InputStreamSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the logcat of a device into a {@link LogcatRingBuffer} in the background, so that the
+ * logcat of a time window is available without a round trip to the device.
+ * <p/>
+ * The logcat is streamed through the {@link IDevice} of the device rather than through the
+ * {@link ITestDevice}, so that a stream failing while the device is unavailable never starts a
+ * recovery of the device concurrently with the tests. The stream is restarted when it ends, eg.
+ * when the device reboots, but should be stopped around planned reboots. Lines are stamped with
+ * the time they are received, and a window is only served if the stream was running for all of
+ * it.
+ */
+public class LogcatStream {
+
+    static final String LOGCAT_COMMAND = "logcat -v threadtime -T 1";
+    private static final long RESTART_DELAY_MS = 5 * 1000;
+
+    private final ITestDevice mDevice;
+    private final LogcatRingBuffer mBuffer;
+    private final long mRestartDelay;
+    private volatile Streamer mStreamer = null;
+
+    /**
+     * @param capacity the size of the buffer in bytes
+     */
+    public LogcatStream(ITestDevice device, int capacity) {
+        this(device, capacity, RESTART_DELAY_MS);
+    }
+
+    /* package */ LogcatStream(ITestDevice device, int capacity, long restartDelay) {
+        mDevice = device;
+        mBuffer = new LogcatRingBuffer(capacity);
+        mRestartDelay = restartDelay;
+    }
+
+    /**
+     * Starts streaming the logcat in the background, unless it is already streaming.
+     */
+    public synchronized void start() {
+        if (mStreamer != null) {
+            return;
+        }
+        mStreamer = new Streamer();
+        Thread thread = new Thread(mStreamer,
+                String.format("LogcatStream-%s", mDevice.getSerialNumber()));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops streaming the logcat. Windows before the stream is started again are not served.
+     */
+    public synchronized void stop() {
+        if (mStreamer != null) {
+            mStreamer.cancel();
+            mStreamer = null;
+        }
+    }
+
+    /**
+     * Gets the logcat received within the given window, keeping only the latest lines if they
+     * exceed the given size.
+     *
+     * @return the logcat, or null if the stream was not running for all of the window
+     */
+    public InputStreamSource getLogcat(long from, long to, int maxBytes) {
+        Streamer streamer = mStreamer;
+        long streamStart = (streamer == null) ? -1 : streamer.mStreamStart;
+        if (streamStart < 0 || streamStart > from) {
+            return null;
+        }
+        return new ByteArrayInputStreamSource(mBuffer.getLines(from, to, maxBytes));
+    }
+
+    /**
+     * Runs logcat on the device until cancelled, splitting its output into lines added to the
+     * buffer.
+     */
+    private class Streamer implements Runnable, IShellOutputReceiver {
+        private final ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+        private volatile boolean mCancelled = false;
+        // Time since which logcat has been running, or -1 if it is not running
+        volatile long mStreamStart = -1;
+
+        void cancel() {
+            mCancelled = true;
+            mStreamStart = -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            while (!mCancelled) {
+                mLine.reset();
+                try {
+                    IDevice device = mDevice.getIDevice();
+                    mStreamStart = System.currentTimeMillis();
+                    device.executeShellCommand(LOGCAT_COMMAND, this, 0, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | AdbCommandRejectedException
+                        | ShellCommandUnresponsiveException | IOException e) {
+                    CLog.w("Logcat stream of %s ended: %s", mDevice.getSerialNumber(),
+                            e.getMessage());
+                } catch (RuntimeException e) {
+                    CLog.e(e);
+                }
+                // Lines are lost until the stream restarts, windows before are not served
+                mStreamStart = -1;
+                if (!mCancelled) {
+                    try {
+                        Thread.sleep(mRestartDelay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            if (mCancelled) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            int start = offset;
+            for (int i = offset; i < offset + length; i++) {
+                if (data[i] == '\n') {
+                    mLine.write(data, start, i + 1 - start);
+                    mBuffer.add(now, mLine.toByteArray(), 0, mLine.size());
+                    mLine.reset();
+                    start = i + 1;
+                }
+            }
+            mLine.write(data, start, offset + length - start);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void flush() {
+            if (!mCancelled && mLine.size() > 0) {
+                mBuffer.add(System.currentTimeMillis(), mLine.toByteArray(), 0, mLine.size());
+                mLine.reset();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+}
@@ -175,7 +175,7 @@ public class RetryFilterHelper {
     public IInvocationResult getResult() {
         IInvocationResult result = null;
         try {
-            result = ResultHandler.findResult(mBuild.getResultsDir(), mSessionId);
+            result = ResultHandler.findResultStatuses(mBuild.getResultsDir(), mSessionId);
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
         }
@@ -19,16 +19,24 @@ import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelperT
 import com.android.compatibility.common.tradefed.command.CompatibilityConsoleTest;
 import com.android.compatibility.common.tradefed.result.ChecksumReporterTest;
 import com.android.compatibility.common.tradefed.result.ConsoleReporterTest;
+import com.android.compatibility.common.tradefed.result.FinalizePipelineTest;
 import com.android.compatibility.common.tradefed.result.MetadataReporterTest;
 import com.android.compatibility.common.tradefed.result.ResultReporterTest;
+import com.android.compatibility.common.tradefed.result.ShardResultMergerTest;
 import com.android.compatibility.common.tradefed.result.SubPlanHelperTest;
+import com.android.compatibility.common.tradefed.targetprep.ApkInstallLedgerTest;
+import com.android.compatibility.common.tradefed.targetprep.ApkInstallerTest;
 import com.android.compatibility.common.tradefed.targetprep.PropertyCheckTest;
 import com.android.compatibility.common.tradefed.targetprep.SettingsPreparerTest;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTestTest;
+import com.android.compatibility.common.tradefed.testtype.FailureListenerTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleDefTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepoTest;
 import com.android.compatibility.common.tradefed.testtype.SubPlanTest;
 import com.android.compatibility.common.tradefed.util.CollectorUtilTest;
+import com.android.compatibility.common.tradefed.util.DeviceSnapshotTest;
+import com.android.compatibility.common.tradefed.util.LogcatRingBufferTest;
+import com.android.compatibility.common.tradefed.util.LogcatStreamTest;
 import com.android.compatibility.common.tradefed.util.OptionHelperTest;
 import com.android.compatibility.common.tradefed.util.RetryFilterHelperTest;
 
@@ -49,13 +57,21 @@ public class UnitTests extends TestSuite {
         addTestSuite(CompatibilityTestTest.class);
         addTestSuite(ConsoleReporterTest.class);
         addTestSuite(ChecksumReporterTest.class);
+        addTestSuite(FinalizePipelineTest.class);
         addTestSuite(ResultReporterTest.class);
+        addTestSuite(ShardResultMergerTest.class);
         addTestSuite(CompatibilityTestTest.class);
         addTestSuite(OptionHelperTest.class);
         addTestSuite(CollectorUtilTest.class);
+        addTestSuite(DeviceSnapshotTest.class);
+        addTestSuite(FailureListenerTest.class);
+        addTestSuite(LogcatRingBufferTest.class);
+        addTestSuite(LogcatStreamTest.class);
         addTestSuite(MetadataReporterTest.class);
         addTestSuite(ModuleDefTest.class);
         addTestSuite(ModuleRepoTest.class);
+        addTestSuite(ApkInstallLedgerTest.class);
+        addTestSuite(ApkInstallerTest.class);
         addTestSuite(PropertyCheckTest.class);
         addTestSuite(SettingsPreparerTest.class);
         addTestSuite(SubPlanTest.class);
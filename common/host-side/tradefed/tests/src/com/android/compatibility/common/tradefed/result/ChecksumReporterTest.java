@@ -31,11 +31,18 @@ import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.util.FileUtil;
 
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Random;
 
 public class ChecksumReporterTest extends TestCase {
 
@@ -137,6 +144,51 @@ public class ChecksumReporterTest extends TestCase {
                 storedChecksum.containsFile(file1, mRoot.getName()));
     }
 
+    public void testLegacyFileSerialization() throws Exception {
+        File file1 = new File(mRoot, "file1.txt");
+        try (FileWriter fileWriter = new FileWriter(file1, false)) {
+            fileWriter.append("This is a test file");
+        }
+        mReporter.addFile(file1, mRoot.getName());
+        mReporter.saveToFile(mRoot);
+        assertTrue("Compact checksum maintains file hash",
+                ChecksumReporter.load(mRoot).containsFile(file1, mRoot.getName()));
+
+        // Checksums written by previous versions are serialized objects
+        BloomFilter<CharSequence> resultChecksum = BloomFilter.create(
+                Funnels.unencodedCharsFunnel(), 100, .001);
+        HashMap<String, byte[]> fileChecksum = new HashMap<>();
+        try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(
+                new File(mRoot, ChecksumReporter.NAME)))) {
+            output.writeShort(650);
+            output.writeShort(1);
+            output.writeObject(resultChecksum);
+            output.writeObject(fileChecksum);
+        }
+        ChecksumReporter legacyChecksum = ChecksumReporter.load(mRoot);
+        assertFalse("Legacy checksum should not contain file",
+                legacyChecksum.containsFile(file1, mRoot.getName()));
+    }
+
+    public void testLargeFileCRC() throws IOException {
+        // Large enough to be hashed through memory-mapped reads
+        byte[] content = new byte[4 * 1024 * 1024];
+        new Random(0).nextBytes(content);
+        File file1 = new File(mRoot, "file1.bin");
+        try (FileOutputStream output = new FileOutputStream(file1)) {
+            output.write(content);
+        }
+        mReporter.addDirectory(mRoot);
+        assertTrue(mReporter.containsFile(file1, mRoot.getName()));
+
+        content[content.length - 1]++;
+        try (FileOutputStream output = new FileOutputStream(file1)) {
+            output.write(content);
+        }
+        assertFalse("Should not contain modified file",
+                mReporter.containsFile(file1, mRoot.getName()));
+    }
+
     public void testFileCRCOperations() throws IOException {
         File subDirectory = new File(mRoot, "child");
         subDirectory.mkdir();
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link FinalizePipeline}
+ */
+public class FinalizePipelineTest extends TestCase {
+
+    private final List<String> mDone = Collections.synchronizedList(new ArrayList<String>());
+
+    public void testRun_dependencies() throws Exception {
+        FinalizePipeline pipeline = new FinalizePipeline(4);
+        pipeline.addStage("a", done("a"));
+        pipeline.addStage("b", done("b"), "a");
+        pipeline.addStage("c", done("c"), "a");
+        pipeline.addStage("d", done("d"), "b", "c");
+        assertTrue("Expected success", pipeline.run());
+
+        assertEquals("Expected all stages", 4, mDone.size());
+        assertEquals("a should be done first", "a", mDone.get(0));
+        assertEquals("d should be done last", "d", mDone.get(3));
+        assertEquals("Expected all timings", Arrays.asList("a", "b", "c", "d"),
+                sorted(pipeline.getStageTimes().keySet()));
+    }
+
+    public void testRun_concurrentStages() throws Exception {
+        // Each stage waits for the other one, so they can only be done if run concurrently
+        final CountDownLatch latch = new CountDownLatch(2);
+        FinalizePipeline.Stage stage = new FinalizePipeline.Stage() {
+            @Override
+            public void run() throws InterruptedException {
+                latch.countDown();
+                assertTrue("Stages not run concurrently", latch.await(10, TimeUnit.SECONDS));
+            }
+        };
+        FinalizePipeline pipeline = new FinalizePipeline(2);
+        pipeline.addStage("a", stage);
+        pipeline.addStage("b", stage);
+        assertTrue("Expected success", pipeline.run());
+    }
+
+    public void testRun_failureSkipsDependents() throws Exception {
+        FinalizePipeline pipeline = new FinalizePipeline(2);
+        pipeline.addStage("a", new FinalizePipeline.Stage() {
+            @Override
+            public void run() throws IOException {
+                throw new IOException("failed");
+            }
+        });
+        pipeline.addStage("b", done("b"), "a");
+        pipeline.addStage("c", done("c"));
+        assertFalse("Expected failure", pipeline.run());
+
+        assertEquals("Only the independent stage should be done", Arrays.asList("c"), mDone);
+        assertEquals("Incorrect failed stages", Arrays.asList("a"), pipeline.getFailedStages());
+        assertFalse("Skipped stage should not be timed",
+                pipeline.getStageTimes().containsKey("b"));
+    }
+
+    public void testAddStage_unknownDependency() throws Exception {
+        FinalizePipeline pipeline = new FinalizePipeline(1);
+        try {
+            pipeline.addStage("a", done("a"), "b");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        pipeline.run();
+    }
+
+    /**
+     * @return a stage recording it is done under the given name.
+     */
+    private FinalizePipeline.Stage done(final String name) {
+        return new FinalizePipeline.Stage() {
+            @Override
+            public void run() {
+                mDone.add(name);
+            }
+        };
+    }
+
+    private static List<String> sorted(Iterable<String> values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -22,6 +22,8 @@ import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultHistory;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.build.BuildInfo;
@@ -113,6 +115,10 @@ public class ResultReporterTest extends TestCase {
         });
         assertTrue("Didn't create results zip",
                 children.length == 1 && children[0].isFile() && children[0].length() > 0);
+        assertTrue("Didn't time finalization stages",
+                mReporter.getFinalizeTimes().containsKey(ResultReporter.STAGE_ZIP));
+        assertEquals("Didn't record the session in the history", 1,
+                ResultHistory.load(mBuildHelper.getResultsDir()).getSessionCount());
     }
 
     public void testResultReporting() throws Exception {
@@ -382,6 +388,45 @@ public class ResultReporterTest extends TestCase {
                 result1.getResultStatus());
     }
 
+    public void testCheckpoint() throws Exception {
+        OptionSetter setter = new OptionSetter(mReporter);
+        setter.setOptionValue("checkpoint-modules", "1");
+        mReporter.invocationStarted(mBuildInfo);
+        mReporter.testRunStarted(ID, 2);
+        TestIdentifier test1 = new TestIdentifier(CLASS, METHOD_1);
+        mReporter.testStarted(test1);
+        mReporter.testEnded(test1, new HashMap<String, String>());
+        TestIdentifier test2 = new TestIdentifier(CLASS, METHOD_2);
+        mReporter.testStarted(test2);
+        mReporter.testFailed(test2, STACK_TRACE);
+        mReporter.testRunEnded(10, new HashMap<String, String>());
+
+        // The checkpoint can be loaded before the invocation ends
+        List<File> resultDirs = ResultHandler.getResultDirectories(mBuildHelper.getResultsDir());
+        assertEquals("Expected 1 checkpoint", 1, resultDirs.size());
+        IInvocationResult checkpoint = ResultHandler.getResultFromDir(resultDirs.get(0), true);
+        assertNotNull("Expected checkpoint result", checkpoint);
+        assertEquals("Expected 1 pass", 1, checkpoint.countResults(TestStatus.PASS));
+        assertEquals("Expected 1 failure", 1, checkpoint.countResults(TestStatus.FAIL));
+        assertEquals("Expected module done", 1, checkpoint.getModuleCompleteCount());
+        assertFalse("Staging directory should be deleted",
+                new File(resultDirs.get(0), ResultHandler.CHECKPOINT_DIR_NAME).exists());
+        mReporter.invocationEnded(10);
+    }
+
+    public void testCopyRetryFiles() throws Exception {
+        File oldDir = new File(mBuildHelper.getResultsDir(), RESULT_DIR);
+        File newDir = new File(mBuildHelper.getResultsDir(), RESULT_DIR + "_retry");
+        oldDir.mkdirs();
+        newDir.mkdirs();
+        FileUtil.writeToFile("logs", new File(oldDir, "device_info"));
+        FileUtil.writeToFile("snapshot", new File(oldDir, ResultHandler.SNAPSHOT_FILE_NAME));
+        ResultReporter.copyRetryFiles(oldDir, newDir);
+        assertTrue("Other files should be copied", new File(newDir, "device_info").exists());
+        assertFalse("Snapshot of the previous result should not be copied",
+                new File(newDir, ResultHandler.SNAPSHOT_FILE_NAME).exists());
+    }
+
     public void testCopyFormattingFiles() throws Exception {
         File resultDir = new File(mBuildHelper.getResultsDir(), RESULT_DIR);
         resultDir.mkdirs();
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.util.AbiUtils;
+import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.InvocationResult;
+import com.android.compatibility.common.util.ModuleResult;
+import com.android.compatibility.common.util.TestStatus;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link ShardResultMerger}
+ */
+public class ShardResultMergerTest extends TestCase {
+
+    private static final String ID_A = AbiUtils.createId("mips64", "ModuleA");
+    private static final String ID_B = AbiUtils.createId("mips64", "ModuleB");
+    private static final int SHARDS = 32;
+    private static final int MODULES_PER_SHARD = 20;
+    private static final int TESTS_PER_MODULE = 10;
+    private static final String CLASS = "android.test.Foor";
+    private static final String METHOD = "testBar";
+
+    private ShardResultMerger mMerger;
+
+    public void testSubmit_queuedWhileMerging() throws Exception {
+        final IInvocationResult result = new InvocationResult();
+        final IModuleResult moduleA = new ModuleResult(ID_A);
+        final IModuleResult moduleB = new ModuleResult(ID_B);
+        moduleB.getOrCreateResult(CLASS).getOrCreateResult(METHOD).passed(null);
+        moduleB.addRuntime(10);
+        mMerger = new ShardResultMerger(new ShardResultMerger.Handler() {
+            @Override
+            public void merge(IModuleResult moduleResult) {
+                result.mergeModuleResult(moduleResult);
+                if (moduleResult == moduleA) {
+                    // Another shard submits a module while this one is merged
+                    mMerger.submit(moduleB);
+                    // Shards reset the module after submitting it
+                    moduleB.resetRuntime();
+                    moduleB.getOrCreateResult(CLASS).getOrCreateResult(METHOD + 1)
+                            .failed("trace");
+                    assertEquals("Module should be queued", 1, result.getModules().size());
+                }
+            }
+        });
+        mMerger.submit(moduleA);
+
+        assertEquals("Expected 2 merged modules", 2, result.getModules().size());
+        IModuleResult merged = result.getModules().get(1);
+        assertEquals("Incorrect merged module", ID_B, merged.getId());
+        assertEquals("Incorrect runtime", 10, merged.getRuntime());
+        assertEquals("Expected 1 pass", 1, merged.countResults(TestStatus.PASS));
+        assertEquals("Expected no failure", 0, merged.countResults(TestStatus.FAIL));
+    }
+
+    public void testAwaitMerged() throws Exception {
+        final IInvocationResult result = new InvocationResult();
+        final CountDownLatch merging = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ShardResultMerger merger = new ShardResultMerger(new ShardResultMerger.Handler() {
+            @Override
+            public void merge(IModuleResult moduleResult) {
+                merging.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                result.mergeModuleResult(moduleResult);
+            }
+        });
+        Thread shard = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                merger.submit(new ModuleResult(ID_A));
+            }
+        });
+        shard.start();
+        merging.await();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                merger.awaitMerged();
+            }
+        });
+        waiter.start();
+        waiter.join(100);
+        assertTrue("Should wait for the merge in progress", waiter.isAlive());
+        release.countDown();
+        waiter.join();
+        assertEquals("Expected the merged module", 1, result.getModules().size());
+        shard.join();
+    }
+
+    public void testSubmit_concurrentShards() throws Exception {
+        final IInvocationResult result = new InvocationResult();
+        final AtomicInteger merging = new AtomicInteger();
+        final ShardResultMerger merger = new ShardResultMerger(new ShardResultMerger.Handler() {
+            @Override
+            public void merge(IModuleResult moduleResult) {
+                assertEquals("Merges should not be concurrent", 1, merging.incrementAndGet());
+                result.mergeModuleResult(moduleResult);
+                merging.decrementAndGet();
+            }
+        });
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<>();
+        List<Thread> shards = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            final int shard = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int m = 0; m < MODULES_PER_SHARD; m++) {
+                            // Shards run distinct tests of the same modules
+                            IModuleResult module = new ModuleResult(
+                                    AbiUtils.createId("mips64", "Module" + m));
+                            for (int t = 0; t < TESTS_PER_MODULE; t++) {
+                                module.getOrCreateResult(CLASS + shard)
+                                        .getOrCreateResult(METHOD + t).passed(null);
+                            }
+                            merger.submit(module);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            shards.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : shards) {
+            thread.join();
+        }
+        merger.awaitMerged();
+
+        assertTrue("Unexpected errors: " + errors, errors.isEmpty());
+        assertEquals("Incorrect number of modules", MODULES_PER_SHARD, result.getModules().size());
+        assertEquals("Incorrect number of passes", SHARDS * MODULES_PER_SHARD * TESTS_PER_MODULE,
+                result.countResults(TestStatus.PASS));
+    }
+}
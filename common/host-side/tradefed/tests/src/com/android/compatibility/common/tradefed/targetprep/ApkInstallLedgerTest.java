@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.targetprep;
+
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ApkInstallLedger}
+ */
+public class ApkInstallLedgerTest extends TestCase {
+
+    private static final String PACKAGE = "com.android.mock";
+    private static final String HASH_COMMAND =
+            "for f in $(pm path com.android.mock); do sha1sum ${f#package:}; done";
+    private static final List<String> ARGS_32 = Arrays.asList("true", "--abi armeabi-v7a");
+    private static final List<String> ARGS_64 = Arrays.asList("true", "--abi arm64-v8a");
+
+    private ITestDevice mMockDevice;
+    private File mApk;
+
+    @Override
+    public void setUp() throws Exception {
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        mApk = FileUtil.createTempFile("mock", ".apk");
+        FileUtil.writeToFile("mock apk", mApk);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.deleteFile(mApk);
+    }
+
+    public void testIsInstalled() throws Exception {
+        String installed = ApkInstallLedger.getHash(mApk) + "  /data/app/mock-1/base.apk\n";
+        EasyMock.expect(mMockDevice.executeShellCommand(HASH_COMMAND)).andReturn(installed)
+                .once();
+        EasyMock.replay(mMockDevice);
+        ApkInstallLedger ledger = ApkInstallLedger.get(mMockDevice);
+        assertFalse("Package not installed through the ledger",
+                ledger.isInstalled(PACKAGE, mApk, ARGS_32));
+        ledger.recordInstall(PACKAGE, mApk, ARGS_32);
+        assertTrue("Package should be installed",
+                ApkInstallLedger.get(mMockDevice).isInstalled(PACKAGE, mApk, ARGS_32));
+        assertFalse("Package installed with other arguments",
+                ledger.isInstalled(PACKAGE, mApk, ARGS_64));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testIsInstalled_changedOnDevice() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand(HASH_COMMAND)).andReturn(
+                "0123456789abcdef0123456789abcdef01234567  /data/app/mock-1/base.apk\n").once();
+        EasyMock.replay(mMockDevice);
+        ApkInstallLedger ledger = ApkInstallLedger.get(mMockDevice);
+        ledger.recordInstall(PACKAGE, mApk, ARGS_32);
+        assertFalse("Package replaced on the device", ledger.isInstalled(PACKAGE, mApk, ARGS_32));
+        assertFalse("Replaced package should leave the ledger", ledger.contains(PACKAGE));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testIsInstalled_uninstalled() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand(HASH_COMMAND)).andReturn("").once();
+        EasyMock.replay(mMockDevice);
+        ApkInstallLedger ledger = ApkInstallLedger.get(mMockDevice);
+        ledger.recordInstall(PACKAGE, mApk, ARGS_32);
+        assertFalse("Package uninstalled from the device",
+                ledger.isInstalled(PACKAGE, mApk, ARGS_32));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testUninstallAll() throws Exception {
+        String otherPackage = PACKAGE + ".other";
+        EasyMock.expect(mMockDevice.uninstallPackage(PACKAGE)).andReturn(null).once();
+        EasyMock.expect(mMockDevice.uninstallPackage(otherPackage))
+                .andReturn("DELETE_FAILED_INTERNAL_ERROR").once();
+        EasyMock.expect(mMockDevice.getSerialNumber()).andReturn("serial").anyTimes();
+        EasyMock.replay(mMockDevice);
+        ApkInstallLedger ledger = ApkInstallLedger.get(mMockDevice);
+        ledger.recordInstall(PACKAGE, mApk, ARGS_32);
+        ledger.recordInstall(otherPackage, mApk, ARGS_64);
+        ledger.uninstallAll();
+        assertFalse("Uninstalled package should leave the ledger", ledger.contains(PACKAGE));
+        assertFalse("Package failing to uninstall should leave the ledger",
+                ledger.contains(otherPackage));
+        EasyMock.verify(mMockDevice);
+    }
+}
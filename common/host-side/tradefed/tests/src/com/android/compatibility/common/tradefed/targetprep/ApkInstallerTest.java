@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.targetprep;
+
+import com.android.ddmlib.IDevice;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.targetprep.TargetSetupError;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ApkInstaller}
+ */
+public class ApkInstallerTest extends TestCase {
+
+    private static final String PACKAGE_KEPT = "com.android.mock.kept";
+    private static final String PACKAGE_OTHER = "com.android.mock.other";
+    private static final String ABI_ARG = "--abi arm64-v8a";
+    private static final List<String> ARGS = Arrays.asList("true", ABI_ARG);
+    private static final String PM_INSTALL = "pm install -r " + ABI_ARG + " ";
+
+    private ITestDevice mMockDevice;
+    private IDevice mMockIDevice;
+    private ApkInstaller mInstaller;
+    private File mApk1;
+    private File mApk2;
+
+    @Override
+    public void setUp() throws Exception {
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        mMockIDevice = EasyMock.createMock(IDevice.class);
+        EasyMock.expect(mMockDevice.getIDevice()).andReturn(mMockIDevice).anyTimes();
+        EasyMock.expect(mMockDevice.getSerialNumber()).andReturn("serial").anyTimes();
+        mInstaller = new ApkInstaller();
+        mApk1 = FileUtil.createTempFile("mock1", ".apk");
+        mApk2 = FileUtil.createTempFile("mock2", ".apk");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.deleteFile(mApk1);
+        FileUtil.deleteFile(mApk2);
+    }
+
+    public void testParallelInstall() throws Exception {
+        expectInstall(mApk1, "Success");
+        expectInstall(mApk2, "Success");
+        EasyMock.replay(mMockDevice, mMockIDevice);
+        mInstaller.setParallelInstall(true);
+        ApkInstaller.Installer installer = mInstaller.new Installer(mMockDevice);
+        try {
+            ITestDevice device = installer.getDevice();
+            assertNull("Install should be submitted", device.installPackage(mApk1, true, ABI_ARG));
+            assertNull("Install should be submitted", device.installPackage(mApk2, true, ABI_ARG));
+            installer.waitForInstalls();
+        } finally {
+            installer.shutdown();
+        }
+        EasyMock.verify(mMockDevice, mMockIDevice);
+    }
+
+    public void testParallelInstall_failed() throws Exception {
+        expectInstall(mApk1, "Success");
+        expectInstall(mApk2, "Failure [INSTALL_FAILED_INSUFFICIENT_STORAGE]");
+        EasyMock.replay(mMockDevice, mMockIDevice);
+        mInstaller.setParallelInstall(true);
+        ApkInstaller.Installer installer = mInstaller.new Installer(mMockDevice);
+        try {
+            ITestDevice device = installer.getDevice();
+            device.installPackage(mApk1, true, ABI_ARG);
+            device.installPackage(mApk2, true, ABI_ARG);
+            installer.waitForInstalls();
+            fail("Expected the failed install to be reported");
+        } catch (TargetSetupError e) {
+            assertTrue("Failed APK should be reported", e.getMessage().contains(mApk2.getName()));
+        } finally {
+            installer.shutdown();
+        }
+        EasyMock.verify(mMockDevice, mMockIDevice);
+    }
+
+    public void testUninstall_skipUnchanged() throws Exception {
+        EasyMock.expect(mMockDevice.uninstallPackage(PACKAGE_OTHER)).andReturn(null).once();
+        EasyMock.replay(mMockDevice);
+        ApkInstallLedger.get(mMockDevice).recordInstall(PACKAGE_KEPT, mApk1, ARGS);
+        mInstaller.setSkipUnchanged(true);
+        ITestDevice device = mInstaller.new Installer(mMockDevice).getDevice();
+        assertNull("Package of the ledger should be kept", device.uninstallPackage(PACKAGE_KEPT));
+        assertNull("Other packages should be uninstalled",
+                device.uninstallPackage(PACKAGE_OTHER));
+        assertTrue("Kept package should stay in the ledger",
+                ApkInstallLedger.get(mMockDevice).contains(PACKAGE_KEPT));
+        EasyMock.verify(mMockDevice);
+    }
+
+    /**
+     * Expects the APK to be pushed, then installed from where it was pushed by the package
+     * manager with the given output, then deleted.
+     */
+    private void expectInstall(File apk, String output) throws Exception {
+        mMockIDevice.pushFile(EasyMock.eq(apk.getAbsolutePath()),
+                EasyMock.endsWith(apk.getName()));
+        EasyMock.expectLastCall().once();
+        EasyMock.expect(mMockDevice.executeShellCommand(EasyMock.and(
+                EasyMock.startsWith(PM_INSTALL), EasyMock.endsWith(apk.getName()))))
+                .andReturn(output).once();
+        EasyMock.expect(mMockDevice.executeShellCommand(EasyMock.and(
+                EasyMock.startsWith("rm "), EasyMock.endsWith(apk.getName()))))
+                .andReturn("").once();
+    }
+}
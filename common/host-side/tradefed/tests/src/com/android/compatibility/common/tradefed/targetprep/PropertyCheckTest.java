@@ -44,7 +44,8 @@ public class PropertyCheckTest extends TestCase {
         mMockDevice = EasyMock.createMock(ITestDevice.class);
         mMockBuildInfo = new DeviceBuildInfo("0", "", "");
         mOptionSetter = new OptionSetter(mPropertyCheck);
-        EasyMock.expect(mMockDevice.getProperty(PROPERTY)).andReturn(ACTUAL_VALUE).anyTimes();
+        EasyMock.expect(mMockDevice.executeShellCommand("getprop"))
+                .andReturn(String.format("[%s]: [%s]\n", PROPERTY, ACTUAL_VALUE)).anyTimes();
     }
 
     public void testWarningMatch() throws Exception {
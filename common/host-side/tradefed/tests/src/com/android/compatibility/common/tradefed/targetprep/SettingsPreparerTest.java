@@ -34,7 +34,7 @@ public class SettingsPreparerTest extends TestCase {
     private ITestDevice mMockDevice;
     private OptionSetter mOptionSetter;
 
-    private static final String SHELL_CMD_GET = "settings get GLOBAL stay_on_while_plugged_in";
+    private static final String SHELL_CMD_LIST = "settings list GLOBAL";
     private static final String SHELL_CMD_PUT_7 = "settings put GLOBAL stay_on_while_plugged_in 7";
     private static final String SHELL_CMD_PUT_8 = "settings put GLOBAL stay_on_while_plugged_in 8";
 
@@ -50,14 +50,16 @@ public class SettingsPreparerTest extends TestCase {
     }
 
     public void testCorrectOneExpected() throws Exception {
-        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_GET)).andReturn("\n3\n").once();
+        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_LIST)).andReturn(
+                "\nstay_on_while_plugged_in=3\n").once();
         mOptionSetter.setOptionValue("expected-values", "3");
         EasyMock.replay(mMockDevice);
         mSettingsPreparer.run(mMockDevice, mMockBuildInfo);
     }
 
     public void testCorrectManyExpected() throws Exception {
-        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_GET)).andReturn("\n3\n").once();
+        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_LIST)).andReturn(
+                "\nstay_on_while_plugged_in=3\n").once();
         mOptionSetter.setOptionValue("expected-values", "2");
         mOptionSetter.setOptionValue("expected-values", "3");
         mOptionSetter.setOptionValue("expected-values", "6");
@@ -67,7 +69,8 @@ public class SettingsPreparerTest extends TestCase {
     }
 
     public void testIncorrectOneExpected() throws Exception {
-        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_GET)).andReturn("\n0\n").once();
+        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_LIST)).andReturn(
+                "\nstay_on_while_plugged_in=0\n").once();
         mOptionSetter.setOptionValue("expected-values", "3");
         EasyMock.replay(mMockDevice);
         try {
@@ -79,7 +82,8 @@ public class SettingsPreparerTest extends TestCase {
     }
 
     public void testIncorrectManyExpected() throws Exception {
-        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_GET)).andReturn("\n0\n").once();
+        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_LIST)).andReturn(
+                "\nstay_on_while_plugged_in=0\n").once();
         mOptionSetter.setOptionValue("expected-values", "2");
         mOptionSetter.setOptionValue("expected-values", "3");
         mOptionSetter.setOptionValue("expected-values", "6");
@@ -114,7 +118,8 @@ public class SettingsPreparerTest extends TestCase {
     }
 
     public void testIncorrectOneExpectedCommandRun() throws Exception {
-        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_GET)).andReturn("\n0\n").once();
+        EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_LIST)).andReturn(
+                "\nstay_on_while_plugged_in=0\n").once();
         EasyMock.expect(mMockDevice.executeShellCommand(SHELL_CMD_PUT_7)).andReturn("\n");
         mOptionSetter.setOptionValue("set-value", "7");
         mOptionSetter.setOptionValue("expected-values", "7");
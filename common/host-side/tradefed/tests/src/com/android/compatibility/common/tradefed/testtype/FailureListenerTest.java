@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.ByteArrayInputStreamSource;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.result.LogDataType;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link FailureListener}
+ */
+public class FailureListenerTest extends TestCase {
+
+    private static final String CLASS = "android.test.FoorBar";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String TRACE = "AssertionFailedError";
+    private static final int MAX_LOGCAT_BYTES = 1024;
+    private static final Map<String, String> METRICS = Collections.emptyMap();
+
+    private ITestDevice mMockDevice;
+    private ITestInvocationListener mMockListener;
+    private FailureListener mFailureListener;
+
+    @Override
+    public void setUp() throws Exception {
+        // The logcat is streamed from another thread, unexpected calls must not fail the test
+        mMockDevice = EasyMock.createNiceMock(ITestDevice.class);
+        // The artifacts must be logged in the order of the failures, before the run ends
+        mMockListener = EasyMock.createStrictMock(ITestInvocationListener.class);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (mFailureListener != null) {
+            mFailureListener.release();
+        }
+    }
+
+    public void testTestFailed() throws Exception {
+        TestIdentifier test1 = new TestIdentifier(CLASS, METHOD_1);
+        TestIdentifier test2 = new TestIdentifier(CLASS, METHOD_2);
+        InputStreamSource bugreport = new ByteArrayInputStreamSource(new byte[0]);
+        InputStreamSource logcat1 = new ByteArrayInputStreamSource(new byte[0]);
+        InputStreamSource logcat2 = new ByteArrayInputStreamSource(new byte[0]);
+        InputStreamSource screenshot1 = new ByteArrayInputStreamSource(new byte[0]);
+        InputStreamSource screenshot2 = new ByteArrayInputStreamSource(new byte[0]);
+        // The bugreport of the first failure covers the second one
+        EasyMock.expect(mMockDevice.getBugreport()).andReturn(bugreport).once();
+        EasyMock.expect(mMockDevice.getLogcat(MAX_LOGCAT_BYTES)).andReturn(logcat1).once();
+        EasyMock.expect(mMockDevice.getLogcat(MAX_LOGCAT_BYTES)).andReturn(logcat2).once();
+        EasyMock.expect(mMockDevice.getScreenshot()).andReturn(screenshot1).once();
+        EasyMock.expect(mMockDevice.getScreenshot()).andReturn(screenshot2).once();
+
+        mMockListener.testStarted(test1);
+        mMockListener.testFailed(test1, TRACE);
+        mMockListener.testEnded(test1, METRICS);
+        mMockListener.testStarted(test2);
+        mMockListener.testFailed(test2, TRACE);
+        mMockListener.testEnded(test2, METRICS);
+        // The logcat of a failure is captured once the next test started or the run ended
+        mMockListener.testLog(test1 + "-bugreport", LogDataType.BUGREPORT, bugreport);
+        mMockListener.testLog(test1 + "-screenshot", LogDataType.PNG, screenshot1);
+        mMockListener.testLog(test1 + "-logcat", LogDataType.LOGCAT, logcat1);
+        mMockListener.testLog(test2 + "-screenshot", LogDataType.PNG, screenshot2);
+        mMockListener.testLog(test2 + "-logcat", LogDataType.LOGCAT, logcat2);
+        mMockListener.testRunEnded(0, METRICS);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        mFailureListener = createFailureListener(true, true, true);
+        runFailedTest(test1);
+        runFailedTest(test2);
+        mFailureListener.testRunEnded(0, METRICS);
+        EasyMock.verify(mMockDevice, mMockListener);
+    }
+
+    public void testTestFailed_screenshotUnavailable() throws Exception {
+        TestIdentifier test = new TestIdentifier(CLASS, METHOD_1);
+        EasyMock.expect(mMockDevice.getScreenshot())
+                .andThrow(new DeviceNotAvailableException("Device offline")).once();
+
+        mMockListener.testStarted(test);
+        mMockListener.testFailed(test, TRACE);
+        mMockListener.testEnded(test, METRICS);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        mFailureListener = createFailureListener(false, false, true);
+        runFailedTest(test);
+        EasyMock.verify(mMockDevice, mMockListener);
+    }
+
+    private FailureListener createFailureListener(boolean bugreport, boolean logcat,
+            boolean screenshot) {
+        return new FailureListener(mMockListener, mMockDevice, bugreport, logcat, screenshot,
+                false, MAX_LOGCAT_BYTES);
+    }
+
+    private void runFailedTest(TestIdentifier test) {
+        mFailureListener.testStarted(test);
+        mFailureListener.testFailed(test, TRACE);
+        mFailureListener.testEnded(test, METRICS);
+    }
+}
@@ -53,6 +53,7 @@ public class ModuleDefTest extends TestCase {
         assertEquals("Incorrect ID", ID, def.getId());
         assertEquals("Incorrect ABI", ABI, def.getAbi().getName());
         assertEquals("Incorrect Name", NAME, def.getName());
+        assertFalse("Expected no preconditions", def.hasPreconditions());
     }
 
     public void testModuleFinisher() throws Exception {
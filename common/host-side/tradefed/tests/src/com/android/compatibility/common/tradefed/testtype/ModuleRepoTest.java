@@ -190,6 +190,103 @@ public class ModuleRepoTest extends TestCase {
         assertTrue("Unexpected device serial", serials.containsAll(SERIALS));
     }
 
+    public void testInitialization_planShards() throws Exception {
+        mRepo.setPlanShards(true);
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        Set<String> ids = new HashSet<>();
+        for (String serial : Arrays.asList(SERIAL1, SERIAL2)) {
+            for (IModuleDef module : mRepo.getModules(serial)) {
+                assertFalse("Wrong module", MODULE_NAME_C.equals(module.getName()));
+                assertTrue("Module planned twice", ids.add(module.getId()));
+            }
+        }
+        List<IModuleDef> serial3Modules = mRepo.getModules(SERIAL3);
+        assertEquals("Wrong number of modules", 2, serial3Modules.size());
+        // Serial 3 should have the modules with tokens
+        for (IModuleDef module : serial3Modules) {
+            assertEquals("Wrong module", MODULE_NAME_C, module.getName());
+            assertTrue("Module planned twice", ids.add(module.getId()));
+        }
+        assertEquals("Wrong number of modules", 6, ids.size());
+    }
+
+    public void testGetNextModule() throws Exception {
+        mRepo.initialize(2, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        // Serial 3 should take the modules with tokens first
+        assertEquals("Wrong module", MODULE_NAME_C, mRepo.getNextModule(SERIAL3).getName());
+        assertEquals("Wrong module", MODULE_NAME_C, mRepo.getNextModule(SERIAL3).getName());
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            ids.add(mRepo.getNextModule(SERIAL1).getId());
+            ids.add(mRepo.getNextModule(SERIAL3).getId());
+        }
+        assertEquals("Wrong number of modules", 4, ids.size());
+        assertNull("Expected no module left", mRepo.getNextModule(SERIAL1));
+        assertNull("Expected no module left", mRepo.getNextModule(SERIAL3));
+        assertEquals("Wrong number of serials", 2, mRepo.getSerials().size());
+    }
+
+    public void testGetNextModule_noDeviceWithTokens() throws Exception {
+        mRepo.initialize(2, mTestsDir, ABIS, new ArrayList<String>(), TEST_ARGS, MODULE_ARGS,
+                INCLUDES, EXCLUDES, mBuild);
+        for (int i = 0; i < 4; i++) {
+            assertFalse("Wrong module",
+                    MODULE_NAME_C.equals(mRepo.getNextModule(SERIAL1).getName()));
+        }
+        // The modules with tokens wait for all devices to take modules
+        assertNull("Expected no module for the device", mRepo.getNextModule(SERIAL1));
+        assertEquals("Wrong module", MODULE_NAME_C, mRepo.getNextModule(SERIAL2).getName());
+        assertEquals("Wrong module", MODULE_NAME_C, mRepo.getNextModule(SERIAL2).getName());
+        assertNull("Expected no module left", mRepo.getNextModule(SERIAL2));
+    }
+
+    public void testReleaseDevice() throws Exception {
+        mRepo.initialize(2, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        // Serial 3 fails to prepare its first module with tokens, and stops pulling modules
+        IModuleDef failed = mRepo.getNextModule(SERIAL3);
+        assertEquals("Wrong module", MODULE_NAME_C, failed.getName());
+        mRepo.releaseDevice(SERIAL3, failed);
+        Set<String> ids = new HashSet<>();
+        IModuleDef module;
+        while ((module = mRepo.getNextModule(SERIAL1)) != null) {
+            assertTrue("Module pulled twice", ids.add(module.getId()));
+        }
+        // Serial 1 runs the failed module and the other module with tokens
+        assertEquals("Wrong number of modules", 6, ids.size());
+        assertTrue("Failed module not run", ids.contains(failed.getId()));
+        assertTrue("Module with tokens not run", ids.contains(ID_C_32) && ids.contains(ID_C_64));
+    }
+
+    public void testInitialization_parallel() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            createConfig(mTestsDir, "FooModule" + i, null, SHARDABLE_TEST_STUB);
+        }
+        IModuleRepo sequential = new ModuleRepo(1);
+        sequential.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS,
+                INCLUDES, EXCLUDES, mBuild);
+        IModuleRepo parallel = new ModuleRepo(4);
+        parallel.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS,
+                INCLUDES, EXCLUDES, mBuild);
+        assertEquals("Modules loaded in parallel should be the same",
+                getModuleIds(sequential), getModuleIds(parallel));
+        assertEquals("Wrong number of modules per shard", sequential.getModulesPerShard(),
+                parallel.getModulesPerShard());
+    }
+
+    private static List<String> getModuleIds(IModuleRepo repo) {
+        List<String> ids = new ArrayList<>();
+        for (List<IModuleDef> modules : Arrays.asList(repo.getTokenModules(),
+                repo.getLargeModules(), repo.getMediumModules(), repo.getSmallModules())) {
+            for (IModuleDef module : modules) {
+                ids.add(module.getId());
+            }
+        }
+        return ids;
+    }
+
     public void testConfigFilter() throws Exception {
         File[] configFiles = mTestsDir.listFiles(new ConfigFilter());
         assertEquals("Wrong number of config files found.", 3, configFiles.length);
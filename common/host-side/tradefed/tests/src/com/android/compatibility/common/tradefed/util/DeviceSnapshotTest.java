@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.device.ITestDevice;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+/**
+ * Unit tests for {@link DeviceSnapshot}
+ */
+public class DeviceSnapshotTest extends TestCase {
+
+    private static final String GETPROP =
+            "[ro.build.type]: [userdebug]\n" +
+            "[ro.product.cpu.abilist]: [arm64-v8a,armeabi-v7a,armeabi]\n" +
+            "[ro.empty]: []\n" +
+            "[sys.boot_completed]: [1]\n";
+    private static final String SETTINGS =
+            "adb_enabled=1\n" +
+            "stay_on_while_plugged_in=7\n";
+
+    private ITestDevice mMockDevice;
+
+    @Override
+    public void setUp() throws Exception {
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+    }
+
+    public void testGetProperty() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("getprop")).andReturn(GETPROP).once();
+        EasyMock.replay(mMockDevice);
+        DeviceSnapshot snapshot = DeviceSnapshot.get(mMockDevice);
+        assertEquals("Incorrect property", "userdebug", snapshot.getProperty("ro.build.type"));
+        assertEquals("Incorrect property", "arm64-v8a,armeabi-v7a,armeabi",
+                DeviceSnapshot.get(mMockDevice).getProperty("ro.product.cpu.abilist"));
+        assertEquals("Incorrect property", "1", snapshot.getProperty("sys.boot_completed"));
+        assertNull("Empty property should not be set", snapshot.getProperty("ro.empty"));
+        assertNull("Unknown property should not be set", snapshot.getProperty("ro.unknown"));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testGetProperty_invalidated() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("getprop")).andReturn(GETPROP).times(3);
+        EasyMock.replay(mMockDevice);
+        DeviceSnapshot snapshot = DeviceSnapshot.get(mMockDevice);
+        snapshot.getProperty("sys.boot_completed");
+        snapshot.invalidateMutableState();
+        // Read-only properties are kept until the device reboots
+        snapshot.getProperty("ro.build.type");
+        snapshot.getProperty("sys.boot_completed");
+        snapshot.getProperty("sys.boot_completed");
+        snapshot.invalidate();
+        snapshot.getProperty("ro.build.type");
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testGetProperty_getpropFailed() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("getprop")).andReturn("").once();
+        EasyMock.expect(mMockDevice.getProperty("ro.build.type")).andReturn("user").once();
+        EasyMock.replay(mMockDevice);
+        assertEquals("Incorrect property", "user",
+                DeviceSnapshot.get(mMockDevice).getProperty("ro.build.type"));
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testGetSetting() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("settings list global"))
+                .andReturn(SETTINGS).times(2);
+        EasyMock.expect(mMockDevice.executeShellCommand("settings put global adb_enabled 0"))
+                .andReturn("").once();
+        EasyMock.replay(mMockDevice);
+        DeviceSnapshot snapshot = DeviceSnapshot.get(mMockDevice);
+        assertEquals("Incorrect setting", "1", snapshot.getSetting("global", "adb_enabled"));
+        assertEquals("Incorrect setting", "7",
+                snapshot.getSetting("global", "stay_on_while_plugged_in"));
+        assertNull("Unknown setting should not be set", snapshot.getSetting("global", "unknown"));
+        // Putting a setting reads the namespace again
+        snapshot.putSetting("global", "adb_enabled", "0");
+        snapshot.getSetting("global", "adb_enabled");
+        EasyMock.verify(mMockDevice);
+    }
+
+    public void testGetSetting_listNotSupported() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("settings list secure"))
+                .andReturn("Invalid command: list").once();
+        EasyMock.expect(mMockDevice.executeShellCommand("settings get secure unknown"))
+                .andReturn("null\n").once();
+        EasyMock.replay(mMockDevice);
+        assertNull("Unknown setting should not be set",
+                DeviceSnapshot.get(mMockDevice).getSetting("secure", "unknown"));
+        EasyMock.verify(mMockDevice);
+    }
+}
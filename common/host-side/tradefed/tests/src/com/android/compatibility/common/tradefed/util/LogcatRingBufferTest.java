@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit tests for {@link LogcatRingBuffer}
+ */
+public class LogcatRingBufferTest extends TestCase {
+
+    // Each line takes its 12 bytes of header and its 6 bytes of text
+    private static final int LINE_BYTES = 18;
+
+    public void testGetLines() throws Exception {
+        LogcatRingBuffer buffer = new LogcatRingBuffer(1024);
+        for (int i = 0; i < 5; i++) {
+            add(buffer, i, String.format("line%d\n", i));
+        }
+        assertEquals("Incorrect lines", "line1\nline2\nline3\n", getLines(buffer, 1, 3, 1024));
+        assertEquals("Incorrect lines", "line0\nline1\nline2\nline3\nline4\n",
+                getLines(buffer, 0, 10, 1024));
+        assertEquals("Expected no line", "", getLines(buffer, 6, 10, 1024));
+    }
+
+    public void testGetLines_maxBytes() throws Exception {
+        LogcatRingBuffer buffer = new LogcatRingBuffer(1024);
+        for (int i = 0; i < 5; i++) {
+            add(buffer, i, String.format("line%d\n", i));
+        }
+        assertEquals("Expected the latest lines", "line3\nline4\n", getLines(buffer, 0, 4, 15));
+        assertEquals("Expected no line", "", getLines(buffer, 0, 4, 3));
+    }
+
+    public void testAdd_full() throws Exception {
+        // Room for 3 lines, with lines wrapping around the end of the buffer
+        LogcatRingBuffer buffer = new LogcatRingBuffer(3 * LINE_BYTES + 7);
+        for (int i = 0; i < 8; i++) {
+            add(buffer, i, String.format("line%d\n", i));
+        }
+        assertEquals("Expected the oldest lines dropped", 5, buffer.getOldestTime());
+        assertEquals("Incorrect lines", "line5\nline6\nline7\n", getLines(buffer, 0, 10, 1024));
+        assertEquals("Incorrect lines", "line6\n", getLines(buffer, 6, 6, 1024));
+    }
+
+    public void testAdd_lineTooLarge() throws Exception {
+        LogcatRingBuffer buffer = new LogcatRingBuffer(LINE_BYTES);
+        add(buffer, 1, "line1\n");
+        add(buffer, 2, "too large\n");
+        assertEquals("Expected the line truncated", "too la", getLines(buffer, 0, 10, 1024));
+    }
+
+    private static void add(LogcatRingBuffer buffer, long time, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        buffer.add(time, bytes, 0, bytes.length);
+    }
+
+    private static String getLines(LogcatRingBuffer buffer, long from, long to, int maxBytes) {
+        return new String(buffer.getLines(from, to, maxBytes), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.util.StreamUtil;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link LogcatStream}
+ */
+public class LogcatStreamTest extends TestCase {
+
+    private static final int CAPACITY = 1024;
+    private static final long RESTART_DELAY_MS = 50;
+    private static final long TIMEOUT_MS = 10 * 1000;
+
+    private ITestDevice mMockDevice;
+    private IDevice mMockIDevice;
+    private LogcatStream mStream;
+    // Time the logcat restarted, and latches of the restarted logcat streaming and ending
+    private volatile long mRestartTime;
+    private final CountDownLatch mStreaming = new CountDownLatch(1);
+    private final CountDownLatch mEnded = new CountDownLatch(1);
+
+    @Override
+    public void setUp() throws Exception {
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        mMockIDevice = EasyMock.createMock(IDevice.class);
+        EasyMock.expect(mMockDevice.getSerialNumber()).andReturn("serial").anyTimes();
+        EasyMock.expect(mMockDevice.getIDevice()).andReturn(mMockIDevice).anyTimes();
+        mStream = new LogcatStream(mMockDevice, CAPACITY, RESTART_DELAY_MS);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mStream.stop();
+    }
+
+    public void testGetLogcat() throws Exception {
+        // The logcat ends after one line, as the device goes offline, then restarts
+        mMockIDevice.executeShellCommand(EasyMock.eq(LogcatStream.LOGCAT_COMMAND),
+                EasyMock.<IShellOutputReceiver>anyObject(), EasyMock.eq(0L),
+                EasyMock.eq(TimeUnit.MILLISECONDS));
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                addOutput("line1\n");
+                throw new IOException("Device offline");
+            }
+        }).once();
+        mMockIDevice.executeShellCommand(EasyMock.eq(LogcatStream.LOGCAT_COMMAND),
+                EasyMock.<IShellOutputReceiver>anyObject(), EasyMock.eq(0L),
+                EasyMock.eq(TimeUnit.MILLISECONDS));
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                mRestartTime = System.currentTimeMillis();
+                // A line split across outputs
+                addOutput("line2\nli");
+                addOutput("ne3\n");
+                mStreaming.countDown();
+                IShellOutputReceiver receiver = getReceiver();
+                while (!receiver.isCancelled()) {
+                    Thread.sleep(10);
+                }
+                mEnded.countDown();
+                return null;
+            }
+        }).once();
+        EasyMock.replay(mMockDevice, mMockIDevice);
+
+        assertNull("Expected no logcat before the stream started", mStream.getLogcat(0, 0, 100));
+        long start = System.currentTimeMillis();
+        Thread.sleep(10);
+        mStream.start();
+        assertTrue("Logcat did not restart",
+                mStreaming.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        long now = System.currentTimeMillis();
+        // The lines received before the restart may be incomplete
+        assertNull("Expected no logcat across the restart", mStream.getLogcat(start, now, 100));
+        assertEquals("Incorrect logcat", "line2\nline3\n",
+                getLogcat(mRestartTime, now, CAPACITY));
+        assertEquals("Incorrect logcat", "line3\n", getLogcat(mRestartTime, now, 6));
+
+        mStream.stop();
+        assertTrue("Logcat did not stop", mEnded.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertNull("Expected no logcat once stopped", mStream.getLogcat(mRestartTime, now, 100));
+        EasyMock.verify(mMockDevice, mMockIDevice);
+    }
+
+    private static IShellOutputReceiver getReceiver() {
+        return (IShellOutputReceiver) EasyMock.getCurrentArguments()[1];
+    }
+
+    private static void addOutput(String output) {
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        getReceiver().addOutput(bytes, 0, bytes.length);
+    }
+
+    private String getLogcat(long from, long to, int maxBytes) throws IOException {
+        InputStreamSource logcat = mStream.getLogcat(from, to, maxBytes);
+        assertNotNull("Expected the logcat of the window", logcat);
+        try {
+            return StreamUtil.getStringFromStream(logcat.createInputStream());
+        } finally {
+            logcat.cancel();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.json.JSONException;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the dynamic configs downloaded from the config server, shared by all the modules,
+ * ABIs and shards run by the process.
+ * <p/>
+ * Configs are keyed by their request URL, which identifies the module and the version of the
+ * config. A cached config is used as is for a few minutes, and then revalidated with a
+ * conditional request, so that it is only downloaded again if it changed on the server. If the
+ * server cannot be reached, the cached config is used.
+ * <p/>
+ * The merged config file of each module is also kept, and only merged again when the config
+ * it is merged from changes.
+ */
+public class DynamicConfigCache {
+
+    static final long REVALIDATE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final int TIMEOUT_MS = (int) TimeUnit.MINUTES.toMillis(1);
+    private static final int PREFETCH_THREADS = 8;
+
+    private static final DynamicConfigCache sInstance =
+            new DynamicConfigCache(REVALIDATE_INTERVAL_MS);
+
+    /** A config downloaded from the server. */
+    private static class Config {
+        boolean mFetched = false;
+        String mJson;
+        String mETag;
+        String mLastModified;
+        long mValidatedTime;
+    }
+
+    /** A merged config file, and what it was merged from. */
+    private static class MergedConfig {
+        File mFile;
+        File mLocalConfigFile;
+        String mJson;
+    }
+
+    private final ConcurrentHashMap<String, Config> mConfigs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MergedConfig> mMergedConfigs =
+            new ConcurrentHashMap<>();
+    private final long mRevalidateInterval;
+    private ExecutorService mPrefetcher = null;
+
+    /**
+     * @return the cache of the process.
+     */
+    public static DynamicConfigCache getInstance() {
+        return sInstance;
+    }
+
+    /* package */ DynamicConfigCache(long revalidateInterval) {
+        mRevalidateInterval = revalidateInterval;
+    }
+
+    /**
+     * Gets the config at the given URL, from the cache if it was downloaded or revalidated
+     * recently, or else from the server.
+     *
+     * @return the config in JSON
+     * @throws IOException if the config is not cached and cannot be downloaded
+     */
+    public String getConfig(String url) throws IOException {
+        Config config = mConfigs.get(url);
+        if (config == null) {
+            mConfigs.putIfAbsent(url, new Config());
+            config = mConfigs.get(url);
+        }
+        // Concurrent requests of the same config wait for the first one to download it
+        synchronized (config) {
+            long now = System.currentTimeMillis();
+            if (config.mFetched && now - config.mValidatedTime < mRevalidateInterval) {
+                return config.mJson;
+            }
+            try {
+                fetch(url, config);
+            } catch (IOException e) {
+                if (!config.mFetched) {
+                    throw e;
+                }
+                // The server cannot be reached, keep the cached config for a while
+            }
+            config.mValidatedTime = now;
+            return config.mJson;
+        }
+    }
+
+    /**
+     * Downloads the configs at the given URLs in the background, so that they are cached when
+     * requested. Configs that cannot be downloaded are downloaded again when requested.
+     */
+    public void prefetch(Collection<String> urls) {
+        ExecutorService prefetcher = getPrefetcher();
+        for (final String url : urls) {
+            prefetcher.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getConfig(url);
+                    } catch (IOException e) {
+                        // Downloaded again when requested
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the config file of a module merging its local config with the given downloaded
+     * config, merging them only if they changed since the file was last merged.
+     *
+     * @param json the downloaded config in JSON, or null if there is none
+     */
+    public File getMergedConfigFile(File localConfigFile, String json, String moduleName)
+            throws IOException, XmlPullParserException, JSONException {
+        MergedConfig merged = mMergedConfigs.get(moduleName);
+        if (merged == null) {
+            mMergedConfigs.putIfAbsent(moduleName, new MergedConfig());
+            merged = mMergedConfigs.get(moduleName);
+        }
+        synchronized (merged) {
+            if (merged.mFile == null || !merged.mFile.exists()
+                    || !localConfigFile.equals(merged.mLocalConfigFile)
+                    || (json == null ? merged.mJson != null : !json.equals(merged.mJson))) {
+                merged.mFile = DynamicConfigHandler.getMergedDynamicConfigFile(
+                        localConfigFile, json, moduleName);
+                merged.mLocalConfigFile = localConfigFile;
+                merged.mJson = json;
+            }
+            return merged.mFile;
+        }
+    }
+
+    private synchronized ExecutorService getPrefetcher() {
+        if (mPrefetcher == null) {
+            mPrefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DynamicConfigPrefetch");
+                    // Pending downloads must not keep the process alive
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mPrefetcher;
+    }
+
+    /**
+     * Downloads the config at the given URL, or only checks it did not change if it was already
+     * downloaded.
+     */
+    private static void fetch(String url, Config config) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        if (config.mFetched && config.mETag != null) {
+            connection.setRequestProperty("If-None-Match", config.mETag);
+        }
+        if (config.mFetched && config.mLastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", config.mLastModified);
+        }
+        if (connection instanceof HttpURLConnection) {
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && config.mFetched) {
+                return;
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+        }
+        config.mJson = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        config.mETag = connection.getHeaderField("ETag");
+        config.mLastModified = connection.getHeaderField("Last-Modified");
+        config.mFetched = true;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit tests for {@link DynamicConfigCache}
+ */
+public class DynamicConfigCacheTest extends TestCase {
+
+    private static final String MODULE = "DynamicConfigCacheTest";
+    private static final String LOCAL_CONFIG =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+            "<dynamicConfig>\n" +
+            "    <entry key=\"test-config\">\n" +
+            "        <value>test config</value>\n" +
+            "    </entry>\n" +
+            "</dynamicConfig>\n";
+    private static final String OVERRIDE_JSON =
+            "{\"dynamicConfigEntries\": " +
+            "{\"test-config\": {\"configValues\": [\"override config\"]}}}";
+
+    /** Serves a config, honoring conditional requests. */
+    private static class ConfigHandler implements HttpHandler {
+        volatile String mJson = "{}";
+        volatile int mVersion = 1;
+        volatile int mRequests = 0;
+        volatile int mNotModified = 0;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            mRequests++;
+            String eTag = "\"" + mVersion + "\"";
+            exchange.getResponseHeaders().set("ETag", eTag);
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                mNotModified++;
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = mJson.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        }
+
+        void setJson(String json) {
+            mJson = json;
+            mVersion++;
+        }
+    }
+
+    private HttpServer mServer;
+    private ConfigHandler mHandler;
+    private String mUrl;
+
+    @Override
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mHandler = new ConfigHandler();
+        mServer.createContext("/", mHandler);
+        mServer.start();
+        mUrl = String.format("http://localhost:%d/%s/1.0", mServer.getAddress().getPort(),
+                MODULE);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+    }
+
+    public void testGetConfig_cached() throws Exception {
+        DynamicConfigCache cache =
+                new DynamicConfigCache(DynamicConfigCache.REVALIDATE_INTERVAL_MS);
+        mHandler.setJson("{\"a\":1}");
+        assertEquals("Incorrect config", "{\"a\":1}", cache.getConfig(mUrl));
+        assertEquals("Incorrect config", "{\"a\":1}", cache.getConfig(mUrl));
+        assertEquals("Config should be downloaded once", 1, mHandler.mRequests);
+    }
+
+    public void testGetConfig_revalidated() throws Exception {
+        DynamicConfigCache cache = new DynamicConfigCache(0);
+        mHandler.setJson("{\"a\":1}");
+        assertEquals("Incorrect config", "{\"a\":1}", cache.getConfig(mUrl));
+        assertEquals("Incorrect config", "{\"a\":1}", cache.getConfig(mUrl));
+        assertEquals("Config should be revalidated", 2, mHandler.mRequests);
+        assertEquals("Unchanged config should not be downloaded again", 1,
+                mHandler.mNotModified);
+        mHandler.setJson("{\"a\":2}");
+        assertEquals("Changed config should be downloaded again", "{\"a\":2}",
+                cache.getConfig(mUrl));
+    }
+
+    public void testGetConfig_serverDown() throws Exception {
+        DynamicConfigCache cache = new DynamicConfigCache(0);
+        mHandler.setJson("{\"a\":1}");
+        cache.getConfig(mUrl);
+        mServer.stop(0);
+        assertEquals("Cached config should be used", "{\"a\":1}", cache.getConfig(mUrl));
+        try {
+            new DynamicConfigCache(0).getConfig(mUrl);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testGetMergedConfigFile() throws Exception {
+        DynamicConfigCache cache = new DynamicConfigCache(0);
+        File localConfigFile = File.createTempFile(MODULE, ".dynamic");
+        File merged = null;
+        try {
+            try (FileOutputStream out = new FileOutputStream(localConfigFile)) {
+                out.write(LOCAL_CONFIG.getBytes(StandardCharsets.UTF_8));
+            }
+            merged = cache.getMergedConfigFile(localConfigFile, null, MODULE);
+            merged.setLastModified(1000);
+            assertEquals("Merged file should be reused", merged,
+                    cache.getMergedConfigFile(localConfigFile, null, MODULE));
+            assertEquals("Merged file should not be merged again", 1000, merged.lastModified());
+            merged = cache.getMergedConfigFile(localConfigFile, OVERRIDE_JSON, MODULE);
+            assertTrue("Changed config should be merged again", merged.lastModified() != 1000);
+        } finally {
+            localConfigFile.delete();
+            if (merged != null) {
+                merged.delete();
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ public class HostUnitTests extends TestSuite {
 
     public HostUnitTests() {
         super();
+        addTestSuite(DynamicConfigCacheTest.class);
         addTestSuite(DynamicConfigHandlerTest.class);
     }
 
@@ -29,12 +29,22 @@ public class CaseResult implements ICaseResult {
     private String mName;
 
     private Map<String, ITestResult> mResults = new HashMap<>();
+    private final ResultCounts mCounts;
 
     /**
      * Creates a {@link CaseResult} for the given name, eg &lt;package-name&gt;.&lt;class-name&gt;
      */
     public CaseResult(String name) {
+        this(name, null);
+    }
+
+    /**
+     * Creates a {@link CaseResult} for the given name, whose counts of results are added to the
+     * given counts of the enclosing module.
+     */
+    CaseResult(String name, ResultCounts moduleCounts) {
         mName = name;
+        mCounts = new ResultCounts(moduleCounts);
     }
 
     /**
@@ -52,7 +62,7 @@ public class CaseResult implements ICaseResult {
     public ITestResult getOrCreateResult(String testName) {
         ITestResult result = mResults.get(testName);
         if (result == null) {
-            result = new TestResult(this, testName);
+            result = new TestResult(this, testName, mCounts);
             mResults.put(testName, result);
         }
         return result;
@@ -95,13 +105,16 @@ public class CaseResult implements ICaseResult {
      */
     @Override
     public int countResults(TestStatus status) {
-        int total = 0;
-        for (ITestResult result : mResults.values()) {
-            if (result.getResultStatus() == status) {
-                total++;
+        if (ResultCounts.sCheckConsistency) {
+            int total = 0;
+            for (ITestResult result : mResults.values()) {
+                if (result.getResultStatus() == status) {
+                    total++;
+                }
             }
+            mCounts.check(status, total, mName);
         }
-        return total;
+        return mCounts.get(status);
     }
 
     /**
@@ -123,8 +136,14 @@ public class CaseResult implements ICaseResult {
                         otherCaseResult.getName(), getName()));
         }
 
+        if (otherCaseResult == this) {
+            return;
+        }
         for (ITestResult otherTestResult : otherCaseResult.getResults()) {
-            mResults.put(otherTestResult.getName(), otherTestResult);
+            // The other result replaces the existing one. It is copied rather than shared, so
+            // that changes to its status are counted in this case, and without reading back its
+            // details.
+            TestResult.copy(otherTestResult, getOrCreateResult(otherTestResult.getName()));
         }
     }
 
@@ -24,6 +24,8 @@ import com.google.common.hash.Funnels;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -31,15 +33,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /***
  * Calculate and store checksum values for files and test results
@@ -57,9 +65,16 @@ public final class ChecksumReporter implements Serializable {
     private static final short CURRENT_VERSION = 1;
     // Serialized format Id (ie magic number) used to identify serialized data.
     static final short SERIALIZED_FORMAT_CODE = 650;
+    // Format Id of the compact binary format, which replaced the serialized objects.
+    static final short COMPACT_FORMAT_CODE = 653;
+    private static final short COMPACT_FORMAT_VERSION = 1;
+
+    // Files larger than this are hashed through memory-mapped reads, one window at a time.
+    private static final long MAPPED_READ_THRESHOLD = 1024 * 1024;
+    private static final long MAPPED_READ_WINDOW = 64 * 1024 * 1024;
 
     private final BloomFilter<CharSequence> mResultChecksum;
-    private final HashMap<String, byte[]> mFileChecksum;
+    private final Map<String, byte[]> mFileChecksum;
     private final short mVersion;
 
     /***
@@ -69,12 +84,34 @@ public final class ChecksumReporter implements Serializable {
      * @return true if successful, false if unable to calculate or store the checksum
      */
     public static boolean tryCreateChecksum(File dir, IInvocationResult result) {
+        return tryCreateChecksum(dir, result, null);
+    }
+
+    /***
+     * Calculate checksum of test results and files in result directory and write to disk
+     * @param dir test results directory
+     * @param result test results
+     * @param journal nullable journal holding the full results of completed modules
+     * @return true if successful, false if unable to calculate or store the checksum
+     */
+    public static boolean tryCreateChecksum(File dir, IInvocationResult result,
+            ModuleResultJournal journal) {
+        return tryCreateChecksum(dir, dir.getName(), result, journal);
+    }
+
+    /***
+     * Same as above, except that the files of the directory are recorded under the given path,
+     * eg. to create the checksum of a result directory from a copy of its files.
+     * @param path the name of the result directory the files are validated from
+     */
+    static boolean tryCreateChecksum(File dir, String path, IInvocationResult result,
+            ModuleResultJournal journal) {
         try {
             int totalCount = countTestResults(result);
             ChecksumReporter checksumReporter =
                     new ChecksumReporter(totalCount, DEFAULT_FPP, CURRENT_VERSION);
-            checksumReporter.addInvocation(result);
-            checksumReporter.addDirectory(dir);
+            checksumReporter.addInvocation(result, journal);
+            checksumReporter.addDirectory(dir, path);
             checksumReporter.saveToFile(dir);
         } catch (Exception e) {
             return false;
@@ -97,24 +134,40 @@ public final class ChecksumReporter implements Serializable {
     }
 
     /***
-     * Deserialize checksum from file
+     * Deserialize checksum from file, in either the compact format or the serialized objects
+     * written by previous versions.
      * @param directory the parent directory containing the checksum file
      * @throws ChecksumValidationException
      */
     public ChecksumReporter(File directory) throws ChecksumValidationException {
         File file = new File(directory, ChecksumReporter.NAME);
         try (FileInputStream fileStream = new FileInputStream(file);
-            InputStream outputStream = new BufferedInputStream(fileStream);
-            ObjectInput objectInput = new ObjectInputStream(outputStream)) {
-            short magicNumber = objectInput.readShort();
-            switch (magicNumber) {
-                case SERIALIZED_FORMAT_CODE:
-                   mVersion = objectInput.readShort();
-                    mResultChecksum = (BloomFilter<CharSequence>) objectInput.readObject();
-                    mFileChecksum = (HashMap<String, byte[]>) objectInput.readObject();
-                    break;
-                default:
-                    throw new ChecksumValidationException("Unknown format of serialized data.");
+            InputStream inputStream = new BufferedInputStream(fileStream)) {
+            DataInputStream dataInput = new DataInputStream(inputStream);
+            inputStream.mark(Short.BYTES);
+            if (dataInput.readShort() == COMPACT_FORMAT_CODE) {
+                if (dataInput.readShort() > COMPACT_FORMAT_VERSION) {
+                    throw new ChecksumValidationException("Unknown version of checksum format.");
+                }
+                mVersion = dataInput.readShort();
+                mResultChecksum = BloomFilter.readFrom(inputStream,
+                        Funnels.unencodedCharsFunnel());
+                mFileChecksum = readFileChecksums(dataInput);
+            } else {
+                inputStream.reset();
+                ObjectInput objectInput = new ObjectInputStream(inputStream);
+                short magicNumber = objectInput.readShort();
+                switch (magicNumber) {
+                    case SERIALIZED_FORMAT_CODE:
+                       mVersion = objectInput.readShort();
+                        mResultChecksum = (BloomFilter<CharSequence>) objectInput.readObject();
+                        mFileChecksum = new ConcurrentHashMap<>(
+                                (Map<String, byte[]>) objectInput.readObject());
+                        break;
+                    default:
+                        throw new ChecksumValidationException(
+                                "Unknown format of serialized data.");
+                }
             }
         } catch (Exception e) {
             throw new ChecksumValidationException("Unable to load checksum from file", e);
@@ -133,7 +186,7 @@ public final class ChecksumReporter implements Serializable {
     public ChecksumReporter(int testCount, double fpp, short version) {
         mResultChecksum = BloomFilter.create(Funnels.unencodedCharsFunnel(),
                 testCount, fpp);
-        mFileChecksum = new HashMap<>();
+        mFileChecksum = new ConcurrentHashMap<>();
         mVersion = version;
     }
 
@@ -142,12 +195,32 @@ public final class ChecksumReporter implements Serializable {
      */
     public void addInvocation(IInvocationResult invocationResult) {
         for (IModuleResult module : invocationResult.getModules()) {
-            String buildFingerprint = invocationResult.getBuildFingerprint();
-            addModuleResult(module, buildFingerprint);
-            for (ICaseResult caseResult : module.getResults()) {
-                for (ITestResult testResult : caseResult.getResults()) {
-                    addTestResult(testResult, module, buildFingerprint);
-                }
+            addModule(module, invocationResult.getBuildFingerprint());
+        }
+    }
+
+    /***
+     * Add each test result from each module and test case, reading the modules found in the
+     * journal back from disk since their failure details are no longer held in memory.
+     */
+    void addInvocation(IInvocationResult invocationResult, ModuleResultJournal journal)
+            throws IOException {
+        for (IModuleResult module : invocationResult.getModules()) {
+            if (journal != null && journal.contains(module.getId())) {
+                module = journal.readModule(module.getId());
+            }
+            addModule(module, invocationResult.getBuildFingerprint());
+        }
+    }
+
+    /***
+     * Add the module result and each of its test results
+     */
+    private void addModule(IModuleResult module, String buildFingerprint) {
+        addModuleResult(module, buildFingerprint);
+        for (ICaseResult caseResult : module.getResults()) {
+            for (ITestResult testResult : caseResult.getResults()) {
+                addTestResult(testResult, module, buildFingerprint);
             }
         }
     }
@@ -184,7 +257,8 @@ public final class ChecksumReporter implements Serializable {
     }
 
     /***
-     * Adds all child files recursively through all sub directories
+     * Adds all child files recursively through all sub directories. Files are hashed in
+     * parallel.
      * @param directory target that is deeply searched for files
      */
     public void addDirectory(File directory) {
@@ -192,16 +266,54 @@ public final class ChecksumReporter implements Serializable {
     }
 
     /***
-     * @param path the relative path to the current directory from the base directory
+     * Same as above, with the files recorded under the given path instead of the name of the
+     * directory.
      */
-    private void addDirectory(File directory, String path) {
-        for(String childName : directory.list()) {
-            File child = new File(directory, childName);
-            if (child.isDirectory()) {
-                addDirectory(child, path + SEPARATOR + child.getName());
-            } else {
-                addFile(child, path);
+    void addDirectory(File directory, String path) {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new AddDirectoryTask(directory, path));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /***
+     * Adds the files of a directory, forking a task for each file and sub directory.
+     */
+    private class AddDirectoryTask extends RecursiveAction {
+        private final File mDirectory;
+        private final String mPath;
+
+        /***
+         * @param path the relative path to the directory from the base directory
+         */
+        AddDirectoryTask(File directory, String path) {
+            mDirectory = directory;
+            mPath = path;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (String childName : mDirectory.list()) {
+                if (ModuleResultJournal.NAME.equals(childName)) {
+                    continue; // the journal is deleted once the result file is written
+                }
+                final File child = new File(mDirectory, childName);
+                if (child.isDirectory()) {
+                    tasks.add(new AddDirectoryTask(child, mPath + SEPARATOR + child.getName()));
+                } else {
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            addFile(child, mPath);
+                        }
+                    });
+                }
             }
+            invokeAll(tasks);
         }
     }
 
@@ -255,12 +367,36 @@ public final class ChecksumReporter implements Serializable {
 
         try (FileOutputStream fileStream = new FileOutputStream(file, false);
              OutputStream outputStream = new BufferedOutputStream(fileStream);
-             ObjectOutput objectOutput = new ObjectOutputStream(outputStream)) {
-            objectOutput.writeShort(SERIALIZED_FORMAT_CODE);
-            objectOutput.writeShort(mVersion);
-            objectOutput.writeObject(mResultChecksum);
-            objectOutput.writeObject(mFileChecksum);
+             DataOutputStream dataOutput = new DataOutputStream(outputStream)) {
+            dataOutput.writeShort(COMPACT_FORMAT_CODE);
+            dataOutput.writeShort(COMPACT_FORMAT_VERSION);
+            dataOutput.writeShort(mVersion);
+            mResultChecksum.writeTo(dataOutput);
+            // Sorted so that the same results always produce the same file
+            Map<String, byte[]> fileChecksums = new TreeMap<>(mFileChecksum);
+            dataOutput.writeInt(fileChecksums.size());
+            for (Map.Entry<String, byte[]> entry : fileChecksums.entrySet()) {
+                dataOutput.writeUTF(entry.getKey());
+                dataOutput.writeShort(entry.getValue().length);
+                dataOutput.write(entry.getValue());
+            }
+        }
+    }
+
+    /***
+     * Read the file checksums table written by {@link #saveToFile}.
+     */
+    private static Map<String, byte[]> readFileChecksums(DataInputStream dataInput)
+            throws IOException {
+        int count = dataInput.readInt();
+        Map<String, byte[]> fileChecksums = new ConcurrentHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String key = dataInput.readUTF();
+            byte[] crc = new byte[dataInput.readShort()];
+            dataInput.readFully(crc);
+            fileChecksums.put(key, crc);
         }
+        return fileChecksums;
     }
 
     @VisibleForTesting
@@ -346,14 +482,25 @@ public final class ChecksumReporter implements Serializable {
 
     static byte[] calculateFileChecksum(File file) throws ChecksumValidationException {
 
-        try (FileInputStream fis = new FileInputStream(file);
-             InputStream inputStream = new BufferedInputStream(fis)) {
+        try (FileInputStream fis = new FileInputStream(file)) {
             MessageDigest hashSum = MessageDigest.getInstance("SHA-256");
-            int cnt;
-            int bufferSize = 8192;
-            byte [] buffer = new byte[bufferSize];
-            while ((cnt = inputStream.read(buffer)) != -1) {
-                hashSum.update(buffer, 0, cnt);
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size > MAPPED_READ_THRESHOLD) {
+                // Large logs are mapped rather than copied through a buffer.
+                for (long position = 0; position < size; position += MAPPED_READ_WINDOW) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                            position, Math.min(MAPPED_READ_WINDOW, size - position));
+                    hashSum.update(window);
+                }
+            } else {
+                InputStream inputStream = new BufferedInputStream(fis);
+                int cnt;
+                int bufferSize = 8192;
+                byte [] buffer = new byte[bufferSize];
+                while ((cnt = inputStream.read(buffer)) != -1) {
+                    hashSum.update(buffer, 0, cnt);
+                }
             }
 
             byte[] partialHash = new byte[32];
@@ -368,7 +515,6 @@ public final class ChecksumReporter implements Serializable {
         }
     }
 
-
     private static int countTestResults(IInvocationResult invocation) {
         int count = 0;
         for (IModuleResult module : invocation.getModules()) {
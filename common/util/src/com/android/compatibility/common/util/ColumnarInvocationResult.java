@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * Compact alternative to {@link InvocationResult} for invocations with a very large number of
+ * tests.
+ * <p/>
+ * The tests of each module are stored as rows of primitive arrays rather than as objects, and
+ * the names of test cases and tests are interned once for the whole invocation. The number of
+ * tests of each status is updated as results are reported, so counting results does not walk
+ * the tests. See {@link ColumnarModuleResult}.
+ */
+public class ColumnarInvocationResult extends InvocationResult {
+
+    private final NameTable mNames = new NameTable();
+    private final int[] mCounts = new int[TestStatus.values().length];
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    IModuleResult createModuleResult(String id) {
+        return new ColumnarModuleResult(id, mNames, mCounts);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countResults(TestStatus result) {
+        return mCounts[result.ordinal()];
+    }
+}
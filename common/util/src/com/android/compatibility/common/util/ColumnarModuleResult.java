@@ -0,0 +1,920 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Module result of a {@link ColumnarInvocationResult}.
+ * <p/>
+ * Test cases and tests are rows of primitive arrays, named by indexes in the {@link NameTable}
+ * of the invocation. The {@link ICaseResult}s and {@link ITestResult}s returned are views of
+ * these rows, created when requested, which read and write the rows directly. Only the tests
+ * with details (failure, logs, report log...) have an object holding them.
+ * <p/>
+ * The number of tests of each status is updated as statuses change, for the module, for each
+ * test case and for the invocation.
+ */
+class ColumnarModuleResult implements IModuleResult {
+
+    private static final TestStatus[] STATUSES = TestStatus.values();
+    private static final byte NO_STATUS = -1;
+    private static final int NONE = -1;
+
+    private final String mId;
+    private final NameTable mNames;
+    private final int[] mInvocationCounts;
+    private long mRuntime = 0;
+
+    /* Variables related to completion of the module */
+    private boolean mDone = false;
+    private boolean mHaveSetDone = false;
+    private boolean mInProgress = false;
+    private int mExpectedTestRuns = 0;
+    private int mActualTestRuns = 0;
+    private int mNotExecuted = 0;
+
+    /* Test cases, in order of creation */
+    private int mCaseCount = 0;
+    private int[] mCaseNames = new int[4];
+    private int[] mCaseFirstTests = new int[4];
+    private int[] mCaseLastTests = new int[4];
+    private int[] mCaseCounts = new int[4 * STATUSES.length];
+
+    /* Tests, in order of creation */
+    private int mTestCount = 0;
+    private int[] mTestCases = new int[16];
+    private int[] mTestNames = new int[16];
+    private int[] mNextTests = new int[16];
+    private byte[] mStatuses = new byte[16];
+    private final BitSet mRetries = new BitSet();
+    private final Map<Integer, TestDetails> mDetails = new HashMap<>();
+
+    private final int[] mCounts = new int[STATUSES.length];
+    private final RowIndex mIndex = new RowIndex();
+
+    /** Details of a test, only allocated for tests that have some. */
+    private static class TestDetails {
+        String mMessage;
+        String mStackTrace;
+        ReportLog mReport;
+        String mBugReport;
+        String mLog;
+        String mScreenshot;
+
+        boolean isEmpty() {
+            return mMessage == null && mStackTrace == null && mReport == null
+                    && mBugReport == null && mLog == null && mScreenshot == null;
+        }
+    }
+
+    /**
+     * Creates a {@link ColumnarModuleResult} for the given id, created with
+     * {@link AbiUtils#createId(String, String)}
+     *
+     * @param names the table of the names of test cases and tests
+     * @param invocationCounts the number of tests of each status of the invocation, to update
+     */
+    ColumnarModuleResult(String id, NameTable names, int[] invocationCounts) {
+        mId = id;
+        mNames = names;
+        mInvocationCounts = invocationCounts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDone() {
+        return mDone && !mInProgress && (mActualTestRuns >= mExpectedTestRuns);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDoneSoFar() {
+        return mDone && !mInProgress;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initializeDone(boolean done) {
+        mDone = done;
+        mHaveSetDone = false;
+        if (mDone) {
+            mNotExecuted = 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setDone(boolean done) {
+        if (mHaveSetDone) {
+            mDone &= done; // If we've already set done for this instance, AND the received value
+        } else {
+            mDone = done; // If done has only been initialized, overwrite the existing value
+        }
+        mHaveSetDone = true;
+        if (mDone) {
+            mNotExecuted = 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void inProgress(boolean inProgress) {
+        mInProgress = inProgress;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getExpectedTestRuns() {
+        return mExpectedTestRuns;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setExpectedTestRuns(int numRuns) {
+        mExpectedTestRuns = numRuns;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTestRuns() {
+        return mActualTestRuns;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addTestRun() {
+        mActualTestRuns++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resetTestRuns() {
+        mActualTestRuns = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNotExecuted() {
+        return mNotExecuted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setNotExecuted(int numTests) {
+        mNotExecuted = numTests;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return AbiUtils.parseTestName(mId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getAbi() {
+        return AbiUtils.parseAbi(mId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addRuntime(long elapsedTime) {
+        mRuntime += elapsedTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resetRuntime() {
+        mRuntime = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRuntime() {
+        return mRuntime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ICaseResult getOrCreateResult(String caseName) {
+        int name = mNames.intern(caseName);
+        int caseIndex = mIndex.get(caseKey(name));
+        if (caseIndex == NONE) {
+            caseIndex = addCase(name);
+        }
+        return new CaseView(caseIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ICaseResult getResult(String caseName) {
+        int caseIndex = findCase(caseName);
+        return (caseIndex == NONE) ? null : new CaseView(caseIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<ICaseResult> getResults() {
+        List<ICaseResult> results = new ArrayList<>(mCaseCount);
+        for (int i = 0; i < mCaseCount; i++) {
+            results.add(new CaseView(i));
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countResults(TestStatus status) {
+        return mCounts[status.ordinal()];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int compareTo(IModuleResult another) {
+        return getId().compareTo(another.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void mergeFrom(IModuleResult otherModuleResult) {
+        if (!otherModuleResult.getId().equals(getId())) {
+            throw new IllegalArgumentException(String.format(
+                "Cannot merge module result with mismatched id. Expected %s, Found %s",
+                        otherModuleResult.getId(), getId()));
+        }
+
+        this.mRuntime += otherModuleResult.getRuntime();
+        this.mNotExecuted += otherModuleResult.getNotExecuted();
+        this.setDone(otherModuleResult.isDoneSoFar());
+        this.mActualTestRuns += otherModuleResult.getTestRuns();
+        // expected test runs are the same across shards, except for shards that do not run this
+        // module at least once (for which the value is not yet set).
+        this.mExpectedTestRuns = otherModuleResult.getExpectedTestRuns();
+        for (ICaseResult otherCaseResult : otherModuleResult.getResults()) {
+            ICaseResult caseResult = getOrCreateResult(otherCaseResult.getName());
+            caseResult.mergeFrom(otherCaseResult);
+        }
+    }
+
+    private int findCase(String caseName) {
+        int name = mNames.indexOf(caseName);
+        return (name == NONE) ? NONE : mIndex.get(caseKey(name));
+    }
+
+    private int findTest(int caseIndex, String testName) {
+        int name = mNames.indexOf(testName);
+        return (name == NONE) ? NONE : mIndex.get(testKey(caseIndex, name));
+    }
+
+    private int addCase(int name) {
+        if (mCaseCount == mCaseNames.length) {
+            int length = mCaseCount * 2;
+            mCaseNames = Arrays.copyOf(mCaseNames, length);
+            mCaseFirstTests = Arrays.copyOf(mCaseFirstTests, length);
+            mCaseLastTests = Arrays.copyOf(mCaseLastTests, length);
+            mCaseCounts = Arrays.copyOf(mCaseCounts, length * STATUSES.length);
+        }
+        int caseIndex = mCaseCount++;
+        mCaseNames[caseIndex] = name;
+        mCaseFirstTests[caseIndex] = NONE;
+        mCaseLastTests[caseIndex] = NONE;
+        mIndex.put(caseKey(name), caseIndex);
+        return caseIndex;
+    }
+
+    private int addTest(int caseIndex, int name) {
+        if (mTestCount == mTestNames.length) {
+            int length = mTestCount * 2;
+            mTestCases = Arrays.copyOf(mTestCases, length);
+            mTestNames = Arrays.copyOf(mTestNames, length);
+            mNextTests = Arrays.copyOf(mNextTests, length);
+            mStatuses = Arrays.copyOf(mStatuses, length);
+        }
+        int test = mTestCount++;
+        mTestCases[test] = caseIndex;
+        mTestNames[test] = name;
+        mNextTests[test] = NONE;
+        mStatuses[test] = NO_STATUS;
+        if (mCaseLastTests[caseIndex] == NONE) {
+            mCaseFirstTests[caseIndex] = test;
+        } else {
+            mNextTests[mCaseLastTests[caseIndex]] = test;
+        }
+        mCaseLastTests[caseIndex] = test;
+        mIndex.put(testKey(caseIndex, name), test);
+        return test;
+    }
+
+    private TestStatus getStatus(int test) {
+        byte status = mStatuses[test];
+        return (status == NO_STATUS) ? null : STATUSES[status];
+    }
+
+    private void setStatus(int test, TestStatus status) {
+        byte newStatus = (status == null) ? NO_STATUS : (byte) status.ordinal();
+        byte oldStatus = mStatuses[test];
+        if (newStatus == oldStatus) {
+            return;
+        }
+        int caseCounts = mTestCases[test] * STATUSES.length;
+        if (oldStatus != NO_STATUS) {
+            mCounts[oldStatus]--;
+            mCaseCounts[caseCounts + oldStatus]--;
+            mInvocationCounts[oldStatus]--;
+        }
+        if (newStatus != NO_STATUS) {
+            mCounts[newStatus]++;
+            mCaseCounts[caseCounts + newStatus]++;
+            mInvocationCounts[newStatus]++;
+        }
+        mStatuses[test] = newStatus;
+    }
+
+    private TestDetails getDetails(int test) {
+        return mDetails.get(test);
+    }
+
+    /**
+     * @return the details of the test to be modified, or null if they do not need to be
+     * created to hold the given value.
+     */
+    private TestDetails editDetails(int test, Object value) {
+        TestDetails details = mDetails.get(test);
+        if (details == null && value != null) {
+            details = new TestDetails();
+            mDetails.put(test, details);
+        }
+        return details;
+    }
+
+    /**
+     * Releases the details of the test once they are all unset.
+     */
+    private void trimDetails(int test, TestDetails details) {
+        if (details != null && details.isEmpty()) {
+            mDetails.remove(test);
+        }
+    }
+
+    private static long caseKey(int name) {
+        return name;
+    }
+
+    private static long testKey(int caseIndex, int name) {
+        return ((caseIndex + 1L) << 32) | name;
+    }
+
+    /**
+     * View of a row of the test cases of the module.
+     */
+    private class CaseView implements ICaseResult {
+
+        private final int mCase;
+
+        CaseView(int caseIndex) {
+            mCase = caseIndex;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getName() {
+            return mNames.get(mCaseNames[mCase]);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ITestResult getOrCreateResult(String testName) {
+            int name = mNames.intern(testName);
+            int test = mIndex.get(testKey(mCase, name));
+            if (test == NONE) {
+                test = addTest(mCase, name);
+            }
+            return new TestView(test);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ITestResult getResult(String testName) {
+            int test = findTest(mCase, testName);
+            return (test == NONE) ? null : new TestView(test);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<ITestResult> getResults() {
+            List<ITestResult> results = new ArrayList<>();
+            for (int test = mCaseFirstTests[mCase]; test != NONE; test = mNextTests[test]) {
+                results.add(new TestView(test));
+            }
+            Collections.sort(results);
+            return results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<ITestResult> getResults(TestStatus status) {
+            List<ITestResult> results = new ArrayList<>();
+            for (int test = mCaseFirstTests[mCase]; test != NONE; test = mNextTests[test]) {
+                if (getStatus(test) == status) {
+                    results.add(new TestView(test));
+                }
+            }
+            return results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int countResults(TestStatus status) {
+            return mCaseCounts[mCase * STATUSES.length + status.ordinal()];
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(ICaseResult another) {
+            return getName().compareTo(another.getName());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void mergeFrom(ICaseResult otherCaseResult) {
+            if (!otherCaseResult.getName().equals(getName())) {
+                throw new IllegalArgumentException(String.format(
+                    "Cannot merge case result with mismatched name. Expected %s, Found %s",
+                            otherCaseResult.getName(), getName()));
+            }
+
+            if (equals(otherCaseResult)) {
+                return;
+            }
+            for (ITestResult otherTestResult : otherCaseResult.getResults()) {
+                // The other result replaces the existing one
+                TestView test = (TestView) getOrCreateResult(otherTestResult.getName());
+                test.reset();
+                test.setResultStatus(otherTestResult.getResultStatus());
+                test.setRetry(otherTestResult.isRetry());
+                test.setMessage(otherTestResult.getMessage());
+                test.setStackTraceUnchecked(otherTestResult.getStackTrace());
+                test.setReportLog(otherTestResult.getReportLog());
+                test.setBugReport(otherTestResult.getBugReport());
+                test.setLog(otherTestResult.getLog());
+                test.setScreenshot(otherTestResult.getScreenshot());
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof CaseView && ((CaseView) other).module() == module()
+                    && ((CaseView) other).mCase == mCase;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return mCase;
+        }
+
+        private ColumnarModuleResult module() {
+            return ColumnarModuleResult.this;
+        }
+    }
+
+    /**
+     * View of a row of the tests of the module.
+     */
+    private class TestView implements ITestResult {
+
+        private final int mTest;
+
+        TestView(int test) {
+            mTest = test;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getName() {
+            return mNames.get(mTestNames[mTest]);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getFullName() {
+            return String.format("%s#%s", mNames.get(mCaseNames[mTestCases[mTest]]), getName());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public TestStatus getResultStatus() {
+            return getStatus(mTest);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setResultStatus(TestStatus status) {
+            setStatus(mTest, status);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getMessage() {
+            TestDetails details = getDetails(mTest);
+            return (details == null) ? null : details.mMessage;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setMessage(String message) {
+            TestDetails details = editDetails(mTest, message);
+            if (details != null) {
+                details.mMessage = message;
+                trimDetails(mTest, details);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getStackTrace() {
+            TestDetails details = getDetails(mTest);
+            return (details == null) ? null : details.mStackTrace;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setStackTrace(String stackTrace) {
+            setStackTraceUnchecked(TestResult.sanitizeStackTrace(stackTrace));
+        }
+
+        /**
+         * Sets a stack trace that is already sanitized.
+         */
+        void setStackTraceUnchecked(String stackTrace) {
+            TestDetails details = editDetails(mTest, stackTrace);
+            if (details != null) {
+                details.mStackTrace = stackTrace;
+                trimDetails(mTest, details);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ReportLog getReportLog() {
+            TestDetails details = getDetails(mTest);
+            return (details == null) ? null : details.mReport;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setReportLog(ReportLog report) {
+            TestDetails details = editDetails(mTest, report);
+            if (details != null) {
+                details.mReport = report;
+                trimDetails(mTest, details);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getBugReport() {
+            TestDetails details = getDetails(mTest);
+            return (details == null) ? null : details.mBugReport;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setBugReport(String path) {
+            TestDetails details = editDetails(mTest, path);
+            if (details != null) {
+                details.mBugReport = path;
+                trimDetails(mTest, details);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getLog() {
+            TestDetails details = getDetails(mTest);
+            return (details == null) ? null : details.mLog;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setLog(String path) {
+            TestDetails details = editDetails(mTest, path);
+            if (details != null) {
+                details.mLog = path;
+                trimDetails(mTest, details);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getScreenshot() {
+            TestDetails details = getDetails(mTest);
+            return (details == null) ? null : details.mScreenshot;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setScreenshot(String path) {
+            TestDetails details = editDetails(mTest, path);
+            if (details != null) {
+                details.mScreenshot = path;
+                trimDetails(mTest, details);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void failed(String trace) {
+            setResultStatus(TestStatus.FAIL);
+            int index = trace.indexOf('\n');
+            if (index < 0) {
+                // Trace is a single line, just set the message to be the same as the stacktrace.
+                setMessage(trace);
+            } else {
+                setMessage(trace.substring(0, index));
+            }
+            setStackTrace(trace);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void passed(ReportLog report) {
+            if (getResultStatus() != TestStatus.FAIL) {
+                setResultStatus(TestStatus.PASS);
+                if (report != null) {
+                    setReportLog(report);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void skipped() {
+            // TODO(b/28386054): Report SKIPPED as a separate result.
+            // For now, we mark this as PASS.
+            setResultStatus(TestStatus.PASS);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void reset() {
+            setStatus(mTest, null);
+            mDetails.remove(mTest);
+            mRetries.clear(mTest);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setRetry(boolean isRetry) {
+            mRetries.set(mTest, isRetry);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isRetry() {
+            return mRetries.get(mTest);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void removeResult() {
+            setResultStatus(TestStatus.FAIL);
+            setStackTrace("");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(ITestResult another) {
+            return getName().compareTo(another.getName());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof TestView && ((TestView) other).module() == module()
+                    && ((TestView) other).mTest == mTest;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return mTest;
+        }
+
+        private ColumnarModuleResult module() {
+            return ColumnarModuleResult.this;
+        }
+    }
+
+    /**
+     * Open addressing hash table from the keys of test cases and tests to their rows.
+     */
+    private static class RowIndex {
+
+        private static final long EMPTY = -1;
+
+        private long[] mKeys = newKeys(32);
+        private int[] mRows = new int[32];
+        private int mSize = 0;
+
+        int get(long key) {
+            int mask = mKeys.length - 1;
+            int slot = hash(key) & mask;
+            while (mKeys[slot] != EMPTY) {
+                if (mKeys[slot] == key) {
+                    return mRows[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NONE;
+        }
+
+        void put(long key, int row) {
+            if ((mSize + 1) * 3 > mKeys.length * 2) {
+                rehash();
+            }
+            insert(mKeys, mRows, key, row);
+            mSize++;
+        }
+
+        private void rehash() {
+            long[] keys = newKeys(mKeys.length * 2);
+            int[] rows = new int[keys.length];
+            for (int i = 0; i < mKeys.length; i++) {
+                if (mKeys[i] != EMPTY) {
+                    insert(keys, rows, mKeys[i], mRows[i]);
+                }
+            }
+            mKeys = keys;
+            mRows = rows;
+        }
+
+        private static void insert(long[] keys, int[] rows, long key, int row) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            rows[slot] = row;
+        }
+
+        private static int hash(long key) {
+            return NameTable.mix((int) (key ^ (key >>> 32)));
+        }
+
+        private static long[] newKeys(int length) {
+            long[] keys = new long[length];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+}
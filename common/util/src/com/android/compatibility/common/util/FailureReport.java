@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the HTML report of the failed tests of a result file.
+ * <p/>
+ * The result file is read in a single streaming pass, and only the summary of each module and
+ * the failed tests are kept in memory, so the time and memory needed to create the report
+ * depend on the number of failures rather than on the size of the result.
+ */
+class FailureReport {
+
+    private static final String ENCODING = "UTF-8";
+    private static final String NS = null;
+    private static final String NBSP = "\u00A0";
+    private static final String FAIL = TestStatus.FAIL.getValue();
+
+    // Result XML constants
+    private static final String ABI_ATTR = "abi";
+    private static final String BUILD_TAG = "Build";
+    private static final String CASE_TAG = "TestCase";
+    private static final String DONE_ATTR = "done";
+    private static final String FAILED_ATTR = "failed";
+    private static final String FAILURE_TAG = "Failure";
+    private static final String MESSAGE_ATTR = "message";
+    private static final String MODULE_TAG = "Module";
+    private static final String NAME_ATTR = "name";
+    private static final String PASS_ATTR = "pass";
+    private static final String RESULT_ATTR = "result";
+    private static final String RESULT_TAG = "Result";
+    private static final String SUMMARY_TAG = "Summary";
+    private static final String TEST_TAG = "Test";
+
+    // Result attributes shown in the summary
+    private static final String[] RESULT_ATTRS = {"suite_name", "suite_plan", "suite_version",
+            "suite_build_number", "host_name", "os_name", "os_version", "start_display",
+            "end_display"};
+    private static final String[] BUILD_ATTRS = {"build_fingerprint",
+            "build_version_security_patch", "build_version_release", "build_version_sdk",
+            "build_abis"};
+    private static final String[] SUMMARY_ATTRS = {PASS_ATTR, FAILED_ATTR, "modules_done",
+            "modules_total"};
+
+    private final Map<String, String> mAttributes = new HashMap<>();
+    private final List<ModuleSummary> mModules = new ArrayList<>();
+
+    /** Summary of a module, with its failed tests. */
+    private static class ModuleSummary {
+        final String mTitle;
+        final String mPassed;
+        final String mDone;
+        final List<String[]> mFailures = new ArrayList<>();
+
+        ModuleSummary(String title, String passed, String done) {
+            mTitle = title;
+            mPassed = passed;
+            mDone = done;
+        }
+    }
+
+    /**
+     * Writes the failure report of the given result file.
+     *
+     * @param resultFile the test_result.xml to report
+     * @param reportFile the HTML file to create
+     */
+    static void create(File resultFile, File reportFile)
+            throws IOException, XmlPullParserException {
+        FailureReport report = new FailureReport();
+        try (InputStream input = new BufferedInputStream(new FileInputStream(resultFile))) {
+            report.parse(input);
+        }
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(reportFile))) {
+            report.write(output);
+        }
+    }
+
+    private void parse(InputStream input) throws IOException, XmlPullParserException {
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(input, ENCODING);
+        ModuleSummary module = null;
+        String caseName = null;
+        String[] failure = null;
+        int type;
+        while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (type == XmlPullParser.END_TAG && TEST_TAG.equals(parser.getName())) {
+                failure = null;
+            }
+            if (type != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String tag = parser.getName();
+            if (RESULT_TAG.equals(tag)) {
+                readAttributes(parser, RESULT_ATTRS);
+            } else if (BUILD_TAG.equals(tag)) {
+                readAttributes(parser, BUILD_ATTRS);
+            } else if (SUMMARY_TAG.equals(tag) && module == null) {
+                // Summaries within modules are those of the report logs of tests
+                readAttributes(parser, SUMMARY_ATTRS);
+            } else if (MODULE_TAG.equals(tag)) {
+                module = new ModuleSummary(String.format("%s%s%s",
+                        parser.getAttributeValue(NS, ABI_ATTR), NBSP,
+                        parser.getAttributeValue(NS, NAME_ATTR)),
+                        parser.getAttributeValue(NS, PASS_ATTR),
+                        parser.getAttributeValue(NS, DONE_ATTR));
+                mModules.add(module);
+            } else if (CASE_TAG.equals(tag)) {
+                caseName = parser.getAttributeValue(NS, NAME_ATTR);
+            } else if (TEST_TAG.equals(tag)) {
+                if (module != null && FAIL.equals(parser.getAttributeValue(NS, RESULT_ATTR))) {
+                    failure = new String[] {String.format("%s#%s", caseName,
+                            parser.getAttributeValue(NS, NAME_ATTR)), null};
+                    module.mFailures.add(failure);
+                } else {
+                    // Details of other tests are not reported
+                    skip(parser);
+                }
+            } else if (FAILURE_TAG.equals(tag) && failure != null) {
+                failure[1] = parser.getAttributeValue(NS, MESSAGE_ATTR);
+                skip(parser);
+            } else if (failure != null) {
+                skip(parser);
+            }
+        }
+    }
+
+    private void readAttributes(XmlPullParser parser, String[] names) {
+        for (String name : names) {
+            mAttributes.put(name, parser.getAttributeValue(NS, name));
+        }
+    }
+
+    /**
+     * Skips the current element and its content.
+     */
+    private static void skip(XmlPullParser parser) throws IOException, XmlPullParserException {
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new XmlPullParserException("Unexpected end of document");
+            }
+        }
+    }
+
+    private void write(OutputStream output) throws IOException, XmlPullParserException {
+        XmlSerializer serializer = XmlPullParserFactory.newInstance().newSerializer();
+        serializer.setOutput(output, ENCODING);
+        serializer.setFeature(ResultHandler.INDENT_FEATURE, true);
+        serializer.startTag(NS, "html");
+        serializer.startTag(NS, "head");
+        serializer.startTag(NS, "meta");
+        serializer.attribute(NS, "http-equiv", "Content-Type");
+        serializer.attribute(NS, "content", "text/html; charset=" + ENCODING);
+        serializer.endTag(NS, "meta");
+        element(serializer, "title", null, "Test Report");
+        serializer.startTag(NS, "link");
+        serializer.attribute(NS, "rel", "stylesheet");
+        serializer.attribute(NS, "type", "text/css");
+        serializer.attribute(NS, "href", "compatibility_result.css");
+        serializer.endTag(NS, "link");
+        serializer.endTag(NS, "head");
+        serializer.startTag(NS, "body");
+
+        serializer.startTag(NS, "div");
+        serializer.startTag(NS, "table");
+        serializer.attribute(NS, "class", "title");
+        serializer.startTag(NS, "tr");
+        serializer.startTag(NS, "td");
+        serializer.attribute(NS, "align", "left");
+        serializer.startTag(NS, "img");
+        serializer.attribute(NS, "src", "logo.png");
+        serializer.endTag(NS, "img");
+        serializer.endTag(NS, "td");
+        serializer.endTag(NS, "tr");
+        serializer.endTag(NS, "table");
+        serializer.endTag(NS, "div");
+
+        writeSummary(serializer);
+        serializer.startTag(NS, "br").endTag(NS, "br");
+        writeModules(serializer);
+        serializer.startTag(NS, "br").endTag(NS, "br");
+        writeFailures(serializer);
+        serializer.startTag(NS, "br").endTag(NS, "br");
+        writeIncompleteModules(serializer);
+
+        serializer.endTag(NS, "body");
+        serializer.endTag(NS, "html");
+        serializer.endDocument();
+    }
+
+    private void writeSummary(XmlSerializer serializer) throws IOException {
+        serializer.startTag(NS, "div");
+        serializer.startTag(NS, "table");
+        serializer.attribute(NS, "class", "summary");
+        serializer.startTag(NS, "tr");
+        serializer.startTag(NS, "th");
+        serializer.attribute(NS, "colspan", "2");
+        serializer.text("Summary");
+        serializer.endTag(NS, "th");
+        serializer.endTag(NS, "tr");
+        summaryRow(serializer, "Suite / Plan", String.format("%s / %s",
+                attr("suite_name"), attr("suite_plan")));
+        summaryRow(serializer, "Suite / Build", String.format("%s / %s",
+                attr("suite_version"), attr("suite_build_number")));
+        summaryRow(serializer, "Host Info", String.format("%s (%s - %s)",
+                attr("host_name"), attr("os_name"), attr("os_version")));
+        summaryRow(serializer, "Start time / End Time", String.format("%s / %s",
+                attr("start_display"), attr("end_display")));
+        summaryRow(serializer, "Tests Passed", attr(PASS_ATTR));
+        summaryRow(serializer, "Tests Failed", attr(FAILED_ATTR));
+        summaryRow(serializer, "Modules Done", attr("modules_done"));
+        summaryRow(serializer, "Modules Total", attr("modules_total"));
+        summaryRow(serializer, "Fingerprint", attr("build_fingerprint"));
+        summaryRow(serializer, "Security Patch", attr("build_version_security_patch"));
+        summaryRow(serializer, "Release (SDK)", String.format("%s (%s)",
+                attr("build_version_release"), attr("build_version_sdk")));
+        summaryRow(serializer, "ABIs", attr("build_abis"));
+        serializer.endTag(NS, "table");
+        serializer.endTag(NS, "div");
+    }
+
+    private void writeModules(XmlSerializer serializer) throws IOException {
+        serializer.startTag(NS, "div");
+        serializer.startTag(NS, "table");
+        serializer.attribute(NS, "class", "testsummary");
+        serializer.startTag(NS, "tr");
+        for (String header : new String[] {"Module", "Passed", "Failed", "Total Tests", "Done"}) {
+            element(serializer, "th", null, header);
+        }
+        serializer.endTag(NS, "tr");
+        for (ModuleSummary module : mModules) {
+            int failed = module.mFailures.size();
+            serializer.startTag(NS, "tr");
+            serializer.startTag(NS, "td");
+            if (failed > 0) {
+                serializer.startTag(NS, "a");
+                serializer.attribute(NS, "href", "#" + module.mTitle);
+                serializer.text(module.mTitle);
+                serializer.endTag(NS, "a");
+            } else {
+                serializer.text(module.mTitle);
+            }
+            serializer.endTag(NS, "td");
+            element(serializer, "td", null, module.mPassed);
+            element(serializer, "td", null, Integer.toString(failed));
+            element(serializer, "td", null, Integer.toString(failed + parseInt(module.mPassed)));
+            element(serializer, "td", null, module.mDone);
+            serializer.endTag(NS, "tr");
+        }
+        serializer.endTag(NS, "table");
+        serializer.endTag(NS, "div");
+    }
+
+    private void writeFailures(XmlSerializer serializer) throws IOException {
+        serializer.startTag(NS, "div");
+        for (ModuleSummary module : mModules) {
+            if (module.mFailures.isEmpty()) {
+                continue;
+            }
+            serializer.startTag(NS, "table");
+            serializer.attribute(NS, "class", "testdetails");
+            serializer.startTag(NS, "tr");
+            serializer.startTag(NS, "td");
+            serializer.attribute(NS, "class", "module");
+            serializer.attribute(NS, "colspan", "3");
+            anchor(serializer, module.mTitle);
+            serializer.endTag(NS, "td");
+            serializer.endTag(NS, "tr");
+
+            serializer.startTag(NS, "tr");
+            serializer.startTag(NS, "th");
+            serializer.attribute(NS, "width", "30%");
+            serializer.text("Test");
+            serializer.endTag(NS, "th");
+            serializer.startTag(NS, "th");
+            serializer.attribute(NS, "width", "5%");
+            serializer.text("Result");
+            serializer.endTag(NS, "th");
+            element(serializer, "th", null, "Details");
+            serializer.endTag(NS, "tr");
+
+            for (String[] failure : module.mFailures) {
+                serializer.startTag(NS, "tr");
+                element(serializer, "td", "testname", failure[0]);
+                serializer.startTag(NS, "td");
+                serializer.attribute(NS, "class", "failed");
+                serializer.startTag(NS, "div");
+                serializer.attribute(NS, "style",
+                        "text-align: center; margin-left:auto; margin-right:auto;");
+                serializer.text(FAIL);
+                serializer.endTag(NS, "div");
+                serializer.endTag(NS, "td");
+                serializer.startTag(NS, "td");
+                serializer.attribute(NS, "class", "failuredetails");
+                element(serializer, "div", "details", failure[1]);
+                serializer.endTag(NS, "td");
+                serializer.endTag(NS, "tr");
+            }
+            serializer.endTag(NS, "table");
+        }
+        serializer.endTag(NS, "div");
+    }
+
+    private void writeIncompleteModules(XmlSerializer serializer) throws IOException {
+        String done = attr("modules_done");
+        if (done.equals(attr("modules_total"))) {
+            return;
+        }
+        serializer.startTag(NS, "div");
+        serializer.startTag(NS, "table");
+        serializer.attribute(NS, "class", "incompletemodules");
+        serializer.startTag(NS, "tr");
+        element(serializer, "th", null, "Incomplete Modules");
+        serializer.endTag(NS, "tr");
+        for (ModuleSummary module : mModules) {
+            if ("false".equals(module.mDone)) {
+                serializer.startTag(NS, "tr");
+                serializer.startTag(NS, "td");
+                anchor(serializer, module.mTitle);
+                serializer.endTag(NS, "td");
+                serializer.endTag(NS, "tr");
+            }
+        }
+        serializer.endTag(NS, "table");
+        serializer.endTag(NS, "div");
+    }
+
+    private String attr(String name) {
+        String value = mAttributes.get(name);
+        return (value == null) ? "" : value;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void summaryRow(XmlSerializer serializer, String title, String value)
+            throws IOException {
+        serializer.startTag(NS, "tr");
+        element(serializer, "td", "rowtitle", title);
+        element(serializer, "td", null, value);
+        serializer.endTag(NS, "tr");
+    }
+
+    private static void anchor(XmlSerializer serializer, String name) throws IOException {
+        serializer.startTag(NS, "a");
+        serializer.attribute(NS, "name", name);
+        serializer.text(name);
+        serializer.endTag(NS, "a");
+    }
+
+    /**
+     * Writes an element with the given class and text. The text is written even if empty, so
+     * that the element is not self-closed.
+     */
+    private static void element(XmlSerializer serializer, String tag, String cssClass,
+            String text) throws IOException {
+        serializer.startTag(NS, tag);
+        if (cssClass != null) {
+            serializer.attribute(NS, "class", cssClass);
+        }
+        serializer.text((text == null) ? "" : text);
+        serializer.endTag(NS, tag);
+    }
+}
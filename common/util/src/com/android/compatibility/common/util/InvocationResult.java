@@ -40,6 +40,8 @@ public class InvocationResult implements IInvocationResult {
     private int mNotExecuted = 0;
     private RetryChecksumStatus mRetryChecksumStatus = RetryChecksumStatus.NotRetry;
     private File mRetryDirectory = null;
+    private final ResultCounts mCounts = new ResultCounts(null);
+
     /**
      * {@inheritDoc}
      */
@@ -55,11 +57,14 @@ public class InvocationResult implements IInvocationResult {
      */
     @Override
     public int countResults(TestStatus result) {
-        int total = 0;
-        for (IModuleResult m : mModuleResults.values()) {
-            total += m.countResults(result);
+        if (ResultCounts.sCheckConsistency) {
+            int total = 0;
+            for (IModuleResult m : mModuleResults.values()) {
+                total += m.countResults(result);
+            }
+            mCounts.check(result, total, "invocation");
         }
-        return total;
+        return mCounts.get(result);
     }
 
     /**
@@ -81,12 +86,19 @@ public class InvocationResult implements IInvocationResult {
     public IModuleResult getOrCreateModule(String id) {
         IModuleResult moduleResult = mModuleResults.get(id);
         if (moduleResult == null) {
-            moduleResult = new ModuleResult(id);
+            moduleResult = createModuleResult(id);
             mModuleResults.put(id, moduleResult);
         }
         return moduleResult;
     }
 
+    /**
+     * Creates the {@link IModuleResult} of the given id, when first requested.
+     */
+    IModuleResult createModuleResult(String id) {
+        return new ModuleResult(id, mCounts);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -15,7 +15,11 @@
  */
 package com.android.compatibility.common.util;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -69,6 +73,110 @@ public class LightInvocationResult implements IInvocationResult {
         }
     }
 
+    /**
+     * Creates an empty instance, to be populated by {@link #read(DataInputStream, File)}.
+     */
+    private LightInvocationResult() {
+        mInvocationInfo = new HashMap<String, String>();
+        mSerials = new HashSet<String>();
+        mRetryChecksumStatus = RetryChecksumStatus.NotRetry;
+        mModuleIds = new HashSet<String>();
+        mResultCounts = new HashMap<TestStatus, Integer>();
+    }
+
+    /**
+     * Writes this result to the given stream, in the format read by
+     * {@link #read(DataInputStream, File)}. The retry directory is not written.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(mTimestamp);
+        writeString(out, mBuildFingerprint);
+        writeString(out, mTestPlan);
+        writeString(out, mCommandLineArgs);
+        out.writeInt(mNotExecuted);
+        out.writeInt(mModuleCompleteCount);
+        out.writeInt(mInvocationInfo.size());
+        for (Map.Entry<String, String> entry : mInvocationInfo.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(mSerials.size());
+        for (String serial : mSerials) {
+            writeString(out, serial);
+        }
+        out.writeInt(mModuleIds.size());
+        for (String id : mModuleIds) {
+            writeString(out, id);
+        }
+        out.writeInt(mResultCounts.size());
+        for (Map.Entry<TestStatus, Integer> entry : mResultCounts.entrySet()) {
+            writeString(out, entry.getKey().getValue());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads a result written by {@link #write(DataOutputStream)}.
+     *
+     * @param in the stream to read from
+     * @param retryDirectory the directory the result was generated in
+     */
+    static LightInvocationResult read(DataInputStream in, File retryDirectory)
+            throws IOException {
+        LightInvocationResult result = new LightInvocationResult();
+        result.mRetryDirectory = retryDirectory;
+        result.mTimestamp = in.readLong();
+        result.mBuildFingerprint = readString(in);
+        result.mTestPlan = readString(in);
+        result.mCommandLineArgs = readString(in);
+        result.mNotExecuted = in.readInt();
+        result.mModuleCompleteCount = in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            result.mInvocationInfo.put(readString(in), readString(in));
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            result.mSerials.add(readString(in));
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            result.mModuleIds.add(readString(in));
+        }
+        for (TestStatus status : TestStatus.values()) {
+            result.mResultCounts.put(status, 0);
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            TestStatus status = TestStatus.getStatus(readString(in));
+            int statusCount = in.readInt();
+            if (status != null) {
+                result.mResultCounts.put(status, statusCount);
+            }
+        }
+        return result;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
     /**
      * {@inheritDoc}
      */
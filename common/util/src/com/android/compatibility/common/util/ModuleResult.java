@@ -38,13 +38,23 @@ public class ModuleResult implements IModuleResult {
     private int mNotExecuted = 0;
 
     private Map<String, ICaseResult> mResults = new HashMap<>();
+    private final ResultCounts mCounts;
 
     /**
      * Creates a {@link ModuleResult} for the given id, created with
      * {@link AbiUtils#createId(String, String)}
      */
     public ModuleResult(String id) {
+        this(id, null);
+    }
+
+    /**
+     * Creates a {@link ModuleResult} for the given id, whose counts of results are added to the
+     * given counts of the enclosing invocation.
+     */
+    ModuleResult(String id, ResultCounts invocationCounts) {
         mId = id;
+        mCounts = new ResultCounts(invocationCounts);
     }
 
     /**
@@ -210,7 +220,7 @@ public class ModuleResult implements IModuleResult {
     public ICaseResult getOrCreateResult(String caseName) {
         ICaseResult result = mResults.get(caseName);
         if (result == null) {
-            result = new CaseResult(caseName);
+            result = new CaseResult(caseName, mCounts);
             mResults.put(caseName, result);
         }
         return result;
@@ -239,11 +249,14 @@ public class ModuleResult implements IModuleResult {
      */
     @Override
     public int countResults(TestStatus status) {
-        int total = 0;
-        for (ICaseResult result : mResults.values()) {
-            total += result.countResults(status);
+        if (ResultCounts.sCheckConsistency) {
+            int total = 0;
+            for (ICaseResult result : mResults.values()) {
+                total += result.countResults(status);
+            }
+            mCounts.check(status, total, mId);
         }
-        return total;
+        return mCounts.get(status);
     }
 
     /**
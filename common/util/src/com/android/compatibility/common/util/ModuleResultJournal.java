@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only journal of completed {@link IModuleResult}s, kept in the result directory.
+ * <p/>
+ * Each module is serialized to its result XML as soon as it is done, and the failure details of
+ * its tests are then released from memory. {@link ResultHandler#writeResults} copies the
+ * journaled modules into the result file, so a finished module is never serialized twice.
+ * <p/>
+ * A module appended more than once is represented by its latest entry.
+ */
+public class ModuleResultJournal implements Closeable {
+
+    public static final String NAME = "test_result.journal";
+
+    // Serialized format Id (ie magic number) used to identify the journal.
+    static final short SERIALIZED_FORMAT_CODE = 651;
+    private static final short CURRENT_VERSION = 1;
+    private static final int HEADER_SIZE = 4;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File mFile;
+    private final RandomAccessFile mJournal;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /** The location of a serialized module in the journal. */
+    private static class Entry {
+        final long mOffset;
+        final int mLength;
+
+        Entry(long offset, int length) {
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    /**
+     * Opens the journal of the given result directory, creating it if it doesn't exist. Entries
+     * of an existing journal, eg. left behind by an interrupted invocation, are indexed and a
+     * partially written trailing entry is discarded.
+     *
+     * @param resultDir the result directory of the invocation
+     * @throws IOException if the journal cannot be opened or is not a journal
+     */
+    public ModuleResultJournal(File resultDir) throws IOException {
+        mFile = new File(resultDir, NAME);
+        mJournal = new RandomAccessFile(mFile, "rw");
+        if (mJournal.length() == 0) {
+            mJournal.writeShort(SERIALIZED_FORMAT_CODE);
+            mJournal.writeShort(CURRENT_VERSION);
+        } else {
+            try {
+                readEntries();
+            } catch (IOException e) {
+                mJournal.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Serializes the given module to the end of the journal, then releases the failure details
+     * of its tests from memory. The released details are restored by {@link #restore}.
+     */
+    public synchronized void append(IModuleResult module) throws IOException {
+        ByteArrayOutputStream fragment = new ByteArrayOutputStream();
+        try {
+            XmlSerializer serializer = ResultHandler.newSerializer(fragment);
+            serializer.setFeature(ResultHandler.INDENT_FEATURE, true);
+            ResultHandler.serializeModule(serializer, module);
+            serializer.flush();
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream(fragment.size() + 256);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeUTF(module.getId());
+        out.writeInt(fragment.size());
+        int headerLength = out.size();
+        fragment.writeTo(out);
+        out.flush();
+
+        long offset = mJournal.length();
+        mJournal.seek(offset);
+        mJournal.write(record.toByteArray());
+        mEntries.put(module.getId(), new Entry(offset + headerLength, fragment.size()));
+        release(module);
+    }
+
+    /**
+     * @return whether the journal holds an entry for the given module id.
+     */
+    public synchronized boolean contains(String moduleId) {
+        return mEntries.containsKey(moduleId);
+    }
+
+    /**
+     * @return the ids of all modules held by the journal.
+     */
+    public synchronized Set<String> getModuleIds() {
+        return new HashSet<>(mEntries.keySet());
+    }
+
+    /**
+     * Copies the serialized module to the given stream.
+     */
+    public synchronized void copyModule(String moduleId, OutputStream stream) throws IOException {
+        Entry entry = getEntry(moduleId);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        mJournal.seek(entry.mOffset);
+        int remaining = entry.mLength;
+        while (remaining > 0) {
+            int count = mJournal.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (count < 0) {
+                throw new EOFException(String.format("Journal entry for %s is truncated",
+                        moduleId));
+            }
+            stream.write(buffer, 0, count);
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Parses the journaled module back into a new {@link IModuleResult}.
+     */
+    public synchronized IModuleResult readModule(String moduleId) throws IOException {
+        Entry entry = getEntry(moduleId);
+        byte[] fragment = new byte[entry.mLength];
+        mJournal.seek(entry.mOffset);
+        mJournal.readFully(fragment);
+        try {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(new ByteArrayInputStream(fragment), "UTF-8");
+            parser.nextTag();
+            return ResultHandler.parseModule(parser, new InvocationResult(), null);
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Restores the failure details released when the module was appended, and removes the
+     * module from the journal. To be called before any new result is added to a module that
+     * was already journaled, so that the module is serialized from memory again.
+     */
+    public synchronized void restore(IModuleResult module) throws IOException {
+        if (!contains(module.getId())) {
+            return;
+        }
+        IModuleResult journaled = readModule(module.getId());
+        for (ICaseResult journaledCase : journaled.getResults()) {
+            ICaseResult caseResult = module.getResult(journaledCase.getName());
+            if (caseResult == null) {
+                continue;
+            }
+            for (ITestResult journaledTest : journaledCase.getResults()) {
+                ITestResult test = caseResult.getResult(journaledTest.getName());
+                if (test == null || test.getResultStatus() != journaledTest.getResultStatus()) {
+                    continue; // result has changed since it was journaled
+                }
+                test.setMessage(journaledTest.getMessage());
+                test.setStackTrace(journaledTest.getStackTrace());
+                test.setReportLog(journaledTest.getReportLog());
+                test.setBugReport(journaledTest.getBugReport());
+                test.setLog(journaledTest.getLog());
+                test.setScreenshot(journaledTest.getScreenshot());
+            }
+        }
+        mEntries.remove(module.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mJournal.close();
+    }
+
+    /**
+     * Closes and deletes the journal.
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        mFile.delete();
+    }
+
+    private Entry getEntry(String moduleId) throws IOException {
+        Entry entry = mEntries.get(moduleId);
+        if (entry == null) {
+            throw new IOException(String.format("No journal entry for %s", moduleId));
+        }
+        return entry;
+    }
+
+    /**
+     * Indexes the entries of an existing journal.
+     */
+    private void readEntries() throws IOException {
+        mJournal.seek(0);
+        if (mJournal.readShort() != SERIALIZED_FORMAT_CODE) {
+            throw new IOException("Unknown format of journal " + mFile.getAbsolutePath());
+        }
+        if (mJournal.readShort() > CURRENT_VERSION) {
+            throw new IOException("Journal has a newer version " + mFile.getAbsolutePath());
+        }
+        long length = mJournal.length();
+        long offset = HEADER_SIZE;
+        try {
+            while (offset < length) {
+                mJournal.seek(offset);
+                String moduleId = mJournal.readUTF();
+                int fragmentLength = mJournal.readInt();
+                long fragmentOffset = mJournal.getFilePointer();
+                if (fragmentLength < 0 || fragmentOffset + fragmentLength > length) {
+                    break;
+                }
+                mEntries.put(moduleId, new Entry(fragmentOffset, fragmentLength));
+                offset = fragmentOffset + fragmentLength;
+            }
+        } catch (EOFException e) {
+            // Trailing entry was not completely written.
+        }
+        // Discard the incomplete entry, if any, so that new entries are appended after the last
+        // complete one.
+        mJournal.setLength(offset);
+    }
+
+    /**
+     * Drops the failure details of the module's tests, which are now held by the journal.
+     */
+    private static void release(IModuleResult module) {
+        for (ICaseResult caseResult : module.getResults()) {
+            for (ITestResult test : caseResult.getResults()) {
+                test.setMessage(null);
+                test.setStackTrace(null);
+                test.setReportLog(null);
+                test.setBugReport(null);
+                test.setLog(null);
+                test.setScreenshot(null);
+            }
+        }
+    }
+}
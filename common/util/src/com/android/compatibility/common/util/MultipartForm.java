@@ -16,7 +16,12 @@
 
 package com.android.compatibility.common.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,17 +31,24 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /** Builds a multipart form and submits it. */
 class MultipartForm {
 
     private static final String FORM_DATA_BOUNDARY = "C75I55u3R3p0r73r";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
 
     /* package */ final String mServerUrl;
     /* package */ final Map<String, String> mFormValues = new HashMap<String, String>();
     /* package */ String mName;
     /* package */ String mFileName;
     /* package */ byte[] mData;
+    /* package */ File mFile;
+    /* package */ long mRetryDelayMs = 1000;
+    // Compressed copy of mFile, written while the file is first sent and sent on retries.
+    private File mSpool;
 
     /**
      * Creates a new multi-part form with the given serverUrl.
@@ -69,6 +81,24 @@ class MultipartForm {
         mName = name;
         mFileName = fileName;
         mData = data;
+        mFile = null;
+        return this;
+    }
+
+    /**
+     * Adds the gzipped content of the file as the payload of the form. The file is compressed
+     * while the form is submitted, and streamed to the server without being held in memory.
+     *
+     * @param name The name of attribute
+     * @param fileName The name of the compressed file
+     * @param file The file to compress
+     * @return the {@link MultipartForm} for easy chaining.
+     */
+    public MultipartForm addCompressedFormFile(String name, String fileName, File file) {
+        mName = name;
+        mFileName = fileName;
+        mData = null;
+        mFile = file;
         return this;
     }
 
@@ -81,15 +111,49 @@ class MultipartForm {
      * @throws IOException
      */
     public int submit() throws IOException {
-        return submitForm(mServerUrl);
+        try {
+            return submitForm(mServerUrl);
+        } finally {
+            if (mSpool != null) {
+                mSpool.delete();
+                mSpool = null;
+            }
+        }
     }
 
     /**
+     * Submits the form, retrying when the request fails or the server reports an error.
+     *
      * @param serverUrl to post the data to
      * @return response code
      * @throws IOException
      */
     private int submitForm(String serverUrl) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return submitFormOnce(serverUrl);
+            } catch (ClientErrorException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(mRetryDelayMs * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while retrying to submit form", e);
+            }
+        }
+    }
+
+    /**
+     * @param serverUrl to post the data to
+     * @return response code
+     * @throws IOException
+     */
+    private int submitFormOnce(String serverUrl) throws IOException {
         HttpURLConnection connection = null;
         try {
             URL url = new URL(serverUrl);
@@ -100,21 +164,36 @@ class MultipartForm {
             connection.setRequestProperty("Content-Type",
                     "multipart/form-data; boundary=" + FORM_DATA_BOUNDARY);
 
-            byte[] body = getContentBody();
-            connection.setRequestProperty("Content-Length", Integer.toString(body.length));
+            if (mFile != null) {
+                // Size of the compressed file is not known until it is sent
+                connection.setChunkedStreamingMode(CHUNK_SIZE);
+                OutputStream output = new BufferedOutputStream(connection.getOutputStream(),
+                        CHUNK_SIZE);
+                try {
+                    writeContentBody(output);
+                } finally {
+                    output.close();
+                }
+            } else {
+                byte[] body = getContentBody();
+                connection.setRequestProperty("Content-Length", Integer.toString(body.length));
 
-            OutputStream output = connection.getOutputStream();
-            try {
-                output.write(body);
-            } finally {
-                output.close();
+                OutputStream output = connection.getOutputStream();
+                try {
+                    output.write(body);
+                } finally {
+                    output.close();
+                }
             }
 
+            int response = connection.getResponseCode();
+            if (response >= 400 && response < 500) {
+                throw new ClientErrorException(response);
+            }
             // Open the stream to get a response. Otherwise request will be cancelled.
             InputStream input = connection.getInputStream();
             input.close();
 
-            int response = connection.getResponseCode();
             if (response == 302) {
                 return submitForm(connection.getHeaderField("Location"));
             }
@@ -128,23 +207,110 @@ class MultipartForm {
 
     /* package */ byte[] getContentBody() throws IOException {
         ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
-        PrintWriter writer = new PrintWriter(new OutputStreamWriter(byteOutput));
+        writeContentBody(byteOutput);
+        return byteOutput.toByteArray();
+    }
+
+    private void writeContentBody(OutputStream output) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(output));
         writer.println();
 
         for (Map.Entry<String, String> formValue : mFormValues.entrySet()) {
             writeFormField(writer, formValue.getKey(), formValue.getValue());
         }
 
-        if (mData != null) {
+        if (mData != null || mFile != null) {
             writeFormFileHeader(writer, mName, mFileName);
             writer.flush(); // Must flush here before writing to the byte stream!
-            byteOutput.write(mData);
+            if (mData != null) {
+                output.write(mData);
+            } else {
+                writeCompressedFile(output);
+            }
             writer.println();
         }
         writer.append("--").append(FORM_DATA_BOUNDARY).println("--");
         writer.flush();
-        writer.close();
-        return byteOutput.toByteArray();
+    }
+
+    /**
+     * Writes the compressed file to the output. The first time, the file is compressed straight
+     * to the output and to a spool file, which is sent as is by later attempts.
+     */
+    private void writeCompressedFile(OutputStream output) throws IOException {
+        if (mSpool != null) {
+            try (InputStream input = new BufferedInputStream(new FileInputStream(mSpool))) {
+                StreamUtil.copyStreams(input, output);
+            }
+            return;
+        }
+        File spool = File.createTempFile("upload", ".gz");
+        SpoolingOutputStream spoolingOutput = new SpoolingOutputStream(output, spool);
+        try (InputStream input = new BufferedInputStream(new FileInputStream(mFile));
+                GZIPOutputStream gzipOutput = new GZIPOutputStream(spoolingOutput, CHUNK_SIZE)) {
+            StreamUtil.copyStreams(input, gzipOutput);
+        } catch (IOException e) {
+            spool.delete();
+            throw e;
+        }
+        mSpool = spool;
+        spoolingOutput.rethrowOutputError();
+    }
+
+    /**
+     * Output stream writing to both the request and a spool file. If writing to the request
+     * fails, the spool file is still completed so that the form can be sent again without
+     * compressing the file again.
+     */
+    private static class SpoolingOutputStream extends OutputStream {
+        private final OutputStream mOutput;
+        private final OutputStream mSpool;
+        private IOException mOutputError;
+
+        SpoolingOutputStream(OutputStream output, File spool) throws IOException {
+            mOutput = output;
+            mSpool = new BufferedOutputStream(new FileOutputStream(spool), CHUNK_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mSpool.write(b, off, len);
+            if (mOutputError == null) {
+                try {
+                    mOutput.write(b, off, len);
+                } catch (IOException e) {
+                    mOutputError = e;
+                }
+            }
+        }
+
+        /**
+         * Closes the spool file only, the request is completed by the form.
+         */
+        @Override
+        public void close() throws IOException {
+            mSpool.close();
+        }
+
+        void rethrowOutputError() throws IOException {
+            if (mOutputError != null) {
+                throw mOutputError;
+            }
+        }
+    }
+
+    /**
+     * Error reported by the server for a request that should not be sent again.
+     */
+    private static class ClientErrorException extends IOException {
+        ClientErrorException(int response) {
+            super(String.format("Server returned HTTP response code: %d", response));
+        }
     }
 
     private void writeFormField(PrintWriter writer, String name, String value) {
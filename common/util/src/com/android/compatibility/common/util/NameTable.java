@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.Arrays;
+
+/**
+ * Table of interned names, each identified by a non-negative index.
+ * <p/>
+ * Names are stored once, and looked up with an open addressing hash table of indexes, so that
+ * no object is allocated per name other than the name itself.
+ */
+class NameTable {
+
+    private static final int EMPTY = -1;
+
+    private String[] mNames = new String[16];
+    private int[] mSlots = newSlots(32);
+    private int mSize = 0;
+
+    /**
+     * @return the index of the given name, adding it to the table if needed.
+     */
+    int intern(String name) {
+        int slot = findSlot(name);
+        if (mSlots[slot] != EMPTY) {
+            return mSlots[slot];
+        }
+        if (mSize == mNames.length) {
+            mNames = Arrays.copyOf(mNames, mSize * 2);
+        }
+        mNames[mSize] = name;
+        mSlots[slot] = mSize;
+        if (++mSize * 3 > mSlots.length * 2) {
+            rehash();
+        }
+        return mSize - 1;
+    }
+
+    /**
+     * @return the index of the given name, or -1 if it is not in the table.
+     */
+    int indexOf(String name) {
+        return mSlots[findSlot(name)];
+    }
+
+    /**
+     * @return the name of the given index.
+     */
+    String get(int index) {
+        return mNames[index];
+    }
+
+    /**
+     * @return the number of names in the table.
+     */
+    int size() {
+        return mSize;
+    }
+
+    private int findSlot(String name) {
+        int mask = mSlots.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        while (mSlots[slot] != EMPTY && !mNames[mSlots[slot]].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        mSlots = newSlots(mSlots.length * 2);
+        int mask = mSlots.length - 1;
+        for (int i = 0; i < mSize; i++) {
+            int slot = mix(mNames[i].hashCode()) & mask;
+            while (mSlots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            mSlots[slot] = i;
+        }
+    }
+
+    private static int[] newSlots(int length) {
+        int[] slots = new int[length];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    /**
+     * Spreads the bits of a hash code, as names often share long prefixes.
+     */
+    static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip file whose entries are compressed concurrently.
+ * <p/>
+ * Each file is deflated by a worker thread into memory, or into a temporary file when large,
+ * and the compressed entries are written to the zip in order, so the archive has the same layout
+ * as one written by {@link java.util.zip.ZipOutputStream}. Files in an already compressed
+ * format are stored as is. Zip64 extensions are used when sizes, offsets or the number of
+ * entries do not fit the original zip format.
+ */
+class ParallelZipWriter implements Closeable {
+
+    // Extensions of formats that do not benefit from being deflated again.
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "7z", "apk", "bz2", "gif", "gz", "jar", "jpeg", "jpg", "mp4", "png", "tgz", "webm",
+            "webp", "xz", "zip"));
+    // Compressed entries larger than this are spilled to a temporary file.
+    private static final int IN_MEMORY_LIMIT = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int DIRECTORY_ATTRIBUTE = 0x10;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    /** An entry compressed by a worker, waiting to be written. */
+    private static class Entry {
+        final byte[] mName;
+        final long mTime;
+        final boolean mIsDirectory;
+        int mMethod = ZipEntry.STORED;
+        long mCrc;
+        long mSize;
+        long mCompressedSize;
+        // The data of the entry is either in memory, in a temporary file or the file itself.
+        byte[] mData;
+        File mDataFile;
+        boolean mDeleteDataFile;
+        long mOffset;
+
+        Entry(String name, long time, boolean isDirectory) {
+            mName = name.getBytes(StandardCharsets.UTF_8);
+            mTime = time;
+            mIsDirectory = isDirectory;
+        }
+
+        boolean isZip64() {
+            return mSize >= MAX_32 || mCompressedSize >= MAX_32 || mOffset >= MAX_32;
+        }
+    }
+
+    private final CountingOutputStream mOut;
+    private final ExecutorService mExecutor;
+    private final int mLevel;
+    private final int mMaxPending;
+    private final Queue<Future<Entry>> mPending = new ArrayDeque<>();
+    private final List<Entry> mWritten = new ArrayList<>();
+
+    /**
+     * @param zipFile the zip file to create
+     * @param level the compression level of deflated entries
+     * @param threads the number of threads compressing entries
+     */
+    ParallelZipWriter(File zipFile, int level, int threads) throws IOException {
+        mOut = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(zipFile), BUFFER_SIZE));
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, threads));
+        mLevel = level;
+        // Bound the compressed entries held while waiting to be written
+        mMaxPending = 2 * Math.max(1, threads);
+    }
+
+    /**
+     * Adds the given file, or directory and all its contents, to the zip.
+     *
+     * @param file the file to add
+     * @param parentPath the path of the parent directory in the zip, ending with '/', or an
+     * empty string
+     */
+    void add(File file, String parentPath) throws IOException {
+        if (file.isDirectory()) {
+            // note: it appears even on windows, ZipEntry expects '/' as a path separator
+            String path = parentPath + file.getName() + "/";
+            submit(new Entry(path, file.lastModified(), true), null);
+            File[] subFiles = file.listFiles();
+            if (subFiles == null) {
+                throw new IOException(String.format("Could not read directory %s",
+                        file.getAbsolutePath()));
+            }
+            for (File subFile : subFiles) {
+                add(subFile, path);
+            }
+        } else {
+            submit(new Entry(parentPath + file.getName(), file.lastModified(), false), file);
+        }
+    }
+
+    /**
+     * Writes the remaining entries and the central directory, and closes the zip file.
+     */
+    void finish() throws IOException {
+        while (!mPending.isEmpty()) {
+            writeNext();
+        }
+        long centralOffset = mOut.getCount();
+        for (Entry entry : mWritten) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = mOut.getCount() - centralOffset;
+        writeEnd(centralOffset, centralSize);
+        close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Delete the temporary files of entries compressed but not written
+        for (Future<Entry> pending : mPending) {
+            if (pending.isDone()) {
+                try {
+                    deleteData(pending.get());
+                } catch (ExecutionException | InterruptedException e) {
+                    // Entry was not compressed
+                }
+            }
+        }
+        mPending.clear();
+        mOut.close();
+    }
+
+    private void submit(final Entry entry, final File file) throws IOException {
+        if (mPending.size() >= mMaxPending) {
+            writeNext();
+        }
+        mPending.add(mExecutor.submit(new Callable<Entry>() {
+            @Override
+            public Entry call() throws IOException {
+                if (file != null) {
+                    compress(entry, file);
+                }
+                return entry;
+            }
+        }));
+    }
+
+    private void writeNext() throws IOException {
+        Entry entry;
+        try {
+            entry = mPending.peek().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing zip entries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        mPending.remove();
+        try {
+            entry.mOffset = mOut.getCount();
+            writeLocalHeader(entry);
+            if (entry.mData != null) {
+                mOut.write(entry.mData);
+            } else if (entry.mDataFile != null) {
+                try (InputStream in = new FileInputStream(entry.mDataFile)) {
+                    StreamUtil.copyStreams(in, mOut);
+                }
+            }
+        } finally {
+            deleteData(entry);
+        }
+        mWritten.add(entry);
+    }
+
+    /**
+     * Computes the checksum of the file and compresses it, unless it is already compressed.
+     */
+    private void compress(Entry entry, File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        if (mLevel == Deflater.NO_COMPRESSION || isCompressed(file)) {
+            try (InputStream in = new FileInputStream(file)) {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    size += count;
+                }
+            }
+            entry.mDataFile = file;
+            entry.mCompressedSize = size;
+        } else {
+            Deflater deflater = new Deflater(mLevel, true);
+            SpillingOutputStream data = new SpillingOutputStream();
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file));
+                    DeflaterOutputStream out = new DeflaterOutputStream(data, deflater,
+                            BUFFER_SIZE)) {
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                    size += count;
+                    out.write(buffer, 0, count);
+                }
+            } catch (IOException e) {
+                data.delete();
+                throw e;
+            } finally {
+                deflater.end();
+            }
+            entry.mMethod = ZipEntry.DEFLATED;
+            entry.mCompressedSize = data.getCount();
+            entry.mData = data.getData();
+            entry.mDataFile = data.getFile();
+            entry.mDeleteDataFile = true;
+        }
+        entry.mCrc = crc.getValue();
+        entry.mSize = size;
+    }
+
+    private static boolean isCompressed(File file) {
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        return index >= 0 && COMPRESSED_EXTENSIONS.contains(
+                name.substring(index + 1).toLowerCase(Locale.US));
+    }
+
+    private static void deleteData(Entry entry) {
+        entry.mData = null;
+        if (entry.mDeleteDataFile && entry.mDataFile != null) {
+            entry.mDataFile.delete();
+        }
+        entry.mDataFile = null;
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        boolean zip64 = entry.mSize >= MAX_32 || entry.mCompressedSize >= MAX_32;
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+        writeShort(UTF8_FLAG);
+        writeShort(entry.mMethod);
+        writeInt(toDosTime(entry.mTime));
+        writeInt(entry.mCrc);
+        writeInt(zip64 ? MAX_32 : entry.mCompressedSize);
+        writeInt(zip64 ? MAX_32 : entry.mSize);
+        writeShort(entry.mName.length);
+        writeShort(zip64 ? 20 : 0);
+        mOut.write(entry.mName);
+        if (zip64) {
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(16);
+            writeLong(entry.mSize);
+            writeLong(entry.mCompressedSize);
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        boolean zip64 = entry.isZip64();
+        ByteArrayOutputStream extra = new ByteArrayOutputStream();
+        if (zip64) {
+            // Only the fields that overflow are in the extra field, in this order
+            if (entry.mSize >= MAX_32) {
+                writeLong(extra, entry.mSize);
+            }
+            if (entry.mCompressedSize >= MAX_32) {
+                writeLong(extra, entry.mCompressedSize);
+            }
+            if (entry.mOffset >= MAX_32) {
+                writeLong(extra, entry.mOffset);
+            }
+        }
+        writeInt(CENTRAL_HEADER_SIGNATURE);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+        writeShort(UTF8_FLAG);
+        writeShort(entry.mMethod);
+        writeInt(toDosTime(entry.mTime));
+        writeInt(entry.mCrc);
+        writeInt(Math.min(entry.mCompressedSize, MAX_32));
+        writeInt(Math.min(entry.mSize, MAX_32));
+        writeShort(entry.mName.length);
+        writeShort(extra.size() == 0 ? 0 : extra.size() + 4);
+        writeShort(0); // comment length
+        writeShort(0); // disk number
+        writeShort(0); // internal attributes
+        writeInt(entry.mIsDirectory ? DIRECTORY_ATTRIBUTE : 0);
+        writeInt(Math.min(entry.mOffset, MAX_32));
+        mOut.write(entry.mName);
+        if (extra.size() > 0) {
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(extra.size());
+            extra.writeTo(mOut);
+        }
+    }
+
+    private void writeEnd(long centralOffset, long centralSize) throws IOException {
+        int count = mWritten.size();
+        if (count >= MAX_16 || centralOffset >= MAX_32 || centralSize >= MAX_32) {
+            long zip64EndOffset = mOut.getCount();
+            writeInt(ZIP64_END_SIGNATURE);
+            writeLong(44); // size of the remaining record
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0); // disk number
+            writeInt(0); // disk of the central directory
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralSize);
+            writeLong(centralOffset);
+            writeInt(ZIP64_LOCATOR_SIGNATURE);
+            writeInt(0); // disk of the zip64 end record
+            writeLong(zip64EndOffset);
+            writeInt(1); // number of disks
+        }
+        writeInt(END_SIGNATURE);
+        writeShort(0); // disk number
+        writeShort(0); // disk of the central directory
+        writeShort(Math.min(count, MAX_16));
+        writeShort(Math.min(count, MAX_16));
+        writeInt(Math.min(centralSize, MAX_32));
+        writeInt(Math.min(centralOffset, MAX_32));
+        writeShort(0); // comment length
+    }
+
+    private static long toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private void writeShort(int value) throws IOException {
+        mOut.write(value & 0xff);
+        mOut.write((value >>> 8) & 0xff);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xffff));
+        writeShort((int) ((value >>> 16) & 0xffff));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeLong(mOut, value);
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (value >>> (8 * i)) & 0xff);
+        }
+    }
+
+    /**
+     * Output stream keeping track of the number of bytes written, ie. the current offset in the
+     * zip file.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    /**
+     * Output stream holding its data in memory, until it exceeds {@link #IN_MEMORY_LIMIT} and
+     * is moved to a temporary file.
+     */
+    private static class SpillingOutputStream extends OutputStream {
+        private ByteArrayOutputStream mMemory = new ByteArrayOutputStream();
+        private File mFile;
+        private OutputStream mFileStream;
+        private long mCount = 0;
+
+        long getCount() {
+            return mCount;
+        }
+
+        /** @return the data if held in memory, or null */
+        byte[] getData() {
+            return (mMemory == null) ? null : mMemory.toByteArray();
+        }
+
+        /** @return the temporary file holding the data, or null */
+        File getFile() {
+            return mFile;
+        }
+
+        void delete() {
+            try {
+                close();
+            } catch (IOException e) {
+                // Ignored, the file is deleted
+            }
+            if (mFile != null) {
+                mFile.delete();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mMemory != null && mMemory.size() + len > IN_MEMORY_LIMIT) {
+                mFile = File.createTempFile("zip-entry", null);
+                mFileStream = new BufferedOutputStream(new FileOutputStream(mFile), BUFFER_SIZE);
+                mMemory.writeTo(mFileStream);
+                mMemory = null;
+            }
+            if (mMemory != null) {
+                mMemory.write(b, off, len);
+            } else {
+                mFileStream.write(b, off, len);
+            }
+            mCount += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mFileStream != null) {
+                mFileStream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Catalog of the sessions in a results directory, used to summarize invocation history without
+ * parsing every result file.
+ * <p/>
+ * Each result directory holds a summary of its result, written along with the result file. The
+ * results directory holds an index of all summaries, so listing sessions only needs to check the
+ * result files have not changed since they were summarized. Summaries are rebuilt from the
+ * result files in parallel for sessions that don't have one, eg. sessions written by an older
+ * version of the suite.
+ */
+public class ResultCatalog {
+
+    public static final String SUMMARY_FILE_NAME = "test_result.summary";
+    public static final String INDEX_FILE_NAME = "test_results.index";
+
+    // Serialized format Id (ie magic number) used to identify summaries and indexes.
+    static final short SERIALIZED_FORMAT_CODE = 652;
+    private static final short CURRENT_VERSION = 1;
+    // Result files can be very large, bound the number parsed at the same time.
+    private static final int MAX_REBUILD_THREADS = 4;
+
+    /**
+     * A summarized session, along with the state of the result file it was summarized from.
+     */
+    private static class Entry {
+        final long mLastModified;
+        final long mLength;
+        final LightInvocationResult mResult;
+
+        Entry(long lastModified, long length, LightInvocationResult result) {
+            mLastModified = lastModified;
+            mLength = length;
+            mResult = result;
+        }
+
+        /**
+         * @return whether the result file has not changed since it was summarized
+         */
+        boolean isCurrent(File resultFile) {
+            return resultFile.lastModified() == mLastModified && resultFile.length() == mLength;
+        }
+    }
+
+    /**
+     * Writes the summary of the result to the result directory. To be called once the result
+     * file has been written.
+     */
+    public static void writeSummary(File resultDir, IInvocationResult result) throws IOException {
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        writeSummary(resultDir, new Entry(resultFile.lastModified(), resultFile.length(),
+                new LightInvocationResult(result)));
+    }
+
+    /**
+     * Returns the summaries of all sessions in the results directory, sorted by start time.
+     * Summaries that are missing or out of date are rebuilt from the result files, and the index
+     * of the results directory is updated.
+     */
+    public static List<IInvocationResult> getLightResults(File resultsDir) {
+        Map<String, Entry> index = readIndex(resultsDir);
+        Map<String, Entry> newIndex = new HashMap<>();
+        List<File> missing = new ArrayList<>();
+        boolean changed = false;
+        for (File resultDir : ResultHandler.getResultDirectories(resultsDir)) {
+            File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+            Entry entry = index.get(resultDir.getName());
+            if (entry == null || !entry.isCurrent(resultFile)) {
+                changed = true;
+                entry = readSummary(resultDir);
+            }
+            if (entry == null || !entry.isCurrent(resultFile)) {
+                missing.add(resultDir);
+            } else {
+                newIndex.put(resultDir.getName(), entry);
+            }
+        }
+        changed |= newIndex.size() + missing.size() != index.size();
+        for (Map.Entry<File, Entry> rebuilt : rebuildSummaries(missing).entrySet()) {
+            newIndex.put(rebuilt.getKey().getName(), rebuilt.getValue());
+        }
+        if (changed) {
+            try {
+                writeIndex(resultsDir, newIndex);
+            } catch (IOException e) {
+                // The index is only an optimization, summaries are read again next time.
+            }
+        }
+        List<IInvocationResult> results = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : newIndex.entrySet()) {
+            entry.getValue().mResult.setRetryDirectory(new File(resultsDir, entry.getKey()));
+            results.add(entry.getValue().mResult);
+        }
+        return results;
+    }
+
+    /**
+     * Summarizes the given result directories from their result files, in parallel.
+     *
+     * @return the summaries of the directories that could be parsed
+     */
+    private static Map<File, Entry> rebuildSummaries(List<File> resultDirs) {
+        Map<File, Entry> summaries = new HashMap<>();
+        if (resultDirs.isEmpty()) {
+            return summaries;
+        }
+        int threads = Math.min(resultDirs.size(),
+                Math.min(MAX_REBUILD_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<File, Future<Entry>> futures = new HashMap<>();
+            for (final File resultDir : resultDirs) {
+                futures.put(resultDir, executor.submit(new Callable<Entry>() {
+                    @Override
+                    public Entry call() throws Exception {
+                        return rebuildSummary(resultDir);
+                    }
+                }));
+            }
+            for (Map.Entry<File, Future<Entry>> future : futures.entrySet()) {
+                try {
+                    Entry entry = future.getValue().get();
+                    if (entry != null) {
+                        summaries.put(future.getKey(), entry);
+                    }
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return summaries;
+    }
+
+    /**
+     * Parses the result file of the directory and writes its summary.
+     *
+     * @return the summary, or null if the result could not be parsed
+     */
+    private static Entry rebuildSummary(File resultDir) {
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        long lastModified = resultFile.lastModified();
+        long length = resultFile.length();
+        IInvocationResult result = ResultHandler.getResultFromDir(resultDir, false, true);
+        if (result == null) {
+            return null;
+        }
+        Entry entry = new Entry(lastModified, length, new LightInvocationResult(result));
+        try {
+            writeSummary(resultDir, entry);
+        } catch (IOException e) {
+            // Results directory may be read-only, the summary will be rebuilt next time.
+        }
+        return entry;
+    }
+
+    /**
+     * @return the summary of the result directory, or null if missing or unreadable
+     */
+    private static Entry readSummary(File resultDir) {
+        File summaryFile = new File(resultDir, SUMMARY_FILE_NAME);
+        if (!summaryFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(summaryFile)))) {
+            readHeader(in);
+            return readEntry(in, resultDir);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeSummary(File resultDir, Entry entry) throws IOException {
+        File summaryFile = new File(resultDir, SUMMARY_FILE_NAME);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(summaryFile)))) {
+            writeHeader(out);
+            writeEntry(out, entry);
+        }
+    }
+
+    /**
+     * @return the entries of the index, keyed by result directory name. Empty if there is no
+     * index or it is unreadable.
+     */
+    private static Map<String, Entry> readIndex(File resultsDir) {
+        Map<String, Entry> index = new HashMap<>();
+        File indexFile = new File(resultsDir, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)))) {
+            readHeader(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                index.put(name, readEntry(in, new File(resultsDir, name)));
+            }
+        } catch (IOException e) {
+            index.clear();
+        }
+        return index;
+    }
+
+    private static void writeIndex(File resultsDir, Map<String, Entry> index)
+            throws IOException {
+        // Write to a temporary file first so that a concurrent reader never sees a partial index
+        File tmpFile = File.createTempFile(INDEX_FILE_NAME, null, resultsDir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                writeHeader(out);
+                out.writeInt(index.size());
+                for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    writeEntry(out, entry.getValue());
+                }
+            }
+            File indexFile = new File(resultsDir, INDEX_FILE_NAME);
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) {
+                throw new IOException("Failed to write " + indexFile.getAbsolutePath());
+            }
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeShort(SERIALIZED_FORMAT_CODE);
+        out.writeShort(CURRENT_VERSION);
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        if (in.readShort() != SERIALIZED_FORMAT_CODE) {
+            throw new IOException("Unknown format of serialized data.");
+        }
+        if (in.readShort() > CURRENT_VERSION) {
+            throw new IOException("File contains a newer version of the summary");
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeLong(entry.mLastModified);
+        out.writeLong(entry.mLength);
+        entry.mResult.write(out);
+    }
+
+    private static Entry readEntry(DataInputStream in, File resultDir) throws IOException {
+        long lastModified = in.readLong();
+        long length = in.readLong();
+        return new Entry(lastModified, length, LightInvocationResult.read(in, resultDir));
+    }
+}
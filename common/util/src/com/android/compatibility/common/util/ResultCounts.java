@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * Number of tests of each {@link TestStatus} below a node of the result model.
+ * <p/>
+ * The counts are updated by the tests as their status changes, and the changes are forwarded
+ * to the counts of the enclosing case, module and invocation, so that counting results does
+ * not walk the tests.
+ * <p/>
+ * When the system property {@link #CHECK_PROPERTY} is true, or when tests set
+ * {@link #sCheckConsistency}, the counts are checked against the tests each time they are read.
+ */
+class ResultCounts {
+
+    static final String CHECK_PROPERTY = "compatibility.result.check-counts";
+
+    /* package */ static boolean sCheckConsistency = Boolean.getBoolean(CHECK_PROPERTY);
+
+    private final ResultCounts mParent;
+    private final int[] mCounts = new int[TestStatus.values().length];
+
+    /**
+     * @param parent the counts of the enclosing node, or null
+     */
+    ResultCounts(ResultCounts parent) {
+        mParent = parent;
+    }
+
+    /**
+     * Records that the status of a test changed. A null status is not counted.
+     */
+    void update(TestStatus oldStatus, TestStatus newStatus) {
+        if (oldStatus == newStatus) {
+            return;
+        }
+        for (ResultCounts counts = this; counts != null; counts = counts.mParent) {
+            if (oldStatus != null) {
+                counts.mCounts[oldStatus.ordinal()]--;
+            }
+            if (newStatus != null) {
+                counts.mCounts[newStatus.ordinal()]++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of tests of the given status.
+     */
+    int get(TestStatus status) {
+        return mCounts[status.ordinal()];
+    }
+
+    /**
+     * Checks the count of the given status against the count obtained by walking the tests.
+     *
+     * @throws IllegalStateException if they differ
+     */
+    void check(TestStatus status, int actual, String node) {
+        if (get(status) != actual) {
+            throw new IllegalStateException(String.format(
+                    "Inconsistent count of %s results in %s: counted %d, found %d",
+                    status.getValue(), node, get(status), actual));
+        }
+    }
+}
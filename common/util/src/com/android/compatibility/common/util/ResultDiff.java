@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Compares the results of two sessions, test by test.
+ * <p/>
+ * Both results are read one module at a time, from their snapshot when there is a usable one
+ * and from their result file otherwise, and the modules are joined on their id as they are read.
+ * Only the statuses of the tests of the two modules being compared are held in memory, so
+ * sessions with millions of tests can be compared.
+ */
+public class ResultDiff {
+
+    /**
+     * The difference between the results of a test in the two sessions.
+     */
+    public enum Change {
+        /** The test passed in the baseline session and failed in the candidate session. */
+        REGRESSION,
+        /** The test failed in the baseline session and passed in the candidate session. */
+        FIX,
+        /** The test was only executed in the candidate session. */
+        NEW,
+        /** The test was only executed in the baseline session. */
+        MISSING
+    }
+
+    /**
+     * Receives the tests whose results differ, in the order of their module ids and names.
+     */
+    public interface Listener {
+        /**
+         * @param moduleId the id of the module of the test
+         * @param testName the full name of the test, ie. <class>#<method>
+         * @param baseline the status of the test in the baseline session, null if not executed
+         * @param candidate the status of the test in the candidate session, null if not executed
+         */
+        void onChange(Change change, String moduleId, String testName, TestStatus baseline,
+                TestStatus candidate);
+    }
+
+    /**
+     * Number of tests of each {@link Change}.
+     */
+    public static class Summary {
+        private final int[] mCounts = new int[Change.values().length];
+        private int mUnchanged = 0;
+        private int mModules = 0;
+
+        /**
+         * @return the number of tests with the given change.
+         */
+        public int getCount(Change change) {
+            return mCounts[change.ordinal()];
+        }
+
+        /**
+         * @return the number of tests with the same status in both sessions.
+         */
+        public int getUnchangedCount() {
+            return mUnchanged;
+        }
+
+        /**
+         * @return the number of modules of either session.
+         */
+        public int getModuleCount() {
+            return mModules;
+        }
+    }
+
+    /**
+     * The statuses of the executed tests of a module, by full test name.
+     */
+    static class ModuleTests {
+        final String mId;
+        final SortedMap<String, TestStatus> mTests = new TreeMap<>();
+
+        ModuleTests(String id) {
+            mId = id;
+        }
+    }
+
+    /**
+     * Reads the modules of a result one at a time, in the order of their ids.
+     */
+    interface ModuleReader extends Closeable {
+        /**
+         * @return the tests of the next module, or null after the last module.
+         */
+        ModuleTests next() throws IOException;
+    }
+
+    /**
+     * Compares the results of two result directories.
+     *
+     * @param listener receives each test whose result differs
+     * @return the number of tests of each change
+     * @throws FileNotFoundException if either directory has no result
+     * @throws IOException if either result cannot be read, or its modules are not sorted
+     */
+    public static Summary diff(File baselineDir, File candidateDir, Listener listener)
+            throws IOException {
+        try (ModuleReader baseline = openModules(baselineDir);
+                ModuleReader candidate = openModules(candidateDir)) {
+            return diff(baseline, candidate, listener);
+        }
+    }
+
+    /**
+     * Merge-joins the modules of the two readers on their ids.
+     */
+    static Summary diff(ModuleReader baselineReader, ModuleReader candidateReader,
+            Listener listener) throws IOException {
+        Summary summary = new Summary();
+        ModuleTests baseline = nextModule(baselineReader, null);
+        ModuleTests candidate = nextModule(candidateReader, null);
+        while (baseline != null || candidate != null) {
+            int order = (baseline == null) ? 1
+                    : (candidate == null) ? -1 : baseline.mId.compareTo(candidate.mId);
+            ModuleTests baselineModule = (order <= 0) ? baseline : null;
+            ModuleTests candidateModule = (order >= 0) ? candidate : null;
+            diffModule(baselineModule, candidateModule, listener, summary);
+            summary.mModules++;
+            if (baselineModule != null) {
+                baseline = nextModule(baselineReader, baseline);
+            }
+            if (candidateModule != null) {
+                candidate = nextModule(candidateReader, candidate);
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Merge-joins the tests of two modules of the same id, either of which may be null.
+     */
+    private static void diffModule(ModuleTests baseline, ModuleTests candidate,
+            Listener listener, Summary summary) {
+        String moduleId = (baseline != null) ? baseline.mId : candidate.mId;
+        Iterator<Map.Entry<String, TestStatus>> baselineTests = tests(baseline);
+        Iterator<Map.Entry<String, TestStatus>> candidateTests = tests(candidate);
+        Map.Entry<String, TestStatus> baselineTest = next(baselineTests);
+        Map.Entry<String, TestStatus> candidateTest = next(candidateTests);
+        while (baselineTest != null || candidateTest != null) {
+            int order = (baselineTest == null) ? 1
+                    : (candidateTest == null) ? -1
+                    : baselineTest.getKey().compareTo(candidateTest.getKey());
+            String name = (order <= 0) ? baselineTest.getKey() : candidateTest.getKey();
+            TestStatus baselineStatus = (order <= 0) ? baselineTest.getValue() : null;
+            TestStatus candidateStatus = (order >= 0) ? candidateTest.getValue() : null;
+            Change change;
+            if (baselineStatus == null) {
+                change = Change.NEW;
+            } else if (candidateStatus == null) {
+                change = Change.MISSING;
+            } else if (baselineStatus == candidateStatus) {
+                change = null;
+            } else {
+                change = (candidateStatus == TestStatus.FAIL) ? Change.REGRESSION : Change.FIX;
+            }
+            if (change == null) {
+                summary.mUnchanged++;
+            } else {
+                summary.mCounts[change.ordinal()]++;
+                listener.onChange(change, moduleId, name, baselineStatus, candidateStatus);
+            }
+            if (order <= 0) {
+                baselineTest = next(baselineTests);
+            }
+            if (order >= 0) {
+                candidateTest = next(candidateTests);
+            }
+        }
+    }
+
+    private static Iterator<Map.Entry<String, TestStatus>> tests(ModuleTests module) {
+        return (module == null) ? null : module.mTests.entrySet().iterator();
+    }
+
+    private static <T> T next(Iterator<T> iterator) {
+        return (iterator != null && iterator.hasNext()) ? iterator.next() : null;
+    }
+
+    /**
+     * @return the next module of the reader, which must follow the previous one
+     */
+    private static ModuleTests nextModule(ModuleReader reader, ModuleTests previous)
+            throws IOException {
+        ModuleTests module = reader.next();
+        if (module != null && previous != null && module.mId.compareTo(previous.mId) <= 0) {
+            throw new IOException(String.format("Module %s is out of order, after %s",
+                    module.mId, previous.mId));
+        }
+        return module;
+    }
+
+    /**
+     * Opens the modules of the given result directory, from its snapshot when there is a usable
+     * one.
+     */
+    static ModuleReader openModules(File resultDir) throws IOException {
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        if (!resultFile.exists()) {
+            throw new FileNotFoundException(String.format("No result in %s",
+                    resultDir.getAbsolutePath()));
+        }
+        ModuleReader reader = null;
+        try {
+            reader = ResultSnapshot.openModules(resultDir);
+        } catch (IOException e) {
+            // Corrupted snapshot, the result file is read instead.
+        }
+        return (reader != null) ? reader : new XmlModuleReader(resultFile);
+    }
+
+    /**
+     * Reads the modules of a result file, skipping the details of the tests.
+     */
+    private static class XmlModuleReader implements ModuleReader {
+        private final InputStream mStream;
+        private final XmlPullParser mParser;
+
+        XmlModuleReader(File resultFile) throws IOException {
+            mStream = new BufferedInputStream(new FileInputStream(resultFile));
+            try {
+                mParser = XmlPullParserFactory.newInstance().newPullParser();
+                mParser.setInput(mStream, ResultHandler.ENCODING);
+            } catch (XmlPullParserException e) {
+                mStream.close();
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ModuleTests next() throws IOException {
+            try {
+                if (!ResultHandler.nextModule(mParser)) {
+                    return null;
+                }
+                IModuleResult module = ResultHandler.parseModule(mParser, new InvocationResult(),
+                        null, true, null);
+                ModuleTests tests = new ModuleTests(module.getId());
+                for (ICaseResult caseResult : module.getResults()) {
+                    String prefix = caseResult.getName() + "#";
+                    for (ITestResult test : caseResult.getResults()) {
+                        if (test.getResultStatus() != null) {
+                            tests.mTests.put(prefix + test.getName(), test.getResultStatus());
+                        }
+                    }
+                }
+                return tests;
+            } catch (XmlPullParserException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            mStream.close();
+        }
+    }
+}
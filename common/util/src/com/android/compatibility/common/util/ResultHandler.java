@@ -24,43 +24,43 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-
 /**
  * Handles conversion of results to/from files.
  */
 public class ResultHandler {
 
-    private static final String ENCODING = "UTF-8";
+    static final String ENCODING = "UTF-8";
     private static final String TYPE = "org.kxml2.io.KXmlParser,org.kxml2.io.KXmlSerializer";
     private static final String NS = null;
     private static final String RESULT_FILE_VERSION = "5.0";
     public static final String TEST_RESULT_FILE_NAME = "test_result.xml";
     public static final String FAILURE_REPORT_NAME = "test_result_failures.html";
-    private static final String FAILURE_XSL_FILE_NAME = "compatibility_failures.xsl";
+    public static final String CHECKPOINT_DIR_NAME = "checkpoint";
+    public static final String SNAPSHOT_FILE_NAME = "test_result.snapshot";
+    static final String INDENT_FEATURE = "http://xmlpull.org/v1/doc/features.html#indent-output";
 
     public static final String[] RESULT_RESOURCES = {
         "compatibility_result.css",
@@ -117,19 +117,11 @@ public class ResultHandler {
     /**
      * Returns IInvocationResults that can be queried for general reporting information, but that
      * do not store underlying module data. Useful for summarizing invocation history.
+     * Summaries are read from the {@link ResultCatalog} of the results directory when available.
      * @param resultsDir
-     * @param useChecksum
      */
     public static List<IInvocationResult> getLightResults(File resultsDir) {
-        List<IInvocationResult> results = new ArrayList<>();
-        List<File> files = getResultDirectories(resultsDir);
-        for (File resultDir : files) {
-            IInvocationResult result = getResultFromDir(resultDir, false);
-            if (result != null) {
-                results.add(new LightInvocationResult(result));
-                result = null; // ensure all references are removed to free memory
-            }
-        }
+        List<IInvocationResult> results = ResultCatalog.getLightResults(resultsDir);
         // Sort the table entries on each entry's timestamp.
         Collections.sort(results, new Comparator<IInvocationResult>() {
             public int compare(IInvocationResult result1, IInvocationResult result2) {
@@ -153,11 +145,25 @@ public class ResultHandler {
      * @return an IInvocationResult for this result, or null upon error
      */
     public static IInvocationResult getResultFromDir(File resultDir, Boolean useChecksum) {
+        return getResultFromDir(resultDir, useChecksum, false);
+    }
+
+    /**
+     * @param resultDir
+     * @param useChecksum
+     * @param statusOnly whether only the status of each test should be loaded. Otherwise the
+     * details of the tests (failures, logs, report logs...) are read from the result file when
+     * first accessed.
+     * @return an IInvocationResult for this result, or null upon error
+     */
+    public static IInvocationResult getResultFromDir(File resultDir, Boolean useChecksum,
+            Boolean statusOnly) {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        if (!resultFile.exists()) {
+            return null;
+        }
+        InputStream stream = null;
         try {
-            File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
-            if (!resultFile.exists()) {
-                return null;
-            }
             Boolean invocationUseChecksum = useChecksum;
             IInvocationResult result = new InvocationResult();
             result.setRetryDirectory(resultDir);
@@ -165,6 +171,11 @@ public class ResultHandler {
             if (invocationUseChecksum) {
                 try {
                     checksumReporter = ChecksumReporter.load(resultDir);
+                    if (!checksumReporter.containsFile(resultFile, resultDir.getName())) {
+                        // eg. a checkpoint was interrupted before its checksum was moved
+                        throw new ChecksumValidationException(
+                                "Checksum is not the one of " + resultFile.getAbsolutePath());
+                    }
                     result.setRetryChecksumStatus(RetryChecksumStatus.RetryWithChecksum);
                 } catch (ChecksumValidationException e) {
                     // Unable to read checksum form previous execution
@@ -172,9 +183,23 @@ public class ResultHandler {
                     invocationUseChecksum = false;
                 }
             }
+            // Load the result from its snapshot if there is one, without parsing the result file
+            IInvocationResult snapshot = ResultSnapshot.read(resultDir,
+                    invocationUseChecksum ? checksumReporter : null, statusOnly);
+            if (snapshot != null) {
+                snapshot.setRetryChecksumStatus(result.getRetryChecksumStatus());
+                return snapshot;
+            }
+            TestDetailsReader detailsReader = null;
+            if (statusOnly) {
+                stream = new BufferedInputStream(new FileInputStream(resultFile));
+            } else {
+                detailsReader = new TestDetailsReader(resultFile);
+                stream = detailsReader.openResultFile();
+            }
             XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
             XmlPullParser parser = factory.newPullParser();
-            parser.setInput(new FileReader(resultFile));
+            parser.setInput(stream, ENCODING);
 
             parser.nextTag();
             parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
@@ -203,73 +228,208 @@ public class ResultHandler {
             parser.nextTag();
             parser.require(XmlPullParser.END_TAG, NS, SUMMARY_TAG);
             while (parser.nextTag() == XmlPullParser.START_TAG) {
-                parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
-                String name = parser.getAttributeValue(NS, NAME_ATTR);
-                String abi = parser.getAttributeValue(NS, ABI_ATTR);
-                String moduleId = AbiUtils.createId(abi, name);
-                boolean done = Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR));
-                IModuleResult module = result.getOrCreateModule(moduleId);
-                module.initializeDone(done);
-                long runtime = Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR));
-                module.addRuntime(runtime);
-                while (parser.nextTag() == XmlPullParser.START_TAG) {
-                    parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
-                    String caseName = parser.getAttributeValue(NS, NAME_ATTR);
-                    ICaseResult testCase = module.getOrCreateResult(caseName);
-                    while (parser.nextTag() == XmlPullParser.START_TAG) {
-                        parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
-                        String testName = parser.getAttributeValue(NS, NAME_ATTR);
-                        ITestResult test = testCase.getOrCreateResult(testName);
-                        String resultStatus = parser.getAttributeValue(NS, RESULT_ATTR);
-                        test.setResultStatus(TestStatus.getStatus(resultStatus));
-                        test.setRetry(true);
-                        while (parser.nextTag() == XmlPullParser.START_TAG) {
-                            if (parser.getName().equals(FAILURE_TAG)) {
-                                test.setMessage(parser.getAttributeValue(NS, MESSAGE_ATTR));
-                                if (parser.nextTag() == XmlPullParser.START_TAG) {
-                                    parser.require(XmlPullParser.START_TAG, NS, STACK_TAG);
-                                    test.setStackTrace(parser.nextText());
-                                    parser.require(XmlPullParser.END_TAG, NS, STACK_TAG);
-                                    parser.nextTag();
-                                }
-                                parser.require(XmlPullParser.END_TAG, NS, FAILURE_TAG);
-                            } else if (parser.getName().equals(BUGREPORT_TAG)) {
-                                test.setBugReport(parser.nextText());
-                                parser.require(XmlPullParser.END_TAG, NS, BUGREPORT_TAG);
-                            } else if (parser.getName().equals(LOGCAT_TAG)) {
-                                test.setLog(parser.nextText());
-                                parser.require(XmlPullParser.END_TAG, NS, LOGCAT_TAG);
-                            } else if (parser.getName().equals(SCREENSHOT_TAG)) {
-                                test.setScreenshot(parser.nextText());
-                                parser.require(XmlPullParser.END_TAG, NS, SCREENSHOT_TAG);
-                            } else {
-                                test.setReportLog(ReportLog.parse(parser));
-                            }
-                        }
-                        parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
-                        Boolean checksumMismatch = invocationUseChecksum
-                                && !checksumReporter.containsTestResult(
-                                test, module, result.getBuildFingerprint());
-                        if (checksumMismatch) {
-                            test.removeResult();
-                        }
-                    }
-                    parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
-                }
-                parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
-                Boolean checksumMismatch = invocationUseChecksum
-                        && !checksumReporter.containsModuleResult(
-                        module, result.getBuildFingerprint());
-                if (checksumMismatch) {
-                    module.initializeDone(false);
-                }
+                parseModule(parser, result, invocationUseChecksum ? checksumReporter : null,
+                        statusOnly, detailsReader);
             }
             parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
             return result;
         } catch (XmlPullParserException | IOException e) {
             e.printStackTrace();
             return null;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // Ignored, the result has been parsed
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the {@link IModuleResult} at the current position of the parser into the given
+     * invocation result.
+     *
+     * @param parser the parser, positioned on a module start tag
+     * @param result the invocation result the module is added to
+     * @param checksumReporter the checksum of the previous session, or null if results should
+     * not be validated
+     * @return the parsed {@link IModuleResult}
+     */
+    static IModuleResult parseModule(XmlPullParser parser, IInvocationResult result,
+            ChecksumReporter checksumReporter) throws XmlPullParserException, IOException {
+        return parseModule(parser, result, checksumReporter, false, null);
+    }
+
+    /**
+     * Same as above, except that the details of the tests (failures, logs, report logs...) can
+     * be skipped or read lazily.
+     *
+     * @param statusOnly whether only the status of the tests should be parsed. A failed test is
+     * retried whether or not its result is intact, so its checksum is then not validated.
+     * @param detailsReader the reader of the result file being parsed, to read the details of
+     * the tests when first accessed, or null to keep the parsed details in memory
+     */
+    static IModuleResult parseModule(XmlPullParser parser, IInvocationResult result,
+            ChecksumReporter checksumReporter, boolean statusOnly,
+            TestDetailsReader detailsReader) throws XmlPullParserException, IOException {
+        parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
+        String name = parser.getAttributeValue(NS, NAME_ATTR);
+        String abi = parser.getAttributeValue(NS, ABI_ATTR);
+        String moduleId = AbiUtils.createId(abi, name);
+        boolean done = Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR));
+        IModuleResult module = result.getOrCreateModule(moduleId);
+        module.initializeDone(done);
+        long runtime = Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR));
+        module.addRuntime(runtime);
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
+            String caseName = parser.getAttributeValue(NS, NAME_ATTR);
+            ICaseResult testCase = module.getOrCreateResult(caseName);
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
+                long offset = (detailsReader == null) ? -1 : detailsReader.nextTestOffset();
+                String testName = parser.getAttributeValue(NS, NAME_ATTR);
+                ITestResult test = testCase.getOrCreateResult(testName);
+                String resultStatus = parser.getAttributeValue(NS, RESULT_ATTR);
+                test.setResultStatus(TestStatus.getStatus(resultStatus));
+                test.setRetry(true);
+                boolean lazy = offset >= 0 && test instanceof TestResult;
+                boolean hasDetails;
+                if (statusOnly || (lazy && checksumReporter == null)) {
+                    hasDetails = skipTestDetails(parser);
+                } else {
+                    // Stack traces are needed to validate the checksum
+                    hasDetails = parseTestDetails(parser, test);
+                }
+                Boolean checksumMismatch = checksumReporter != null
+                        && !(statusOnly && test.getResultStatus() == TestStatus.FAIL)
+                        && !checksumReporter.containsTestResult(
+                        test, module, result.getBuildFingerprint());
+                if (checksumMismatch) {
+                    test.removeResult();
+                } else if (lazy && hasDetails) {
+                    ((TestResult) test).releaseDetails(detailsReader, offset);
+                }
+            }
+            parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+        }
+        parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+        Boolean checksumMismatch = checksumReporter != null
+                && !checksumReporter.containsModuleResult(
+                module, result.getBuildFingerprint());
+        if (checksumMismatch) {
+            module.initializeDone(false);
         }
+        return module;
+    }
+
+    /**
+     * Reads the end time and the build info of the invocation of a result directory, without
+     * parsing its modules.
+     *
+     * @param buildInfo receives all the attributes of the build
+     * @return the end time of the invocation
+     */
+    static long readInvocationInfo(File resultDir, Map<String, String> buildInfo)
+            throws XmlPullParserException, IOException {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(resultFile))) {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(stream, ENCODING);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+            long endTime = Long.parseLong(parser.getAttributeValue(NS, END_TIME_ATTR));
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                buildInfo.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+            }
+            return endTime;
+        }
+    }
+
+    /**
+     * Advances the parser to the start tag of the next module of a result file.
+     *
+     * @return false if the result has no more modules
+     */
+    static boolean nextModule(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.START_TAG && MODULE_TAG.equals(parser.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the details of a test into the given {@link ITestResult}, ie. its failure, logs and
+     * report log.
+     *
+     * @param parser the parser, positioned on a test start tag
+     * @return whether the test has any details
+     */
+    static boolean parseTestDetails(XmlPullParser parser, ITestResult test)
+            throws XmlPullParserException, IOException {
+        parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
+        boolean hasDetails = false;
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            hasDetails = true;
+            if (parser.getName().equals(FAILURE_TAG)) {
+                test.setMessage(parser.getAttributeValue(NS, MESSAGE_ATTR));
+                if (parser.nextTag() == XmlPullParser.START_TAG) {
+                    parser.require(XmlPullParser.START_TAG, NS, STACK_TAG);
+                    test.setStackTrace(parser.nextText());
+                    parser.require(XmlPullParser.END_TAG, NS, STACK_TAG);
+                    parser.nextTag();
+                }
+                parser.require(XmlPullParser.END_TAG, NS, FAILURE_TAG);
+            } else if (parser.getName().equals(BUGREPORT_TAG)) {
+                test.setBugReport(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, BUGREPORT_TAG);
+            } else if (parser.getName().equals(LOGCAT_TAG)) {
+                test.setLog(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, LOGCAT_TAG);
+            } else if (parser.getName().equals(SCREENSHOT_TAG)) {
+                test.setScreenshot(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, SCREENSHOT_TAG);
+            } else {
+                test.setReportLog(ReportLog.parse(parser));
+            }
+        }
+        parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
+        return hasDetails;
+    }
+
+    /**
+     * Skips the details of a test, without keeping any of their content.
+     *
+     * @param parser the parser, positioned on a test start tag
+     * @return whether the test has any details
+     */
+    private static boolean skipTestDetails(XmlPullParser parser)
+            throws XmlPullParserException, IOException {
+        parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
+        boolean hasDetails = false;
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case XmlPullParser.START_TAG:
+                    hasDetails = true;
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new XmlPullParserException("Unexpected end of document", parser, null);
+            }
+        }
+        parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
+        return hasDetails;
     }
 
     /**
@@ -288,14 +448,44 @@ public class ResultHandler {
             long startTime, long endTime, String referenceUrl, String logUrl,
             String commandLineArgs)
             throws IOException, XmlPullParserException {
+        return writeResults(suiteName, suiteVersion, suitePlan, suiteBuild, result, resultDir,
+                startTime, endTime, referenceUrl, logUrl, commandLineArgs, null);
+    }
+
+    /**
+     * Same as above, except that modules found in the given {@link ModuleResultJournal} are
+     * copied from the journal instead of being serialized from the in-memory result.
+     *
+     * @param journal A nullable journal of the modules completed during the invocation
+     */
+    public static File writeResults(String suiteName, String suiteVersion, String suitePlan,
+            String suiteBuild, IInvocationResult result, File resultDir,
+            long startTime, long endTime, String referenceUrl, String logUrl,
+            String commandLineArgs, ModuleResultJournal journal)
+            throws IOException, XmlPullParserException {
+        return writeResults(suiteName, suiteVersion, suitePlan, suiteBuild, result, resultDir,
+                startTime, endTime, referenceUrl, logUrl, commandLineArgs, journal, true);
+    }
+
+    /**
+     * Same as above, with the option not to create the checksum of the result directory, so that
+     * the caller can create it with {@link #createChecksum} once all the files of the result
+     * directory are written.
+     *
+     * @param withChecksum whether to create the checksum of the result directory
+     */
+    public static File writeResults(String suiteName, String suiteVersion, String suitePlan,
+            String suiteBuild, IInvocationResult result, File resultDir,
+            long startTime, long endTime, String referenceUrl, String logUrl,
+            String commandLineArgs, ModuleResultJournal journal, boolean withChecksum)
+            throws IOException, XmlPullParserException {
         int passed = result.countResults(TestStatus.PASS);
         int failed = result.countResults(TestStatus.FAIL);
         File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
-        OutputStream stream = new FileOutputStream(resultFile);
-        XmlSerializer serializer = XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
-        serializer.setOutput(stream, ENCODING);
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(resultFile));
+        XmlSerializer serializer = newSerializer(stream);
         serializer.startDocument(ENCODING, false);
-        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        serializer.setFeature(INDENT_FEATURE, true);
         serializer.processingInstruction(
                 "xml-stylesheet type=\"text/xsl\" href=\"compatibility_result.xsl\"");
         serializer.startTag(NS, RESULT_TAG);
@@ -369,88 +559,240 @@ public class ResultHandler {
 
         // Results
         for (IModuleResult module : result.getModules()) {
-            serializer.startTag(NS, MODULE_TAG);
-            serializer.attribute(NS, NAME_ATTR, module.getName());
-            serializer.attribute(NS, ABI_ATTR, module.getAbi());
-            serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getRuntime()));
-            serializer.attribute(NS, DONE_ATTR, Boolean.toString(module.isDone()));
-            serializer.attribute(NS, PASS_ATTR,
-                    Integer.toString(module.countResults(TestStatus.PASS)));
-            for (ICaseResult cr : module.getResults()) {
-                serializer.startTag(NS, CASE_TAG);
-                serializer.attribute(NS, NAME_ATTR, cr.getName());
-                for (ITestResult r : cr.getResults()) {
-                    TestStatus status = r.getResultStatus();
-                    if (status == null) {
-                        continue; // test was not executed, don't report
-                    }
-                    serializer.startTag(NS, TEST_TAG);
-                    serializer.attribute(NS, RESULT_ATTR, status.getValue());
-                    serializer.attribute(NS, NAME_ATTR, r.getName());
-                    String message = r.getMessage();
-                    if (message != null) {
-                        serializer.startTag(NS, FAILURE_TAG);
-                        serializer.attribute(NS, MESSAGE_ATTR, message);
-                        String stackTrace = r.getStackTrace();
-                        if (stackTrace != null) {
-                            serializer.startTag(NS, STACK_TAG);
-                            serializer.text(stackTrace);
-                            serializer.endTag(NS, STACK_TAG);
-                        }
-                        serializer.endTag(NS, FAILURE_TAG);
-                    }
-                    String bugreport = r.getBugReport();
-                    if (bugreport != null) {
-                        serializer.startTag(NS, BUGREPORT_TAG);
-                        serializer.text(bugreport);
-                        serializer.endTag(NS, BUGREPORT_TAG);
-                    }
-                    String logcat = r.getLog();
-                    if (logcat != null) {
-                        serializer.startTag(NS, LOGCAT_TAG);
-                        serializer.text(logcat);
-                        serializer.endTag(NS, LOGCAT_TAG);
-                    }
-                    String screenshot = r.getScreenshot();
-                    if (screenshot != null) {
-                        serializer.startTag(NS, SCREENSHOT_TAG);
-                        serializer.text(screenshot);
-                        serializer.endTag(NS, SCREENSHOT_TAG);
-                    }
-                    ReportLog report = r.getReportLog();
-                    if (report != null) {
-                        ReportLog.serialize(serializer, report);
-                    }
-                    serializer.endTag(NS, TEST_TAG);
-                }
-                serializer.endTag(NS, CASE_TAG);
+            if (journal != null && journal.contains(module.getId())) {
+                // Copy the module as it was serialized when it completed.
+                serializer.flush();
+                journal.copyModule(module.getId(), stream);
+            } else {
+                serializeModule(serializer, module);
             }
-            serializer.endTag(NS, MODULE_TAG);
         }
         serializer.endDocument();
-        createChecksum(resultDir, result);
+        stream.close();
+        try {
+            ResultSnapshot.write(resultDir, result, startTime, suitePlan, commandLineArgs);
+        } catch (IOException e) {
+            // Do not disrupt the process, the result file is parsed instead of the snapshot.
+        }
+        try {
+            ResultCatalog.writeSummary(resultDir, result);
+        } catch (IOException e) {
+            // Do not disrupt the process, the summary is rebuilt from the result file if needed.
+        }
+        if (withChecksum) {
+            createChecksum(resultDir, result, journal);
+        }
         return resultFile;
     }
 
+    /**
+     * Writes a checkpoint of the result of an invocation still in progress, ie. its result file
+     * along with the snapshot, summary and checksum written with it, so that the session can be
+     * retried if the invocation does not complete.
+     * <p/>
+     * The files are written to a staging directory then moved into the result directory, the
+     * result file first and the checksum last. The snapshot and the summary are only used with
+     * the result file they were written with, and a checksum that does not cover the result file
+     * is ignored, so an interrupted checkpoint leaves either the previous result file or the new
+     * one usable, in the latter case without checksum.
+     *
+     * @param journal A nullable journal of the modules completed so far, copied into the result
+     * file instead of being serialized again
+     * @return The result file of the checkpoint.
+     */
+    public static File writeCheckpoint(String suiteName, String suiteVersion, String suitePlan,
+            String suiteBuild, IInvocationResult result, File resultDir,
+            long startTime, long endTime, String referenceUrl, String logUrl,
+            String commandLineArgs, ModuleResultJournal journal)
+            throws IOException, XmlPullParserException {
+        try {
+            File stagingDir = stageCheckpoint(suiteName, suiteVersion, suitePlan, suiteBuild,
+                    result, resultDir, startTime, endTime, referenceUrl, logUrl,
+                    commandLineArgs, journal);
+            for (File staged : getCheckpointFiles(stagingDir)) {
+                moveToDirectory(staged, resultDir);
+            }
+            return new File(resultDir, TEST_RESULT_FILE_NAME);
+        } finally {
+            deleteCheckpointStaging(resultDir);
+        }
+    }
+
+    /**
+     * Writes the files of a checkpoint to the staging directory of the given result directory.
+     *
+     * @return The staging directory.
+     */
+    static File stageCheckpoint(String suiteName, String suiteVersion, String suitePlan,
+            String suiteBuild, IInvocationResult result, File resultDir,
+            long startTime, long endTime, String referenceUrl, String logUrl,
+            String commandLineArgs, ModuleResultJournal journal)
+            throws IOException, XmlPullParserException {
+        File stagingDir = new File(resultDir, CHECKPOINT_DIR_NAME);
+        deleteCheckpointStaging(resultDir);
+        if (!stagingDir.mkdir()) {
+            throw new IOException("Failed to create " + stagingDir.getAbsolutePath());
+        }
+        writeResults(suiteName, suiteVersion, suitePlan, suiteBuild, result, stagingDir,
+                startTime, endTime, referenceUrl, logUrl, commandLineArgs, journal, false);
+        if (result.getRetryChecksumStatus() != RetryChecksumStatus.RetryWithoutChecksum) {
+            // Files are validated from the result directory, not from the staging directory
+            ChecksumReporter.tryCreateChecksum(stagingDir, resultDir.getName(), result,
+                    journal);
+        }
+        return stagingDir;
+    }
+
+    /**
+     * @return The files of a staged checkpoint, in the order they are moved into the result
+     * directory: the result file first and the checksum last.
+     */
+    static List<File> getCheckpointFiles(File stagingDir) {
+        List<File> files = new ArrayList<>();
+        File checksum = null;
+        for (File staged : stagingDir.listFiles()) {
+            if (staged.getName().equals(TEST_RESULT_FILE_NAME)) {
+                files.add(0, staged);
+            } else if (staged.getName().equals(ChecksumReporter.NAME)) {
+                checksum = staged;
+            } else {
+                files.add(staged);
+            }
+        }
+        if (checksum != null) {
+            files.add(checksum);
+        }
+        return files;
+    }
+
+    /**
+     * Deletes the staging directory of checkpoints in the given result directory, if any, eg.
+     * left behind by a checkpoint that was interrupted.
+     */
+    public static void deleteCheckpointStaging(File resultDir) {
+        File stagingDir = new File(resultDir, CHECKPOINT_DIR_NAME);
+        File[] children = stagingDir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        stagingDir.delete();
+    }
+
+    private static File moveToDirectory(File file, File directory) throws IOException {
+        File target = new File(directory, file.getName());
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    /**
+     * Serializes the given {@link IModuleResult} and all of its test results.
+     */
+    static void serializeModule(XmlSerializer serializer, IModuleResult module)
+            throws IOException {
+        serializer.startTag(NS, MODULE_TAG);
+        serializer.attribute(NS, NAME_ATTR, module.getName());
+        serializer.attribute(NS, ABI_ATTR, module.getAbi());
+        serializer.attribute(NS, RUNTIME_ATTR, String.valueOf(module.getRuntime()));
+        serializer.attribute(NS, DONE_ATTR, Boolean.toString(module.isDone()));
+        serializer.attribute(NS, PASS_ATTR,
+                Integer.toString(module.countResults(TestStatus.PASS)));
+        for (ICaseResult cr : module.getResults()) {
+            serializer.startTag(NS, CASE_TAG);
+            serializer.attribute(NS, NAME_ATTR, cr.getName());
+            for (ITestResult r : cr.getResults()) {
+                TestStatus status = r.getResultStatus();
+                if (status == null) {
+                    continue; // test was not executed, don't report
+                }
+                serializer.startTag(NS, TEST_TAG);
+                serializer.attribute(NS, RESULT_ATTR, status.getValue());
+                serializer.attribute(NS, NAME_ATTR, r.getName());
+                String message = r.getMessage();
+                if (message != null) {
+                    serializer.startTag(NS, FAILURE_TAG);
+                    serializer.attribute(NS, MESSAGE_ATTR, message);
+                    String stackTrace = r.getStackTrace();
+                    if (stackTrace != null) {
+                        serializer.startTag(NS, STACK_TAG);
+                        serializer.text(stackTrace);
+                        serializer.endTag(NS, STACK_TAG);
+                    }
+                    serializer.endTag(NS, FAILURE_TAG);
+                }
+                String bugreport = r.getBugReport();
+                if (bugreport != null) {
+                    serializer.startTag(NS, BUGREPORT_TAG);
+                    serializer.text(bugreport);
+                    serializer.endTag(NS, BUGREPORT_TAG);
+                }
+                String logcat = r.getLog();
+                if (logcat != null) {
+                    serializer.startTag(NS, LOGCAT_TAG);
+                    serializer.text(logcat);
+                    serializer.endTag(NS, LOGCAT_TAG);
+                }
+                String screenshot = r.getScreenshot();
+                if (screenshot != null) {
+                    serializer.startTag(NS, SCREENSHOT_TAG);
+                    serializer.text(screenshot);
+                    serializer.endTag(NS, SCREENSHOT_TAG);
+                }
+                ReportLog report = r.getReportLog();
+                if (report != null) {
+                    ReportLog.serialize(serializer, report);
+                }
+                serializer.endTag(NS, TEST_TAG);
+            }
+            serializer.endTag(NS, CASE_TAG);
+        }
+        serializer.endTag(NS, MODULE_TAG);
+    }
+
+    /**
+     * Creates a serializer for the result file format writing to the given stream.
+     */
+    static XmlSerializer newSerializer(OutputStream stream)
+            throws IOException, XmlPullParserException {
+        XmlSerializer serializer = XmlPullParserFactory.newInstance(TYPE, null).newSerializer();
+        serializer.setOutput(stream, ENCODING);
+        return serializer;
+    }
+
+    /**
+     * Creates the HTML report of the failures of the given result file, in the same directory.
+     * See {@link FailureReport}.
+     */
     public static File createFailureReport(File inputXml) {
-        File failureReport = new File(inputXml.getParentFile(), FAILURE_REPORT_NAME);
-        try (InputStream xslStream = ResultHandler.class.getResourceAsStream(
-                String.format("/report/%s", FAILURE_XSL_FILE_NAME));
-             OutputStream outputStream = new FileOutputStream(failureReport)) {
-
-            Transformer transformer = TransformerFactory.newInstance().newTransformer(
-                    new StreamSource(xslStream));
-            transformer.transform(new StreamSource(inputXml), new StreamResult(outputStream));
-        } catch (IOException | TransformerException ignored) { }
+        return createFailureReport(inputXml,
+                new File(inputXml.getParentFile(), FAILURE_REPORT_NAME));
+    }
+
+    /**
+     * Creates the HTML report of the failures of the given result file in the given file.
+     */
+    public static File createFailureReport(File inputXml, File failureReport) {
+        try {
+            FailureReport.create(inputXml, failureReport);
+        } catch (IOException | XmlPullParserException ignored) { }
         return failureReport;
     }
 
-    private static void createChecksum(File resultDir, IInvocationResult invocationResult) {
+    /**
+     * Creates the checksum of the result and of the files of the result directory, or copies the
+     * checksum of the retried session if it could not be validated.
+     *
+     * @param journal A nullable journal of the modules completed during the invocation
+     */
+    public static void createChecksum(File resultDir, IInvocationResult invocationResult,
+            ModuleResultJournal journal) {
         RetryChecksumStatus retryStatus = invocationResult.getRetryChecksumStatus();
         switch (retryStatus) {
             case NotRetry: case RetryWithChecksum:
                 // Do not disrupt the process if there is a problem generating checksum.
-                ChecksumReporter.tryCreateChecksum(resultDir, invocationResult);
+                ChecksumReporter.tryCreateChecksum(resultDir, invocationResult, journal);
                 break;
             case RetryWithoutChecksum:
                 // If the previous run has an invalid checksum file,
@@ -484,20 +826,30 @@ public class ResultHandler {
      */
     public static IInvocationResult findResult(File resultsDir, Integer sessionId)
             throws FileNotFoundException {
-        return findResult(resultsDir, sessionId, true);
+        return findResult(resultsDir, sessionId, true, false);
+    }
+
+    /**
+     * Find the IInvocationResult for the given sessionId, only loading the status of each test.
+     * Sufficient to decide which tests to retry, and much cheaper for sessions with many
+     * failures.
+     */
+    public static IInvocationResult findResultStatuses(File resultsDir, Integer sessionId)
+            throws FileNotFoundException {
+        return findResult(resultsDir, sessionId, true, true);
     }
 
     /**
      * Find the IInvocationResult for the given sessionId.
      */
-    private static IInvocationResult findResult(
-            File resultsDir, Integer sessionId, Boolean useChecksum) throws FileNotFoundException {
+    private static IInvocationResult findResult(File resultsDir, Integer sessionId,
+            Boolean useChecksum, Boolean statusOnly) throws FileNotFoundException {
         if (sessionId < 0) {
             throw new IllegalArgumentException(
                 String.format("Invalid session id [%d] ", sessionId));
         }
         File resultDir = getResultDirectory(resultsDir, sessionId);
-        IInvocationResult result = getResultFromDir(resultDir, useChecksum);
+        IInvocationResult result = getResultFromDir(resultDir, useChecksum, statusOnly);
         if (result == null) {
             throw new RuntimeException(String.format("Could not find session [%d]", sessionId));
         }
@@ -0,0 +1,537 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * History of the results of past sessions, kept in the results directory, from which the
+ * runtime of modules and the flakiness of tests are estimated.
+ * <p/>
+ * Each session appends one record to the history, holding the runtime of its modules and the
+ * status of the tests it executed. The runtimes are kept apart from the compressed statuses of
+ * the tests, so that runtimes are loaded without reading the statuses. Records are appended
+ * under a file lock so that concurrent invocations sharing a results directory don't interleave
+ * them. A record left partially written by an interrupted invocation is ignored, and overwritten
+ * by the next one.
+ * <p/>
+ * Only the {@link #MAX_SESSIONS} most recent sessions of each module are kept. Once a module
+ * has twice as many, the history is compacted in place, under the same lock, dropping the
+ * oldest sessions of the modules that have too many.
+ * <p/>
+ * The result model does not time individual tests, so only modules have runtimes.
+ */
+public class ResultHistory {
+
+    public static final String FILE_NAME = "test_results.history";
+
+    // Serialized format Id (ie magic number) used to identify the history.
+    static final short SERIALIZED_FORMAT_CODE = 655;
+    private static final short CURRENT_VERSION = 1;
+    private static final int HEADER_SIZE = 4;
+    // Sessions kept per module, from which runtimes and flakiness are estimated.
+    static final int MAX_SESSIONS = 50;
+    private static final long NO_RUNTIME = -1;
+
+    /** The history of a module. */
+    private static class ModuleHistory {
+        // Ring of the most recent runtimes
+        final long[] mRuntimes = new long[MAX_SESSIONS];
+        int mRuntimeCount = 0;
+        final Map<String, TestHistory> mTests = new HashMap<>();
+
+        void addRuntime(long runtime) {
+            mRuntimes[mRuntimeCount++ % MAX_SESSIONS] = runtime;
+        }
+    }
+
+    /** The history of a test. */
+    private static class TestHistory {
+        int mRuns = 0;
+        int mFailures = 0;
+        // Number of runs whose status differs from the previous run
+        int mFlips = 0;
+        TestStatus mLastStatus = null;
+
+        void add(TestStatus status) {
+            mRuns++;
+            if (status == TestStatus.FAIL) {
+                mFailures++;
+            }
+            if (mLastStatus != null && mLastStatus != status) {
+                mFlips++;
+            }
+            mLastStatus = status;
+        }
+    }
+
+    /**
+     * The headers of a record: the name of the session, and the id, runtime and size of the
+     * compressed test statuses of each of its modules.
+     */
+    private static class RecordHeaders {
+        String mSession;
+        final List<String> mModuleIds = new ArrayList<>();
+        final List<Long> mRuntimes = new ArrayList<>();
+        final List<Integer> mTestsLengths = new ArrayList<>();
+
+        void add(String moduleId, long runtime, int testsLength) {
+            mModuleIds.add(moduleId);
+            mRuntimes.add(runtime);
+            mTestsLengths.add(testsLength);
+        }
+
+        byte[] serialize() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeUTF(mSession);
+                out.writeInt(mModuleIds.size());
+                for (int m = 0; m < mModuleIds.size(); m++) {
+                    out.writeUTF(mModuleIds.get(m));
+                    out.writeLong(mRuntimes.get(m) + 1);
+                    out.writeInt(mTestsLengths.get(m));
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        static RecordHeaders parse(byte[] headers) throws IOException {
+            RecordHeaders record = new RecordHeaders();
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(headers))) {
+                record.mSession = in.readUTF();
+                int moduleCount = in.readInt();
+                for (int m = 0; m < moduleCount; m++) {
+                    String id = in.readUTF();
+                    long runtime = in.readLong() - 1;
+                    int testsLength = in.readInt();
+                    if (testsLength < 0) {
+                        throw new IOException("Invalid length of test statuses");
+                    }
+                    record.add(id, runtime, testsLength);
+                }
+            }
+            return record;
+        }
+    }
+
+    private final Map<String, ModuleHistory> mModules = new HashMap<>();
+    private int mSessions = 0;
+
+    private ResultHistory() {
+    }
+
+    /**
+     * Loads the history of the given results directory.
+     *
+     * @return the history, empty if the results directory has none
+     * @throws IOException if the history cannot be read
+     */
+    public static ResultHistory load(File resultsDir) throws IOException {
+        return load(resultsDir, true);
+    }
+
+    /**
+     * Loads the runtimes of the modules from the history of the given results directory,
+     * without reading the statuses of the tests. The history loaded has no test.
+     *
+     * @return the history, empty if the results directory has none
+     * @throws IOException if the history cannot be read
+     */
+    public static ResultHistory loadRuntimes(File resultsDir) throws IOException {
+        return load(resultsDir, false);
+    }
+
+    private static ResultHistory load(File resultsDir, boolean withTests) throws IOException {
+        ResultHistory history = new ResultHistory();
+        File file = new File(resultsDir, FILE_NAME);
+        if (!file.exists()) {
+            return history;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            checkHeader(in);
+            for (long start = in.getFilePointer(); hasRecord(in, start);
+                    start = nextRecord(in, start)) {
+                try {
+                    history.addRecord(in, withTests);
+                } catch (IOException e) {
+                    // Corrupted record, the following ones may still be intact.
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Appends a session to the history of the given results directory, compacting the history
+     * if some modules have too many sessions.
+     *
+     * @param session the name of the session, ie. of its result directory
+     * @param result the result of the session. Only the tests executed in the session are
+     * recorded, ie. not those carried over from the session it retries.
+     * @param withRuntimes whether the runtimes of the modules are those of this session, which
+     * is not the case when the session retries another one
+     */
+    public static void record(File resultsDir, String session, IInvocationResult result,
+            boolean withRuntimes) throws IOException {
+        RecordHeaders headers = new RecordHeaders();
+        headers.mSession = session;
+        List<byte[]> tests = new ArrayList<>();
+        for (IModuleResult module : result.getModules()) {
+            boolean hasRuntime = withRuntimes && module.isDone() && module.getRuntime() > 0;
+            byte[] moduleTests = serializeTests(module);
+            headers.add(module.getId(), hasRuntime ? module.getRuntime() : NO_RUNTIME,
+                    moduleTests.length);
+            tests.add(moduleTests);
+        }
+        try (RandomAccessFile out = new RandomAccessFile(new File(resultsDir, FILE_NAME), "rw");
+                FileLock lock = out.getChannel().lock()) {
+            if (out.length() == 0) {
+                out.writeShort(SERIALIZED_FORMAT_CODE);
+                out.writeShort(CURRENT_VERSION);
+            } else {
+                checkHeader(out);
+                compact(out, headers.mModuleIds);
+            }
+            writeRecord(out, headers, tests);
+        }
+    }
+
+    /**
+     * Drops the oldest sessions of the modules that have more than {@link #MAX_SESSIONS}, if one
+     * of them has twice as many, leaving the file pointer at the end of the complete records.
+     * A partially written record at the end of the history is dropped.
+     *
+     * @param newModuleIds the modules of the session about to be appended
+     */
+    private static void compact(RandomAccessFile file, List<String> newModuleIds)
+            throws IOException {
+        long first = file.getFilePointer();
+        // Counts the sessions of each module, including the new one
+        Map<String, Integer> sessions = new HashMap<>();
+        for (String id : newModuleIds) {
+            sessions.put(id, 1);
+        }
+        boolean compact = false;
+        long end = first;
+        while (hasRecord(file, end)) {
+            try {
+                for (String id : readHeaders(file).mModuleIds) {
+                    Integer count = sessions.get(id);
+                    count = (count == null) ? 1 : count + 1;
+                    sessions.put(id, count);
+                    compact |= count > 2 * MAX_SESSIONS;
+                }
+            } catch (IOException e) {
+                // Corrupted record, dropped if the history is compacted
+            }
+            end = nextRecord(file, end);
+        }
+        if (compact) {
+            // Records only lose modules, so each one is written before where it was read from
+            Map<String, Integer> dropped = new HashMap<>();
+            long read = first;
+            long write = first;
+            while (read < end) {
+                file.seek(read);
+                int length = file.readInt();
+                file.seek(read);
+                RecordHeaders kept = null;
+                List<byte[]> tests = new ArrayList<>();
+                try {
+                    RecordHeaders headers = readHeaders(file);
+                    kept = new RecordHeaders();
+                    kept.mSession = headers.mSession;
+                    for (int m = 0; m < headers.mModuleIds.size(); m++) {
+                        String id = headers.mModuleIds.get(m);
+                        byte[] moduleTests = new byte[headers.mTestsLengths.get(m)];
+                        file.readFully(moduleTests);
+                        Integer count = dropped.get(id);
+                        count = (count == null) ? 0 : count;
+                        if (sessions.get(id) - count > MAX_SESSIONS) {
+                            dropped.put(id, count + 1);
+                        } else {
+                            kept.add(id, headers.mRuntimes.get(m), moduleTests.length);
+                            tests.add(moduleTests);
+                        }
+                    }
+                } catch (IOException e) {
+                    kept = null;
+                }
+                read += 4 + length;
+                if (kept != null && !kept.mModuleIds.isEmpty()) {
+                    file.seek(write);
+                    writeRecord(file, kept, tests);
+                    write = file.getFilePointer();
+                }
+            }
+            end = write;
+        }
+        file.setLength(end);
+        file.seek(end);
+    }
+
+    /**
+     * @return the number of sessions in the history.
+     */
+    public int getSessionCount() {
+        return mSessions;
+    }
+
+    /**
+     * Estimates the runtime of a module from its most recent runtimes.
+     *
+     * @param percentile the percentile of the runtimes, eg. 50 for the median, or 95
+     * @return the runtime in milliseconds, or -1 if the module has no recorded runtime
+     */
+    public long getRuntime(String moduleId, int percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        }
+        ModuleHistory module = mModules.get(moduleId);
+        if (module == null || module.mRuntimeCount == 0) {
+            return NO_RUNTIME;
+        }
+        long[] runtimes = Arrays.copyOf(module.mRuntimes,
+                Math.min(module.mRuntimeCount, MAX_SESSIONS));
+        Arrays.sort(runtimes);
+        // Nearest-rank percentile
+        int rank = (int) Math.ceil(percentile / 100.0 * runtimes.length);
+        return runtimes[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * @param testName the full name of the test, ie. <class>#<method>
+     * @return the number of sessions that executed the test
+     */
+    public int getRunCount(String moduleId, String testName) {
+        TestHistory test = getTest(moduleId, testName);
+        return (test == null) ? 0 : test.mRuns;
+    }
+
+    /**
+     * @param testName the full name of the test, ie. <class>#<method>
+     * @return the fraction of the runs of the test that failed, 0 if it never ran
+     */
+    public float getFailureRate(String moduleId, String testName) {
+        TestHistory test = getTest(moduleId, testName);
+        return (test == null || test.mRuns == 0) ? 0 : (float) test.mFailures / test.mRuns;
+    }
+
+    /**
+     * The flake rate of a test is the fraction of its runs, after the first one, whose status
+     * differs from the previous run. A test that always passes or always fails is not flaky,
+     * even if it started failing at some point.
+     *
+     * @param testName the full name of the test, ie. <class>#<method>
+     * @return the flake rate of the test, 0 if it ran less than twice
+     */
+    public float getFlakeRate(String moduleId, String testName) {
+        TestHistory test = getTest(moduleId, testName);
+        return (test == null || test.mRuns < 2) ? 0 : (float) test.mFlips / (test.mRuns - 1);
+    }
+
+    private TestHistory getTest(String moduleId, String testName) {
+        ModuleHistory module = mModules.get(moduleId);
+        return (module == null) ? null : module.mTests.get(testName);
+    }
+
+    /**
+     * Serializes the statuses of the tests executed in a module, compressed:
+     * its test case count, and for each test case its name, its test count and the name and
+     * status of each test.
+     */
+    private static byte[] serializeTests(IModuleResult module) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(
+                new DeflaterOutputStream(bytes, deflater))) {
+            out.writeInt(module.getResults().size());
+            for (ICaseResult caseResult : module.getResults()) {
+                out.writeUTF(caseResult.getName());
+                int executed = 0;
+                for (ITestResult test : caseResult.getResults()) {
+                    if (isExecuted(test)) {
+                        executed++;
+                    }
+                }
+                out.writeInt(executed);
+                for (ITestResult test : caseResult.getResults()) {
+                    if (isExecuted(test)) {
+                        out.writeUTF(test.getName());
+                        out.writeByte(test.getResultStatus().ordinal());
+                    }
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return whether the test was executed in the session, rather than carried over from the
+     * session it retries.
+     */
+    private static boolean isExecuted(ITestResult test) {
+        return test.getResultStatus() != null && !test.isRetry();
+    }
+
+    /**
+     * Writes a record: its length, the length of its headers, its headers, then the compressed
+     * test statuses of each of its modules.
+     */
+    private static void writeRecord(RandomAccessFile out, RecordHeaders headers,
+            List<byte[]> tests) throws IOException {
+        byte[] headerBytes = headers.serialize();
+        int length = 4 + headerBytes.length;
+        for (byte[] moduleTests : tests) {
+            length += moduleTests.length;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + length);
+        try (DataOutputStream record = new DataOutputStream(bytes)) {
+            record.writeInt(length);
+            record.writeInt(headerBytes.length);
+            record.write(headerBytes);
+            for (byte[] moduleTests : tests) {
+                record.write(moduleTests);
+            }
+        }
+        out.write(bytes.toByteArray());
+    }
+
+    /**
+     * Reads the headers of the record at the file pointer, leaving the file pointer at the test
+     * statuses of its first module.
+     */
+    private static RecordHeaders readHeaders(RandomAccessFile in) throws IOException {
+        long start = in.getFilePointer();
+        int length = in.readInt();
+        int headersLength = in.readInt();
+        if (headersLength < 0 || headersLength > length - 4) {
+            throw new IOException("Invalid length of record headers");
+        }
+        byte[] headers = new byte[headersLength];
+        in.readFully(headers);
+        RecordHeaders record = RecordHeaders.parse(headers);
+        long testsLength = 0;
+        for (int testLength : record.mTestsLengths) {
+            testsLength += testLength;
+        }
+        if (start + 8 + headersLength + testsLength != start + 4 + length) {
+            throw new IOException("Invalid length of test statuses");
+        }
+        return record;
+    }
+
+    /**
+     * Adds the record at the file pointer to this history.
+     *
+     * @param withTests whether the statuses of the tests are read
+     */
+    private void addRecord(RandomAccessFile in, boolean withTests) throws IOException {
+        RecordHeaders headers = readHeaders(in);
+        for (int m = 0; m < headers.mModuleIds.size(); m++) {
+            String id = headers.mModuleIds.get(m);
+            ModuleHistory module = mModules.get(id);
+            if (module == null) {
+                module = new ModuleHistory();
+                mModules.put(id, module);
+            }
+            long runtime = headers.mRuntimes.get(m);
+            if (runtime != NO_RUNTIME) {
+                module.addRuntime(runtime);
+            }
+            if (withTests) {
+                byte[] tests = new byte[headers.mTestsLengths.get(m)];
+                in.readFully(tests);
+                addTests(module, tests);
+            }
+        }
+        mSessions++;
+    }
+
+    private static void addTests(ModuleHistory module, byte[] tests) throws IOException {
+        TestStatus[] statuses = TestStatus.values();
+        try (DataInputStream in = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(tests)))) {
+            int caseCount = in.readInt();
+            for (int c = 0; c < caseCount; c++) {
+                String prefix = in.readUTF() + "#";
+                int testCount = in.readInt();
+                for (int t = 0; t < testCount; t++) {
+                    String name = prefix + in.readUTF();
+                    TestHistory test = module.mTests.get(name);
+                    if (test == null) {
+                        test = new TestHistory();
+                        module.mTests.put(name, test);
+                    }
+                    test.add(statuses[in.readUnsignedByte()]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Unknown test status", e);
+        }
+    }
+
+    private static void checkHeader(RandomAccessFile file) throws IOException {
+        if (file.length() < HEADER_SIZE || file.readShort() != SERIALIZED_FORMAT_CODE) {
+            throw new IOException("Unknown format of serialized data.");
+        }
+        if (file.readShort() > CURRENT_VERSION) {
+            throw new IOException("File contains a newer version of the history");
+        }
+    }
+
+    /**
+     * @return whether a complete record starts at the given offset.
+     */
+    private static boolean hasRecord(RandomAccessFile file, long start) throws IOException {
+        if (start + 4 > file.length()) {
+            return false;
+        }
+        file.seek(start);
+        int length = file.readInt();
+        file.seek(start);
+        return length >= 0 && start + 4 + length <= file.length();
+    }
+
+    /**
+     * Moves the file pointer past the complete record at the given offset.
+     *
+     * @return the offset of the next record
+     */
+    private static long nextRecord(RandomAccessFile file, long start) throws IOException {
+        file.seek(start);
+        long next = start + 4 + file.readInt();
+        file.seek(next);
+        return next;
+    }
+}
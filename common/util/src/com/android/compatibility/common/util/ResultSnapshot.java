@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Binary snapshot of a result file, from which a result is loaded without parsing the result
+ * file.
+ * <p/>
+ * The snapshot holds a table of all the strings of the result, followed by the records of the
+ * modules, test cases and tests, with the status of each test and the offset of its details
+ * (failure, logs, report log...) in the result file. Details are then read from the result file
+ * when first accessed, see {@link TestDetailsReader}. Integers are encoded as varints.
+ * <p/>
+ * The snapshot is only used while the result file has not changed since it was written, and,
+ * when results are validated, if it matches the checksum of the result directory.
+ */
+class ResultSnapshot {
+
+    static final String NAME = ResultHandler.SNAPSHOT_FILE_NAME;
+
+    // Serialized format Id (ie magic number) used to identify snapshots.
+    static final short SERIALIZED_FORMAT_CODE = 654;
+    private static final short CURRENT_VERSION = 1;
+
+    private static final String BUILD_FINGERPRINT = "build_fingerprint";
+    private static final String BUILD_ID = "build_id";
+    private static final String BUILD_PRODUCT = "build_product";
+    private static final int NO_DETAILS = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the snapshot of the result file just written from the given result. Any previous
+     * snapshot is deleted if the snapshot cannot be written.
+     *
+     * @param startTime the start time written to the result file
+     * @param suitePlan the plan written to the result file
+     * @param commandLineArgs the command line arguments written to the result file
+     */
+    static void write(File resultDir, IInvocationResult result, long startTime,
+            String suitePlan, String commandLineArgs) throws IOException {
+        File snapshotFile = new File(resultDir, NAME);
+        snapshotFile.delete();
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        NameTable strings = new NameTable();
+        int testCount = 0;
+        List<IModuleResult> modules = result.getModules();
+        for (IModuleResult module : modules) {
+            strings.intern(module.getName());
+            strings.intern(module.getAbi());
+            for (ICaseResult caseResult : module.getResults()) {
+                strings.intern(caseResult.getName());
+                for (ITestResult test : caseResult.getResults()) {
+                    if (test.getResultStatus() != null) {
+                        strings.intern(test.getName());
+                        testCount++;
+                    }
+                }
+            }
+        }
+        long[] offsets = scanTestOffsets(resultFile, testCount);
+        if (offsets == null) {
+            throw new IOException(String.format("Tests of %s do not match the result",
+                    resultFile.getAbsolutePath()));
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(snapshotFile), BUFFER_SIZE))) {
+            out.writeShort(SERIALIZED_FORMAT_CODE);
+            out.writeShort(CURRENT_VERSION);
+            out.writeLong(resultFile.length());
+            out.writeLong(resultFile.lastModified());
+            writeVarLong(out, startTime);
+            writeString(out, suitePlan);
+            writeString(out, (commandLineArgs == null) ? "" : commandLineArgs);
+            writeString(out, String.join(",", result.getDeviceSerials()));
+            writeString(out, result.getInvocationInfo().get(BUILD_ID));
+            writeString(out, result.getInvocationInfo().get(BUILD_PRODUCT));
+            writeString(out, result.getInvocationInfo().get(BUILD_FINGERPRINT));
+
+            writeVarLong(out, strings.size());
+            for (int i = 0; i < strings.size(); i++) {
+                writeString(out, strings.get(i));
+            }
+            int test = 0;
+            writeVarLong(out, modules.size());
+            for (IModuleResult module : modules) {
+                writeVarLong(out, strings.indexOf(module.getName()));
+                writeVarLong(out, strings.indexOf(module.getAbi()));
+                out.writeBoolean(module.isDone());
+                writeVarLong(out, module.getRuntime());
+                List<ICaseResult> cases = module.getResults();
+                writeVarLong(out, cases.size());
+                for (ICaseResult caseResult : cases) {
+                    writeVarLong(out, strings.indexOf(caseResult.getName()));
+                    List<ITestResult> tests = caseResult.getResults();
+                    int executed = 0;
+                    for (ITestResult testResult : tests) {
+                        if (testResult.getResultStatus() != null) {
+                            executed++;
+                        }
+                    }
+                    writeVarLong(out, executed);
+                    for (ITestResult testResult : tests) {
+                        TestStatus status = testResult.getResultStatus();
+                        if (status == null) {
+                            continue; // test was not executed, not in the result file either
+                        }
+                        writeVarLong(out, strings.indexOf(testResult.getName()));
+                        out.writeByte(status.ordinal());
+                        // Offsets are stored plus one, so that tests without details take 1 byte
+                        writeVarLong(out, offsets[test++] + 1);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            snapshotFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the result of the given directory from its snapshot.
+     *
+     * @param checksumReporter the checksum of the result directory the snapshot must match, or
+     * null if results should not be validated
+     * @param statusOnly whether only the status of each test should be loaded. Otherwise the
+     * details of the tests are read from the result file when first accessed.
+     * @return the result, or null if there is no usable snapshot
+     */
+    static IInvocationResult read(File resultDir, ChecksumReporter checksumReporter,
+            boolean statusOnly) {
+        File snapshotFile = new File(resultDir, NAME);
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        if (checksumReporter != null
+                && !checksumReporter.containsFile(snapshotFile, resultDir.getName())) {
+            return null;
+        }
+        try (DataInputStream in = open(snapshotFile, resultFile)) {
+            if (in == null) {
+                return null;
+            }
+            IInvocationResult result = new InvocationResult();
+            result.setRetryDirectory(resultDir);
+            result.setStartTime(readVarLong(in));
+            result.setTestPlan(readString(in));
+            result.setCommandLineArgs(readString(in));
+            for (String device : readString(in).split(",")) {
+                result.addDeviceSerial(device);
+            }
+            result.addInvocationInfo(BUILD_ID, readString(in));
+            result.addInvocationInfo(BUILD_PRODUCT, readString(in));
+            result.setBuildFingerprint(readString(in));
+
+            String[] strings = new String[readCount(in)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(in);
+            }
+            TestStatus[] statuses = TestStatus.values();
+            TestDetailsReader detailsReader = statusOnly ? null : new TestDetailsReader(resultFile);
+            int moduleCount = readCount(in);
+            for (int m = 0; m < moduleCount; m++) {
+                String name = strings[readCount(in)];
+                String abi = strings[readCount(in)];
+                IModuleResult module = result.getOrCreateModule(AbiUtils.createId(abi, name));
+                module.initializeDone(in.readBoolean());
+                module.addRuntime(readVarLong(in));
+                int caseCount = readCount(in);
+                for (int c = 0; c < caseCount; c++) {
+                    ICaseResult caseResult = module.getOrCreateResult(strings[readCount(in)]);
+                    int testCount = readCount(in);
+                    for (int t = 0; t < testCount; t++) {
+                        ITestResult test = caseResult.getOrCreateResult(strings[readCount(in)]);
+                        test.setResultStatus(statuses[in.readUnsignedByte()]);
+                        test.setRetry(true);
+                        long offset = readVarLong(in) - 1;
+                        if (detailsReader != null && offset != NO_DETAILS) {
+                            ((TestResult) test).releaseDetails(detailsReader, offset);
+                        }
+                    }
+                }
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // Corrupted snapshot, the result file is parsed instead.
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Opens the snapshot of the given directory to read its modules one at a time, without
+     * loading the whole result. Only the table of strings is held in memory.
+     *
+     * @return the reader, or null if there is no usable snapshot
+     */
+    static ResultDiff.ModuleReader openModules(File resultDir) throws IOException {
+        File snapshotFile = new File(resultDir, NAME);
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        DataInputStream in = open(snapshotFile,
+                new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME));
+        if (in == null) {
+            return null;
+        }
+        try {
+            // Skips the invocation attributes
+            readVarLong(in);
+            for (int i = 0; i < 6; i++) {
+                readString(in);
+            }
+            String[] strings = new String[readCount(in)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(in);
+            }
+            return new SnapshotModuleReader(in, strings, readCount(in));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the module records of a snapshot, positioned after its table of strings.
+     */
+    private static class SnapshotModuleReader implements ResultDiff.ModuleReader {
+        private final DataInputStream mIn;
+        private final String[] mStrings;
+        private final TestStatus[] mStatuses = TestStatus.values();
+        private int mModulesLeft;
+
+        SnapshotModuleReader(DataInputStream in, String[] strings, int moduleCount) {
+            mIn = in;
+            mStrings = strings;
+            mModulesLeft = moduleCount;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ResultDiff.ModuleTests next() throws IOException {
+            if (mModulesLeft == 0) {
+                return null;
+            }
+            mModulesLeft--;
+            String name = mStrings[readCount(mIn)];
+            String abi = mStrings[readCount(mIn)];
+            ResultDiff.ModuleTests module =
+                    new ResultDiff.ModuleTests(AbiUtils.createId(abi, name));
+            mIn.readBoolean(); // done
+            readVarLong(mIn); // runtime
+            int caseCount = readCount(mIn);
+            for (int c = 0; c < caseCount; c++) {
+                String prefix = mStrings[readCount(mIn)] + "#";
+                int testCount = readCount(mIn);
+                for (int t = 0; t < testCount; t++) {
+                    String test = mStrings[readCount(mIn)];
+                    module.mTests.put(prefix + test, mStatuses[mIn.readUnsignedByte()]);
+                    readVarLong(mIn); // offset of the details
+                }
+            }
+            return module;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+
+    /**
+     * Opens a snapshot and checks that it matches the result file.
+     *
+     * @return the stream, positioned after the attributes of the result file, or null if the
+     * result file changed since the snapshot was written
+     */
+    private static DataInputStream open(File snapshotFile, File resultFile) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotFile), BUFFER_SIZE));
+        try {
+            if (in.readShort() != SERIALIZED_FORMAT_CODE) {
+                throw new IOException("Unknown format of serialized data.");
+            }
+            if (in.readShort() > CURRENT_VERSION) {
+                throw new IOException("File contains a newer version of the snapshot");
+            }
+            if (in.readLong() != resultFile.length()
+                    || in.readLong() != resultFile.lastModified()) {
+                in.close();
+                return null;
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the offset of the start tag of each test in the result file, in order.
+     * <p/>
+     * '<' and '>' are always escaped in text and attribute values, so every "<Test" followed by
+     * a whitespace is the start tag of a test, which ends at the next '>'. A test has details if
+     * its start tag is not also its end tag, ie. does not end with "/>".
+     *
+     * @param expected the number of tests expected in the result file
+     * @return the offsets, {@link #NO_DETAILS} for tests without details, or null if the result
+     * file does not hold the expected number of tests
+     */
+    private static long[] scanTestOffsets(File resultFile, int expected) throws IOException {
+        final byte[] tag = {'<', 'T', 'e', 's', 't'};
+        long[] offsets = new long[expected];
+        int count = 0;
+        try (InputStream in = new FileInputStream(resultFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = 0;
+            int matched = 0;
+            boolean inTag = false;
+            byte last = 0;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++, position++) {
+                    byte b = buffer[i];
+                    boolean whitespace = b == ' ' || b == '\t' || b == '\n' || b == '\r';
+                    if (inTag) {
+                        if (b == '>') {
+                            inTag = false;
+                            if (last == '/') {
+                                offsets[count - 1] = NO_DETAILS;
+                            }
+                        } else if (!whitespace) {
+                            last = b;
+                        }
+                        continue;
+                    }
+                    if (matched == tag.length) {
+                        matched = 0;
+                        if (whitespace) {
+                            if (count == expected) {
+                                return null;
+                            }
+                            offsets[count++] = position - tag.length;
+                            inTag = true;
+                            last = 0;
+                            continue;
+                        }
+                    }
+                    if (b == tag[matched]) {
+                        matched++;
+                    } else {
+                        matched = (b == tag[0]) ? 1 : 0;
+                    }
+                }
+            }
+        }
+        return (count == expected) ? offsets : null;
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Malformed count " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Writes a nullable string as its length plus one, followed by its UTF-8 bytes.
+     */
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = readCount(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -16,12 +16,9 @@
 
 package com.android.compatibility.common.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Uploads a result through a HTTP POST multipart/form-data request containing
@@ -29,8 +26,6 @@ import java.util.zip.GZIPOutputStream;
  */
 public class ResultUploader {
 
-    private static final int RESULT_XML_BYTES = 500 * 1024;
-
     /* package */ MultipartForm mMultipartForm;
 
     public ResultUploader(String serverUrl, String suiteName) {
@@ -45,29 +40,15 @@ public class ResultUploader {
      * @throws IOException
      */
     public int uploadResult(File reportFile, String referenceUrl) throws IOException {
-        InputStream input = new FileInputStream(reportFile);
-        try {
-            byte[] data = getBytes(input);
-            mMultipartForm.addFormFile("resultXml", "test-result.xml.gz", data);
-            if (referenceUrl != null && !referenceUrl.trim().isEmpty()) {
-                mMultipartForm.addFormValue("referenceUrl", referenceUrl);
-            }
-            return mMultipartForm.submit();
-        } finally {
-            input.close();
+        if (!reportFile.exists()) {
+            throw new FileNotFoundException(reportFile.getAbsolutePath());
         }
-    }
-
-    private static byte[] getBytes(InputStream input) throws IOException {
-        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream(RESULT_XML_BYTES);
-        GZIPOutputStream gzipOutput = new GZIPOutputStream(byteOutput);
-        byte[] buffer = new byte[1024];
-        int count;
-        while ((count = input.read(buffer)) > 0) {
-            gzipOutput.write(buffer, 0, count);
+        // The report is compressed while it is sent, rather than in memory beforehand
+        mMultipartForm.addCompressedFormFile("resultXml", "test-result.xml.gz", reportFile);
+        if (referenceUrl != null && !referenceUrl.trim().isEmpty()) {
+            mMultipartForm.addFormValue("referenceUrl", referenceUrl);
         }
-        gzipOutput.close();
-        return byteOutput.toByteArray();
+        return mMultipartForm.submit();
     }
 
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Merges the results of several sessions, eg. the same plan split over several hosts, into a
+ * single result.
+ * <p/>
+ * Sessions are loaded in parallel, and merged in the order of their start times, so that the
+ * merged result does not depend on the order the sessions are given in:
+ * <ul>
+ * <li>The result of a test is the one of the latest session it passed in, or else of the latest
+ * session it failed in.</li>
+ * <li>A module is done if it is done in any session, and its runtime is the sum of its runtimes.
+ * </li>
+ * <li>The invocation starts with the earliest session and ends with the latest one. Its plan,
+ * command line and build attributes are those of the latest session, and its devices are the
+ * devices of all sessions.</li>
+ * </ul>
+ * All sessions must be of the same build.
+ */
+public class SessionMerger {
+
+    /**
+     * A loaded session, along with the end time and the build info of its invocation, which are
+     * not part of its {@link IInvocationResult}.
+     */
+    static class Session {
+        final IInvocationResult mResult;
+        final long mEndTime;
+        final Map<String, String> mBuildInfo;
+
+        Session(IInvocationResult result, long endTime, Map<String, String> buildInfo) {
+            mResult = result;
+            mEndTime = endTime;
+            mBuildInfo = buildInfo;
+        }
+    }
+
+    /**
+     * Merges the sessions of the given result directories, and writes the merged result to the
+     * given directory, along with its checksum.
+     *
+     * @return the merged result file
+     * @throws IOException if a session cannot be loaded or the result cannot be written
+     * @throws IllegalArgumentException if the sessions are not of the same build
+     */
+    public static File mergeSessions(List<File> resultDirs, File outputDir, String suiteName,
+            String suiteVersion, String suiteBuild) throws IOException, XmlPullParserException {
+        List<Session> sessions = loadSessions(resultDirs);
+        IInvocationResult merged = merge(sessions);
+        long endTime = 0;
+        for (Session session : sessions) {
+            endTime = Math.max(endTime, session.mEndTime);
+        }
+        outputDir.mkdirs();
+        return ResultHandler.writeResults(suiteName, suiteVersion, merged.getTestPlan(),
+                suiteBuild, merged, outputDir, merged.getStartTime(), endTime,
+                null /* referenceUrl */, null /* logUrl */, merged.getCommandLineArgs());
+    }
+
+    /**
+     * Loads the sessions of the given result directories in parallel. The details of the tests
+     * are read from the result files when first accessed.
+     */
+    static List<Session> loadSessions(List<File> resultDirs) throws IOException {
+        int threads = Math.max(1, Math.min(resultDirs.size(),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Session>> futures = new ArrayList<>();
+            for (final File resultDir : resultDirs) {
+                futures.add(executor.submit(new Callable<Session>() {
+                    @Override
+                    public Session call() throws Exception {
+                        return loadSession(resultDir);
+                    }
+                }));
+            }
+            List<Session> sessions = new ArrayList<>();
+            for (Future<Session> future : futures) {
+                sessions.add(future.get());
+            }
+            return sessions;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading sessions", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Session loadSession(File resultDir) throws IOException,
+            XmlPullParserException {
+        IInvocationResult result = ResultHandler.getResultFromDir(resultDir, false, false);
+        if (result == null) {
+            throw new IOException(String.format("Could not load the session of %s",
+                    resultDir.getAbsolutePath()));
+        }
+        Map<String, String> buildInfo = new HashMap<>();
+        long endTime = ResultHandler.readInvocationInfo(resultDir, buildInfo);
+        return new Session(result, endTime, buildInfo);
+    }
+
+    /**
+     * Merges the given sessions into a new result.
+     */
+    static IInvocationResult merge(List<Session> sessions) {
+        List<Session> sorted = new ArrayList<>(sessions);
+        // Later sessions take precedence, the directory breaks ties for a deterministic order.
+        Collections.sort(sorted, new Comparator<Session>() {
+            @Override
+            public int compare(Session a, Session b) {
+                int order = Long.compare(a.mResult.getStartTime(), b.mResult.getStartTime());
+                File aDir = a.mResult.getRetryDirectory();
+                File bDir = b.mResult.getRetryDirectory();
+                if (order == 0 && aDir != null && bDir != null) {
+                    order = aDir.getName().compareTo(bDir.getName());
+                }
+                return order;
+            }
+        });
+
+        IInvocationResult merged = new InvocationResult();
+        if (!sorted.isEmpty()) {
+            merged.setStartTime(sorted.get(0).mResult.getStartTime());
+        }
+        String fingerprint = null;
+        for (Session session : sorted) {
+            IInvocationResult result = session.mResult;
+            String resultFingerprint = result.getBuildFingerprint();
+            if (fingerprint != null && resultFingerprint != null
+                    && !fingerprint.equals(resultFingerprint)) {
+                throw new IllegalArgumentException(String.format(
+                        "Cannot merge sessions of different builds: %s and %s", fingerprint,
+                        resultFingerprint));
+            }
+            if (resultFingerprint != null) {
+                fingerprint = resultFingerprint;
+            }
+            merged.setTestPlan(result.getTestPlan());
+            merged.setCommandLineArgs(result.getCommandLineArgs());
+            for (Map.Entry<String, String> entry : session.mBuildInfo.entrySet()) {
+                merged.addInvocationInfo(entry.getKey(), entry.getValue());
+            }
+            for (String serial : result.getDeviceSerials()) {
+                merged.addDeviceSerial(serial);
+            }
+            for (IModuleResult module : result.getModules()) {
+                mergeModule(merged.getOrCreateModule(module.getId()), module);
+            }
+        }
+        merged.setBuildFingerprint(fingerprint);
+        return merged;
+    }
+
+    /**
+     * Merges a module of a session into the merged module, the session taking precedence over
+     * the sessions already merged.
+     */
+    private static void mergeModule(IModuleResult merged, IModuleResult module) {
+        if (module.isDone()) {
+            merged.initializeDone(true);
+        }
+        merged.addRuntime(module.getRuntime());
+        for (ICaseResult caseResult : module.getResults()) {
+            ICaseResult mergedCase = merged.getOrCreateResult(caseResult.getName());
+            for (ITestResult test : caseResult.getResults()) {
+                TestStatus status = test.getResultStatus();
+                if (status == null) {
+                    continue;
+                }
+                ITestResult mergedTest = mergedCase.getOrCreateResult(test.getName());
+                if (mergedTest.getResultStatus() == TestStatus.PASS
+                        && status == TestStatus.FAIL) {
+                    continue; // a pass of an earlier session wins over a later failure
+                }
+                // Keeps the details of the test in its result file until the merged result is
+                // written
+                TestResult.copy(test, mergedTest);
+            }
+        }
+    }
+}
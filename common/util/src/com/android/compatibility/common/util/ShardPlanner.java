@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Plans the split of modules between shards so that the shards finish as close together as
+ * possible, from the expected runtimes of the modules.
+ * <p/>
+ * Modules are first assigned longest first, each to the shard expected to finish first among
+ * those that can run it. The plan is then refined by moving modules, or swapping pairs of
+ * modules, from the shard expected to finish last to the other shards, for as long as it brings
+ * the end of the run closer.
+ * <p/>
+ * A module requiring tokens, eg. a SIM card, can only be assigned to a shard whose device has
+ * all these tokens. A module that no shard can run is assigned as if it required no token.
+ *
+ * @param <T> the type of the modules
+ */
+public class ShardPlanner<T> {
+
+    // Bounds the refinement of large plans, each step moving at least one module.
+    private static final int MAX_REFINE_STEPS = 10000;
+    // Refining plans closer than this to evenly split runtimes is not worth it.
+    private static final long REFINE_PRECISION = 1000;
+
+    /** A module to assign to a shard. */
+    private static class Item<T> {
+        final T mModule;
+        final long mRuntime;
+        final Set<String> mTokens;
+        int mShard = -1;
+
+        Item(T module, long runtime, Set<String> tokens) {
+            mModule = module;
+            mRuntime = runtime;
+            mTokens = tokens;
+        }
+    }
+
+    /**
+     * The planned split of the modules.
+     *
+     * @param <T> the type of the modules
+     */
+    public static class Plan<T> {
+        private final List<List<T>> mShards;
+        private final long[] mFinishTimes;
+
+        private Plan(List<List<T>> shards, long[] finishTimes) {
+            mShards = shards;
+            mFinishTimes = finishTimes;
+        }
+
+        /**
+         * @return the number of shards of the plan.
+         */
+        public int getShardCount() {
+            return mShards.size();
+        }
+
+        /**
+         * @return the modules assigned to the given shard, longest first.
+         */
+        public List<T> getModules(int shard) {
+            return mShards.get(shard);
+        }
+
+        /**
+         * @return the expected time for the given shard to run its modules, in milliseconds.
+         */
+        public long getFinishTime(int shard) {
+            return mFinishTimes[shard];
+        }
+
+        /**
+         * @return the expected time for all shards to run their modules, in milliseconds.
+         */
+        public long getMakespan() {
+            long makespan = 0;
+            for (long finishTime : mFinishTimes) {
+                makespan = Math.max(makespan, finishTime);
+            }
+            return makespan;
+        }
+    }
+
+    private final List<Set<String>> mShardTokens = new ArrayList<>();
+    private final List<Item<T>> mItems = new ArrayList<>();
+
+    /**
+     * Creates a planner for the given number of shards, whose devices have no token.
+     */
+    public ShardPlanner(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Must be at least 1 shard. Given:" + shards);
+        }
+        for (int i = 0; i < shards; i++) {
+            mShardTokens.add(Collections.<String>emptySet());
+        }
+    }
+
+    /**
+     * Sets the tokens of the device of the given shard.
+     */
+    public void setTokens(int shard, Set<String> tokens) {
+        mShardTokens.set(shard, (tokens == null) ? Collections.<String>emptySet() : tokens);
+    }
+
+    /**
+     * Adds a module to assign to a shard.
+     *
+     * @param runtime the expected runtime of the module, in milliseconds
+     * @param tokens the tokens the device must have to run the module, or null if none
+     */
+    public void add(T module, long runtime, Set<String> tokens) {
+        mItems.add(new Item<>(module, Math.max(0, runtime),
+                (tokens == null) ? Collections.<String>emptySet() : new HashSet<>(tokens)));
+    }
+
+    /**
+     * @return whether some shard can run the given module, ie. its device has all the tokens
+     * the module requires.
+     */
+    public boolean canRun(Set<String> tokens) {
+        for (Set<String> shardTokens : mShardTokens) {
+            if (tokens == null || shardTokens.containsAll(tokens)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Plans the split of the modules added so far.
+     */
+    public Plan<T> plan() {
+        int shards = mShardTokens.size();
+        long[] loads = new long[shards];
+        List<Item<T>> items = new ArrayList<>(mItems);
+        // Longest first, and the modules that fewer shards can run first among equals
+        Collections.sort(items, new Comparator<Item<T>>() {
+            @Override
+            public int compare(Item<T> a, Item<T> b) {
+                int order = Long.compare(b.mRuntime, a.mRuntime);
+                return (order != 0) ? order : Integer.compare(b.mTokens.size(), a.mTokens.size());
+            }
+        });
+        for (Item<T> item : items) {
+            if (!canRun(item.mTokens)) {
+                item.mTokens.clear();
+            }
+            int best = -1;
+            for (int shard = 0; shard < shards; shard++) {
+                if (canRun(item, shard) && (best == -1 || loads[shard] < loads[best])) {
+                    best = shard;
+                }
+            }
+            item.mShard = best;
+            loads[best] += item.mRuntime;
+        }
+        long total = 0;
+        for (long load : loads) {
+            total += load;
+        }
+        long even = (total + shards - 1) / shards;
+        for (int step = 0; step < MAX_REFINE_STEPS && max(loads) - even > REFINE_PRECISION
+                && refine(items, loads); step++) {
+        }
+
+        List<List<T>> plan = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            plan.add(new ArrayList<T>());
+        }
+        for (Item<T> item : items) {
+            plan.get(item.mShard).add(item.mModule);
+        }
+        return new Plan<>(plan, loads);
+    }
+
+    /**
+     * Moves a module, or swaps two modules, between the shard finishing last and another shard,
+     * so that both finish before the shard finishing last currently does.
+     *
+     * @return false if there was no such move or swap.
+     */
+    private boolean refine(List<Item<T>> items, long[] loads) {
+        int last = 0;
+        for (int shard = 1; shard < loads.length; shard++) {
+            if (loads[shard] > loads[last]) {
+                last = shard;
+            }
+        }
+        long makespan = loads[last];
+        for (Item<T> item : items) {
+            if (item.mShard != last || item.mRuntime == 0) {
+                continue;
+            }
+            for (int shard = 0; shard < loads.length; shard++) {
+                if (shard == last || !canRun(item, shard)) {
+                    continue;
+                }
+                if (loads[shard] + item.mRuntime < makespan) {
+                    move(item, shard, loads);
+                    return true;
+                }
+                for (Item<T> other : items) {
+                    if (other.mShard != shard || other.mRuntime >= item.mRuntime
+                            || !canRun(other, last)) {
+                        continue;
+                    }
+                    if (loads[shard] + item.mRuntime - other.mRuntime < makespan) {
+                        move(item, shard, loads);
+                        move(other, last, loads);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static long max(long[] loads) {
+        long max = 0;
+        for (long load : loads) {
+            max = Math.max(max, load);
+        }
+        return max;
+    }
+
+    private boolean canRun(Item<T> item, int shard) {
+        return mShardTokens.get(shard).containsAll(item.mTokens);
+    }
+
+    private static <T> void move(Item<T> item, int shard, long[] loads) {
+        loads[item.mShard] -= item.mRuntime;
+        loads[shard] += item.mRuntime;
+        item.mShard = shard;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Reads the details of a test (failure, logs, report log...) from a result file when they are
+ * first accessed, so that a parsed result only holds the status of its tests in memory.
+ * <p/>
+ * Details are located by the byte offset of the test's start tag in the result file, recorded
+ * while the file is parsed by an {@link OffsetTrackingInputStream}.
+ */
+class TestDetailsReader {
+
+    private static final String NS = null;
+    private static final String NAME_ATTR = "name";
+
+    private final File mResultFile;
+    private OffsetTrackingInputStream mOffsets;
+
+    TestDetailsReader(File resultFile) {
+        mResultFile = resultFile;
+    }
+
+    /**
+     * Opens the result file to be parsed, recording the offset of each test read through the
+     * returned stream.
+     */
+    InputStream openResultFile() throws IOException {
+        mOffsets = new OffsetTrackingInputStream(
+                new BufferedInputStream(new FileInputStream(mResultFile)));
+        return mOffsets;
+    }
+
+    /**
+     * @return the offset of the next test start tag reached by the parser of the stream opened
+     * by {@link #openResultFile}, or -1 if unknown.
+     */
+    long nextTestOffset() {
+        return (mOffsets == null) ? -1 : mOffsets.nextTestOffset();
+    }
+
+    /**
+     * Reads the details of the given test into it.
+     *
+     * @param test the test result, whose details were released
+     * @param offset the offset of the start tag of the test in the result file
+     * @throws IOException if the details cannot be read from the result file
+     */
+    void readDetails(ITestResult test, long offset) throws IOException {
+        try (FileInputStream fileStream = new FileInputStream(mResultFile)) {
+            fileStream.getChannel().position(offset);
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(new BufferedInputStream(fileStream), "UTF-8");
+            parser.nextTag();
+            if (!test.getName().equals(parser.getAttributeValue(NS, NAME_ATTR))) {
+                throw new IOException(String.format("%s changed since %s was parsed",
+                        mResultFile.getAbsolutePath(), test.getFullName()));
+            }
+            ResultHandler.parseTestDetails(parser, test);
+        } catch (XmlPullParserException e) {
+            throw new IOException(String.format("Failed to parse the details of %s in %s",
+                    test.getFullName(), mResultFile.getAbsolutePath()), e);
+        }
+    }
+
+    /**
+     * Stream of a result file that records the offset of each Test start tag read through it.
+     * <p/>
+     * '<' is always escaped in text and attribute values, so every "<Test" followed by a
+     * whitespace is the start tag of a test. The parser reads ahead of the events it returns,
+     * so offsets are queued until the parser reaches the corresponding tests.
+     */
+    private static class OffsetTrackingInputStream extends FilterInputStream {
+
+        private static final byte[] TAG = {'<', 'T', 'e', 's', 't'};
+
+        private final Queue<Long> mOffsets = new ArrayDeque<>();
+        private long mPosition = 0;
+        private int mMatched = 0;
+
+        OffsetTrackingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long nextTestOffset() {
+            Long offset = mOffsets.poll();
+            return offset == null ? -1 : offset;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                track((byte) b);
+            }
+            return b;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            for (int i = 0; i < count; i++) {
+                track(b[off + i]);
+            }
+            return count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must be tracked too
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int count = read(buffer, 0, buffer.length);
+            return count < 0 ? 0 : count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void track(byte b) {
+            if (mMatched == TAG.length) {
+                if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                    mOffsets.add(mPosition - TAG.length);
+                }
+                mMatched = 0;
+            }
+            if (b == TAG[mMatched]) {
+                mMatched++;
+            } else {
+                mMatched = (b == TAG[0]) ? 1 : 0;
+            }
+            mPosition++;
+        }
+    }
+}
@@ -15,12 +15,16 @@
  */
 package com.android.compatibility.common.util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /**
  * Represents a single test result.
  */
 public class TestResult implements ITestResult {
 
     private final ICaseResult mParent;
+    private final ResultCounts mCounts;
     private final String mTestName;
     private TestStatus mResult;
     private String mMessage;
@@ -30,13 +34,24 @@ public class TestResult implements ITestResult {
     private String mLog;
     private String mScreenshot;
     private boolean mIsRetry;
+    private TestDetailsReader mDetailsReader;
+    private long mDetailsOffset;
 
     /**
      * Create a {@link TestResult} for the given test name.
      */
     public TestResult(ICaseResult parent, String name) {
+        this(parent, name, null);
+    }
+
+    /**
+     * Create a {@link TestResult} for the given test name, whose status is counted in the given
+     * {@link ResultCounts}.
+     */
+    TestResult(ICaseResult parent, String name, ResultCounts counts) {
         mParent = parent;
         mTestName = name;
+        mCounts = counts;
         reset();
     }
 
@@ -69,6 +84,9 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setResultStatus(TestStatus status) {
+        if (mCounts != null) {
+            mCounts.update(mResult, status);
+        }
         mResult = status;
     }
 
@@ -77,6 +95,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public String getMessage() {
+        loadDetails();
         return mMessage;
     }
 
@@ -85,6 +104,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setMessage(String message) {
+        markDetailsLoaded();
         mMessage = message;
     }
 
@@ -93,6 +113,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public String getStackTrace() {
+        loadDetails();
         return mStackTrace;
     }
 
@@ -101,6 +122,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setStackTrace(String stackTrace) {
+        markDetailsLoaded();
         mStackTrace = sanitizeStackTrace(stackTrace);
     }
 
@@ -109,6 +131,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public ReportLog getReportLog() {
+        loadDetails();
         return mReport;
     }
 
@@ -117,6 +140,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setReportLog(ReportLog report) {
+        markDetailsLoaded();
         mReport = report;
     }
 
@@ -125,6 +149,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public String getBugReport() {
+        loadDetails();
         return mBugReport;
     }
 
@@ -133,6 +158,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setBugReport(String path) {
+        markDetailsLoaded();
         mBugReport = path;
     }
 
@@ -141,6 +167,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public String getLog() {
+        loadDetails();
         return mLog;
     }
 
@@ -149,6 +176,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setLog(String path) {
+        markDetailsLoaded();
         mLog = path;
     }
 
@@ -157,6 +185,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public String getScreenshot() {
+        loadDetails();
         return mScreenshot;
     }
 
@@ -165,6 +194,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setScreenshot(String path) {
+        markDetailsLoaded();
         mScreenshot = path;
     }
 
@@ -212,7 +242,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void reset() {
-        mResult = null;
+        setResultStatus(null);
         mMessage = null;
         mStackTrace = null;
         mReport = null;
@@ -220,6 +250,7 @@ public class TestResult implements ITestResult {
         mLog = null;
         mScreenshot = null;
         mIsRetry = false;
+        mDetailsReader = null;
     }
 
     /**
@@ -243,6 +274,8 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void removeResult() {
+        // Only the stack trace is replaced, the other details are kept
+        loadDetails();
         setResultStatus(TestStatus.FAIL);
         setStackTrace("");
     }
@@ -255,6 +288,95 @@ public class TestResult implements ITestResult {
         return getName().compareTo(another.getName());
     }
 
+    /**
+     * Releases the details of this result from memory. They are read back from the result file
+     * when first read, and dropped when one of them is first set.
+     *
+     * @param reader the reader of the result file this result was parsed from
+     * @param offset the offset of this result in the result file
+     */
+    void releaseDetails(TestDetailsReader reader, long offset) {
+        mMessage = null;
+        mStackTrace = null;
+        mReport = null;
+        mBugReport = null;
+        mLog = null;
+        mScreenshot = null;
+        mDetailsReader = reader;
+        mDetailsOffset = offset;
+    }
+
+    /**
+     * Replaces this result with a copy of the given one. Details the given result has not read
+     * back yet are not read, they are read by this result when first accessed.
+     */
+    void copyFrom(TestResult other) {
+        reset();
+        setResultStatus(other.mResult);
+        mIsRetry = other.mIsRetry;
+        // Not while the other result reads back its details
+        synchronized (other) {
+            mMessage = other.mMessage;
+            mStackTrace = other.mStackTrace;
+            mReport = other.mReport;
+            mBugReport = other.mBugReport;
+            mLog = other.mLog;
+            mScreenshot = other.mScreenshot;
+            mDetailsReader = other.mDetailsReader;
+            mDetailsOffset = other.mDetailsOffset;
+        }
+    }
+
+    /**
+     * Replaces a result with a copy of another one. Details of {@link TestResult}s not read back
+     * yet are not read by the copy.
+     */
+    static void copy(ITestResult from, ITestResult to) {
+        if (from instanceof TestResult && to instanceof TestResult) {
+            ((TestResult) to).copyFrom((TestResult) from);
+            return;
+        }
+        to.reset();
+        to.setResultStatus(from.getResultStatus());
+        to.setRetry(from.isRetry());
+        to.setMessage(from.getMessage());
+        to.setStackTrace(from.getStackTrace());
+        to.setReportLog(from.getReportLog());
+        to.setBugReport(from.getBugReport());
+        to.setLog(from.getLog());
+        to.setScreenshot(from.getScreenshot());
+    }
+
+    /**
+     * Reads back the details released by {@link #releaseDetails}, if any.
+     *
+     * @throws UncheckedIOException if the details cannot be read, they are read again when
+     * next accessed
+     */
+    private synchronized void loadDetails() {
+        if (mDetailsReader == null) {
+            return;
+        }
+        TestDetailsReader reader = mDetailsReader;
+        long offset = mDetailsOffset;
+        try {
+            // Setting the details read marks them loaded
+            reader.readDetails(this, offset);
+        } catch (IOException e) {
+            releaseDetails(reader, offset);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Drops the details released by {@link #releaseDetails}, if any, rather than reading them
+     * back, as a detail is being set. Waits for the details being read back, if any, so that
+     * they do not overwrite the detail set.
+     */
+    private synchronized void markDetailsLoaded() {
+        mDetailsReader = null;
+    }
+
     /**
      * Strip out any invalid XML characters that might cause the report to be unviewable.
      * http://www.w3.org/TR/REC-xml/#dt-character
@@ -26,6 +26,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -57,6 +58,36 @@ public class ZipUtil {
         }
     }
 
+    /**
+     * Same as {@link #createZip(File, File)}, except that files are compressed concurrently
+     * and at the given level. Files in an already compressed format, eg. screenshots and zipped
+     * bugreports, are stored without being compressed again.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create - it should not already exist
+     * @param level the compression level, from {@link Deflater#NO_COMPRESSION} to
+     * {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param threads the number of threads compressing files
+     * @throws IOException if failed to create zip file
+     */
+    public static void createZip(File dir, File zipFile, int level, int threads)
+            throws IOException {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid compression level %d", level));
+        }
+        ParallelZipWriter writer = new ParallelZipWriter(zipFile, level, threads);
+        try {
+            writer.add(dir, "");
+            writer.finish();
+        } catch (IOException | RuntimeException e) {
+            writer.close();
+            zipFile.delete();
+            throw e;
+        }
+    }
+
     /**
      * Recursively adds given file and its contents to ZipOutputStream
      *
@@ -18,6 +18,8 @@ package com.android.compatibility.common.util;
 
 import junit.framework.TestCase;
 
+import java.io.File;
+
 /**
  * Unit tests for {@link CaseResult}
  */
@@ -109,6 +111,28 @@ public class CaseResultTest extends TestCase {
         assertEquals("Expected two pass", 2, mResult.countResults(TestStatus.PASS));
     }
 
+    public void testMergeCase_lazyDetails() throws Exception {
+        final int[] reads = {0};
+        TestDetailsReader reader = new TestDetailsReader(new File("test_result.xml")) {
+            @Override
+            void readDetails(ITestResult test, long offset) {
+                reads[0]++;
+                test.setStackTrace(STACK_TRACE);
+            }
+        };
+        CaseResult otherResult = new CaseResult(CLASS);
+        TestResult otherTest = (TestResult) otherResult.getOrCreateResult(METHOD_1);
+        otherTest.failed(STACK_TRACE);
+        otherTest.releaseDetails(reader, 0);
+
+        mResult.mergeFrom(otherResult);
+        assertEquals("Merging should not read back the details", 0, reads[0]);
+        ITestResult test = mResult.getResult(METHOD_1);
+        assertEquals("Expected one failure", 1, mResult.countResults(TestStatus.FAIL));
+        assertEquals("Incorrect stack trace", STACK_TRACE, test.getStackTrace());
+        assertEquals("Expected the details read back once", 1, reads[0]);
+    }
+
     public void testMergeCase_mismatchedModuleName() throws Exception {
 
         CaseResult otherResult = new CaseResult(CLASS + "foo");
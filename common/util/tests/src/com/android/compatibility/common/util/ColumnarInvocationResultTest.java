@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ColumnarInvocationResult}
+ */
+public class ColumnarInvocationResultTest extends TestCase {
+
+    private static final String ID_A = AbiUtils.createId("mips64", "ModuleA");
+    private static final String ID_B = AbiUtils.createId("mips64", "ModuleB");
+    private static final String CLASS_A = "android.test.Foo";
+    private static final String CLASS_B = "android.test.Bar";
+    private static final String METHOD = "testBlah";
+    private static final String STACK_TRACE = "Something small is not alright\n " +
+            "at four.big.insects.Marley.sing(Marley.java:10)";
+    private static final String LOGCAT = "https://cnsviewer.corp.google.com/cns/logcat.gz";
+    private static final long START_MS = 1431586801000L;
+
+    private File mTempDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("columnar");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTempDir);
+    }
+
+    public void testResults_sameAsInvocationResult() throws Exception {
+        IInvocationResult expected = new InvocationResult();
+        IInvocationResult actual = new ColumnarInvocationResult();
+        addResults(expected);
+        addResults(actual);
+
+        for (TestStatus status : TestStatus.values()) {
+            assertEquals("Incorrect count of " + status, expected.countResults(status),
+                    actual.countResults(status));
+        }
+        List<IModuleResult> expectedModules = expected.getModules();
+        List<IModuleResult> actualModules = actual.getModules();
+        assertEquals("Incorrect number of modules", expectedModules.size(),
+                actualModules.size());
+        for (int i = 0; i < expectedModules.size(); i++) {
+            checkModule(expectedModules.get(i), actualModules.get(i));
+        }
+
+        // The result file must be the same
+        File expectedDir = new File(mTempDir, "expected");
+        File actualDir = new File(mTempDir, "actual");
+        expectedDir.mkdirs();
+        actualDir.mkdirs();
+        File expectedFile = ResultHandler.writeResults("CTS", "5.0", "cts", "12345", expected,
+                expectedDir, START_MS, START_MS + 1, null, null, "cts");
+        File actualFile = ResultHandler.writeResults("CTS", "5.0", "cts", "12345", actual,
+                actualDir, START_MS, START_MS + 1, null, null, "cts");
+        assertTrue("Incorrect result file", Arrays.equals(
+                Files.readAllBytes(expectedFile.toPath()), Files.readAllBytes(actualFile.toPath())));
+    }
+
+    public void testCountResults_updatedOnChange() throws Exception {
+        IInvocationResult result = new ColumnarInvocationResult();
+        IModuleResult module = result.getOrCreateModule(ID_A);
+        ICaseResult caseResult = module.getOrCreateResult(CLASS_A);
+        ITestResult test = caseResult.getOrCreateResult(METHOD);
+        assertEquals("Expected no result", 0, result.countResults(TestStatus.PASS));
+
+        test.failed(STACK_TRACE);
+        checkCounts(result, module, caseResult, 0, 1);
+        // A failed test cannot pass
+        test.passed(null);
+        checkCounts(result, module, caseResult, 0, 1);
+        test.reset();
+        checkCounts(result, module, caseResult, 0, 0);
+        assertNull("Stack trace should be reset", test.getStackTrace());
+        test.passed(null);
+        checkCounts(result, module, caseResult, 1, 0);
+        test.removeResult();
+        checkCounts(result, module, caseResult, 0, 1);
+
+        ITestResult other = result.getOrCreateModule(ID_B).getOrCreateResult(CLASS_A)
+                .getOrCreateResult(METHOD);
+        other.skipped();
+        assertEquals("Incorrect invocation passes", 1, result.countResults(TestStatus.PASS));
+        assertEquals("Incorrect module passes", 0, module.countResults(TestStatus.PASS));
+    }
+
+    public void testDetails_released() throws Exception {
+        IInvocationResult result = new ColumnarInvocationResult();
+        ITestResult test = result.getOrCreateModule(ID_A).getOrCreateResult(CLASS_A)
+                .getOrCreateResult(METHOD);
+        test.failed(STACK_TRACE);
+        test.setLog(LOGCAT);
+        test.setRetry(true);
+        // Views of the same test share its state
+        ITestResult view = result.getOrCreateModule(ID_A).getResult(CLASS_A).getResult(METHOD);
+        assertEquals("Views should be equal", test, view);
+        assertEquals("Incorrect log", LOGCAT, view.getLog());
+        assertEquals("Incorrect stack trace", STACK_TRACE, view.getStackTrace());
+        assertEquals("Incorrect full name", CLASS_A + "#" + METHOD, view.getFullName());
+        assertTrue("Expected retry", view.isRetry());
+
+        view.setMessage(null);
+        view.setStackTrace(null);
+        view.setLog(null);
+        assertNull("Expected no log", test.getLog());
+        assertEquals("Status should be kept", TestStatus.FAIL, test.getResultStatus());
+        assertNull("Unknown test", result.getOrCreateModule(ID_A).getResult(CLASS_A)
+                .getResult(METHOD + "2"));
+        assertNull("Unknown case", result.getOrCreateModule(ID_A).getResult(CLASS_B));
+    }
+
+    public void testMergeModuleResult() throws Exception {
+        IInvocationResult shard = new InvocationResult();
+        addResults(shard);
+        IInvocationResult result = new ColumnarInvocationResult();
+        ITestResult replaced = result.getOrCreateModule(ID_A).getOrCreateResult(CLASS_A)
+                .getOrCreateResult(METHOD + 1);
+        replaced.passed(null);
+        for (IModuleResult module : shard.getModules()) {
+            result.mergeModuleResult(module);
+        }
+
+        for (TestStatus status : TestStatus.values()) {
+            assertEquals("Incorrect count of " + status, shard.countResults(status),
+                    result.countResults(status));
+        }
+        assertEquals("Merged result should replace the existing one", TestStatus.FAIL,
+                replaced.getResultStatus());
+        assertEquals("Incorrect merged stack trace", STACK_TRACE + 1, replaced.getStackTrace());
+        for (int i = 0; i < shard.getModules().size(); i++) {
+            checkModule(shard.getModules().get(i), result.getModules().get(i));
+        }
+    }
+
+    private static void addResults(IInvocationResult result) {
+        result.setStartTime(START_MS);
+        for (String id : new String[] {ID_B, ID_A}) {
+            IModuleResult module = result.getOrCreateModule(id);
+            module.addRuntime(100);
+            module.setDone(true);
+            for (String className : new String[] {CLASS_A, CLASS_B}) {
+                ICaseResult caseResult = module.getOrCreateResult(className);
+                for (int i = 10; i >= 0; i--) {
+                    ITestResult test = caseResult.getOrCreateResult(METHOD + i);
+                    if (i % 3 == 1) {
+                        test.failed(STACK_TRACE + i);
+                        test.setLog(LOGCAT + i);
+                    } else if (i % 3 == 2) {
+                        test.passed(null);
+                    }
+                }
+            }
+        }
+        result.getOrCreateModule(AbiUtils.createId("mips64", "ModuleC"));
+    }
+
+    private static void checkModule(IModuleResult expected, IModuleResult actual) {
+        assertEquals("Incorrect id", expected.getId(), actual.getId());
+        assertEquals("Incorrect done", expected.isDone(), actual.isDone());
+        assertEquals("Incorrect runtime", expected.getRuntime(), actual.getRuntime());
+        List<ICaseResult> expectedCases = expected.getResults();
+        List<ICaseResult> actualCases = actual.getResults();
+        assertEquals("Incorrect number of cases", expectedCases.size(), actualCases.size());
+        for (int i = 0; i < expectedCases.size(); i++) {
+            ICaseResult expectedCase = expectedCases.get(i);
+            ICaseResult actualCase = actualCases.get(i);
+            assertEquals("Incorrect case", expectedCase.getName(), actualCase.getName());
+            for (TestStatus status : TestStatus.values()) {
+                assertEquals("Incorrect case count", expectedCase.countResults(status),
+                        actualCase.countResults(status));
+                assertEquals("Incorrect case results", expectedCase.getResults(status).size(),
+                        actualCase.getResults(status).size());
+            }
+            List<ITestResult> expectedTests = expectedCase.getResults();
+            List<ITestResult> actualTests = actualCase.getResults();
+            assertEquals("Incorrect number of tests", expectedTests.size(), actualTests.size());
+            for (int j = 0; j < expectedTests.size(); j++) {
+                ITestResult expectedTest = expectedTests.get(j);
+                ITestResult actualTest = actualTests.get(j);
+                assertEquals("Incorrect test", expectedTest.getFullName(),
+                        actualTest.getFullName());
+                assertEquals("Incorrect status", expectedTest.getResultStatus(),
+                        actualTest.getResultStatus());
+                assertEquals("Incorrect message", expectedTest.getMessage(),
+                        actualTest.getMessage());
+                assertEquals("Incorrect stack trace", expectedTest.getStackTrace(),
+                        actualTest.getStackTrace());
+                assertEquals("Incorrect log", expectedTest.getLog(), actualTest.getLog());
+            }
+        }
+    }
+
+    private static void checkCounts(IInvocationResult result, IModuleResult module,
+            ICaseResult caseResult, int passed, int failed) {
+        assertEquals("Incorrect invocation passes", passed, result.countResults(TestStatus.PASS));
+        assertEquals("Incorrect invocation failures", failed,
+                result.countResults(TestStatus.FAIL));
+        assertEquals("Incorrect module passes", passed, module.countResults(TestStatus.PASS));
+        assertEquals("Incorrect module failures", failed, module.countResults(TestStatus.FAIL));
+        assertEquals("Incorrect case passes", passed, caseResult.countResults(TestStatus.PASS));
+        assertEquals("Incorrect case failures", failed,
+                caseResult.countResults(TestStatus.FAIL));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for {@link ModuleResultJournal}
+ */
+public class ModuleResultJournalTest extends TestCase {
+
+    private static final String ABI = "mips64";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String CLASS = "android.test.Foor";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String STACK_TRACE = "Something small is not alright\n " +
+            "at four.big.insects.Marley.sing(Marley.java:10)";
+    private static final String LOGCAT = "https://cnsviewer.corp.google.com/cns/logcat.gz";
+
+    private File mResultDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultDir = FileUtil.createTempDir("journal");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultDir);
+    }
+
+    public void testAppend_releasesDetails() throws Exception {
+        IModuleResult module = createModule(ID_A);
+        ModuleResultJournal journal = new ModuleResultJournal(mResultDir);
+        try {
+            journal.append(module);
+            assertTrue("Expected module in journal", journal.contains(ID_A));
+            assertFalse("Unexpected module in journal", journal.contains(ID_B));
+            ITestResult failed = module.getResult(CLASS).getResult(METHOD_1);
+            assertEquals("Status should be kept", TestStatus.FAIL, failed.getResultStatus());
+            assertNull("Stack trace should be released", failed.getStackTrace());
+            assertNull("Log should be released", failed.getLog());
+            assertEquals("Counts should be kept", 1, module.countResults(TestStatus.FAIL));
+
+            IModuleResult journaled = journal.readModule(ID_A);
+            ITestResult journaledFailed = journaled.getResult(CLASS).getResult(METHOD_1);
+            assertEquals("Incorrect stack trace", STACK_TRACE, journaledFailed.getStackTrace());
+            assertEquals("Incorrect log", LOGCAT, journaledFailed.getLog());
+            assertTrue("Expected module done", journaled.isDone());
+        } finally {
+            journal.close();
+        }
+    }
+
+    public void testRestore() throws Exception {
+        IModuleResult module = createModule(ID_A);
+        ModuleResultJournal journal = new ModuleResultJournal(mResultDir);
+        try {
+            journal.append(module);
+            journal.restore(module);
+            assertFalse("Restored module should leave the journal", journal.contains(ID_A));
+            ITestResult failed = module.getResult(CLASS).getResult(METHOD_1);
+            assertEquals("Incorrect stack trace", STACK_TRACE, failed.getStackTrace());
+            assertEquals("Incorrect log", LOGCAT, failed.getLog());
+        } finally {
+            journal.close();
+        }
+    }
+
+    public void testReopen_discardsPartialEntry() throws Exception {
+        ModuleResultJournal journal = new ModuleResultJournal(mResultDir);
+        journal.append(createModule(ID_A));
+        journal.close();
+        File file = new File(mResultDir, ModuleResultJournal.NAME);
+        long completeLength = file.length();
+        // Simulate an entry interrupted while being written
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(completeLength);
+        raf.writeUTF(ID_B);
+        raf.writeInt(1000);
+        raf.write(new byte[10]);
+        raf.close();
+
+        journal = new ModuleResultJournal(mResultDir);
+        try {
+            assertTrue("Expected complete entry", journal.contains(ID_A));
+            assertFalse("Unexpected partial entry", journal.contains(ID_B));
+            assertEquals("Partial entry should be truncated", completeLength, file.length());
+            journal.append(createModule(ID_B));
+            assertEquals("Incorrect stack trace", STACK_TRACE, journal.readModule(ID_B)
+                    .getResult(CLASS).getResult(METHOD_1).getStackTrace());
+        } finally {
+            journal.close();
+        }
+    }
+
+    public void testWriteResults() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.addDeviceSerial("device123");
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        populate(moduleA);
+        IModuleResult moduleB = result.getOrCreateModule(ID_B);
+        populate(moduleB);
+        ModuleResultJournal journal = new ModuleResultJournal(mResultDir);
+        journal.append(moduleA);
+        ResultHandler.writeResults("CTS", "5.0", "cts", "12345", result, mResultDir,
+                0L, 1L, null, null, "cts", journal);
+        journal.delete();
+        assertFalse("Journal should be deleted",
+                new File(mResultDir, ModuleResultJournal.NAME).exists());
+
+        IInvocationResult parsed = ResultHandler.getResultFromDir(mResultDir);
+        assertEquals("Expected 2 modules", 2, parsed.getModules().size());
+        assertEquals("Expected 2 failures", 2, parsed.countResults(TestStatus.FAIL));
+        assertEquals("Expected 2 passes", 2, parsed.countResults(TestStatus.PASS));
+        for (IModuleResult module : parsed.getModules()) {
+            ITestResult failed = module.getResult(CLASS).getResult(METHOD_1);
+            assertEquals("Incorrect stack trace", STACK_TRACE, failed.getStackTrace());
+            assertEquals("Incorrect log", LOGCAT, failed.getLog());
+        }
+    }
+
+    private static IModuleResult createModule(String id) {
+        IModuleResult module = new ModuleResult(id);
+        populate(module);
+        return module;
+    }
+
+    private static void populate(IModuleResult module) {
+        module.setDone(true);
+        ICaseResult caseResult = module.getOrCreateResult(CLASS);
+        ITestResult failed = caseResult.getOrCreateResult(METHOD_1);
+        failed.failed(STACK_TRACE);
+        failed.setLog(LOGCAT);
+        caseResult.getOrCreateResult(METHOD_2).passed(null);
+    }
+}
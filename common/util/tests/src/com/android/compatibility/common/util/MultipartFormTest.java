@@ -16,9 +16,26 @@
 
 package com.android.compatibility.common.util;
 
+import com.android.tradefed.util.FileUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Unit tests for {@link MultipartForm}
@@ -47,6 +64,41 @@ public class MultipartFormTest extends TestCase {
             0x72, 0x2d, 0x2d, 0xa,
     };
 
+    private HttpServer mServer = null;
+    private File mFile = null;
+    private final Queue<Integer> mResponses = new LinkedList<>();
+    private final List<byte[]> mRequests = new ArrayList<>();
+    private final List<String> mTransferEncodings = new ArrayList<>();
+
+    @Override
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", (HttpExchange exchange) -> {
+            synchronized (mRequests) {
+                mTransferEncodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+                mRequests.add(read(exchange.getRequestBody()));
+            }
+            Integer response = mResponses.poll();
+            exchange.sendResponseHeaders(response == null ? 200 : response, -1);
+            exchange.close();
+        });
+        mServer.start();
+        mFile = FileUtil.createTempFile("result", ".xml");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            content.append("<Test result=\"pass\" name=\"test").append(i).append("\" />\n");
+        }
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(content.toString().getBytes("UTF-8"));
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        FileUtil.deleteFile(mFile);
+    }
+
     public void testContentBody() throws Exception {
         MultipartForm form = new MultipartForm(SERVER_URL);
         form.addFormValue("foo", "bar");
@@ -55,4 +107,76 @@ public class MultipartFormTest extends TestCase {
         assertTrue("No data", data.length > 0);
         assertTrue("Wrong data", Arrays.equals(ZIP_ARRAY, data));
     }
+
+    public void testSubmit_compressedFile() throws Exception {
+        MultipartForm form = new MultipartForm(getServerUrl());
+        form.addFormValue("foo", "bar");
+        form.addCompressedFormFile("blah", "blah.xml.gz", mFile);
+        assertEquals("Incorrect response", 200, form.submit());
+
+        assertEquals("Expected one request", 1, mRequests.size());
+        assertEquals("Expected a chunked request", "chunked", mTransferEncodings.get(0));
+        checkCompressedBody(mRequests.get(0));
+    }
+
+    public void testSubmit_retriesServerError() throws Exception {
+        mResponses.add(503);
+        MultipartForm form = new MultipartForm(getServerUrl());
+        form.mRetryDelayMs = 0;
+        form.addFormValue("foo", "bar");
+        form.addCompressedFormFile("blah", "blah.xml.gz", mFile);
+        assertEquals("Incorrect response", 200, form.submit());
+
+        assertEquals("Expected a retry", 2, mRequests.size());
+        checkCompressedBody(mRequests.get(0));
+        assertTrue("Retry should send the same data",
+                Arrays.equals(mRequests.get(0), mRequests.get(1)));
+    }
+
+    public void testSubmit_doesNotRetryClientError() throws Exception {
+        mResponses.add(400);
+        MultipartForm form = new MultipartForm(getServerUrl());
+        form.mRetryDelayMs = 0;
+        form.addFormValue("foo", "bar");
+        form.addCompressedFormFile("blah", "blah.xml.gz", mFile);
+        try {
+            form.submit();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+        assertEquals("Expected no retry", 1, mRequests.size());
+    }
+
+    private String getServerUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Checks that the body is the submitted form, with the content of the file compressed.
+     */
+    private void checkCompressedBody(byte[] body) throws Exception {
+        MultipartForm form = new MultipartForm(SERVER_URL);
+        form.addFormValue("foo", "bar");
+        form.addFormFile("blah", "blah.xml.gz", new byte[0]);
+        byte[] empty = form.getContentBody();
+        // The file is written between the header and the closing boundary
+        int headerLength = empty.length - "\n--C75I55u3R3p0r73r--\n".length();
+        assertTrue("Incorrect header", Arrays.equals(Arrays.copyOf(empty, headerLength),
+                Arrays.copyOf(body, headerLength)));
+        assertTrue("Incorrect trailer", Arrays.equals(
+                Arrays.copyOfRange(empty, headerLength, empty.length),
+                Arrays.copyOfRange(body, body.length - empty.length + headerLength,
+                        body.length)));
+        byte[] compressed = Arrays.copyOfRange(body, headerLength,
+                body.length - empty.length + headerLength);
+        byte[] content = read(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+        assertTrue("Incorrect file content", Arrays.equals(
+                Files.readAllBytes(mFile.toPath()), content));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtil.copyStreams(in, out);
+        return out.toByteArray();
+    }
 }
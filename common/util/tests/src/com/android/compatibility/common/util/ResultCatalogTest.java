@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ResultCatalog}
+ */
+public class ResultCatalogTest extends TestCase {
+
+    private static final String ID = AbiUtils.createId("mips64", "ModuleA");
+    private static final String CLASS = "android.test.Foor";
+    private static final String DEVICE = "device123";
+    private static final String PLAN = "cts";
+    private static final long START_MS = 1431586801000L;
+
+    private File mResultsDir = null;
+    private long mStartTime = START_MS;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultsDir = FileUtil.createTempDir("results");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultsDir);
+    }
+
+    public void testWriteResults_writesSummary() throws Exception {
+        File resultDir = writeResult("2017.01.01_00.00.00", 2, 1);
+        assertTrue("Expected summary", new File(resultDir,
+                ResultCatalog.SUMMARY_FILE_NAME).exists());
+
+        List<IInvocationResult> results = ResultHandler.getLightResults(mResultsDir);
+        assertEquals("Expected one result", 1, results.size());
+        checkResult(results.get(0), 2, 1);
+        assertEquals("Incorrect directory", resultDir, results.get(0).getRetryDirectory());
+        assertTrue("Expected index", new File(mResultsDir,
+                ResultCatalog.INDEX_FILE_NAME).exists());
+        // Listing again is served by the index
+        checkResult(ResultHandler.getLightResults(mResultsDir).get(0), 2, 1);
+    }
+
+    public void testGetLightResults_rebuildsMissingSummaries() throws Exception {
+        File resultDir1 = writeResult("2017.01.01_00.00.00", 2, 1);
+        File resultDir2 = writeResult("2017.01.02_00.00.00", 3, 0);
+        new File(resultDir1, ResultCatalog.SUMMARY_FILE_NAME).delete();
+        new File(resultDir2, ResultCatalog.SUMMARY_FILE_NAME).delete();
+
+        List<IInvocationResult> results = ResultHandler.getLightResults(mResultsDir);
+        assertEquals("Expected two results", 2, results.size());
+        checkResult(results.get(0), 2, 1);
+        checkResult(results.get(1), 3, 0);
+        assertTrue("Expected rebuilt summary", new File(resultDir1,
+                ResultCatalog.SUMMARY_FILE_NAME).exists());
+        assertTrue("Expected rebuilt summary", new File(resultDir2,
+                ResultCatalog.SUMMARY_FILE_NAME).exists());
+    }
+
+    public void testGetLightResults_staleSummary() throws Exception {
+        File resultDir = writeResult("2017.01.01_00.00.00", 2, 1);
+        checkResult(ResultHandler.getLightResults(mResultsDir).get(0), 2, 1);
+
+        // Replace the result file without updating the summary
+        File otherResultsDir = FileUtil.createTempDir("other", mResultsDir);
+        File otherResultDir = new File(otherResultsDir, resultDir.getName());
+        otherResultDir.mkdirs();
+        writeResult(otherResultDir, 5, 5);
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        new File(otherResultDir, ResultHandler.TEST_RESULT_FILE_NAME).renameTo(resultFile);
+        resultFile.setLastModified(resultFile.lastModified() + 2000);
+
+        checkResult(ResultHandler.getLightResults(mResultsDir).get(0), 5, 5);
+    }
+
+    public void testGetLightResults_removedSession() throws Exception {
+        File resultDir1 = writeResult("2017.01.01_00.00.00", 2, 1);
+        writeResult("2017.01.02_00.00.00", 3, 0);
+        assertEquals("Expected two results", 2,
+                ResultHandler.getLightResults(mResultsDir).size());
+        FileUtil.recursiveDelete(resultDir1);
+        List<IInvocationResult> results = ResultHandler.getLightResults(mResultsDir);
+        assertEquals("Expected one result", 1, results.size());
+        checkResult(results.get(0), 3, 0);
+    }
+
+    private File writeResult(String name, int passed, int failed) throws Exception {
+        File resultDir = new File(mResultsDir, name);
+        resultDir.mkdirs();
+        writeResult(resultDir, passed, failed);
+        return resultDir;
+    }
+
+    private void writeResult(File resultDir, int passed, int failed) throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.setStartTime(mStartTime++);
+        result.setTestPlan(PLAN);
+        result.addDeviceSerial(DEVICE);
+        IModuleResult module = result.getOrCreateModule(ID);
+        module.setDone(true);
+        ICaseResult caseResult = module.getOrCreateResult(CLASS);
+        for (int i = 0; i < passed; i++) {
+            caseResult.getOrCreateResult("testPass" + i).passed(null);
+        }
+        for (int i = 0; i < failed; i++) {
+            caseResult.getOrCreateResult("testFail" + i).failed("failure");
+        }
+        ResultHandler.writeResults("CTS", "5.0", PLAN, "12345", result, resultDir,
+                result.getStartTime(), result.getStartTime() + 1, null, null, PLAN);
+    }
+
+    private static void checkResult(IInvocationResult result, int passed, int failed) {
+        assertEquals("Incorrect passes", passed, result.countResults(TestStatus.PASS));
+        assertEquals("Incorrect failures", failed, result.countResults(TestStatus.FAIL));
+        assertEquals("Incorrect test plan", PLAN, result.getTestPlan());
+        assertTrue("Missing device", result.getDeviceSerials().contains(DEVICE));
+        assertEquals("Expected 1 module", 1, result.getModules().size());
+        assertEquals("Expected 1 completed module", 1, result.getModuleCompleteCount());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ResultCounts}
+ */
+public class ResultCountsTest extends TestCase {
+
+    private static final String ID_A = AbiUtils.createId("mips64", "ModuleA");
+    private static final String ID_B = AbiUtils.createId("mips64", "ModuleB");
+    private static final String CLASS = "android.test.FoorBar";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String STACK_TRACE = "Something small is not alright\n " +
+            "at four.big.insects.Marley.sing(Marley.java:10)";
+
+    private boolean mCheckConsistency;
+    private InvocationResult mResult;
+
+    @Override
+    public void setUp() throws Exception {
+        mCheckConsistency = ResultCounts.sCheckConsistency;
+        ResultCounts.sCheckConsistency = true;
+        mResult = new InvocationResult();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        ResultCounts.sCheckConsistency = mCheckConsistency;
+        mResult = null;
+    }
+
+    public void testCountResults_updatedOnChange() throws Exception {
+        IModuleResult module = mResult.getOrCreateModule(ID_A);
+        ICaseResult caseResult = module.getOrCreateResult(CLASS);
+        ITestResult test = caseResult.getOrCreateResult(METHOD_1);
+        checkCounts(module, caseResult, 0, 0);
+
+        test.failed(STACK_TRACE);
+        checkCounts(module, caseResult, 0, 1);
+        // A failed test cannot pass
+        test.passed(null);
+        checkCounts(module, caseResult, 0, 1);
+        test.reset();
+        checkCounts(module, caseResult, 0, 0);
+        test.passed(null);
+        checkCounts(module, caseResult, 1, 0);
+        test.removeResult();
+        checkCounts(module, caseResult, 0, 1);
+        test.reset();
+        // Assumption failures are counted as passes
+        test.skipped();
+        checkCounts(module, caseResult, 1, 0);
+
+        mResult.getOrCreateModule(ID_B).getOrCreateResult(CLASS).getOrCreateResult(METHOD_1)
+                .failed(STACK_TRACE);
+        assertEquals("Incorrect invocation failures", 1, mResult.countResults(TestStatus.FAIL));
+        assertEquals("Incorrect module failures", 0, module.countResults(TestStatus.FAIL));
+    }
+
+    public void testCountResults_updatedOnMerge() throws Exception {
+        IModuleResult module = mResult.getOrCreateModule(ID_A);
+        ICaseResult caseResult = module.getOrCreateResult(CLASS);
+        caseResult.getOrCreateResult(METHOD_1).passed(null);
+
+        ModuleResult shard = new ModuleResult(ID_A);
+        ITestResult shardTest = shard.getOrCreateResult(CLASS).getOrCreateResult(METHOD_1);
+        shardTest.failed(STACK_TRACE);
+        shard.getOrCreateResult(CLASS).getOrCreateResult(METHOD_2).passed(null);
+        mResult.mergeModuleResult(shard);
+        checkCounts(module, caseResult, 1, 1);
+        assertEquals("Incorrect merged stack trace", STACK_TRACE,
+                caseResult.getResult(METHOD_1).getStackTrace());
+
+        // Changes to the shard are counted when it is merged again
+        shardTest.reset();
+        shardTest.passed(null);
+        checkCounts(module, caseResult, 1, 1);
+        mResult.mergeModuleResult(shard);
+        checkCounts(module, caseResult, 2, 0);
+
+        // Merging a result into itself does not count it twice
+        module.mergeFrom(module);
+        checkCounts(module, caseResult, 2, 0);
+    }
+
+    public void testCountResults_inconsistent() throws Exception {
+        ResultCounts counts = new ResultCounts(null);
+        counts.update(null, TestStatus.FAIL);
+        counts.check(TestStatus.FAIL, 1, CLASS);
+        try {
+            counts.check(TestStatus.PASS, 1, CLASS);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {}
+    }
+
+    private void checkCounts(IModuleResult module, ICaseResult caseResult, int passed,
+            int failed) {
+        assertEquals("Incorrect invocation passes", passed, mResult.countResults(TestStatus.PASS));
+        assertEquals("Incorrect invocation failures", failed,
+                mResult.countResults(TestStatus.FAIL));
+        assertEquals("Incorrect module passes", passed, module.countResults(TestStatus.PASS));
+        assertEquals("Incorrect module failures", failed, module.countResults(TestStatus.FAIL));
+        assertEquals("Incorrect case passes", passed, caseResult.countResults(TestStatus.PASS));
+        assertEquals("Incorrect case failures", failed,
+                caseResult.countResults(TestStatus.FAIL));
+    }
+}
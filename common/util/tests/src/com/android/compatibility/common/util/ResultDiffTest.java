@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ResultDiff}
+ */
+public class ResultDiffTest extends TestCase {
+
+    private static final String ID_A = AbiUtils.createId("mips64", "ModuleA");
+    private static final String ID_B = AbiUtils.createId("mips64", "ModuleB");
+    private static final String ID_C = AbiUtils.createId("mips64", "ModuleC");
+    private static final String CLASS = "android.test.Foor";
+    private static final String STACK_TRACE = "Something small is not alright\n " +
+            "at four.big.insects.Marley.sing(Marley.java:10)";
+    private static final long START_MS = 1431586801000L;
+
+    private File mTempDir = null;
+    private File mBaselineDir = null;
+    private File mCandidateDir = null;
+    private final List<String> mChanges = new ArrayList<>();
+    private final ResultDiff.Listener mListener = (change, moduleId, testName, baseline,
+            candidate) -> mChanges.add(String.format("%s %s %s", change, moduleId, testName));
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("diff");
+        mBaselineDir = new File(mTempDir, "baseline");
+        mCandidateDir = new File(mTempDir, "candidate");
+        mBaselineDir.mkdirs();
+        mCandidateDir.mkdirs();
+
+        IInvocationResult baseline = new InvocationResult();
+        addTest(baseline, ID_A, "testRegression", TestStatus.PASS);
+        addTest(baseline, ID_A, "testFix", TestStatus.FAIL);
+        addTest(baseline, ID_A, "testMissing", TestStatus.PASS);
+        addTest(baseline, ID_A, "testPass", TestStatus.PASS);
+        addTest(baseline, ID_B, "testMissing", TestStatus.FAIL);
+        writeResult(baseline, mBaselineDir);
+
+        IInvocationResult candidate = new InvocationResult();
+        addTest(candidate, ID_A, "testRegression", TestStatus.FAIL);
+        addTest(candidate, ID_A, "testFix", TestStatus.PASS);
+        addTest(candidate, ID_A, "testNew", TestStatus.PASS);
+        addTest(candidate, ID_A, "testPass", TestStatus.PASS);
+        addTest(candidate, ID_C, "testNew", TestStatus.FAIL);
+        writeResult(candidate, mCandidateDir);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTempDir);
+    }
+
+    public void testDiff_snapshots() throws Exception {
+        checkDiff(ResultDiff.diff(mBaselineDir, mCandidateDir, mListener));
+    }
+
+    public void testDiff_resultFiles() throws Exception {
+        new File(mBaselineDir, ResultSnapshot.NAME).delete();
+        new File(mCandidateDir, ResultSnapshot.NAME).delete();
+        checkDiff(ResultDiff.diff(mBaselineDir, mCandidateDir, mListener));
+    }
+
+    public void testDiff_sameSession() throws Exception {
+        // Compares the snapshot of the session with its result file
+        ResultDiff.Summary summary;
+        try (ResultDiff.ModuleReader snapshot = ResultSnapshot.openModules(mBaselineDir)) {
+            new File(mBaselineDir, ResultSnapshot.NAME).delete();
+            try (ResultDiff.ModuleReader resultFile = ResultDiff.openModules(mBaselineDir)) {
+                summary = ResultDiff.diff(snapshot, resultFile, mListener);
+            }
+        }
+        assertEquals("Expected no change", 0, mChanges.size());
+        assertEquals("Incorrect unchanged tests", 5, summary.getUnchangedCount());
+        assertEquals("Incorrect modules", 2, summary.getModuleCount());
+    }
+
+    public void testDiff_noResult() throws Exception {
+        try {
+            ResultDiff.diff(mBaselineDir, new File(mTempDir, "none"), mListener);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    private void checkDiff(ResultDiff.Summary summary) {
+        assertEquals("Incorrect changes", Arrays.asList(
+                "FIX " + ID_A + " " + CLASS + "#testFix",
+                "MISSING " + ID_A + " " + CLASS + "#testMissing",
+                "NEW " + ID_A + " " + CLASS + "#testNew",
+                "REGRESSION " + ID_A + " " + CLASS + "#testRegression",
+                "MISSING " + ID_B + " " + CLASS + "#testMissing",
+                "NEW " + ID_C + " " + CLASS + "#testNew"), mChanges);
+        assertEquals("Expected 1 regression", 1, summary.getCount(ResultDiff.Change.REGRESSION));
+        assertEquals("Expected 1 fix", 1, summary.getCount(ResultDiff.Change.FIX));
+        assertEquals("Expected 2 new tests", 2, summary.getCount(ResultDiff.Change.NEW));
+        assertEquals("Expected 2 missing tests", 2, summary.getCount(ResultDiff.Change.MISSING));
+        assertEquals("Expected 1 unchanged test", 1, summary.getUnchangedCount());
+        assertEquals("Expected 3 modules", 3, summary.getModuleCount());
+    }
+
+    private static void addTest(IInvocationResult result, String moduleId, String method,
+            TestStatus status) {
+        ITestResult test = result.getOrCreateModule(moduleId).getOrCreateResult(CLASS)
+                .getOrCreateResult(method);
+        if (status == TestStatus.PASS) {
+            test.passed(null);
+        } else {
+            test.failed(STACK_TRACE);
+        }
+    }
+
+    private static void writeResult(IInvocationResult result, File resultDir) throws Exception {
+        ResultHandler.writeResults("CTS", "5.0", "cts", "12345", result, resultDir, START_MS,
+                START_MS + 1, null, null, "cts");
+    }
+}
@@ -22,6 +22,9 @@ import junit.framework.TestCase;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
@@ -200,6 +203,201 @@ public class ResultHandlerTest extends TestCase {
         checkResult(ResultHandler.getResultFromDir(resultDir));
     }
 
+    public void testParsing_lazyDetails() throws Exception {
+        writeFailures(resultDir);
+        for (Boolean useChecksum : Arrays.asList(false, true)) {
+            IInvocationResult result = ResultHandler.getResultFromDir(resultDir, useChecksum);
+            ICaseResult caseResult = result.getModules().get(0).getResult(CLASS_A);
+            for (int i = 0; i < 10; i++) {
+                ITestResult test = caseResult.getResult(METHOD_1 + i);
+                if (i % 2 == 0) {
+                    assertEquals("Incorrect result status", TestStatus.PASS,
+                            test.getResultStatus());
+                    assertNull("Unexpected stack trace", test.getStackTrace());
+                } else {
+                    assertEquals("Incorrect result status", TestStatus.FAIL,
+                            test.getResultStatus());
+                    assertEquals("Incorrect stack trace", STACK_TRACE + i,
+                            test.getStackTrace().trim());
+                    assertEquals("Incorrect log", LOGCAT + i, test.getLog());
+                }
+            }
+        }
+    }
+
+    public void testParsing_lazyDetailsUnreadable() throws Exception {
+        writeFailures(resultDir);
+        IInvocationResult result = ResultHandler.getResultFromDir(resultDir, false);
+        ITestResult test = result.getModules().get(0).getResult(CLASS_A)
+                .getResult(METHOD_1 + 1);
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        File movedFile = new File(resultDir, "moved.xml");
+        assertTrue("Failed to move the result file", resultFile.renameTo(movedFile));
+        try {
+            test.getStackTrace();
+            fail("Expected the details to be unreadable");
+        } catch (UncheckedIOException e) {
+            // Expected
+        }
+        assertTrue("Failed to restore the result file", movedFile.renameTo(resultFile));
+        assertEquals("Details should be read again", STACK_TRACE + 1,
+                test.getStackTrace().trim());
+        assertEquals("Incorrect log", LOGCAT + 1, test.getLog());
+    }
+
+    public void testParsing_lazyDetailsSet() throws Exception {
+        writeFailures(resultDir);
+        IInvocationResult result = ResultHandler.getResultFromDir(resultDir, false);
+        ITestResult test = result.getModules().get(0).getResult(CLASS_A)
+                .getResult(METHOD_1 + 1);
+        // Setting a detail must not read the released ones back
+        assertTrue("Failed to delete the result file",
+                new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME).delete());
+        test.setLog(LOGCAT);
+        assertEquals("Incorrect log", LOGCAT, test.getLog());
+        assertNull("Released details should be dropped", test.getStackTrace());
+    }
+
+    public void testParsing_statusOnly() throws Exception {
+        writeFailures(resultDir);
+        IInvocationResult result = ResultHandler.getResultFromDir(resultDir, true, true);
+        assertEquals("Expected 5 passes", 5, result.countResults(TestStatus.PASS));
+        assertEquals("Expected 5 failures", 5, result.countResults(TestStatus.FAIL));
+        ITestResult failed = result.getModules().get(0).getResult(CLASS_A)
+                .getResult(METHOD_1 + 1);
+        assertNull("Stack trace should not be loaded", failed.getStackTrace());
+        assertNull("Log should not be loaded", failed.getLog());
+        assertEquals("Expected module done", 1, result.getModuleCompleteCount());
+    }
+
+    public void testParsing_snapshot() throws Exception {
+        writeFailures(resultDir);
+        File snapshotFile = new File(resultDir, ResultSnapshot.NAME);
+        assertTrue("Expected snapshot", snapshotFile.exists());
+        IInvocationResult snapshot = ResultHandler.getResultFromDir(resultDir);
+        snapshotFile.delete();
+        IInvocationResult parsed = ResultHandler.getResultFromDir(resultDir);
+
+        assertEquals("Incorrect start time", parsed.getStartTime(), snapshot.getStartTime());
+        assertEquals("Incorrect plan", parsed.getTestPlan(), snapshot.getTestPlan());
+        assertEquals("Incorrect command line args", parsed.getCommandLineArgs(),
+                snapshot.getCommandLineArgs());
+        assertEquals("Incorrect devices", parsed.getDeviceSerials(),
+                snapshot.getDeviceSerials());
+        assertEquals("Incorrect build info", parsed.getInvocationInfo(),
+                snapshot.getInvocationInfo());
+        assertEquals("Incorrect retry directory", resultDir, snapshot.getRetryDirectory());
+        assertEquals("Incorrect modules done", parsed.getModuleCompleteCount(),
+                snapshot.getModuleCompleteCount());
+        ICaseResult parsedCase = parsed.getModules().get(0).getResult(CLASS_A);
+        ICaseResult snapshotCase = snapshot.getModules().get(0).getResult(CLASS_A);
+        assertEquals("Incorrect number of tests", parsedCase.getResults().size(),
+                snapshotCase.getResults().size());
+        for (ITestResult parsedTest : parsedCase.getResults()) {
+            ITestResult test = snapshotCase.getResult(parsedTest.getName());
+            assertEquals("Incorrect result status", parsedTest.getResultStatus(),
+                    test.getResultStatus());
+            assertTrue("Expected retry", test.isRetry());
+            assertEquals("Incorrect message", parsedTest.getMessage(), test.getMessage());
+            assertEquals("Incorrect stack trace", parsedTest.getStackTrace(),
+                    test.getStackTrace());
+            assertEquals("Incorrect log", parsedTest.getLog(), test.getLog());
+        }
+    }
+
+    public void testParsing_staleSnapshot() throws Exception {
+        writeFailures(resultDir);
+        // Snapshot of a result that does not match the result file, nor the checksum
+        IInvocationResult passed = new InvocationResult();
+        ICaseResult caseResult = passed.getOrCreateModule(ID_A).getOrCreateResult(CLASS_A);
+        for (int i = 0; i < 10; i++) {
+            caseResult.getOrCreateResult(METHOD_1 + i).passed(null);
+        }
+        ResultSnapshot.write(resultDir, passed, START_MS, SUITE_PLAN, COMMAND_LINE_ARGS);
+        assertEquals("Expected result from the snapshot", 10,
+                ResultHandler.getResultFromDir(resultDir, false).countResults(TestStatus.PASS));
+        assertEquals("Expected result from the result file", 5,
+                ResultHandler.getResultFromDir(resultDir, true).countResults(TestStatus.PASS));
+
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        resultFile.setLastModified(resultFile.lastModified() - 10000);
+        assertEquals("Expected result from the result file", 5,
+                ResultHandler.getResultFromDir(resultDir, false).countResults(TestStatus.PASS));
+    }
+
+    public void testWriteCheckpoint() throws Exception {
+        IInvocationResult result = createFailures();
+        File resultFile = ResultHandler.writeCheckpoint(SUITE_NAME, SUITE_VERSION, SUITE_PLAN,
+                SUITE_BUILD, result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS, null);
+        assertEquals("Incorrect result file",
+                new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME), resultFile);
+        // A later checkpoint replaces the previous one
+        ITestResult test = result.getModules().get(0).getResult(CLASS_A).getResult(METHOD_1 + 1);
+        test.reset();
+        test.passed(null);
+        ResultHandler.writeCheckpoint(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS, null);
+        assertFalse("Staging directory should be deleted",
+                new File(resultDir, ResultHandler.CHECKPOINT_DIR_NAME).exists());
+
+        IInvocationResult checkpoint = ResultHandler.getResultFromDir(resultDir, true);
+        assertEquals("Expected checksum of the checkpoint", RetryChecksumStatus.RetryWithChecksum,
+                checkpoint.getRetryChecksumStatus());
+        assertEquals("Expected 6 passes", 6, checkpoint.countResults(TestStatus.PASS));
+        assertEquals("Expected 4 failures", 4, checkpoint.countResults(TestStatus.FAIL));
+        assertEquals("Expected module done", 1, checkpoint.getModuleCompleteCount());
+    }
+
+    public void testWriteCheckpoint_interrupted() throws Exception {
+        IInvocationResult result = createFailures();
+        ITestResult test = result.getModules().get(0).getResult(CLASS_A).getResult(METHOD_1 + 1);
+        File stagingDir = new File(resultDir, ResultHandler.CHECKPOINT_DIR_NAME);
+        // Interrupted before moving each of the files of the checkpoint
+        int fileCount = Integer.MAX_VALUE;
+        for (int moves = 0; moves < fileCount; moves++) {
+            test.failed(STACK_TRACE);
+            ResultHandler.writeCheckpoint(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                    result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                    COMMAND_LINE_ARGS, null);
+            // The next checkpoint is interrupted after moving some of its files
+            test.reset();
+            test.passed(null);
+            ResultHandler.stageCheckpoint(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                    result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                    COMMAND_LINE_ARGS, null);
+            List<File> files = ResultHandler.getCheckpointFiles(stagingDir);
+            fileCount = files.size();
+            assertEquals("Result file should be moved first",
+                    ResultHandler.TEST_RESULT_FILE_NAME, files.get(0).getName());
+            assertEquals("Checksum should be moved last",
+                    ChecksumReporter.NAME, files.get(files.size() - 1).getName());
+            for (File staged : files.subList(0, moves)) {
+                Files.move(staged.toPath(), new File(resultDir, staged.getName()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            IInvocationResult checkpoint = ResultHandler.getResultFromDir(resultDir, true);
+            if (moves == 0) {
+                assertEquals("Expected checksum of the previous checkpoint",
+                        RetryChecksumStatus.RetryWithChecksum,
+                        checkpoint.getRetryChecksumStatus());
+                assertEquals("Expected previous checkpoint", 5,
+                        checkpoint.countResults(TestStatus.PASS));
+            } else {
+                assertEquals("Checksum of the previous checkpoint should be ignored",
+                        RetryChecksumStatus.RetryWithoutChecksum,
+                        checkpoint.getRetryChecksumStatus());
+                assertEquals("Expected interrupted checkpoint", 6,
+                        checkpoint.countResults(TestStatus.PASS));
+            }
+            assertEquals("Expected 10 tests", 10, checkpoint.countResults(TestStatus.PASS)
+                    + checkpoint.countResults(TestStatus.FAIL));
+        }
+        ResultHandler.deleteCheckpointStaging(resultDir);
+    }
+
     public void testGetLightResults() throws Exception {
         File resultDir = writeResultDir(resultsDir);
         List<IInvocationResult> lightResults = ResultHandler.getLightResults(resultsDir);
@@ -208,6 +406,81 @@ public class ResultHandlerTest extends TestCase {
         checkLightResult(lightResult);
     }
 
+    public void testCreateFailureReport() throws Exception {
+        writeFailures(resultDir);
+        File report = ResultHandler.createFailureReport(
+                new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME));
+        assertTrue("Expected failure report", report.exists());
+        String content = new String(Files.readAllBytes(report.toPath()), "UTF-8");
+        assertTrue("Missing module", content.contains(ABI + "\u00A0" + NAME_A));
+        for (int i = 0; i < 10; i++) {
+            String testName = CLASS_A + "#" + METHOD_1 + i + "<";
+            if (i % 2 == 0) {
+                assertFalse("Passed test should not be reported", content.contains(testName));
+            } else {
+                assertTrue("Missing failed test", content.contains(testName));
+            }
+        }
+        assertTrue("Missing failure message", content.contains(MESSAGE));
+        assertFalse("Stack trace should not be reported", content.contains("Marley"));
+    }
+
+    public void testCreateFailureReport_reportLog() throws Exception {
+        IInvocationResult result = createFailures();
+        ReportLog reportLog = new ReportLog();
+        reportLog.setSummary(SUMMARY_MESSAGE, SUMMARY_VALUE, ResultType.HIGHER_BETTER,
+                ResultUnit.SCORE);
+        result.getModules().get(0).getResult(CLASS_A).getResult(METHOD_1 + 1)
+                .setReportLog(reportLog);
+        writeFailures(resultDir, result);
+        File report = ResultHandler.createFailureReport(
+                new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME));
+        String content = new String(Files.readAllBytes(report.toPath()), "UTF-8")
+                .replaceAll("\\s", "");
+        // The summary of the report log must not replace the summary of the invocation
+        assertTrue("Incorrect passed tests", content.contains(">TestsPassed</td><td>5<"));
+        assertTrue("Incorrect failed tests", content.contains(">TestsFailed</td><td>5<"));
+        assertTrue("Incorrect modules done", content.contains(">ModulesDone</td><td>1<"));
+        assertTrue("Incorrect modules total", content.contains(">ModulesTotal</td><td>1<"));
+    }
+
+    /*
+     * Helper to write a result with a mix of passed and failed tests to the result dir.
+     */
+    private static void writeFailures(File resultDir) throws Exception {
+        writeFailures(resultDir, createFailures());
+    }
+
+    private static void writeFailures(File resultDir, IInvocationResult result)
+            throws Exception {
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+    }
+
+    /*
+     * Helper to create a result with a mix of passed and failed tests.
+     */
+    private static IInvocationResult createFailures() {
+        IInvocationResult result = new InvocationResult();
+        result.setStartTime(START_MS);
+        result.addDeviceSerial(DEVICE_A);
+        result.addInvocationInfo(BUILD_ID, EXAMPLE_BUILD_ID);
+        IModuleResult module = result.getOrCreateModule(ID_A);
+        module.setDone(true);
+        ICaseResult caseResult = module.getOrCreateResult(CLASS_A);
+        for (int i = 0; i < 10; i++) {
+            ITestResult test = caseResult.getOrCreateResult(METHOD_1 + i);
+            if (i % 2 == 0) {
+                test.passed(null);
+            } else {
+                test.failed(STACK_TRACE + i);
+                test.setLog(LOGCAT + i);
+            }
+        }
+        return result;
+    }
+
     /*
      * Helper to write a result to the results dir, for testing.
      * @return the written resultDir
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for {@link ResultHistory}
+ */
+public class ResultHistoryTest extends TestCase {
+
+    private static final String ID = AbiUtils.createId("mips64", "ModuleA");
+    private static final String CLASS = "android.test.Foor";
+    private static final String STABLE = CLASS + "#testStable";
+    private static final String FLAKY = CLASS + "#testFlaky";
+
+    private File mResultsDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultsDir = FileUtil.createTempDir("history");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultsDir);
+    }
+
+    public void testLoad_noHistory() throws Exception {
+        ResultHistory history = ResultHistory.load(mResultsDir);
+        assertEquals("Expected no session", 0, history.getSessionCount());
+        assertEquals("Expected no runtime", -1, history.getRuntime(ID, 50));
+        assertEquals("Expected no run", 0, history.getRunCount(ID, STABLE));
+    }
+
+    public void testRecord() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            IInvocationResult result = new InvocationResult();
+            IModuleResult module = result.getOrCreateModule(ID);
+            module.initializeDone(true);
+            module.addRuntime(i * 100);
+            ICaseResult caseResult = module.getOrCreateResult(CLASS);
+            caseResult.getOrCreateResult("testStable").failed("failure");
+            ITestResult flaky = caseResult.getOrCreateResult("testFlaky");
+            if (i % 2 == 0) {
+                flaky.passed(null);
+            } else {
+                flaky.failed("failure");
+            }
+            ITestResult retried = caseResult.getOrCreateResult("testRetried");
+            retried.passed(null);
+            retried.setRetry(true);
+            caseResult.getOrCreateResult("testNotExecuted");
+            ResultHistory.record(mResultsDir, "session" + i, result, true);
+        }
+
+        ResultHistory history = ResultHistory.load(mResultsDir);
+        assertEquals("Incorrect sessions", 10, history.getSessionCount());
+        assertEquals("Incorrect median runtime", 500, history.getRuntime(ID, 50));
+        assertEquals("Incorrect p95 runtime", 1000, history.getRuntime(ID, 95));
+        assertEquals("Incorrect minimum runtime", 100, history.getRuntime(ID, 0));
+        assertEquals("Incorrect runs", 10, history.getRunCount(ID, STABLE));
+        assertEquals("Always failing test is not flaky", 0f, history.getFlakeRate(ID, STABLE));
+        assertEquals("Incorrect failure rate", 1f, history.getFailureRate(ID, STABLE));
+        assertEquals("Incorrect flake rate", 1f, history.getFlakeRate(ID, FLAKY));
+        assertEquals("Incorrect failure rate", 0.5f, history.getFailureRate(ID, FLAKY));
+        assertEquals("Retried test should not be recorded", 0,
+                history.getRunCount(ID, CLASS + "#testRetried"));
+        assertEquals("Test not executed should not be recorded", 0,
+                history.getRunCount(ID, CLASS + "#testNotExecuted"));
+    }
+
+    public void testRecord_retry() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        IModuleResult module = result.getOrCreateModule(ID);
+        module.initializeDone(true);
+        module.addRuntime(100);
+        module.getOrCreateResult(CLASS).getOrCreateResult("testStable").passed(null);
+        ResultHistory.record(mResultsDir, "retry", result, false);
+
+        ResultHistory history = ResultHistory.load(mResultsDir);
+        assertEquals("Runtime of a retry should not be recorded", -1,
+                history.getRuntime(ID, 50));
+        assertEquals("Incorrect runs", 1, history.getRunCount(ID, STABLE));
+    }
+
+    public void testRecord_truncated() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.getOrCreateModule(ID).getOrCreateResult(CLASS).getOrCreateResult("testStable")
+                .passed(null);
+        ResultHistory.record(mResultsDir, "session1", result, true);
+        File file = new File(mResultsDir, ResultHistory.FILE_NAME);
+        long length = file.length();
+        ResultHistory.record(mResultsDir, "session2", result, true);
+        // Simulates an invocation interrupted while recording
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length + 6);
+        }
+        assertEquals("Incomplete session should be ignored", 1,
+                ResultHistory.load(mResultsDir).getSessionCount());
+
+        ResultHistory.record(mResultsDir, "session3", result, true);
+        ResultHistory history = ResultHistory.load(mResultsDir);
+        assertEquals("Incomplete session should be overwritten", 2, history.getSessionCount());
+        assertEquals("Incorrect runs", 2, history.getRunCount(ID, STABLE));
+    }
+
+    public void testLoadRuntimes() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        IModuleResult module = result.getOrCreateModule(ID);
+        module.initializeDone(true);
+        module.addRuntime(100);
+        module.getOrCreateResult(CLASS).getOrCreateResult("testStable").passed(null);
+        ResultHistory.record(mResultsDir, "session1", result, true);
+
+        ResultHistory history = ResultHistory.loadRuntimes(mResultsDir);
+        assertEquals("Incorrect sessions", 1, history.getSessionCount());
+        assertEquals("Incorrect runtime", 100, history.getRuntime(ID, 50));
+        assertEquals("Tests should not be loaded", 0, history.getRunCount(ID, STABLE));
+    }
+
+    public void testRecord_compacted() throws Exception {
+        String otherId = AbiUtils.createId("mips64", "ModuleB");
+        int sessions = 2 * ResultHistory.MAX_SESSIONS;
+        File file = new File(mResultsDir, ResultHistory.FILE_NAME);
+        long length = 0;
+        for (int i = 1; i <= sessions + 1; i++) {
+            IInvocationResult result = new InvocationResult();
+            IModuleResult module = result.getOrCreateModule(ID);
+            module.initializeDone(true);
+            module.addRuntime(i * 100);
+            module.getOrCreateResult(CLASS).getOrCreateResult("testStable").passed(null);
+            if (i == 1) {
+                // A module that only ran in the oldest session
+                IModuleResult other = result.getOrCreateModule(otherId);
+                other.initializeDone(true);
+                other.addRuntime(100);
+                other.getOrCreateResult(CLASS).getOrCreateResult("testStable").failed("trace");
+            }
+            ResultHistory.record(mResultsDir, "session" + i, result, true);
+            if (i == sessions) {
+                length = file.length();
+            }
+        }
+        assertTrue("History should be compacted", file.length() < length);
+
+        ResultHistory history = ResultHistory.load(mResultsDir);
+        int kept = ResultHistory.MAX_SESSIONS;
+        assertEquals("Expected the oldest session for the other module", kept + 1,
+                history.getSessionCount());
+        assertEquals("Incorrect runs", kept, history.getRunCount(ID, STABLE));
+        assertEquals("Incorrect minimum runtime", (sessions + 2 - kept) * 100,
+                history.getRuntime(ID, 0));
+        assertEquals("Incorrect maximum runtime", (sessions + 1) * 100,
+                history.getRuntime(ID, 100));
+        assertEquals("Other module should be kept", 1, history.getRunCount(otherId, STABLE));
+        assertEquals("Incorrect runtime", 100, history.getRuntime(otherId, 50));
+        assertEquals("Incorrect failure rate", 1f, history.getFailureRate(otherId, STABLE));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Unit tests for {@link SessionMerger}
+ */
+public class SessionMergerTest extends TestCase {
+
+    private static final String ID_A = AbiUtils.createId("mips64", "ModuleA");
+    private static final String ID_B = AbiUtils.createId("mips64", "ModuleB");
+    private static final String CLASS = "android.test.Foor";
+    private static final String FINGERPRINT = "generic/sdk/generic:5.0/LRX/12345:eng/test-keys";
+    private static final long START_MS = 1431586801000L;
+
+    private File mTempDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("merge");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTempDir);
+    }
+
+    public void testMergeSessions() throws Exception {
+        IInvocationResult first = createResult("device1", FINGERPRINT);
+        addTest(first, ID_A, "testLaterFailure", "first pass", true);
+        addTest(first, ID_A, "testLaterPass", "first failure", false);
+        addTest(first, ID_A, "testFailures", "first failure", false);
+        first.getOrCreateModule(ID_A).initializeDone(true);
+        first.getOrCreateModule(ID_B);
+        IInvocationResult second = createResult("device2", FINGERPRINT);
+        addTest(second, ID_A, "testLaterFailure", "second failure", false);
+        addTest(second, ID_A, "testLaterPass", "second pass", true);
+        addTest(second, ID_A, "testFailures", "second failure", false);
+        addTest(second, ID_B, "testOnlySecond", "second failure", false);
+        // The first session given is the latest one
+        File secondDir = writeResult("second", second, START_MS + 1000);
+        File firstDir = writeResult("first", first, START_MS);
+
+        File outputDir = new File(mTempDir, "merged");
+        File resultFile = SessionMerger.mergeSessions(Arrays.asList(secondDir, firstDir),
+                outputDir, "CTS", "5.0", "12345");
+        assertEquals("Incorrect result file",
+                new File(outputDir, ResultHandler.TEST_RESULT_FILE_NAME), resultFile);
+
+        IInvocationResult merged = ResultHandler.getResultFromDir(outputDir, true);
+        assertEquals("Expected checksum of the merged result",
+                RetryChecksumStatus.RetryWithChecksum, merged.getRetryChecksumStatus());
+        assertEquals("Incorrect start time", START_MS, merged.getStartTime());
+        assertEquals("Incorrect devices", 2, merged.getDeviceSerials().size());
+        assertEquals("Build info should be the latest", "device2_product",
+                merged.getInvocationInfo().get("build_product"));
+        assertEquals("Incorrect fingerprint", FINGERPRINT, merged.getBuildFingerprint());
+        assertEquals("Expected 2 passes", 2, merged.countResults(TestStatus.PASS));
+        assertEquals("Expected 2 failures", 2, merged.countResults(TestStatus.FAIL));
+        ICaseResult caseA = merged.getModules().get(0).getResult(CLASS);
+        checkTest(caseA, "testLaterFailure", "first pass");
+        checkTest(caseA, "testLaterPass", "second pass");
+        checkTest(caseA, "testFailures", "second failure");
+        checkTest(merged.getModules().get(1).getResult(CLASS), "testOnlySecond",
+                "second failure");
+        assertTrue("Module done in a session should be done",
+                merged.getModules().get(0).isDone());
+        assertFalse("Module not done in any session should not be done",
+                merged.getModules().get(1).isDone());
+        assertEquals("Incorrect runtime", 30, merged.getModules().get(0).getRuntime());
+    }
+
+    public void testMerge_differentBuilds() throws Exception {
+        IInvocationResult first = createResult("device1", FINGERPRINT);
+        IInvocationResult second = createResult("device2", FINGERPRINT + "2");
+        try {
+            SessionMerger.merge(Arrays.asList(
+                    new SessionMerger.Session(first, START_MS, new HashMap<String, String>()),
+                    new SessionMerger.Session(second, START_MS, new HashMap<String, String>())));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static IInvocationResult createResult(String device, String fingerprint) {
+        IInvocationResult result = new InvocationResult();
+        result.addDeviceSerial(device);
+        result.setBuildFingerprint(fingerprint);
+        result.addInvocationInfo("build_fingerprint", fingerprint);
+        result.addInvocationInfo("build_product", device + "_product");
+        return result;
+    }
+
+    private static void addTest(IInvocationResult result, String moduleId, String method,
+            String message, boolean passed) {
+        IModuleResult module = result.getOrCreateModule(moduleId);
+        ITestResult test = module.getOrCreateResult(CLASS).getOrCreateResult(method);
+        if (passed) {
+            test.passed(null);
+            test.setLog(message);
+        } else {
+            test.failed(message);
+        }
+        module.addRuntime(5);
+    }
+
+    private static void checkTest(ICaseResult caseResult, String method, String message) {
+        ITestResult test = caseResult.getResult(method);
+        String actual = (test.getResultStatus() == TestStatus.PASS)
+                ? test.getLog() : test.getStackTrace();
+        assertEquals("Incorrect result of " + method, message, actual);
+    }
+
+    private File writeResult(String name, IInvocationResult result, long startTime)
+            throws Exception {
+        File resultDir = new File(mTempDir, name);
+        resultDir.mkdirs();
+        ResultHandler.writeResults("CTS", "5.0", "cts", "12345", result, resultDir, startTime,
+                startTime + 1, null, null, "cts");
+        return resultDir;
+    }
+}
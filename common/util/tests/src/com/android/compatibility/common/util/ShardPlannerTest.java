@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link ShardPlanner}
+ */
+public class ShardPlannerTest extends TestCase {
+
+    private static final Set<String> SIM = Collections.singleton("sim");
+    private static final long MINUTE = 60 * 1000;
+
+    public void testPlan() throws Exception {
+        // Assigning longest first only would end the run at 7
+        ShardPlanner<String> planner = new ShardPlanner<>(2);
+        planner.add("A", 3 * MINUTE, null);
+        planner.add("B", 3 * MINUTE, null);
+        planner.add("C", 2 * MINUTE, null);
+        planner.add("D", 2 * MINUTE, null);
+        planner.add("E", 2 * MINUTE, null);
+        ShardPlanner.Plan<String> plan = planner.plan();
+        assertEquals("Incorrect shards", 2, plan.getShardCount());
+        assertEquals("Incorrect makespan", 6 * MINUTE, plan.getMakespan());
+        assertEquals("Incorrect finish time", 6 * MINUTE, plan.getFinishTime(0));
+        assertEquals("Incorrect finish time", 6 * MINUTE, plan.getFinishTime(1));
+        Set<String> modules = new HashSet<>(plan.getModules(0));
+        modules.addAll(plan.getModules(1));
+        assertEquals("Incorrect modules", new HashSet<>(Arrays.asList("A", "B", "C", "D", "E")),
+                modules);
+    }
+
+    public void testPlan_tokens() throws Exception {
+        ShardPlanner<String> planner = new ShardPlanner<>(3);
+        planner.setTokens(2, SIM);
+        planner.add("A", 10 * MINUTE, SIM);
+        planner.add("B", 10 * MINUTE, SIM);
+        planner.add("C", 10 * MINUTE, null);
+        planner.add("D", 1 * MINUTE, Collections.singleton("unknown"));
+        ShardPlanner.Plan<String> plan = planner.plan();
+        assertEquals("Modules with tokens should run on the device with tokens",
+                Arrays.asList("A", "B"), plan.getModules(2));
+        assertEquals("Incorrect makespan", 20 * MINUTE, plan.getMakespan());
+        assertEquals("Module no device can run should still run", 2,
+                plan.getModules(0).size() + plan.getModules(1).size());
+        assertTrue("Expected a device with the tokens", planner.canRun(SIM));
+        assertFalse("Expected no device with the tokens",
+                planner.canRun(Collections.singleton("unknown")));
+    }
+
+    public void testPlan_noModule() throws Exception {
+        ShardPlanner.Plan<String> plan = new ShardPlanner<String>(2).plan();
+        assertEquals("Incorrect makespan", 0, plan.getMakespan());
+        assertTrue("Expected no module", plan.getModules(1).isEmpty());
+    }
+}
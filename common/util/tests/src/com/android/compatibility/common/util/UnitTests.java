@@ -29,16 +29,25 @@ public class UnitTests extends TestSuite {
         super();
         addTestSuite(AbiUtilsTest.class);
         addTestSuite(CaseResultTest.class);
+        addTestSuite(ColumnarInvocationResultTest.class);
         addTestSuite(DynamicConfigTest.class);
         addTestSuite(LightInvocationResultTest.class);
         addTestSuite(MetricsXmlSerializerTest.class);
+        addTestSuite(ModuleResultJournalTest.class);
         addTestSuite(ModuleResultTest.class);
         addTestSuite(MultipartFormTest.class);
         addTestSuite(ReportLogTest.class);
+        addTestSuite(ResultCatalogTest.class);
+        addTestSuite(ResultCountsTest.class);
+        addTestSuite(ResultDiffTest.class);
         addTestSuite(ResultHandlerTest.class);
+        addTestSuite(ResultHistoryTest.class);
+        addTestSuite(SessionMergerTest.class);
+        addTestSuite(ShardPlannerTest.class);
         addTestSuite(StatTest.class);
         addTestSuite(TestFilterTest.class);
         addTestSuite(TestResultTest.class);
+        addTestSuite(ZipUtilTest.class);
     }
 
     public static Test suite() {
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Unit tests for {@link ZipUtil}
+ */
+public class ZipUtilTest extends TestCase {
+
+    private File mTempDir = null;
+    private File mResultDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("zip");
+        mResultDir = new File(mTempDir, "2017.01.01_00.00.00");
+        File logsDir = new File(mResultDir, "logs");
+        logsDir.mkdirs();
+        Random random = new Random(0);
+        writeFile(new File(mResultDir, "test_result.xml"), repeat("<Test result=\"pass\"/>\n",
+                1000));
+        // Larger than what is compressed in memory, and not compressible
+        byte[] log = new byte[6 * 1024 * 1024];
+        random.nextBytes(log);
+        writeFile(new File(logsDir, "logcat.txt"), log);
+        byte[] screenshot = new byte[1024];
+        random.nextBytes(screenshot);
+        writeFile(new File(logsDir, "screenshot.png"), screenshot);
+        for (int i = 0; i < 50; i++) {
+            writeFile(new File(logsDir, "host_log_" + i + ".txt"), repeat("line " + i + "\n", i));
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTempDir);
+    }
+
+    public void testCreateZip_parallel() throws Exception {
+        File expectedZip = new File(mTempDir, "expected.zip");
+        ZipUtil.createZip(mResultDir, expectedZip);
+        File zip = new File(mTempDir, "parallel.zip");
+        ZipUtil.createZip(mResultDir, zip, Deflater.DEFAULT_COMPRESSION, 4);
+
+        try (ZipFile expected = new ZipFile(expectedZip); ZipFile actual = new ZipFile(zip)) {
+            List<? extends ZipEntry> expectedEntries = Collections.list(expected.entries());
+            List<? extends ZipEntry> actualEntries = Collections.list(actual.entries());
+            assertEquals("Incorrect entries", names(expectedEntries), names(actualEntries));
+            for (ZipEntry entry : actualEntries) {
+                assertTrue("Incorrect content of " + entry.getName(), Arrays.equals(
+                        read(expected.getInputStream(expected.getEntry(entry.getName()))),
+                        read(actual.getInputStream(entry))));
+            }
+            assertEquals("Screenshot should be stored", ZipEntry.STORED,
+                    actual.getEntry(mResultDir.getName() + "/logs/screenshot.png").getMethod());
+            assertEquals("Result should be deflated", ZipEntry.DEFLATED,
+                    actual.getEntry(mResultDir.getName() + "/test_result.xml").getMethod());
+        }
+        // Local headers must be consistent with the central directory
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+            int count = 0;
+            while (in.getNextEntry() != null) {
+                read(in);
+                count++;
+            }
+            assertEquals("Incorrect number of entries", 55, count);
+        }
+    }
+
+    public void testCreateZip_noCompression() throws Exception {
+        File zip = new File(mTempDir, "stored.zip");
+        ZipUtil.createZip(mResultDir, zip, Deflater.NO_COMPRESSION, 2);
+        try (ZipFile actual = new ZipFile(zip)) {
+            for (ZipEntry entry : Collections.list(actual.entries())) {
+                assertEquals("Entry should be stored", ZipEntry.STORED, entry.getMethod());
+            }
+            File result = new File(mResultDir, "test_result.xml");
+            assertTrue("Incorrect content", Arrays.equals(read(new FileInputStream(result)),
+                    read(actual.getInputStream(actual.getEntry(
+                            mResultDir.getName() + "/test_result.xml")))));
+        }
+    }
+
+    public void testCreateZip_invalidLevel() throws Exception {
+        File zip = new File(mTempDir, "invalid.zip");
+        try {
+            ZipUtil.createZip(mResultDir, zip, 10, 2);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertFalse("Zip should not be created", zip.exists());
+    }
+
+    private static List<String> names(List<? extends ZipEntry> entries) {
+        List<String> names = new ArrayList<>();
+        for (ZipEntry entry : entries) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        writeFile(file, content.getBytes("UTF-8"));
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtil.copyStreams(in, out);
+        return out.toByteArray();
+    }
+}